@@ -0,0 +1,68 @@
+package org.mitre.synthea.engine;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.math.ode.DerivativeException;
+import org.mitre.synthea.helpers.Config;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures how many simulations PhysiologySimulators can run per second, and how much
+ * memory creating a simulator takes, for each of the models in
+ * src/main/resources/physiology/models. Each simulator stands in for one patient, as with
+ * the physiology generators, and the result cache is disabled so that every simulation is
+ * solved.
+ * Run with "./gradlew jmh -Pbenchmarks=PhysiologyBenchmark". Add "-t 4" (or another number
+ * of threads) to the benchmark arguments to measure the throughput of several threads, and
+ * "-prof gc" to report the bytes allocated per simulator.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 5)
+@Fork(1)
+public class PhysiologyBenchmark {
+  private static final String SOLVER = "runge_kutta";
+  private static final double STEP_SIZE = 0.01;
+  private static final double DURATION = 4.0;
+
+  @Param({
+    "circulation/McSharry2003_Synthetic_ECG.xml",
+    "circulation/Smith2004_CVS_human.xml",
+    "circulation/Smith2004_CVS_human_arr.xml"
+  })
+  public String model;
+
+  private PhysiologySimulator simulator;
+
+  /**
+   * Disable the result cache and create this thread's simulator.
+   */
+  @Setup
+  public void setup() {
+    Config.set("physiology.cache.size", "0");
+    PhysiologySimulator.clearCache();
+    simulator = new PhysiologySimulator(model, SOLVER, STEP_SIZE, DURATION);
+  }
+
+  @Benchmark
+  public Object simulate() throws DerivativeException {
+    return simulator.run(null);
+  }
+
+  @Benchmark
+  public Object createSimulator() {
+    return new PhysiologySimulator(model, SOLVER, STEP_SIZE, DURATION);
+  }
+}
@@ -0,0 +1,79 @@
+package org.mitre.synthea.export;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.mitre.synthea.engine.Generator;
+import org.mitre.synthea.world.agents.Person;
+import org.mitre.synthea.world.concepts.HealthRecord.Encounter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Times the conversion of a patient with a large history to each FHIR version.
+ * The history of an elderly generated patient is repeated to make it larger, so comparing
+ * the times for each number of repeats shows how the conversion scales with the size of
+ * the bundle.
+ * Run with "./gradlew jmh -Pbenchmarks=FhirExportBenchmark".
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 5)
+@Fork(1)
+public class FhirExportBenchmark {
+  /** Number of times the patient history is repeated. */
+  @Param({"1", "2", "4", "8"})
+  public int repeats;
+
+  private Person person;
+  private long stopTime;
+
+  /**
+   * Generate the patient and repeat their history.
+   */
+  @Setup
+  public void setup() {
+    Generator.GeneratorOptions options = new Generator.GeneratorOptions();
+    options.population = 1;
+    options.seed = 1L;
+    options.clinicianSeed = 1L;
+    options.ageSpecified = true;
+    options.minAge = 85;
+    options.maxAge = 90;
+    Generator generator = new Generator(options);
+    person = generator.generatePerson(0, 1L);
+    stopTime = generator.stop;
+
+    List<Encounter> history = new ArrayList<Encounter>(person.record.encounters);
+    for (int i = 1; i < repeats; i++) {
+      person.record.encounters.addAll(history);
+    }
+  }
+
+  @Benchmark
+  public Object r4() {
+    return FhirR4.convertToFHIR(person, stopTime);
+  }
+
+  @Benchmark
+  public Object stu3() {
+    return FhirStu3.convertToFHIR(person, stopTime);
+  }
+
+  @Benchmark
+  public Object dstu2() {
+    return FhirDstu2.convertToFHIR(person, stopTime);
+  }
+}
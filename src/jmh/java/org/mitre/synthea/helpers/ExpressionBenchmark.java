@@ -0,0 +1,70 @@
+package org.mitre.synthea.helpers;
+
+import java.math.BigDecimal;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the time taken to evaluate expressions through the fast path of
+ * ExpressionProcessor and through the CQL engine.
+ * Run with "./gradlew jmh -Pbenchmarks=ExpressionBenchmark".
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ExpressionBenchmark {
+  @Param({
+    "2.5 + 10/4 - 15.0",
+    "220 - #{age}",
+    "#{LVEF} * 2.0",
+    "if #{age} > 65 then #{weight} / 2 else #{weight} * (1.5 + #{age} / 100)",
+    "#{age} >= 18 and #{weight} < 100.0"
+  })
+  public String expression;
+
+  private ExpressionProcessor processor;
+  private Map<String,Object> params;
+
+  /**
+   * Compile the expression and bind its parameters.
+   */
+  @Setup
+  public void setup() {
+    Map<String,Object> values = new HashMap<String,Object>();
+    values.put("age", new BigDecimal("42.5"));
+    values.put("LVEF", new BigDecimal("0.61"));
+    values.put("weight", new BigDecimal("81.3"));
+
+    processor = new ExpressionProcessor(expression);
+    params = new HashMap<String,Object>();
+    for (String param : processor.getParamNames()) {
+      params.put(param, values.get(param));
+    }
+  }
+
+  @Benchmark
+  public Object cql() {
+    return processor.evaluateCql(params);
+  }
+
+  @Benchmark
+  public Object fast() {
+    return processor.evaluate(params);
+  }
+}
@@ -0,0 +1,99 @@
+package org.mitre.synthea.world.agents;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.mitre.synthea.helpers.ConstantValueGenerator;
+import org.mitre.synthea.helpers.ValueGenerator;
+import org.mitre.synthea.world.concepts.VitalSign;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the time taken to read vital signs through Person.getVitalSignValue with the
+ * previous approach of a ConcurrentHashMap lookup and rounding each value as a BigDecimal.
+ * Each invocation reads every vital sign once.
+ * Run with "./gradlew jmh -Pbenchmarks=VitalSignBenchmark".
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class VitalSignBenchmark {
+  private Person person;
+  private Map<VitalSign, ValueGenerator> previous;
+  private VitalSign[] vitalSigns;
+
+  /**
+   * Give a person a constant value for every vital sign.
+   */
+  @Setup
+  public void setup() {
+    person = new Person(0L);
+    previous = new ConcurrentHashMap<VitalSign, ValueGenerator>();
+    Random random = new Random(0L);
+    for (VitalSign vitalSign : VitalSign.values()) {
+      ValueGenerator generator =
+          new ConstantValueGenerator(person, 10.0 + random.nextDouble() * 100.0);
+      person.setVitalSign(vitalSign, generator);
+      previous.put(vitalSign, generator);
+    }
+    vitalSigns = VitalSign.values();
+  }
+
+  @Benchmark
+  public double bigDecimalRounding() {
+    double sum = 0.0;
+    for (VitalSign vitalSign : vitalSigns) {
+      sum += previousGetVitalSign(previous, vitalSign, 0L);
+    }
+    return sum;
+  }
+
+  @Benchmark
+  public double getVitalSignValue() {
+    double sum = 0.0;
+    for (VitalSign vitalSign : vitalSigns) {
+      sum += person.getVitalSignValue(vitalSign, 0L);
+    }
+    return sum;
+  }
+
+  /**
+   * Read a vital sign as Person.getVitalSign did before it used plain arithmetic.
+   */
+  private static Double previousGetVitalSign(Map<VitalSign, ValueGenerator> vitalSigns,
+      VitalSign vitalSign, long time) {
+    double value = vitalSigns.get(vitalSign).getValue(time);
+    int decimalPlaces;
+    switch (vitalSign) {
+      case DIASTOLIC_BLOOD_PRESSURE:
+      case SYSTOLIC_BLOOD_PRESSURE:
+      case HEART_RATE:
+      case RESPIRATION_RATE:
+        decimalPlaces = 0;
+        break;
+      case HEIGHT:
+      case WEIGHT:
+        decimalPlaces = 1;
+        break;
+      default:
+        decimalPlaces = 2;
+    }
+    return BigDecimal.valueOf(value).setScale(decimalPlaces, RoundingMode.HALF_UP).doubleValue();
+  }
+}
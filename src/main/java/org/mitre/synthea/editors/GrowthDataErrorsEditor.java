@@ -2,7 +2,9 @@ package org.mitre.synthea.editors;
 
 import com.google.gson.Gson;
 
+import java.util.EnumSet;
 import java.util.List;
+import java.util.Set;
 import java.util.stream.Collectors;
 
 import org.mitre.synthea.engine.HealthRecordEditor;
@@ -81,6 +83,15 @@ public class GrowthDataErrorsEditor implements HealthRecordEditor {
     return person.ageInYears(time) <= MAX_AGE;
   }
 
+  /**
+   * Heights and weights are observations, so only encounters with observations are needed.
+   * @return The observation entry type
+   */
+  @Override
+  public Set<EntryType> getEntryTypes() {
+    return EnumSet.of(EntryType.OBSERVATION);
+  }
+
   /**
    * Potentially mess up heights and weights in the encounters.
    * @param person The Synthea person to check on whether the module should be run
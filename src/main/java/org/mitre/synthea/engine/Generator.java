@@ -3,26 +3,30 @@ package org.mitre.synthea.engine;
 import com.google.gson.Gson;
 import com.google.gson.reflect.TypeToken;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.EOFException;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.FilenameFilter;
+import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.lang.reflect.Type;
 import java.nio.file.Path;
 import java.util.Collections;
 import java.util.HashMap;
-import java.util.Iterator;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
 import java.util.UUID;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Predicate;
@@ -82,6 +86,17 @@ public class Generator implements RandomNumberGenerator {
   private Exporter.ExporterRuntimeOptions exporterRuntimeOptions;
   private List<FixedRecordGroup> recordGroups;
   public final int threadPoolSize;
+  /** Maximum number of patients queued for generation at any one time. */
+  public final int maxQueuedPatients;
+
+  /**
+   * Stream used to save a population snapshot incrementally, as each patient is finished.
+   * Only open while {@link #run()} is executing and a snapshot path has been set.
+   */
+  private ObjectOutputStream snapshotStream;
+  /** Number of patients written to the snapshot stream between each reset. */
+  private final int snapshotBatchSize;
+  private int snapshotCount;
 
   /**
    * Used only for testing and debugging. Populate this field to keep track of all patients
@@ -191,10 +206,6 @@ public class Generator implements RandomNumberGenerator {
   public Generator(GeneratorOptions o, Exporter.ExporterRuntimeOptions ero) {
     options = o;
     exporterRuntimeOptions = ero;
-    if (options.updatedPopulationSnapshotPath != null) {
-      exporterRuntimeOptions.deferExports = true;
-      internalStore = Collections.synchronizedList(new LinkedList<>());
-    }
     if (options.threadPoolSize == -1) {
       threadPoolSize = Runtime.getRuntime().availableProcessors();
     } else if (options.threadPoolSize > 0) {
@@ -203,6 +214,20 @@ public class Generator implements RandomNumberGenerator {
       throw new IllegalArgumentException(String.format(
               "Illegal thread pool size (%d)", options.threadPoolSize));
     }
+    int queued = Config.getAsInteger("generate.max_queued_patients", -1);
+    if (queued == -1) {
+      maxQueuedPatients = threadPoolSize * 4;
+    } else if (queued > 0) {
+      maxQueuedPatients = queued;
+    } else {
+      throw new IllegalArgumentException(String.format(
+              "Illegal maximum number of queued patients (%d)", queued));
+    }
+    snapshotBatchSize = Config.getAsInteger("generate.snapshot_batch_size", 100);
+    if (snapshotBatchSize <= 0) {
+      throw new IllegalArgumentException(String.format(
+              "Illegal snapshot batch size (%d)", snapshotBatchSize));
+    }
     init();
   }
 
@@ -335,40 +360,27 @@ public class Generator implements RandomNumberGenerator {
     }
 
     ExecutorService threadPool = Executors.newFixedThreadPool(threadPoolSize);
+    // Bounds the number of patients waiting in the thread pool queue. Unless export threads are
+    // configured with exporter.pipeline.threads, exports happen on the simulation threads,
+    // so slow exporters also hold back the submission of new patients.
+    Semaphore queueSlots = new Semaphore(maxQueuedPatients);
 
-    if (options.initialPopulationSnapshotPath != null) {
-      FileInputStream fis = null;
-      List<Person> initialPopulation = null;
-      try {
-        fis = new FileInputStream(options.initialPopulationSnapshotPath);
-        ObjectInputStream ois = new ObjectInputStream(fis);
-        initialPopulation = (List<Person>) ois.readObject();
-        ois.close();
-      } catch (Exception ex) {
-        System.out.printf("Unable to load population snapshot, error: %s", ex.getMessage());
-      }
-      if (initialPopulation != null && initialPopulation.size() > 0) {
-        // default is to run until current system time.
-        if (options.daysToTravelForward > 0) {
-          stop = initialPopulation.get(0).lastUpdated
-                  + Utilities.convertTime("days", options.daysToTravelForward);
-        }
-        for (int i = 0; i < initialPopulation.size(); i++) {
+    if (options.updatedPopulationSnapshotPath != null) {
+      openSnapshot();
+    }
+
+    try {
+      if (options.initialPopulationSnapshotPath != null) {
+        loadSnapshotAndUpdate(threadPool, queueSlots);
+      } else {
+        // Generate patients up to the specified population size.
+        for (int i = 0; i < this.options.population; i++) {
           final int index = i;
-          final Person p = initialPopulation.get(i);
-          threadPool.submit(() -> updateRecordExportPerson(p, index));
+          final long seed = this.random.nextLong();
+          submit(threadPool, queueSlots, () -> generatePerson(index, seed));
         }
       }
-    } else {
-      // Generate patients up to the specified population size.
-      for (int i = 0; i < this.options.population; i++) {
-        final int index = i;
-        final long seed = this.random.nextLong();
-        threadPool.submit(() -> generatePerson(index, seed));
-      }
-    }
 
-    try {
       threadPool.shutdown();
       while (!threadPool.awaitTermination(30, TimeUnit.SECONDS)) {
         System.out.println("Waiting for threads to finish... " + threadPool);
@@ -378,29 +390,143 @@ public class Generator implements RandomNumberGenerator {
       threadPool.shutdownNow();
     }
 
-    // Save a snapshot of the generated population using Java Serialization
-    if (options.updatedPopulationSnapshotPath != null) {
-      FileOutputStream fos = null;
-      try {
-        fos = new FileOutputStream(options.updatedPopulationSnapshotPath);
-        ObjectOutputStream oos = new ObjectOutputStream(fos);
-        oos.writeObject(internalStore);
-        oos.close();
-        fos.close();
-      } catch (Exception ex) {
-        System.out.printf("Unable to save population snapshot, error: %s", ex.getMessage());
-      }
+    if (snapshotStream != null) {
+      closeSnapshot();
     }
     Exporter.runPostCompletionExports(this, exporterRuntimeOptions);
 
     System.out.printf("Records: total=%d, alive=%d, dead=%d\n", totalGeneratedPopulation.get(),
             stats.get("alive").get(), stats.get("dead").get());
+    long simulations = PhysiologySimulator.getCacheHits() + PhysiologySimulator.getCacheMisses();
+    if (simulations > 0) {
+      System.out.printf("Physiology simulations: total=%d, cache hit rate=%.1f%%\n",
+          simulations, PhysiologySimulator.getCacheHitRate() * 100.0);
+    }
+    if (ModuleCache.isEnabled()) {
+      System.out.printf("Modules: cached=%d, compiled=%d\n",
+          ModuleCache.getHits(), ModuleCache.getMisses());
+    }
 
     if (this.metrics != null) {
       metrics.printStats(totalGeneratedPopulation.get(), Module.getModules(getModulePredicate()));
     }
   }
 
+  /**
+   * Submit a task to the thread pool, first waiting for one of the queue slots to become free.
+   * The slot is released once the task completes.
+   * @param threadPool The thread pool to run the task.
+   * @param queueSlots Semaphore limiting the number of queued tasks.
+   * @param task The task to run.
+   * @throws InterruptedException if interrupted while waiting for a free slot.
+   */
+  private void submit(ExecutorService threadPool, Semaphore queueSlots, Runnable task)
+      throws InterruptedException {
+    queueSlots.acquire();
+    try {
+      threadPool.submit(() -> {
+        try {
+          task.run();
+        } finally {
+          queueSlots.release();
+        }
+      });
+    } catch (RejectedExecutionException e) {
+      queueSlots.release();
+      throw e;
+    }
+  }
+
+  /**
+   * Read the population snapshot at options.initialPopulationSnapshotPath one person at a time,
+   * and submit each person to be updated, recorded and exported.
+   * Snapshots written as a single list of people are also supported.
+   * @param threadPool The thread pool to run the updates.
+   * @param queueSlots Semaphore limiting the number of queued tasks.
+   * @throws InterruptedException if interrupted while waiting for a free slot.
+   */
+  @SuppressWarnings("unchecked")
+  private void loadSnapshotAndUpdate(ExecutorService threadPool, Semaphore queueSlots)
+      throws InterruptedException {
+    int index = 0;
+    try (ObjectInputStream ois = new ObjectInputStream(new BufferedInputStream(
+        new FileInputStream(options.initialPopulationSnapshotPath)))) {
+      while (true) {
+        Object next;
+        try {
+          next = ois.readObject();
+        } catch (EOFException eof) {
+          break;
+        }
+        List<Person> people;
+        if (next instanceof List) {
+          people = (List<Person>) next;
+        } else {
+          people = Collections.singletonList((Person) next);
+        }
+        for (Person p : people) {
+          if (index == 0 && options.daysToTravelForward > 0) {
+            // default is to run until current system time.
+            stop = p.lastUpdated + Utilities.convertTime("days", options.daysToTravelForward);
+          }
+          final int personIndex = index;
+          submit(threadPool, queueSlots, () -> updateRecordExportPerson(p, personIndex));
+          index++;
+        }
+      }
+    } catch (IOException | ClassNotFoundException | ClassCastException ex) {
+      System.out.printf("Unable to load population snapshot, error: %s", ex.getMessage());
+    }
+  }
+
+  /**
+   * Open the stream used to save a population snapshot at
+   * options.updatedPopulationSnapshotPath.
+   */
+  private void openSnapshot() {
+    snapshotCount = 0;
+    try {
+      snapshotStream = new ObjectOutputStream(new BufferedOutputStream(
+          new FileOutputStream(options.updatedPopulationSnapshotPath)));
+    } catch (IOException ex) {
+      System.out.printf("Unable to save population snapshot, error: %s", ex.getMessage());
+    }
+  }
+
+  /**
+   * Append a person to the population snapshot. This must happen before the person is exported,
+   * since exporting may filter the person's health record. The stream is periodically reset so
+   * that it does not hold references to every person written.
+   * @param person The person to save.
+   */
+  private synchronized void writeSnapshot(Person person) {
+    if (snapshotStream == null) {
+      return;
+    }
+    try {
+      snapshotStream.writeObject(person);
+      snapshotCount++;
+      if (snapshotCount % snapshotBatchSize == 0) {
+        snapshotStream.reset();
+      }
+    } catch (IOException ex) {
+      System.out.printf("Unable to save population snapshot, error: %s", ex.getMessage());
+      closeSnapshot();
+    }
+  }
+
+  /**
+   * Flush and close the population snapshot stream.
+   */
+  private synchronized void closeSnapshot() {
+    try {
+      snapshotStream.close();
+    } catch (IOException ex) {
+      System.out.printf("Unable to save population snapshot, error: %s", ex.getMessage());
+    }
+    snapshotStream = null;
+  }
+
   /**
    * Imports the fixed demographics records file when using fixed patient
    * demographics.
@@ -676,22 +802,24 @@ public class Generator implements RandomNumberGenerator {
     EncounterModule encounterModule = new EncounterModule();
 
     long time = person.lastUpdated;
-    while (person.alive(time) && time < stop) {
-      healthInsuranceModule.process(person, time + timestep);
-      encounterModule.process(person, time);
+    // modules waiting on a delay or an attribute are skipped until they can make progress
+    ModuleScheduler scheduler = new ModuleScheduler(person, time, timestep);
+    try {
+      while (person.alive(time) && time < stop) {
+        scheduler.beginTimestep(time);
+        healthInsuranceModule.process(person, time + timestep);
+        encounterModule.process(person, time);
 
-      Iterator<Module> iter = person.currentModules.iterator();
-      while (iter.hasNext()) {
-        Module module = iter.next();
+        scheduler.processModules();
 
-        if (module.process(person, time)) {
-          iter.remove(); // this module has completed/terminated.
-        }
+        encounterModule.endEncounterModuleEncounters(person, time);
+        person.lastUpdated = time;
+        HealthRecordEditors.getInstance().executeAll(person, person.record, time, timestep);
+        time += timestep;
       }
-      encounterModule.endEncounterModuleEncounters(person, time);
-      person.lastUpdated = time;
-      HealthRecordEditors.getInstance().executeAll(person, person.record, time, timestep);
-      time += timestep;
+    } finally {
+      // stop listening to the person's attributes even if a module threw
+      scheduler.finish();
     }
 
     DeathModule.process(person, time);
@@ -879,6 +1007,10 @@ public class Generator implements RandomNumberGenerator {
       internalStore.add(person);
     }
 
+    if (snapshotStream != null) {
+      writeSnapshot(person);
+    }
+
     if (this.metrics != null) {
       metrics.recordStats(person, finishTime, Module.getModules(modulePredicate));
     }
@@ -1,6 +1,7 @@
 package org.mitre.synthea.engine;
 
 import java.util.List;
+import java.util.Set;
 
 import org.mitre.synthea.world.agents.Person;
 import org.mitre.synthea.world.concepts.HealthRecord;
@@ -10,7 +11,8 @@ import org.mitre.synthea.world.concepts.HealthRecord;
  * HealthRecord. At the end of every time step in the simulation, the Synthea framework will invoke
  * the shouldRun method. If the shouldRun function returns true, the framework will then invoke
  * the process method. The process method will be passed any encounters that were created in the
- * past time step.
+ * past time step. Editors that only work on some types of entry, such as observations, can
+ * subscribe to just those types with getEntryTypes.
  * <p>
  * HealthRecordEditors are intended to simulate actions that happen to an individual's health
  * record. This includes loss or corruption of information through user entry error or information
@@ -46,4 +48,57 @@ public interface HealthRecordEditor {
    * @param time The current time in the simulation
    */
   void process(Person person, List<HealthRecord.Encounter> encounters, long time);
+
+  /**
+   * The types of entry this editor works on. Only encounters containing at least one entry of
+   * these types are passed to process, and process is not invoked when there are no such
+   * encounters. By default, all encounters are passed to process on every time step.
+   *
+   * @return The types of entry to subscribe to, or null for all encounters.
+   */
+  default Set<EntryType> getEntryTypes() {
+    return null;
+  }
+
+  /**
+   * Types of entry within an encounter that an editor can subscribe to.
+   */
+  enum EntryType {
+    OBSERVATION, REPORT, CONDITION, ALLERGY, PROCEDURE, IMMUNIZATION, MEDICATION, CAREPLAN,
+    IMAGING_STUDY, DEVICE, SUPPLY;
+
+    /**
+     * Check whether the encounter contains any entries of this type.
+     * @param encounter The encounter to check.
+     * @return True if the encounter contains at least one entry of this type.
+     */
+    public boolean in(HealthRecord.Encounter encounter) {
+      switch (this) {
+        case OBSERVATION:
+          return !encounter.observations.isEmpty();
+        case REPORT:
+          return !encounter.reports.isEmpty();
+        case CONDITION:
+          return !encounter.conditions.isEmpty();
+        case ALLERGY:
+          return !encounter.allergies.isEmpty();
+        case PROCEDURE:
+          return !encounter.procedures.isEmpty();
+        case IMMUNIZATION:
+          return !encounter.immunizations.isEmpty();
+        case MEDICATION:
+          return !encounter.medications.isEmpty();
+        case CAREPLAN:
+          return !encounter.careplans.isEmpty();
+        case IMAGING_STUDY:
+          return !encounter.imagingStudies.isEmpty();
+        case DEVICE:
+          return !encounter.devices.isEmpty();
+        case SUPPLY:
+          return !encounter.supplies.isEmpty();
+        default:
+          return false;
+      }
+    }
+  }
 }
@@ -2,6 +2,7 @@ package org.mitre.synthea.engine;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Set;
 import java.util.stream.Collectors;
 
 import org.mitre.synthea.world.agents.Person;
@@ -51,13 +52,20 @@ public class HealthRecordEditors {
    */
   public void executeAll(Person person, HealthRecord record, long time, long step) {
     if (this.registeredEditors.size() > 0) {
-      long start = time - step;
-      List<HealthRecord.Encounter> encountersThisStep = record.encounters.stream()
-          .filter(e -> e.start >= start)
-          .collect(Collectors.toList());
+      List<HealthRecord.Encounter> encountersThisStep = record.encountersSince(time - step);
       this.registeredEditors.forEach(m -> {
         if (m.shouldRun(person, record, time)) {
-          m.process(person, encountersThisStep, time);
+          Set<HealthRecordEditor.EntryType> types = m.getEntryTypes();
+          if (types == null) {
+            m.process(person, encountersThisStep, time);
+          } else {
+            List<HealthRecord.Encounter> encounters = encountersThisStep.stream()
+                .filter(e -> types.stream().anyMatch(type -> type.in(e)))
+                .collect(Collectors.toList());
+            if (!encounters.isEmpty()) {
+              m.process(person, encounters, time);
+            }
+          }
         }
       });
     }
@@ -3,11 +3,15 @@ package org.mitre.synthea.engine;
 import java.io.Serializable;
 import java.util.Calendar;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 import java.util.TimeZone;
 
 import org.mitre.synthea.engine.Components.DateInput;
 import org.mitre.synthea.engine.Components.ExactWithUnit;
+import org.mitre.synthea.helpers.AttributeStore;
 import org.mitre.synthea.helpers.Config;
 import org.mitre.synthea.helpers.Utilities;
 import org.mitre.synthea.world.agents.Person;
@@ -35,6 +39,35 @@ public abstract class Logic implements Serializable {
    */
   public abstract boolean test(Person person, long time);
 
+  /**
+   * Get the names of the person attributes that determine the result of this logic.
+   * If the result depends only on these attributes, it cannot change until one of them
+   * is written, so a Guard on this logic does not need to be retested every timestep.
+   *
+   * @return attribute names, or null if the result depends on anything else
+   *     (the current time, the health record, module history, etc.)
+   */
+  public Set<String> attributeDependencies() {
+    return null;
+  }
+
+  /**
+   * Combine the attribute dependencies of several logic conditions.
+   * @param conditions Logic conditions
+   * @return union of the attribute names, or null if any condition has other dependencies
+   */
+  private static Set<String> attributeDependencies(Collection<Logic> conditions) {
+    Set<String> dependencies = new HashSet<String>();
+    for (Logic condition : conditions) {
+      Set<String> attributes = condition.attributeDependencies();
+      if (attributes == null) {
+        return null;
+      }
+      dependencies.addAll(attributes);
+    }
+    return dependencies;
+  }
+
   /**
    * Find the most recent entry, of a specific type of HealthRecord.Entry
    * within the patient history. May return null.
@@ -48,7 +81,7 @@ public abstract class Logic implements Serializable {
       Person person, Class<T> classType, Code code) {
     // Find the most recent health record entry from the patient history
     HealthRecord.Entry entry = null;
-    for (State state : person.history) {
+    for (State state : ModuleHistory.keptStates(person.history)) {
       if (state.entry != null && classType.isInstance(state.entry)) {
         T candidate = (T) state.entry;
         for (Code candidateCode : candidate.codes) {
@@ -75,6 +108,11 @@ public abstract class Logic implements Serializable {
     public boolean test(Person person, long time) {
       return gender.equals(person.attributes.get(Person.GENDER));
     }
+
+    @Override
+    public Set<String> attributeDependencies() {
+      return Collections.singleton(Person.GENDER);
+    }
   }
 
   /**
@@ -152,6 +190,11 @@ public abstract class Logic implements Serializable {
     public boolean test(Person person, long time) {
       return category.equals(person.attributes.get(Person.SOCIOECONOMIC_CATEGORY));
     }
+
+    @Override
+    public Set<String> attributeDependencies() {
+      return Collections.singleton(Person.SOCIOECONOMIC_CATEGORY);
+    }
   }
 
   /**
@@ -165,6 +208,11 @@ public abstract class Logic implements Serializable {
     public boolean test(Person person, long time) {
       return race.equalsIgnoreCase((String) person.attributes.get(Person.RACE));
     }
+
+    @Override
+    public Set<String> attributeDependencies() {
+      return Collections.singleton(Person.RACE);
+    }
   }
 
   /**
@@ -271,17 +319,27 @@ public abstract class Logic implements Serializable {
     private String operator;
 
     private Object value;
+    /** Slot of the attribute in the person's attribute store, looked up on first use. */
+    private transient Integer slot;
 
     @Override
     public boolean test(Person person, long time) {
       try {
-        return Utilities.compare(person.attributes.get(attribute), value, operator);
+        if (slot == null) {
+          slot = AttributeStore.slot(attribute);
+        }
+        return Utilities.compare(person.attributes.get(slot.intValue()), value, operator);
       } catch (Exception e) {
         String message = "Attribute Logic error: " + attribute + " " + operator + " " + value;
         message += ": " + e.getMessage();
         throw new RuntimeException(message, e);
       }
     }
+
+    @Override
+    public Set<String> attributeDependencies() {
+      return Collections.singleton(attribute);
+    }
   }
 
   /**
@@ -290,6 +348,11 @@ public abstract class Logic implements Serializable {
    */
   private abstract static class GroupedCondition extends Logic {
     protected Collection<Logic> conditions;
+
+    @Override
+    public Set<String> attributeDependencies() {
+      return attributeDependencies(conditions);
+    }
   }
 
   /**
@@ -328,6 +391,11 @@ public abstract class Logic implements Serializable {
     public boolean test(Person person, long time) {
       return !condition.test(person, time);
     }
+
+    @Override
+    public Set<String> attributeDependencies() {
+      return condition.attributeDependencies();
+    }
   }
 
   /**
@@ -373,6 +441,11 @@ public abstract class Logic implements Serializable {
     public boolean test(Person person, long time) {
       return true;
     }
+
+    @Override
+    public Set<String> attributeDependencies() {
+      return Collections.emptySet();
+    }
   }
 
   /**
@@ -385,6 +458,11 @@ public abstract class Logic implements Serializable {
     public boolean test(Person person, long time) {
       return false;
     }
+
+    @Override
+    public Set<String> attributeDependencies() {
+      return Collections.emptySet();
+    }
   }
 
   /**
@@ -580,7 +658,7 @@ public abstract class Logic implements Serializable {
 
     @Override
     public boolean test(Person person, long time) {
-      return Utilities.compare(person.getVitalSign(vitalSign, time), value, operator);
+      return Utilities.compare(person.getVitalSignValue(vitalSign, time), value, operator);
     }
   }
 }
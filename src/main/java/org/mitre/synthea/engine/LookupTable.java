@@ -0,0 +1,215 @@
+package org.mitre.synthea.engine;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Supplier;
+
+import org.apache.commons.lang3.Range;
+import org.mitre.synthea.world.agents.Person;
+
+/**
+ * The rows of a lookup table CSV, indexed for a LookupTableTransition. Rows are matched
+ * exactly on their attribute values, one map per attribute column, and then on their age
+ * and time ranges by binary search. Looking up a person allocates nothing.
+ * @param <T> the value of each row
+ */
+final class LookupTable<T> {
+  /** Names of the attribute columns, not including the age and time columns. */
+  private final String[] attributes;
+  private final boolean hasAge;
+  private final boolean hasTime;
+  /** Attribute values of the first column, with each level one column deeper. */
+  private final Node<T> root = new Node<T>();
+
+  /**
+   * Create an empty lookup table.
+   * @param attributes Attribute column names, not including the age and time columns.
+   * @param hasAge Whether the table has an age column.
+   * @param hasTime Whether the table has a time column.
+   */
+  LookupTable(List<String> attributes, boolean hasAge, boolean hasTime) {
+    this.attributes = attributes.toArray(new String[0]);
+    this.hasAge = hasAge;
+    this.hasTime = hasTime;
+  }
+
+  /**
+   * Add a row to the table. A row with the same attribute values and ranges as an earlier
+   * row replaces it.
+   * @param values Attribute values, in the order of the attribute columns.
+   * @param ageRange Age range of the row, or null if the table has no age column.
+   * @param timeRange Time range of the row, or null if the table has no time column.
+   * @param value The value of the row.
+   * @throws IllegalArgumentException if the ranges overlap another row with the same
+   *     attribute values, since a person could match either row.
+   */
+  void add(List<String> values, Range<Integer> ageRange, Range<Long> timeRange, T value) {
+    Node<T> node = root;
+    for (String attributeValue : values) {
+      node = node.children.computeIfAbsent(attributeValue, v -> new Node<T>());
+    }
+    if (node.ages == null) {
+      node.ages = new RangeIndex<RangeIndex<T>>();
+    }
+    RangeIndex<T> times = node.ages.computeIfAbsent(
+        ageRange == null ? Long.MIN_VALUE : ageRange.getMinimum(),
+        ageRange == null ? Long.MAX_VALUE : ageRange.getMaximum(),
+        () -> new RangeIndex<T>());
+    times.put(timeRange == null ? Long.MIN_VALUE : timeRange.getMinimum(),
+        timeRange == null ? Long.MAX_VALUE : timeRange.getMaximum(), value);
+  }
+
+  /**
+   * Sort the rows for lookup. Called once after all rows have been added.
+   */
+  void index() {
+    index(root);
+  }
+
+  private static <T> void index(Node<T> node) {
+    for (Node<T> child : node.children.values()) {
+      index(child);
+    }
+    if (node.ages != null) {
+      node.ages.index();
+      for (RangeIndex<T> times : node.ages.values) {
+        times.index();
+      }
+    }
+  }
+
+  /**
+   * Find the row that matches the person at the given time.
+   * @param person The person.
+   * @param time The time, matched against the time column.
+   * @param tableName Name of the table, for error messages.
+   * @return the value of the matching row, or null if no row matches
+   */
+  T lookup(Person person, long time, String tableName) {
+    Node<T> node = root;
+    for (String attribute : attributes) {
+      Object value = person.attributes.get(attribute);
+      if (value == null) {
+        throw new RuntimeException("LOOKUP TABLE ERROR: Attribute '"
+            + attribute + "' in CSV table '" + tableName
+            + "' does not exist as one of this person's attributes.");
+      }
+      node = node.children.get(value.toString());
+      if (node == null) {
+        return null;
+      }
+    }
+    if (node.ages == null) {
+      return null;
+    }
+    RangeIndex<T> times = node.ages.get(hasAge ? person.ageInYears(time) : 0);
+    if (times == null) {
+      return null;
+    }
+    return times.get(hasTime ? time : 0);
+  }
+
+  /** One level of attribute values. */
+  private static final class Node<T> {
+    private final Map<String, Node<T>> children = new HashMap<String, Node<T>>();
+    /** Rows that match all of the attribute values, by age and then by time. */
+    private RangeIndex<RangeIndex<T>> ages;
+  }
+
+  /**
+   * Non-overlapping inclusive ranges, sorted by their lower bound so that the range
+   * containing a value is found by binary search.
+   */
+  private static final class RangeIndex<V> {
+    /** Ranges by their lower bound while rows are being added. */
+    private TreeMap<Long, Row<V>> building = new TreeMap<Long, Row<V>>();
+    private long[] lows;
+    private long[] highs;
+    private List<V> values;
+
+    /** Get the value for exactly this range, creating it if there is none. */
+    V computeIfAbsent(long low, long high, Supplier<V> creator) {
+      Row<V> row = find(low, high);
+      if (row == null) {
+        row = new Row<V>(high, creator.get());
+        building.put(low, row);
+      }
+      return row.value;
+    }
+
+    /** Set the value for exactly this range. */
+    void put(long low, long high, V value) {
+      Row<V> row = find(low, high);
+      if (row == null) {
+        building.put(low, new Row<V>(high, value));
+      } else {
+        row.value = value;
+      }
+    }
+
+    /**
+     * Find exactly this range.
+     * @return the row, or null if there is no such range yet
+     * @throws IllegalArgumentException if the range overlaps a different range
+     */
+    private Row<V> find(long low, long high) {
+      Row<V> row = building.get(low);
+      if (row != null && row.high == high) {
+        return row;
+      }
+      Map.Entry<Long, Row<V>> below = building.floorEntry(low);
+      Map.Entry<Long, Row<V>> above = building.ceilingEntry(low);
+      if ((below != null && below.getValue().high >= low)
+          || (above != null && above.getKey() <= high)) {
+        throw new IllegalArgumentException("Range " + low + "-" + high
+            + " overlaps another range for the same attributes.");
+      }
+      return null;
+    }
+
+    /** Sort the ranges by lower bound. */
+    private void index() {
+      lows = new long[building.size()];
+      highs = new long[building.size()];
+      values = new ArrayList<V>(building.size());
+      for (Map.Entry<Long, Row<V>> entry : building.entrySet()) {
+        lows[values.size()] = entry.getKey();
+        highs[values.size()] = entry.getValue().high;
+        values.add(entry.getValue().value);
+      }
+      building = null;
+    }
+
+    /** Get the value of the range containing the given value, or null if there is none. */
+    V get(long value) {
+      int low = 0;
+      int high = lows.length - 1;
+      // find the last range that starts at or before the value
+      while (low <= high) {
+        int mid = (low + high) >>> 1;
+        if (lows[mid] <= value) {
+          low = mid + 1;
+        } else {
+          high = mid - 1;
+        }
+      }
+      if (high >= 0 && value <= highs[high]) {
+        return values.get(high);
+      }
+      return null;
+    }
+  }
+
+  private static final class Row<V> {
+    private final long high;
+    private V value;
+
+    private Row(long high, V value) {
+      this.high = high;
+      this.value = value;
+    }
+  }
+}
@@ -24,7 +24,7 @@ import java.nio.file.spi.FileSystemProvider;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.LinkedList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -36,6 +36,8 @@ import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Predicate;
 import java.util.function.Supplier;
 
+import org.mitre.synthea.helpers.AttributeStore;
+import org.mitre.synthea.helpers.Attributes;
 import org.mitre.synthea.helpers.Config;
 import org.mitre.synthea.helpers.Utilities;
 import org.mitre.synthea.modules.CardiovascularDiseaseModule;
@@ -53,6 +55,10 @@ import org.mitre.synthea.world.agents.Person;
  * and the list of modules is shared between the generated population. Because we share modules
  * across the population, it is important that States are cloned before they are executed.
  * This keeps the "master" copy of the module clean.
+ *
+ * <p>Once loaded, a module and its states are never modified, so every person is given the
+ * same Module instance. Everything that changes as a person is simulated, such as when they
+ * entered and exited each state, is kept in the cloned states of their module history.
  */
 public class Module implements Cloneable, Serializable {
 
@@ -196,7 +202,8 @@ public class Module implements Cloneable, Serializable {
   }
 
   /**
-   * Loads the module defined from the file at the given path.
+   * Loads the module defined from the file at the given path. If the module cache is enabled,
+   * the compiled module is read from the cache when the file and overrides are unchanged.
    *
    * @param path Path to the module file
    * @param submodule whether or not this module is a submodule
@@ -210,11 +217,24 @@ public class Module implements Cloneable, Serializable {
     String jsonString = localFiles
             ? new String(Files.readAllBytes(path), StandardCharsets.UTF_8)
             : Utilities.readResource(path.toString());
+    String fileName = path.getFileName().toString();
+    String cacheKey = null;
+    if (ModuleCache.isEnabled()) {
+      cacheKey = ModuleCache.key(jsonString, fileName, submodule, overrides);
+      Module cached = ModuleCache.read(cacheKey);
+      if (cached != null) {
+        return cached;
+      }
+    }
     if (overrides != null) {
-      jsonString = applyOverrides(jsonString, overrides, path.getFileName().toString());
+      jsonString = applyOverrides(jsonString, overrides, fileName);
     }
     JsonObject object = JsonParser.parseString(jsonString).getAsJsonObject();
-    return new Module(object, submodule);
+    Module module = new Module(object, submodule);
+    if (cacheKey != null) {
+      ModuleCache.write(cacheKey, module, object);
+    }
+    return module;
   }
 
   private static String applyOverrides(String jsonString, Properties overrides,
@@ -280,6 +300,13 @@ public class Module implements Cloneable, Serializable {
   public Double gmfVersion;
   public List<String> remarks;
   private Map<String, State> states;
+  /**
+   * The states of this module, indexed by State.index. Transitions between these states are
+   * resolved to indices when the module is loaded, so processing a person never looks up a
+   * state by name.
+   */
+  private State[] compiledStates;
+  private int initialStateIndex;
 
   protected Module() {
     // no-args constructor only allowed to be used by subclasses
@@ -318,10 +345,46 @@ public class Module implements Cloneable, Serializable {
       State state = State.build(this, entry.getKey(), entry.getValue().getAsJsonObject());
       states.put(entry.getKey(), state);
     }
+    compile(jsonStates.keySet());
+    // the module is shared by every person, so its states must not change after loading
+    states = Collections.unmodifiableMap(states);
+
+    try {
+      // give the attributes this module uses slots in every person's attribute store
+      AttributeStore.intern(Attributes.getAttributeNames(definition));
+    } catch (RuntimeException e) {
+      // the inventory does not understand this module, its attributes are interned when set
+    }
   }
 
   /**
-   * Clone this module. Never provide the original.
+   * Assign each state an index, in the order the states are defined, and resolve all
+   * transitions from state names into state indices.
+   * @param stateNames The names of the states in the order they are defined.
+   */
+  private void compile(Collection<String> stateNames) {
+    Map<String, Integer> stateIndices = new HashMap<String, Integer>();
+    compiledStates = new State[stateNames.size()];
+    initialStateIndex = -1;
+    int index = 0;
+    for (String stateName : stateNames) {
+      State state = states.get(stateName);
+      state.index = index;
+      compiledStates[index] = state;
+      stateIndices.put(stateName, index);
+      if (stateName.equals("Initial")) {
+        initialStateIndex = index;
+      }
+      index++;
+    }
+    for (State state : compiledStates) {
+      state.link(stateIndices);
+    }
+  }
+
+  /**
+   * Clone this module, with copies of its states that can be changed without affecting the
+   * shared original. The copies are compiled again, so the clone processes its own states.
    */
   public Module clone() {
     Module clone = new Module();
@@ -333,6 +396,12 @@ public class Module implements Cloneable, Serializable {
       for (String key : this.states.keySet()) {
         clone.states.put(key, this.states.get(key).clone());
       }
+      // keep the order the states were defined in
+      List<String> stateNames = new ArrayList<String>(this.compiledStates.length);
+      for (State state : this.compiledStates) {
+        stateNames.add(state.name);
+      }
+      clone.compile(stateNames);
     }
     return clone;
   }
@@ -367,14 +436,13 @@ public class Module implements Cloneable, Serializable {
     if (terminateOnDeath && !person.alive(time)) {
       return true;
     }
-    person.history = null;
     // what current state is this person in?
-    if (!person.attributes.containsKey(this.name)) {
-      person.history = new LinkedList<State>();
+    person.history = (List<State>) person.attributes.get(this.name);
+    if (person.history == null) {
+      person.history = new ModuleHistory();
       person.history.add(initialState());
       person.attributes.put(this.name, person.history);
     }
-    person.history = (List<State>) person.attributes.get(this.name);
     String activeKey = EncounterModule.ACTIVE_WELLNESS_ENCOUNTER + " " + this.name;
     if (person.attributes.containsKey(EncounterModule.ACTIVE_WELLNESS_ENCOUNTER)) {
       person.attributes.put(activeKey, true);
@@ -384,12 +452,16 @@ public class Module implements Cloneable, Serializable {
     // process the current state,
     // looping until module is finished,
     // probably more than one state
-    String nextStateName = null;
     while (current.run(person, time, terminateOnDeath)) {
       Long exited = current.exited;
-      nextStateName = current.transition(person, time);
-      // System.out.println(" Transitioning to " + nextStateName);
-      current = states.get(nextStateName).clone(); // clone the state so we don't dirty the original
+      int next = current.transitionIndex(person, time);
+      if (next < 0) {
+        throw new IllegalStateException(String.format(
+            "%s: state '%s' transitions to a state that does not exist (%s)",
+            this.name, current.name, current.transition(person, time)));
+      }
+      // System.out.println(" Transitioning to " + compiledStates[next].name);
+      current = compiledStates[next].clone(); // clone the state so we don't dirty the original
       person.history.add(0, current);
       if (exited != null && exited < time) {
         // stop if the patient died in the meantime...
@@ -410,12 +482,45 @@ public class Module implements Cloneable, Serializable {
     return (current instanceof State.Terminal);
   }
 
+  /**
+   * Get the state that the given person is currently in within this module, without
+   * processing anything.
+   * @param person the person being simulated
+   * @return the current state, or null if the person has not entered this module or this is
+   *     not a generic module.
+   */
+  @SuppressWarnings("unchecked")
+  State currentState(Person person) {
+    if (compiledStates == null) {
+      return null;
+    }
+    Object history = person.attributes.get(this.name);
+    if (history instanceof List && !((List<State>) history).isEmpty()) {
+      return ((List<State>) history).get(0);
+    }
+    return null;
+  }
+
+  /**
+   * Get the compiled state at the given index, for ModuleHistory.
+   * @param index Index of the state within this module.
+   * @return the state, or null if there is no state at that index
+   */
+  State compiledState(int index) {
+    if (compiledStates == null || index < 0 || index >= compiledStates.length) {
+      return null;
+    }
+    return compiledStates[index];
+  }
+
   private State initialState() {
-    return states.get("Initial").clone(); // all Initial states have name Initial
+    // all Initial states have name Initial
+    return compiledStates[initialStateIndex].clone();
   }
 
   /**
-   * Get a state by name.
+   * Get a state by name. The state is shared by everyone simulated with this module, so it
+   * must be cloned before it is processed.
    * @param name - case-sensitive state name.
    * @return State if it exists, otherwise null.
    */
@@ -437,7 +542,8 @@ public class Module implements Cloneable, Serializable {
   }
 
   /**
-   * ModuleSupplier allows for lazy loading of Modules.
+   * ModuleSupplier allows for lazy loading of Modules. Once loaded, the same module is supplied
+   * to every caller without locking.
    */
   public static class ModuleSupplier implements Supplier<Module> {
 
@@ -445,7 +551,7 @@ public class Module implements Cloneable, Serializable {
     public final boolean submodule;
     public final String path;
 
-    private boolean loaded;
+    private volatile boolean loaded;
     private Callable<Module> loader;
     private Module module;
     private Throwable fault;
@@ -479,7 +585,17 @@ public class Module implements Cloneable, Serializable {
     }
 
     @Override
-    public synchronized Module get() {
+    public Module get() {
+      if (!loaded) {
+        load();
+      }
+      if (fault != null) {
+        throw new RuntimeException(fault);
+      }
+      return module;
+    }
+
+    private synchronized void load() {
       if (!loaded) {
         try {
           module = loader.call();
@@ -487,14 +603,11 @@ public class Module implements Cloneable, Serializable {
           e.printStackTrace();
           fault = e;
         } finally {
+          // module and fault are published by this volatile write
           loaded = true;
           loader = null;
         }
       }
-      if (fault != null) {
-        throw new RuntimeException(fault);
-      }
-      return module.clone();
     }
   }
 }
@@ -0,0 +1,270 @@
+package org.mitre.synthea.engine;
+
+import com.google.gson.JsonObject;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import org.mitre.synthea.helpers.AttributeStore;
+import org.mitre.synthea.helpers.Attributes;
+import org.mitre.synthea.helpers.Config;
+import org.mitre.synthea.helpers.Utilities;
+
+/**
+ * Cache of compiled generic modules, so that later runs can read each module with Java
+ * serialization instead of parsing its JSON, applying module overrides, and building its
+ * states through reflection. Each module is stored in a file named by a hash of everything
+ * that went into compiling it: the JSON, the overrides that apply to it, whether it is a
+ * submodule, the Synthea version and the engine classes. A changed module, override or
+ * engine (including a rebuilt development copy, whose version does not change) therefore
+ * misses the cache and is compiled again, and anything that cannot be read back is simply
+ * recompiled.
+ *
+ * <p>Lookup tables and other resources that modules read at runtime are not cached, since
+ * they are loaded when first used rather than when the module is compiled.
+ */
+final class ModuleCache {
+  /** Changes whenever the layout of cached modules changes, to invalidate older caches. */
+  private static final String FORMAT_VERSION = "1";
+  /** Package of the classes that are hashed to detect a changed engine. */
+  private static final String ENGINE_PACKAGE = "org/mitre/synthea/";
+
+  private static final AtomicLong HITS = new AtomicLong();
+  private static final AtomicLong MISSES = new AtomicLong();
+
+  private ModuleCache() {
+    // no instances
+  }
+
+  /**
+   * Hash of the engine classes, computed when the cache is first used.
+   */
+  private static class Engine {
+    private static final String HASH = hashEngine();
+  }
+
+  /**
+   * A compiled module, with the attribute names it uses so that they can be interned in the
+   * AttributeStore without the JSON definition.
+   */
+  private static class Entry implements Serializable {
+    private static final long serialVersionUID = 2408419254512961384L;
+
+    private final String key;
+    private final Module module;
+    private final Set<String> attributes;
+
+    private Entry(String key, Module module, Set<String> attributes) {
+      this.key = key;
+      this.module = module;
+      this.attributes = attributes;
+    }
+  }
+
+  /**
+   * Whether compiled modules should be read from and written to the cache.
+   */
+  static boolean isEnabled() {
+    return Config.getAsBoolean("generate.module_cache.enabled", false);
+  }
+
+  /**
+   * Get the hash that identifies a compiled module.
+   * @param json the JSON definition of the module, before overrides are applied.
+   * @param moduleFileName the file name of the module, to select the overrides.
+   * @param submodule whether or not the module is a submodule.
+   * @param overrides module overrides, or null if there are none.
+   * @return the hex encoded hash.
+   */
+  static String key(String json, String moduleFileName, boolean submodule,
+      Properties overrides) {
+    MessageDigest digest;
+    try {
+      digest = MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+    StringBuilder header = new StringBuilder();
+    header.append(FORMAT_VERSION).append('\n')
+        .append(Utilities.SYNTHEA_VERSION).append('\n')
+        .append(Module.GMF_VERSION).append('\n')
+        .append(Engine.HASH).append('\n')
+        .append(submodule).append('\n');
+    if (overrides != null) {
+      // sort the overrides so the key does not depend on the order of the properties file
+      Map<String, String> applicable = new TreeMap<String, String>();
+      overrides.forEach((key, value) -> {
+        if (((String) key).split("::")[0].equals(moduleFileName)) {
+          applicable.put((String) key, (String) value);
+        }
+      });
+      for (Map.Entry<String, String> override : applicable.entrySet()) {
+        header.append(override.getKey()).append('=').append(override.getValue()).append('\n');
+      }
+    }
+    digest.update(header.toString().getBytes(StandardCharsets.UTF_8));
+    digest.update(json.getBytes(StandardCharsets.UTF_8));
+    return hex(digest);
+  }
+
+  /**
+   * Hash the Synthea classes in the jar or class directory that Synthea was loaded from. The
+   * Synthea version is "synthea-java" in development builds, so it does not change when the
+   * engine is rebuilt. Only classes under {@value #ENGINE_PACKAGE} are hashed, since the
+   * dependencies bundled in a jar do not change without the version changing, and the classes
+   * in a jar are identified by their CRC and size so that they do not have to be inflated.
+   * @return the hex encoded hash, or an empty string if the classes could not be read.
+   */
+  private static String hashEngine() {
+    try {
+      MessageDigest digest = MessageDigest.getInstance("SHA-256");
+      Path location = Paths.get(
+          ModuleCache.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+      if (Files.isDirectory(location)) {
+        List<Path> classes;
+        try (Stream<Path> files = Files.walk(location.resolve(ENGINE_PACKAGE))) {
+          classes = files.filter(file -> file.toString().endsWith(".class"))
+              .sorted().collect(Collectors.toList());
+        }
+        for (Path file : classes) {
+          String name = location.relativize(file).toString().replace('\\', '/');
+          digest.update(name.getBytes(StandardCharsets.UTF_8));
+          digest.update(Files.readAllBytes(file));
+        }
+      } else {
+        try (ZipFile jar = new ZipFile(location.toFile())) {
+          List<ZipEntry> classes = jar.stream()
+              .filter(entry -> entry.getName().startsWith(ENGINE_PACKAGE)
+                  && entry.getName().endsWith(".class"))
+              .sorted(Comparator.comparing(ZipEntry::getName))
+              .collect(Collectors.toList());
+          for (ZipEntry entry : classes) {
+            String line = entry.getName() + ' ' + entry.getCrc() + ' ' + entry.getSize() + '\n';
+            digest.update(line.getBytes(StandardCharsets.UTF_8));
+          }
+        }
+      }
+      return hex(digest);
+    } catch (Exception e) {
+      // cached modules are still keyed by the Synthea version
+      System.err.format("Unable to hash the Synthea classes for the module cache: %s\n", e);
+      return "";
+    }
+  }
+
+  private static String hex(MessageDigest digest) {
+    StringBuilder hex = new StringBuilder();
+    for (byte b : digest.digest()) {
+      hex.append(String.format("%02x", b));
+    }
+    return hex.toString();
+  }
+
+  /**
+   * Read a compiled module from the cache.
+   * @param key the hash that identifies the module.
+   * @return the module, or null if it is not in the cache or cannot be read.
+   */
+  static Module read(String key) {
+    Path file = file(key);
+    if (Files.isRegularFile(file)) {
+      try (InputStream input = new BufferedInputStream(Files.newInputStream(file));
+          ObjectInputStream objects = new ObjectInputStream(input)) {
+        Entry entry = (Entry) objects.readObject();
+        if (key.equals(entry.key)) {
+          AttributeStore.intern(entry.attributes);
+          HITS.incrementAndGet();
+          return entry.module;
+        }
+      } catch (Exception e) {
+        // written by an incompatible version of the classes, so compile the module again
+        System.err.format("Ignoring cached module %s: %s\n", file, e);
+      }
+    }
+    MISSES.incrementAndGet();
+    return null;
+  }
+
+  /**
+   * Write a compiled module to the cache. Failures are reported but otherwise ignored, since
+   * the module has been compiled either way.
+   * @param key the hash that identifies the module.
+   * @param module the compiled module.
+   * @param definition the JSON definition the module was compiled from.
+   */
+  static void write(String key, Module module, JsonObject definition) {
+    Set<String> attributes;
+    try {
+      attributes = Attributes.getAttributeNames(definition);
+    } catch (RuntimeException e) {
+      // the inventory does not understand this module, its attributes are interned when set
+      attributes = Collections.emptySet();
+    }
+    Path file = file(key);
+    try {
+      Files.createDirectories(file.getParent());
+      // write to a temporary file first, so other threads and processes never read part of one
+      Path temp = Files.createTempFile(file.getParent(), key, ".tmp");
+      try {
+        try (OutputStream output = new BufferedOutputStream(Files.newOutputStream(temp));
+            ObjectOutputStream objects = new ObjectOutputStream(output)) {
+          objects.writeObject(new Entry(key, module, attributes));
+        }
+        try {
+          Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+          Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+        }
+      } finally {
+        Files.deleteIfExists(temp);
+      }
+    } catch (IOException | RuntimeException e) {
+      System.err.format("Unable to cache module %s: %s\n", module.name, e);
+    }
+  }
+
+  private static Path file(String key) {
+    return Paths.get(Config.get("generate.module_cache.directory", "./cache/modules"),
+        key + ".bin");
+  }
+
+  /**
+   * Get the number of modules read from the cache since startup.
+   */
+  static long getHits() {
+    return HITS.get();
+  }
+
+  /**
+   * Get the number of modules that were compiled because they were not in the cache.
+   */
+  static long getMisses() {
+    return MISSES.get();
+  }
+}
@@ -0,0 +1,267 @@
+package org.mitre.synthea.engine;
+
+import java.io.Serializable;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * The history of states that a person has passed through in a single module.
+ * Like the LinkedList it replaces, index 0 is the current state and index size-1 is the
+ * Initial state.
+ *
+ * <p>Most states carry nothing person-specific once they have been exited, other than the
+ * times they were entered and exited. For those states, only the module, the state index,
+ * and the times are kept, in primitive arrays, and a copy of the state is created when the
+ * history is read through the List interface. The current state, and states that must
+ * survive as they are (e.g., states with a HealthRecord.Entry, or OnsetStates that are
+ * diagnosed later), are kept whole.
+ */
+public class ModuleHistory extends AbstractList<State> implements Serializable {
+  private static final long serialVersionUID = -1856375410932946128L;
+
+  /** Stored in place of a null entered or exited time. */
+  private static final long NONE = Long.MIN_VALUE;
+
+  /** The modules the states came from. Usually one, plus any submodules. */
+  private Module[] modules;
+  // parallel arrays, in the order the states were added: position size-1 is index 0
+  private int[] moduleSlots;
+  private int[] stateIndices;
+  private long[] entered;
+  private long[] exited;
+  /** States that are kept whole, or null where only the arrays above are kept. */
+  private State[] kept;
+  private int size;
+
+  /**
+   * Create an empty history.
+   */
+  public ModuleHistory() {
+    modules = new Module[1];
+    moduleSlots = new int[8];
+    stateIndices = new int[8];
+    entered = new long[8];
+    exited = new long[8];
+    kept = new State[8];
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+
+  private int position(int index) {
+    if (index < 0 || index >= size) {
+      throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+    }
+    return size - 1 - index;
+  }
+
+  @Override
+  public State get(int index) {
+    int pos = position(index);
+    if (kept[pos] != null) {
+      return kept[pos];
+    }
+    State state = template(pos).clone();
+    state.entered = (entered[pos] == NONE) ? null : entered[pos];
+    state.exited = (exited[pos] == NONE) ? null : exited[pos];
+    return state;
+  }
+
+  /**
+   * Get the name of the state at the given index, without copying the state.
+   * @param index Index in the history, 0 is the current state.
+   * @return the state name
+   */
+  public String getName(int index) {
+    int pos = position(index);
+    return (kept[pos] != null) ? kept[pos].name : template(pos).name;
+  }
+
+  /**
+   * Get the time the state at the given index was exited, without copying the state.
+   * @param index Index in the history, 0 is the current state.
+   * @return the exit time, or null if the state has not been exited
+   */
+  public Long getExited(int index) {
+    int pos = position(index);
+    if (kept[pos] != null) {
+      return kept[pos].exited;
+    }
+    return (exited[pos] == NONE) ? null : exited[pos];
+  }
+
+  private State template(int pos) {
+    return modules[moduleSlots[pos]].compiledState(stateIndices[pos]);
+  }
+
+  @Override
+  public void add(int index, State state) {
+    if (index < 0 || index > size) {
+      throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+    }
+    if (size == kept.length) {
+      int capacity = size * 2;
+      moduleSlots = Arrays.copyOf(moduleSlots, capacity);
+      stateIndices = Arrays.copyOf(stateIndices, capacity);
+      entered = Arrays.copyOf(entered, capacity);
+      exited = Arrays.copyOf(exited, capacity);
+      kept = Arrays.copyOf(kept, capacity);
+    }
+    int pos = size - index;
+    if (pos < size) {
+      int count = size - pos;
+      System.arraycopy(moduleSlots, pos, moduleSlots, pos + 1, count);
+      System.arraycopy(stateIndices, pos, stateIndices, pos + 1, count);
+      System.arraycopy(entered, pos, entered, pos + 1, count);
+      System.arraycopy(exited, pos, exited, pos + 1, count);
+      System.arraycopy(kept, pos, kept, pos + 1, count);
+    }
+    kept[pos] = state;
+    size++;
+    modCount++;
+    if (pos == size - 1) {
+      // the previous current state has been exited
+      compact(pos - 1);
+    } else {
+      compact(pos);
+    }
+  }
+
+  @Override
+  public boolean addAll(int index, Collection<? extends State> states) {
+    if (index != 0 || !(states instanceof List)) {
+      return super.addAll(index, states);
+    }
+    // add the oldest state first, so each state is compacted as the next one is added
+    List<? extends State> list = (List<? extends State>) states;
+    for (int i = list.size() - 1; i >= 0; i--) {
+      add(0, list.get(i));
+    }
+    return !list.isEmpty();
+  }
+
+  @Override
+  public State set(int index, State state) {
+    State previous = get(index);
+    int pos = position(index);
+    kept[pos] = state;
+    if (pos != size - 1) {
+      compact(pos);
+    }
+    return previous;
+  }
+
+  @Override
+  public State remove(int index) {
+    State previous = get(index);
+    int pos = position(index);
+    int count = size - pos - 1;
+    System.arraycopy(moduleSlots, pos + 1, moduleSlots, pos, count);
+    System.arraycopy(stateIndices, pos + 1, stateIndices, pos, count);
+    System.arraycopy(entered, pos + 1, entered, pos, count);
+    System.arraycopy(exited, pos + 1, exited, pos, count);
+    System.arraycopy(kept, pos + 1, kept, pos, count);
+    size--;
+    kept[size] = null;
+    modCount++;
+    if (size > 0 && kept[size - 1] == null) {
+      // the current state is always kept whole
+      kept[size - 1] = get(0);
+    }
+    return previous;
+  }
+
+  /**
+   * Reduce the state at the given position to its module, index, and times, unless it
+   * has to be kept whole.
+   */
+  private void compact(int pos) {
+    if (pos < 0) {
+      return;
+    }
+    State state = kept[pos];
+    if (state == null || state.keepInHistory() || state.module == null || state.index < 0) {
+      return;
+    }
+    State template = state.module.compiledState(state.index);
+    if (template == null || template.getClass() != state.getClass()
+        || !template.name.equals(state.name)) {
+      return;
+    }
+    moduleSlots[pos] = slot(state.module);
+    stateIndices[pos] = state.index;
+    entered[pos] = (state.entered == null) ? NONE : state.entered;
+    exited[pos] = (state.exited == null) ? NONE : state.exited;
+    kept[pos] = null;
+  }
+
+  private int slot(Module module) {
+    for (int i = 0; i < modules.length; i++) {
+      if (modules[i] == module) {
+        return i;
+      } else if (modules[i] == null) {
+        modules[i] = module;
+        return i;
+      }
+    }
+    modules = Arrays.copyOf(modules, modules.length + 1);
+    modules[modules.length - 1] = module;
+    return modules.length - 1;
+  }
+
+  /**
+   * Check for a prior state in this history, walking back from the current state.
+   * @param name Name of the state to look for.
+   * @param since Stop looking at the most recent state with this name. May be null.
+   * @param within Stop looking at states that were exited on or before this time.
+   *     May be null.
+   * @return true if the state was found
+   */
+  public boolean hadPriorState(String name, String since, Long within) {
+    for (int pos = size - 1; pos >= 0; pos--) {
+      State state = kept[pos];
+      if (within != null) {
+        if (state != null) {
+          if (state.exited != null && state.exited <= within) {
+            return false;
+          }
+        } else if (exited[pos] != NONE && exited[pos] <= within) {
+          return false;
+        }
+      }
+      String stateName = (state != null) ? state.name : template(pos).name;
+      if (since != null && stateName.equals(since)) {
+        return false;
+      }
+      if (stateName.equals(name)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Get the states of a history that were kept whole, most recent first. Only these
+   * states can have a HealthRecord.Entry or other person-specific data.
+   * @param history A module history, or any other list of states.
+   * @return the kept states, or the list itself if it is not a ModuleHistory
+   */
+  public static List<State> keptStates(List<State> history) {
+    if (!(history instanceof ModuleHistory)) {
+      return history;
+    }
+    ModuleHistory moduleHistory = (ModuleHistory) history;
+    List<State> states = new ArrayList<State>();
+    for (int pos = moduleHistory.size - 1; pos >= 0; pos--) {
+      if (moduleHistory.kept[pos] != null) {
+        states.add(moduleHistory.kept[pos]);
+      }
+    }
+    return states;
+  }
+}
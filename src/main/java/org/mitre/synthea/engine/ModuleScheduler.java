@@ -0,0 +1,218 @@
+package org.mitre.synthea.engine;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.function.Consumer;
+
+import org.mitre.synthea.helpers.AttributeStore;
+import org.mitre.synthea.world.agents.Person;
+
+/**
+ * Schedules the processing of a single person's current modules, so that a module is
+ * only processed on the timesteps where it may be able to make progress.
+ * A module waiting in a Delayable state sleeps until the timestep on which the delay expires.
+ * A module blocked on a state that only depends on person attributes (e.g., a Guard) sleeps
+ * until one of those attributes is changed. All other modules are processed every timestep.
+ * Modules that are processed on a given timestep are processed in the same order as
+ * person.currentModules, so the simulation results are the same as processing every module
+ * on every timestep.
+ */
+class ModuleScheduler implements Consumer<String> {
+  /** Wake time of a module that is blocked until an attribute changes. */
+  private static final long BLOCKED = Long.MAX_VALUE;
+
+  private final Person person;
+  private final long timestep;
+  private final Module[] modules;
+  /** Timestep on which each module is next processed, or BLOCKED. */
+  private final long[] wakeTimes;
+  /** Attributes that each blocked module is waiting on. */
+  private final List<Set<String>> blockingAttributes;
+  private final boolean[] completed;
+  private final PriorityQueue<Wakeup> queue;
+  private final Map<String, List<Integer>> watchers;
+  private final AttributeStore attributes;
+
+  /** Timestep currently being processed. */
+  private long time;
+  /** Index of the module being processed, or -1 before and modules.length after the modules. */
+  private int current;
+
+  /**
+   * A module waking up on a given timestep.
+   * Ordered by time, then by the position of the module in person.currentModules.
+   */
+  private static class Wakeup implements Comparable<Wakeup> {
+    private final long time;
+    private final int index;
+
+    private Wakeup(long time, int index) {
+      this.time = time;
+      this.index = index;
+    }
+
+    @Override
+    public int compareTo(Wakeup other) {
+      if (time != other.time) {
+        return Long.compare(time, other.time);
+      }
+      return Integer.compare(index, other.index);
+    }
+  }
+
+  /**
+   * Create a scheduler for the person's current modules, with every module due on the
+   * first timestep.
+   * @param person The person being simulated.
+   * @param start The first timestep to process.
+   * @param timestep The length of a timestep.
+   */
+  ModuleScheduler(Person person, long start, long timestep) {
+    this.person = person;
+    this.timestep = timestep;
+    this.modules = person.currentModules.toArray(new Module[0]);
+    this.wakeTimes = new long[modules.length];
+    this.blockingAttributes = new ArrayList<Set<String>>(modules.length);
+    this.completed = new boolean[modules.length];
+    this.queue = new PriorityQueue<Wakeup>(Math.max(1, modules.length));
+    this.watchers = new HashMap<String, List<Integer>>();
+    this.time = start;
+    this.current = -1;
+    for (int i = 0; i < modules.length; i++) {
+      wakeTimes[i] = start;
+      blockingAttributes.add(null);
+      queue.add(new Wakeup(start, i));
+    }
+    this.attributes = person.attributes;
+    this.attributes.setListener(this);
+  }
+
+  /**
+   * Start processing a timestep. Attributes changed from now until the modules are
+   * processed will wake modules for this timestep.
+   * @param time The timestep.
+   */
+  void beginTimestep(long time) {
+    this.time = time;
+    this.current = -1;
+  }
+
+  /**
+   * Process every module that is due on the current timestep.
+   * Attributes changed from the end of this call until the next timestep begins will wake
+   * modules for the next timestep.
+   */
+  void processModules() {
+    while (!queue.isEmpty() && queue.peek().time <= time) {
+      Wakeup wakeup = queue.poll();
+      int index = wakeup.index;
+      if (completed[index] || wakeTimes[index] != wakeup.time) {
+        continue; // stale entry, the module was rescheduled
+      }
+      current = index;
+      Module module = modules[index];
+      if (module.process(person, time)) {
+        completed[index] = true; // this module has completed/terminated.
+      } else {
+        schedule(index, module);
+      }
+    }
+    current = modules.length;
+  }
+
+  /**
+   * Stop listening to attribute changes and remove the completed modules from
+   * person.currentModules.
+   */
+  void finish() {
+    attributes.setListener(null);
+    List<Module> remaining = new ArrayList<Module>(modules.length);
+    for (int i = 0; i < modules.length; i++) {
+      if (!completed[i]) {
+        remaining.add(modules[i]);
+      }
+    }
+    person.currentModules = remaining;
+  }
+
+  /**
+   * Get the timestep on which a module is next processed.
+   * @param index The position of the module in person.currentModules.
+   * @return The timestep, or Long.MAX_VALUE if the module is blocked until an attribute
+   *     changes or has completed.
+   */
+  long wakeTime(int index) {
+    return completed[index] ? BLOCKED : wakeTimes[index];
+  }
+
+  /**
+   * Decide when a module that was just processed needs to be processed again.
+   */
+  private void schedule(int index, Module module) {
+    long next = time + timestep;
+    State state = module.currentState(person);
+    if (state != null) {
+      state = state.pendingState(person);
+      if (state instanceof State.Delayable && ((State.Delayable) state).next != null) {
+        long end = ((State.Delayable) state).next;
+        if (end > next) {
+          // round up to the first timestep on or after the end of the delay
+          long steps = (end - time + timestep - 1) / timestep;
+          next = time + (steps * timestep);
+        }
+      } else {
+        Set<String> blocking = state.blockingAttributes();
+        if (blocking != null) {
+          block(index, blocking);
+          return;
+        }
+      }
+    }
+    wake(index, next);
+  }
+
+  private void block(int index, Set<String> blocking) {
+    wakeTimes[index] = BLOCKED;
+    blockingAttributes.set(index, blocking);
+    for (String attribute : blocking) {
+      watchers.computeIfAbsent(attribute, a -> new ArrayList<Integer>(2)).add(index);
+    }
+  }
+
+  private void wake(int index, long next) {
+    Set<String> blocking = blockingAttributes.get(index);
+    if (blocking != null) {
+      for (String attribute : blocking) {
+        List<Integer> waiting = watchers.get(attribute);
+        waiting.remove((Integer) index);
+        if (waiting.isEmpty()) {
+          watchers.remove(attribute);
+        }
+      }
+      blockingAttributes.set(index, null);
+    }
+    wakeTimes[index] = next;
+    queue.add(new Wakeup(next, index));
+  }
+
+  /**
+   * Wake any modules that are blocked on the given attribute. A module that has not yet
+   * had its turn on the current timestep is woken for this timestep, otherwise it is
+   * woken for the next one.
+   * @param attribute The attribute that was changed.
+   */
+  @Override
+  public void accept(String attribute) {
+    List<Integer> waiting = watchers.get(attribute);
+    if (waiting == null) {
+      return;
+    }
+    for (Integer index : waiting.toArray(new Integer[0])) {
+      wake(index, index > current ? time : time + timestep);
+    }
+  }
+}
@@ -7,17 +7,24 @@ import java.io.IOException;
 import java.io.PrintWriter;
 import java.io.UnsupportedEncodingException;
 import java.lang.reflect.InvocationTargetException;
+import java.math.BigDecimal;
+import java.math.MathContext;
 import java.net.URISyntaxException;
 import java.net.URL;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayDeque;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.Deque;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 import javax.xml.stream.XMLStreamException;
 
 import org.apache.commons.lang3.ArrayUtils;
@@ -25,6 +32,7 @@ import org.apache.commons.math.ode.DerivativeException;
 import org.mitre.synthea.helpers.ChartRenderer;
 import org.mitre.synthea.helpers.ChartRenderer.MultiTableChartConfig;
 import org.mitre.synthea.helpers.ChartRenderer.MultiTableSeriesConfig;
+import org.mitre.synthea.helpers.Config;
 import org.sbml.jsbml.Model;
 import org.sbml.jsbml.SBMLDocument;
 import org.sbml.jsbml.SBMLException;
@@ -58,9 +66,41 @@ public class PhysiologySimulator {
   private static Path SBML_PATH;
   private static Path OUTPUT_PATH = Paths.get("output", "physiology");
 
+  /**
+   * Maximum number of simulation results to keep, 0 to disable the result cache. Read with
+   * the input precision when the class is loaded, and again by {@link #clearCache()}.
+   */
+  private static volatile int resultCacheSize =
+      Config.getAsInteger("physiology.cache.size", 256);
+  /**
+   * Significant digits inputs are rounded to before solving, when the result cache is
+   * enabled. 0 keeps them as provided.
+   */
+  private static volatile MathContext inputPrecision = new MathContext(
+      Config.getAsInteger("physiology.cache.significant_digits", 6));
+  /** Simulation results shared by every simulator, least recently used first. */
+  private static final Map<ResultKey, MultiTable> RESULT_CACHE =
+      Collections.synchronizedMap(new LinkedHashMap<ResultKey, MultiTable>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<ResultKey, MultiTable> eldest) {
+          return size() > resultCacheSize;
+        }
+      });
+  private static final AtomicLong CACHE_HITS = new AtomicLong();
+  private static final AtomicLong CACHE_MISSES = new AtomicLong();
+  /**
+   * Idle interpreter and solver pairs of each thread, by model and solver name.
+   * Simulators borrow a pair only while solving, so a thread needs one pair per model
+   * and solver however many simulators it runs.
+   */
+  private static final ThreadLocal<Map<String, Deque<Engine>>> ENGINE_POOL =
+      ThreadLocal.withInitial(HashMap::new);
+
+  private final String modelPath;
+  private final String solverName;
+  private final double stepSize;
+  private final String poolKey;
   private final Model model;
-  private final SBMLinterpreter interpreter;
-  private final AbstractDESSolver solver;
   private final String[] modelFields;
   private final double[] modelDefaults;
   private final double simDuration;
@@ -158,7 +198,7 @@ public class PhysiologySimulator {
     }
 
     // Initialize our model cache
-    MODEL_CACHE = new HashMap<String, Model>();
+    MODEL_CACHE = new ConcurrentHashMap<String, Model>();
   }
 
   /**
@@ -186,6 +226,9 @@ public class PhysiologySimulator {
    */
   public PhysiologySimulator(String modelPath, String solverName, double stepSize,
       double simDuration) {
+    this.modelPath = modelPath;
+    this.solverName = solverName;
+    this.stepSize = stepSize;
 
     // Get the model from cache if it has already been loaded
     if (MODEL_CACHE.containsKey(modelPath)) {
@@ -206,12 +249,17 @@ public class PhysiologySimulator {
       // Add the loaded model to the cache so we don't need to load it again
       MODEL_CACHE.put(modelPath, model);
     }
-    interpreter = getInterpreter(model);
-    solver = getSolver(solverName);
-    solver.setStepSize(stepSize);
-    modelFields = interpreter.getIdentifiers();
-    modelDefaults = interpreter.getInitialValues();
+    this.poolKey = modelPath + "|" + solverName;
     this.simDuration = simDuration;
+
+    // Borrowing a pair also checks that the model can be interpreted and the solver exists
+    Engine engine = borrowEngine();
+    try {
+      modelFields = engine.interpreter.getIdentifiers().clone();
+      modelDefaults = engine.interpreter.getInitialValues().clone();
+    } finally {
+      returnEngine(engine);
+    }
   }
 
   /**
@@ -230,6 +278,11 @@ public class PhysiologySimulator {
    *
    * <p>Note that this method will throw a DerivativeException if the model encounters an error
    * while attempting to solve the system.
+   *
+   * <p>Unless "physiology.cache.size" is 0, inputs are rounded to
+   * "physiology.cache.significant_digits" significant digits and results are cached across
+   * all simulators, up to "physiology.cache.size" results. The returned table may be shared
+   * with other callers, so it must not be modified.
    * @param inputs Map of model parameter inputs. For any parameters which are not provided
    *               the default value from the model will be used. If null, all default
    *               parameter values will be used.
@@ -238,34 +291,202 @@ public class PhysiologySimulator {
    *        solution to differential equations
    */
   public MultiTable run(Map<String, Double> inputs) throws DerivativeException {
-    try {
-      // Reinitialize the interpreter to prevent old values from affecting the new simulation
-      interpreter.init(true);
-    } catch (ModelOverdeterminedException | SBMLException ex) {
-      // This shouldn't ever happen here since the interpreter has already been instantiated
-      // at least once
-      throw new RuntimeException(ex);
-    }
-
     // Create a copy of the default parameters to use
     double[] params = Arrays.copyOf(modelDefaults, modelDefaults.length);
 
+    boolean cacheResults = resultCacheSize > 0;
     // Overwrite model defaults with the provided input parameters, if present
     if (inputs != null) {
       for (int i = 0; i < modelFields.length; i++) {
         String field = modelFields[i];
         if (inputs.containsKey(field)) {
-          params[i] = inputs.get(field);
+          params[i] = cacheResults ? quantize(inputs.get(field)) : inputs.get(field);
         }
       }
     }
 
-    // Solve the ODE for the specified duration and return the results
-    MultiTable results = solver.solve(interpreter, params, 0, simDuration);
+    if (!cacheResults) {
+      return solve(params);
+    }
 
+    ResultKey key = new ResultKey(modelPath, solverName, stepSize, simDuration, params);
+    MultiTable results = RESULT_CACHE.get(key);
+    if (results != null) {
+      CACHE_HITS.incrementAndGet();
+      return results;
+    }
+    CACHE_MISSES.incrementAndGet();
+    // Solve outside of the lock. Two threads may solve the same inputs at once, but
+    // both get the same results, so it does not matter which one ends up cached.
+    results = solve(params.clone());
+    RESULT_CACHE.put(key, results);
     return results;
   }
 
+  /**
+   * Solves the model for the specified duration, starting from the given parameters.
+   * Does not use or fill the result cache.
+   * @param params initial values of all model parameters
+   * @return simulation results
+   * @throws DerivativeException Exception if the solver encounters errors while computing the
+   *        solution to differential equations
+   */
+  private MultiTable solve(double[] params) throws DerivativeException {
+    Engine engine = borrowEngine();
+    try {
+      try {
+        // Reinitialize the interpreter to prevent old values from affecting the new simulation
+        engine.interpreter.init(true);
+      } catch (ModelOverdeterminedException | SBMLException ex) {
+        // This shouldn't ever happen here since the interpreter has already been instantiated
+        // at least once
+        throw new RuntimeException(ex);
+      }
+
+      // Solve the ODE for the specified duration and return the results
+      return engine.solver.solve(engine.interpreter, params, 0, simDuration);
+    } finally {
+      returnEngine(engine);
+    }
+  }
+
+  /**
+   * Takes an idle interpreter and solver pair for this model and solver from the current
+   * thread's pool, or creates one if there are none.
+   * @return interpreter and solver pair, set to this simulator's step size
+   */
+  private Engine borrowEngine() {
+    Deque<Engine> idle = ENGINE_POOL.get().get(poolKey);
+    Engine engine = (idle == null) ? null : idle.poll();
+    if (engine == null) {
+      engine = new Engine(getInterpreter(model), getSolver(solverName));
+    }
+    engine.solver.setStepSize(stepSize);
+    return engine;
+  }
+
+  /**
+   * Returns a borrowed interpreter and solver pair to the current thread's pool.
+   * @param engine pair to return
+   */
+  private void returnEngine(Engine engine) {
+    ENGINE_POOL.get().computeIfAbsent(poolKey, k -> new ArrayDeque<Engine>()).push(engine);
+  }
+
+  /** An interpreter for a model, and a solver to run it with. */
+  private static final class Engine {
+    private final SBMLinterpreter interpreter;
+    private final AbstractDESSolver solver;
+
+    private Engine(SBMLinterpreter interpreter, AbstractDESSolver solver) {
+      this.interpreter = interpreter;
+      this.solver = solver;
+    }
+  }
+
+  /**
+   * Rounds a model input to the configured number of significant digits, so that
+   * nearly identical inputs share the same cached results.
+   * @param value input value
+   * @return rounded value
+   */
+  private static double quantize(double value) {
+    MathContext precision = inputPrecision;
+    if (precision.getPrecision() == 0 || Double.isNaN(value) || Double.isInfinite(value)) {
+      return value;
+    }
+    return new BigDecimal(value).round(precision).doubleValue();
+  }
+
+  /**
+   * Number of simulations answered from the result cache.
+   * @return cache hits since the cache was last cleared
+   */
+  public static long getCacheHits() {
+    return CACHE_HITS.get();
+  }
+
+  /**
+   * Number of simulations that had to be solved.
+   * @return cache misses since the cache was last cleared
+   */
+  public static long getCacheMisses() {
+    return CACHE_MISSES.get();
+  }
+
+  /**
+   * Fraction of simulations answered from the result cache.
+   * @return hit rate between 0 and 1, or 0 if nothing has been simulated
+   */
+  public static double getCacheHitRate() {
+    long hits = CACHE_HITS.get();
+    long total = hits + CACHE_MISSES.get();
+    return (total == 0) ? 0.0 : (double) hits / total;
+  }
+
+  /**
+   * Removes all cached simulation results and resets the hit and miss counts. The
+   * "physiology.cache.size" and "physiology.cache.significant_digits" settings are read
+   * again, so that changes to them apply together.
+   */
+  public static void clearCache() {
+    resultCacheSize = Config.getAsInteger("physiology.cache.size", 256);
+    inputPrecision = new MathContext(
+        Config.getAsInteger("physiology.cache.significant_digits", 6));
+    RESULT_CACHE.clear();
+    CACHE_HITS.set(0);
+    CACHE_MISSES.set(0);
+  }
+
+  /**
+   * Key of the result cache. Two simulations with the same model, solver, step size,
+   * duration and initial parameters always produce the same results.
+   */
+  private static final class ResultKey {
+    private final String modelPath;
+    private final String solverName;
+    private final double stepSize;
+    private final double simDuration;
+    private final double[] params;
+    private final int hash;
+
+    private ResultKey(String modelPath, String solverName, double stepSize,
+        double simDuration, double[] params) {
+      this.modelPath = modelPath;
+      this.solverName = solverName;
+      this.stepSize = stepSize;
+      this.simDuration = simDuration;
+      this.params = params;
+      int result = modelPath.hashCode();
+      result = 31 * result + solverName.hashCode();
+      result = 31 * result + Double.hashCode(stepSize);
+      result = 31 * result + Double.hashCode(simDuration);
+      this.hash = 31 * result + Arrays.hashCode(params);
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (this == obj) {
+        return true;
+      }
+      if (!(obj instanceof ResultKey)) {
+        return false;
+      }
+      ResultKey other = (ResultKey) obj;
+      return hash == other.hash
+          && Double.compare(stepSize, other.stepSize) == 0
+          && Double.compare(simDuration, other.simDuration) == 0
+          && modelPath.equals(other.modelPath)
+          && solverName.equals(other.solverName)
+          && Arrays.equals(params, other.params);
+    }
+  }
+
   /**
    * Checks whether a string is a valid solver name.
    * @param solverName solver name string to check
@@ -369,7 +590,7 @@ public class PhysiologySimulator {
    * @return initial value
    */
   public double getParamDefault(String param) {
-    return modelDefaults[ArrayUtils.indexOf(interpreter.getIdentifiers(), param)];
+    return modelDefaults[ArrayUtils.indexOf(modelFields, param)];
   }
 
   /**
@@ -8,9 +8,11 @@ import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -32,6 +34,7 @@ import org.mitre.synthea.engine.Transition.DistributedTransition;
 import org.mitre.synthea.engine.Transition.DistributedTransitionOption;
 import org.mitre.synthea.engine.Transition.LookupTableTransition;
 import org.mitre.synthea.engine.Transition.LookupTableTransitionOption;
+import org.mitre.synthea.helpers.AttributeStore;
 import org.mitre.synthea.helpers.Config;
 import org.mitre.synthea.helpers.ConstantValueGenerator;
 import org.mitre.synthea.helpers.ExpressionProcessor;
@@ -59,6 +62,8 @@ public abstract class State implements Cloneable, Serializable {
   public Long entered;
   public Entry entry;
   public Long exited;
+  /** Index of this state within its module, assigned when the module is compiled. */
+  int index = -1;
 
   private Transition transition;
   // note that these are not Transition objects, because they are JSON lists
@@ -144,10 +149,59 @@ public abstract class State implements Cloneable, Serializable {
     return transition.follow(person, time);
   }
 
+  /**
+   * Get the index of the next state within the module, following the transition resolved by
+   * {@link #link(Map)}.
+   * @param person the person being simulated
+   * @param time the date within the simulated world
+   * @return index of the next state, or -1 if the next state does not exist in the module.
+   */
+  public int transitionIndex(Person person, long time) {
+    return transition.followIndex(person, time);
+  }
+
+  /**
+   * Resolve the transitions of this state into state indices within the module.
+   * @param stateIndices map of state name to state index within the module.
+   */
+  protected void link(Map<String, Integer> stateIndices) {
+    if (transition != null) {
+      transition.link(stateIndices);
+    }
+  }
+
   public Transition getTransition() {
     return transition;
   }
 
+  /**
+   * Whether this state must be kept whole in the module history once it has been exited,
+   * rather than reduced to its name and times.
+   * @return true if the state holds person-specific data, such as a HealthRecord.Entry
+   */
+  boolean keepInHistory() {
+    return entry != null;
+  }
+
+  /**
+   * Get the state that is holding up the module while this state is the current state.
+   * This is the state itself, except for states that hand processing off to another module.
+   * @param person the person being simulated
+   * @return the state that is actually waiting
+   */
+  State pendingState(Person person) {
+    return this;
+  }
+
+  /**
+   * Get the names of the person attributes whose change can unblock this state, when this
+   * state is waiting on an event rather than on the passage of time.
+   * @return attribute names, or null if the state must be processed every timestep
+   */
+  Set<String> blockingAttributes() {
+    return null;
+  }
+
   /**
    * Process this State with the given Person at the specified time within the simulation.
    * If this State generates a HealthRecord.Entry during processing, then the resulting data
@@ -298,6 +352,23 @@ public abstract class State implements Cloneable, Serializable {
         return false;
       }
     }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    State pendingState(Person person) {
+      Object history = person.attributes.get(Module.getModuleByPath(submodule).name);
+      if (history instanceof List && !((List<State>) history).isEmpty()) {
+        return ((List<State>) history).get(0).pendingState(person);
+      }
+      // a java submodule, which keeps no history of its own
+      return this;
+    }
+
+    @Override
+    boolean keepInHistory() {
+      // this state appears twice in the history, and is exited after the first is recorded
+      return true;
+    }
   }
 
   /**
@@ -434,6 +505,21 @@ public abstract class State implements Cloneable, Serializable {
       return altTransition.follow(person, time);
     }
 
+    @Override
+    public int transitionIndex(Person person, long time) {
+      if (ENABLE_PHYSIOLOGY_STATE) {
+        return super.transitionIndex(person, time);
+      }
+
+      return altTransition.followIndex(person, time);
+    }
+
+    @Override
+    protected void link(Map<String, Integer> stateIndices) {
+      super.link(stateIndices);
+      altTransition.link(stateIndices);
+    }
+
   }
 
   /**
@@ -618,6 +704,11 @@ public abstract class State implements Cloneable, Serializable {
       }
       return exit;
     }
+
+    @Override
+    Set<String> blockingAttributes() {
+      return allow.attributeDependencies();
+    }
   }
 
   /**
@@ -635,31 +726,25 @@ public abstract class State implements Cloneable, Serializable {
     private String valueAttribute;
     private Range<Double> range;
     private String expression;
-    private transient ThreadLocal<ExpressionProcessor> threadExpProcessor;
     private String seriesData;
     private double period;
     // For GMF 2.0 Support
     private Distribution distribution;
+    /** Slot of the attribute in the person's attribute store. */
+    private transient Integer slot;
 
+    @Override
+    protected void initialize(Module module, String name, JsonObject definition) {
+      super.initialize(module, name, definition);
 
-    private ThreadLocal<ExpressionProcessor> getExpProcessor() {
-      // If the ThreadLocal instance hasn't been created yet, create it now
-      if (threadExpProcessor == null) {
-        threadExpProcessor = new ThreadLocal<ExpressionProcessor>();
+      if (attribute != null) {
+        slot = AttributeStore.slot(attribute);
       }
 
-      // If there's an expression, create the processor for it
-      if (this.expression != null && threadExpProcessor.get() == null) {
-        threadExpProcessor.set(new ExpressionProcessor(this.expression));
+      if (expression != null) {
+        ExpressionProcessor.precompile(expression);
       }
 
-      return threadExpProcessor;
-    }
-
-    @Override
-    protected void initialize(Module module, String name, JsonObject definition) {
-      super.initialize(module, name, definition);
-
       // special handling for integers
       if (value instanceof Double) {
         double doubleVal = (double) value;
@@ -680,6 +765,21 @@ public abstract class State implements Cloneable, Serializable {
       }
     }
 
+    /**
+     * Java Serialization support method to find the slot of the attribute again, since slots
+     * are only assigned while the process is running.
+     * @param ois the stream to read from
+     */
+    private void readObject(ObjectInputStream ois) throws ClassNotFoundException, IOException {
+      ois.defaultReadObject();
+      if (attribute != null) {
+        slot = AttributeStore.slot(attribute);
+      }
+      if (expression != null) {
+        ExpressionProcessor.precompile(expression);
+      }
+    }
+
     @Override
     public SetAttribute clone() {
       SetAttribute clone = (SetAttribute) super.clone();
@@ -688,9 +788,8 @@ public abstract class State implements Cloneable, Serializable {
 
     @Override
     public boolean process(Person person, long time) {
-      ThreadLocal<ExpressionProcessor> expProcessor = getExpProcessor();
-      if (expProcessor.get() != null) {
-        value = expProcessor.get().evaluate(person, time);
+      if (expression != null) {
+        value = ExpressionProcessor.forExpression(expression).evaluate(person, time);
       } else if (range != null) {
         value = person.rand(range.low, range.high, range.decimals);
       } else if (seriesData != null) {
@@ -719,10 +818,10 @@ public abstract class State implements Cloneable, Serializable {
       }
 
       if (value != null) {
-        person.attributes.put(attribute, value);
-      } else if (person.attributes.containsKey(attribute)) {
+        person.attributes.put(slot.intValue(), value);
+      } else {
         // intentionally clear out the variable
-        person.attributes.remove(attribute);
+        person.attributes.remove(slot.intValue());
       }
 
       return true;
@@ -740,10 +839,15 @@ public abstract class State implements Cloneable, Serializable {
     private String action;
     private boolean increment;
     private int amount;
+    /** Slot of the attribute in the person's attribute store. */
+    private transient Integer slot;
 
     @Override
     protected void initialize(Module module, String name, JsonObject definition) {
       super.initialize(module, name, definition);
+      if (attribute != null) {
+        slot = AttributeStore.slot(attribute);
+      }
       increment = action.equals("increment");
       if (amount == 0) {
         // default to 1 for legacy compatibility
@@ -751,6 +855,18 @@ public abstract class State implements Cloneable, Serializable {
       }
     }
 
+    /**
+     * Java Serialization support method to find the slot of the attribute again, since slots
+     * are only assigned while the process is running.
+     * @param ois the stream to read from
+     */
+    private void readObject(ObjectInputStream ois) throws ClassNotFoundException, IOException {
+      ois.defaultReadObject();
+      if (attribute != null) {
+        slot = AttributeStore.slot(attribute);
+      }
+    }
+
     @Override
     public Counter clone() {
       Counter clone = (Counter) super.clone();
@@ -759,11 +875,14 @@ public abstract class State implements Cloneable, Serializable {
 
     @Override
     public boolean process(Person person, long time) {
-      int counter = 0;
-      if (person.attributes.containsKey(attribute)) {
+      int counter;
+      try {
         // this cast as int from double is to handle cases where the attribute
         // is either a java.lang.Double or java.lang.Integer
-        counter = (int) Double.parseDouble(person.attributes.get(attribute).toString());
+        counter = (int) person.attributes.getDouble(slot, 0);
+      } catch (ClassCastException e) {
+        // the attribute is not a number, but may be a string containing one
+        counter = (int) Double.parseDouble(person.attributes.get(slot.intValue()).toString());
       }
 
       if (increment) {
@@ -771,7 +890,7 @@ public abstract class State implements Cloneable, Serializable {
       } else {
         counter = counter - amount;
       }
-      person.attributes.put(attribute, counter);
+      person.attributes.putInt(slot, counter);
       return true;
     }
   }
@@ -875,9 +994,15 @@ public abstract class State implements Cloneable, Serializable {
       }
     }
 
+    @Override
+    Set<String> blockingAttributes() {
+      // a wellness encounter state waits for the encounter module to start a wellness encounter
+      return wellness ? Collections.singleton(EncounterModule.ACTIVE_WELLNESS_ENCOUNTER) : null;
+    }
+
     private void diagnosePastConditions(Person person, long time) {
       // reminder: history[0] is current state, history[size-1] is Initial
-      for (State state : person.history) {
+      for (State state : ModuleHistory.keptStates(person.history)) {
         if (state instanceof OnsetState) {
           OnsetState onset = (OnsetState) state;
 
@@ -1034,6 +1159,12 @@ public abstract class State implements Cloneable, Serializable {
     }
 
     public abstract void diagnose(Person person, long time);
+
+    @Override
+    boolean keepInHistory() {
+      // may be diagnosed by a later encounter
+      return true;
+    }
   }
 
   /**
@@ -1544,7 +1675,6 @@ public abstract class State implements Cloneable, Serializable {
     private String unit;
     private String expression;
     private Distribution distribution;
-    private transient ThreadLocal<ExpressionProcessor> threadExpProcessor;
 
     @Override
     protected void initialize(Module module, String name, JsonObject definition) {
@@ -1553,20 +1683,9 @@ public abstract class State implements Cloneable, Serializable {
         throw new IllegalStateException(
             String.format("State %s contains an invalid distribution", this.name));
       }
-    }
-
-    private ThreadLocal<ExpressionProcessor> getExpProcessor() {
-      // If the ThreadLocal instance hasn't been created yet, create it now
-      if (threadExpProcessor == null) {
-        threadExpProcessor = new ThreadLocal<ExpressionProcessor>();
-      }
-
-      // If there's an expression, create the processor for it
-      if (this.expression != null && threadExpProcessor.get() == null) {
-        threadExpProcessor.set(new ExpressionProcessor(this.expression));
+      if (expression != null) {
+        ExpressionProcessor.precompile(expression);
       }
-
-      return threadExpProcessor;
     }
 
     @Override
@@ -1586,8 +1705,9 @@ public abstract class State implements Cloneable, Serializable {
               (double) range.low, (double) range.high));
         }
       } else {
-        if (getExpProcessor().get() != null) {
-          Number value = (Number) getExpProcessor().get().evaluate(person, time);
+        if (expression != null) {
+          Number value = (Number) ExpressionProcessor.forExpression(expression)
+              .evaluate(person, time);
           person.setVitalSign(vitalSign, value.doubleValue());
         } else if (distribution != null) {
           person.setVitalSign(vitalSign, new RandomValueGenerator(person, distribution));
@@ -1645,12 +1765,14 @@ public abstract class State implements Cloneable, Serializable {
     private String unit;
     private String expression;
     private Distribution distribution;
-    private transient ThreadLocal<ExpressionProcessor> threadExpProcessor;
 
     @Override
     protected void initialize(Module module, String name, JsonObject definition) {
       super.initialize(module, name, definition);
       validate(module, name);
+      if (expression != null) {
+        ExpressionProcessor.precompile(expression);
+      }
     }
 
     protected void validate(Module module, String name) {
@@ -1670,25 +1792,6 @@ public abstract class State implements Cloneable, Serializable {
       }
     }
 
-    private ThreadLocal<ExpressionProcessor> getExpProcessor() {
-      // If the ThreadLocal instance hasn't been created yet, create it now
-      if (threadExpProcessor == null) {
-        threadExpProcessor = new ThreadLocal<ExpressionProcessor>();
-      }
-
-      // If there's an expression, create the processor for it
-      if (expression != null && threadExpProcessor.get() == null) {
-        threadExpProcessor.set(new ExpressionProcessor(expression));
-      }
-
-      // If there's an attachment, validate it before we process
-      if (attachment != null) {
-        attachment.validate();
-      }
-
-      return threadExpProcessor;
-    }
-
     @Override
     public Observation clone() {
       Observation clone = (Observation) super.clone();
@@ -1715,9 +1818,8 @@ public abstract class State implements Cloneable, Serializable {
           value = person.getVitalSign(vitalSign, time);
         } else if (valueCode != null) {
           value = valueCode;
-        } else if (threadExpProcessor != null
-            && threadExpProcessor.get() != null) {
-          value = threadExpProcessor.get().evaluate(person, time);
+        } else if (expression != null) {
+          value = ExpressionProcessor.forExpression(expression).evaluate(person, time);
         } else if (sampledData != null) {
           // Capture the data lists from person attributes
           sampledData.setSeriesData(person);
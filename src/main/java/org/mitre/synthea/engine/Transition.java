@@ -3,11 +3,14 @@ package org.mitre.synthea.engine;
 import com.google.gson.JsonObject;
 
 import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.apache.commons.lang3.Range;
 import org.mitre.synthea.helpers.Config;
@@ -34,6 +37,36 @@ public abstract class Transition implements Serializable {
    */
   public abstract String follow(Person person, long time);
 
+  /**
+   * Get the index of the next state within the module, as resolved by
+   * {@link #link(Map)}. Returns -1 if the next state does not exist in the module.
+   *
+   * @param person : person being processed
+   * @param time   : time of this transition
+   * @return index : index of the next state
+   */
+  public abstract int followIndex(Person person, long time);
+
+  /**
+   * Resolve the names of all the states this transition may lead to into their indices within
+   * the module, so that following the transition does not require a lookup by name.
+   * This is called once, when the module is loaded.
+   *
+   * @param stateIndices : map of state name to state index within the module
+   */
+  public abstract void link(Map<String, Integer> stateIndices);
+
+  /**
+   * Resolve a state name into its index within the module.
+   * @param stateIndices map of state name to state index within the module
+   * @param stateName name of the state
+   * @return the index of the state, or -1 if the module has no state with that name.
+   */
+  private static int indexOf(Map<String, Integer> stateIndices, String stateName) {
+    Integer index = stateIndices.get(stateName);
+    return index == null ? -1 : index;
+  }
+
   /**
    * Direct transitions are the simplest of transitions. They transition directly
    * to the indicated state. The value of a direct_transition is simply the name
@@ -41,6 +74,7 @@ public abstract class Transition implements Serializable {
    */
   public static class DirectTransition extends Transition {
     private String transition;
+    private int index = -1;
 
     public DirectTransition(String transition) {
       this.transition = transition;
@@ -50,6 +84,16 @@ public abstract class Transition implements Serializable {
     public String follow(Person person, long time) {
       return transition;
     }
+
+    @Override
+    public int followIndex(Person person, long time) {
+      return index;
+    }
+
+    @Override
+    public void link(Map<String, Integer> stateIndices) {
+      index = indexOf(stateIndices, transition);
+    }
   }
 
   /**
@@ -58,6 +102,12 @@ public abstract class Transition implements Serializable {
    */
   private abstract static class TransitionOption implements Serializable {
     protected String transition;
+    /** Index of the transition state within the module, set by link(). */
+    protected int index = -1;
+
+    protected void link(Map<String, Integer> stateIndices) {
+      index = indexOf(stateIndices, transition);
+    }
   }
 
   /**
@@ -95,7 +145,17 @@ public abstract class Transition implements Serializable {
 
     @Override
     public String follow(Person person, long time) {
-      return pickDistributedTransition(transitions, person);
+      return pickDistributedTransition(transitions, person).transition;
+    }
+
+    @Override
+    public int followIndex(Person person, long time) {
+      return pickDistributedTransition(transitions, person).index;
+    }
+
+    @Override
+    public void link(Map<String, Integer> stateIndices) {
+      transitions.forEach(option -> option.link(stateIndices));
     }
   }
 
@@ -120,13 +180,14 @@ public abstract class Transition implements Serializable {
   public static class LookupTableTransition extends Transition {
 
     // Map of lookupTables
-    private static HashMap<String, HashMap<LookupTableKey, List<DistributedTransitionOption>>>
-        lookupTables = new HashMap<String, HashMap<LookupTableKey,
-        List<DistributedTransitionOption>>>();
+    private static final ConcurrentMap<String, LookupTable<List<DistributedTransitionOption>>>
+        lookupTables = new ConcurrentHashMap<String,
+        LookupTable<List<DistributedTransitionOption>>>();
     private final List<LookupTableTransitionOption> transitions;
-    private List<String> attributes;
     private List<DistributedTransitionOption> defaultTransitions;
     private String lookupTableName;
+    /** Lookup tables are shared between modules, so state indices are resolved by name. */
+    private Map<String, Integer> stateIndices;
 
     /**
      * Constructor for LookupTableTransition.
@@ -141,9 +202,17 @@ public abstract class Transition implements Serializable {
         throw new RuntimeException(
           "LOOKUP TABLE JSON ERROR: Table name cannot be null.");
       }
-      if (!lookupTables.containsKey(lookupTableName)) {
-        loadLookupTable();
-      }
+      lookupTables.computeIfAbsent(lookupTableName, name -> loadLookupTable());
+    }
+
+    /**
+     * Java Serialization support method to load the lookup table again, since lookup tables
+     * are shared between transitions in a static map rather than serialized with them.
+     * @param ois the stream to read from
+     */
+    private void readObject(ObjectInputStream ois) throws ClassNotFoundException, IOException {
+      ois.defaultReadObject();
+      lookupTables.computeIfAbsent(lookupTableName, name -> loadLookupTable());
     }
 
     /**
@@ -164,12 +233,9 @@ public abstract class Transition implements Serializable {
     /**
      * Loads the current lookuptable.
      */
-    private void loadLookupTable() {
+    private LookupTable<List<DistributedTransitionOption>> loadLookupTable() {
 
       System.out.println("Loading Lookup Table: " + lookupTableName);
-      // Hashmap for the new lookup table.
-      HashMap<LookupTableKey, List<DistributedTransitionOption>> newTable
-          = new HashMap<LookupTableKey, List<DistributedTransitionOption>>();
 
       // Load in this transitions's CSV file.
       String fileName = Config.get("generate.lookup_tables") + lookupTableName;
@@ -184,24 +250,30 @@ public abstract class Transition implements Serializable {
       // Retrieve CSV column headers.
       List<String> columnHeaders = new ArrayList<String>(lookupTable.get(0).keySet());
       // Parse the list of attributes.
-      this.attributes = new ArrayList<String>(columnHeaders.subList(0,
-          columnHeaders.size() - this.transitions.size()));
+      List<String> columns = columnHeaders.subList(0,
+          columnHeaders.size() - this.transitions.size());
+      List<String> attributes = new ArrayList<String>(columns);
+      boolean hasAge = attributes.remove("age");
+      boolean hasTime = attributes.remove("time");
       // Parse the list of states to transition to.
       List<String> transitionStates = columnHeaders.subList((columnHeaders.size()
           - this.transitions.size()), columnHeaders.size());
+      LookupTable<List<DistributedTransitionOption>> newTable =
+          new LookupTable<List<DistributedTransitionOption>>(attributes, hasAge, hasTime);
 
-      // Create keys and insert each row of CSV into lookup table map.
+      // Insert each row of CSV into the lookup table.
       for (Map<String, String> currentRow : lookupTable) {
         // Extract attributes from current CSV row.
-        List<String> rowAttributes = new ArrayList<String>(currentRow.values());
-        rowAttributes = rowAttributes.subList(0, this.attributes.size());
+        List<String> rowAttributes = new ArrayList<String>(attributes.size());
+        for (String column : attributes) {
+          rowAttributes.add(currentRow.get(column));
+        }
         // Create age range for lookup table key if age is an attribute.
         Range<Integer> ageRange = null;
         Range<Long> timeRange = null;
-        if (this.attributes.contains("age")) {
-          Integer ageIndex = this.attributes.indexOf("age");
-          // Remove and parse the age range.
-          String value = rowAttributes.remove(ageIndex.intValue());
+        if (hasAge) {
+          // Parse the age range.
+          String value = currentRow.get("age");
           if (!value.contains("-")
               || value.substring(0, value.indexOf("-")).length() < 1
               || value.substring(value.indexOf("-") + 1).length() < 1) {
@@ -214,24 +286,25 @@ public abstract class Transition implements Serializable {
               Integer.parseInt(value.substring(0, value.indexOf("-"))),
               Integer.parseInt(value.substring(value.indexOf("-") + 1)));
         }
-        if (this.attributes.contains("time")) {
-          Integer timeIndex = this.attributes.indexOf("time");
-          // Remove and parse the age range.
-          String value = rowAttributes.remove(timeIndex.intValue());
+        if (hasTime) {
+          // Parse the time range.
+          String value = currentRow.get("time");
           timeRange = Utilities.parseDateRange(value);
         }
-        // Attributes key to inert into lookup table.
-        LookupTableKey attributesLookupKey =
-            new LookupTableKey(rowAttributes, ageRange, timeRange);
         // Transition probabilities to insert into lookup table.
         List<DistributedTransitionOption> transitionProbabilities
             = createDistributedTransitionOptions(currentRow, transitionStates);
         // Insert the parsed attributes and transition probabilities into lookup table.
-        newTable.put(attributesLookupKey, transitionProbabilities);
+        try {
+          newTable.add(rowAttributes, ageRange, timeRange, transitionProbabilities);
+        } catch (IllegalArgumentException e) {
+          throw new RuntimeException("LOOKUP TABLE '" + fileName + "' ERROR: " + e.getMessage()
+              + " Found row " + currentRow.values(), e);
+        }
       }
 
-      // Put new table into Hash map of all lookup tables.
-      lookupTables.put(lookupTableName, newTable);
+      newTable.index();
+      return newTable;
     }
 
     /**
@@ -261,175 +334,36 @@ public abstract class Transition implements Serializable {
 
     @Override
     public String follow(Person person, long time) {
-      Integer age = null;
-      // Extract Person's list of relevant attributes.
-      ArrayList<String> personsAttributes = new ArrayList<String>();
-      for (String currentAttribute : this.attributes) {
-        if (currentAttribute.equalsIgnoreCase("age")) {
-          age = person.ageInYears(time);
-        } else if (currentAttribute.equalsIgnoreCase("time")) {
-          // do nothing, we already have it
-        } else {
-          if (!person.attributes.containsKey(currentAttribute)) {
-            throw new RuntimeException("LOOKUP TABLE ERROR: Attribute '"
-                + currentAttribute + "' in CSV table '" + this.lookupTableName
-                + "' does not exist as one of this person's attributes.");
-          }
-          String personsAttribute
-              = person.attributes.get(currentAttribute).toString();
-          personsAttributes.add(personsAttribute);
-        }
-      }
-      // Create key from person's attributes to get distributions
-      LookupTableKey personsAttributesLookupKey = new LookupTableKey(personsAttributes, age, time);
-      if (lookupTables.get(lookupTableName).containsKey(personsAttributesLookupKey)) {
-        // Person matches, use their attribute's list of distributedtransitionoptions
-        return pickDistributedTransition(
-          lookupTables.get(lookupTableName).get(personsAttributesLookupKey), person);
-      } else {
-        // No attribute match, use default transition.
-        return pickDistributedTransition(this.defaultTransitions, person);
-      }
-    }
-  }
-
-  public final class LookupTableKey implements Serializable {
-    private final List<String> attributes;
-    /** Age for this patient. May be null if lookup table does not use age. */
-    private final Integer age;
-    /** Age range for this row. Null if this is a person. */
-    private final Range<Integer> ageRange;
-
-    private final Long time;
-    private final Range<Long> timeRange;
-
-    /**
-     * Create a symbolic lookup key for a given row that contains actual patient values.
-     * @param attributes Patient attribute values.
-     * @param age Patient age.
-     */
-    public LookupTableKey(List<String> attributes, Integer age, Long time) {
-      this.attributes = attributes;
-      this.age = age;
-      this.ageRange = null;
-      this.time = time;
-      this.timeRange = null;
+      return pickTransition(person, time).transition;
     }
 
-    /**
-     * Create a symbolic lookup key for a given row that contains lookup values.
-     * @param attributes Table attribute values.
-     * @param range If the table contains an age column, range contains the age range
-     *     information for this key.
-     */
-    public LookupTableKey(List<String> attributes, Range<Integer> range, Range<Long> timeRange) {
-      this.attributes = attributes;
-      this.age = null;
-      this.ageRange = range;
-      this.time = null;
-      this.timeRange = timeRange;
-    }
-
-    /**
-     * Overrides the hashcode method. Returns the hash of the List of attributes,
-     * forcing age range to be a hash collision.
-     */
     @Override
-    public int hashCode() {
-      return this.attributes.hashCode();
+    public int followIndex(Person person, long time) {
+      return indexOf(stateIndices, pickTransition(person, time).transition);
     }
 
-    /**
-     * Overides the equals method. If there is no age in this tranistion, then it just
-     * returns the default List.equals(). If there is an age range, then the age
-     * must fit in the range for this to return true.
-     *
-     * @param obj the object to check that this equals.
-     */
     @Override
-    public boolean equals(Object obj) {
-      if (obj == null || this.getClass() != obj.getClass()) {
-        return false;
+    public void link(Map<String, Integer> stateIndices) {
+      this.stateIndices = new HashMap<String, Integer>();
+      for (LookupTableTransitionOption option : transitions) {
+        this.stateIndices.put(option.transition, indexOf(stateIndices, option.transition));
       }
-      LookupTableKey that = (LookupTableKey) obj;
-
-      boolean agesMatch = true;
-      boolean timesMatch = true;
-
-      if (this.age != null) {
-        if (that.age != null) {
-          agesMatch = (this.age == that.age);
-        } else if (that.ageRange != null) {
-          agesMatch = (that.ageRange.contains(this.age));
-        } else {
-          // that.age == null && that.ageRange == null
-          agesMatch = false;
-        }
-      } else if (that.age != null) {
-        if (this.ageRange != null) {
-          agesMatch = (this.ageRange.contains(that.age));
-        } else {
-          // this.age == null && this.ageRange == null
-          agesMatch = false;
-        }
-      } else if (this.ageRange != null) {
-        // this.age == null && that.age == null
-        if (that.ageRange != null) {
-          agesMatch = this.ageRange.containsRange(that.ageRange);
-        } else {
-          agesMatch = false;
-        }
-      } else if (that.ageRange != null) {
-        agesMatch = false;
-      }
-
-      if (this.time != null) {
-        if (that.time != null) {
-          timesMatch = (this.time == that.time);
-        } else if (that.timeRange != null) {
-          timesMatch = (that.timeRange.contains(this.time));
-        } else {
-          // that.age == null && that.ageRange == null
-          // do nothing. Time will always be populated in one of them
-        }
-      } else if (that.time != null) {
-        if (this.timeRange != null) {
-          timesMatch = (this.timeRange.contains(that.time));
-        } else {
-          // this.age == null && this.ageRange == null
-          timesMatch = false;
-        }
-      } else if (this.timeRange != null) {
-        // this.age == null && that.age == null
-        if (that.timeRange != null) {
-          timesMatch = this.timeRange.containsRange(that.timeRange);
-        } else {
-          timesMatch = false;
-        }
-      } else if (that.timeRange != null) {
-        timesMatch = false;
-      }
-
-      return agesMatch && timesMatch && this.attributes.equals(that.attributes);
     }
 
-    /**
-     * Overrides the toString method for LookupTableKey.
-     */
-    @Override
-    public String toString() {
-      String ending = "";
-      if (this.age != null || this.ageRange != null) {
-        ending = (this.age == null ? ageRange.toString() : this.age.toString());
-      }
-      if (this.time != null || this.timeRange != null) {
-        ending = (this.time == null ? timeRange.toString() : this.time.toString());
+    private DistributedTransitionOption pickTransition(Person person, long time) {
+      // Find the row matching the person's attributes, age and the time
+      List<DistributedTransitionOption> row =
+          lookupTables.get(lookupTableName).lookup(person, time, lookupTableName);
+      if (row != null) {
+        // Person matches, use their attribute's list of distributedtransitionoptions
+        return pickDistributedTransition(row, person);
+      } else {
+        // No attribute match, use default transition.
+        return pickDistributedTransition(this.defaultTransitions, person);
       }
-      return attributes.toString() + " : " + ending;
     }
   }
 
-
   /**
    * A ConditionalTransitionOption represents a single destination state, with a
    * given logical condition that must be true in order for the state to be
@@ -459,14 +393,27 @@ public abstract class Transition implements Serializable {
 
     @Override
     public String follow(Person person, long time) {
+      return pickConditionalTransition(person, time).transition;
+    }
+
+    @Override
+    public int followIndex(Person person, long time) {
+      return pickConditionalTransition(person, time).index;
+    }
+
+    @Override
+    public void link(Map<String, Integer> stateIndices) {
+      transitions.forEach(option -> option.link(stateIndices));
+    }
+
+    private TransitionOption pickConditionalTransition(Person person, long time) {
       for (ConditionalTransitionOption option : transitions) {
         if (option.condition == null || option.condition.test(person, time)) {
-          return option.transition;
+          return option;
         }
       }
       // fallback, just return the last transition
-      TransitionOption last = transitions.get(transitions.size() - 1);
-      return last.transition;
+      return transitions.get(transitions.size() - 1);
     }
   }
 
@@ -504,6 +451,20 @@ public abstract class Transition implements Serializable {
 
     @Override
     public String follow(Person person, long time) {
+      return pickComplexTransition(person, time).transition;
+    }
+
+    private TransitionOption follow(ComplexTransitionOption option, Person person) {
+      if (option.transition != null) {
+        return option;
+      } else if (option.distributions != null) {
+        return pickDistributedTransition(option.distributions, person);
+      }
+      throw new IllegalArgumentException(
+          "Complex Transition must have either transition or distributions");
+    }
+
+    private TransitionOption pickComplexTransition(Person person, long time) {
       for (ComplexTransitionOption option : transitions) {
         if (option.condition == null || option.condition.test(person, time)) {
           return follow(option, person);
@@ -515,18 +476,23 @@ public abstract class Transition implements Serializable {
       return follow(last, person);
     }
 
-    private String follow(ComplexTransitionOption option, Person person) {
-      if (option.transition != null) {
-        return option.transition;
-      } else if (option.distributions != null) {
-        return pickDistributedTransition(option.distributions, person);
+    @Override
+    public int followIndex(Person person, long time) {
+      return pickComplexTransition(person, time).index;
+    }
+
+    @Override
+    public void link(Map<String, Integer> stateIndices) {
+      for (ComplexTransitionOption option : transitions) {
+        option.link(stateIndices);
+        if (option.distributions != null) {
+          option.distributions.forEach(distribution -> distribution.link(stateIndices));
+        }
       }
-      throw new IllegalArgumentException(
-          "Complex Transition must have either transition or distributions");
     }
   }
 
-  private static String pickDistributedTransition(
+  private static DistributedTransitionOption pickDistributedTransition(
       List<DistributedTransitionOption> transitions, Person person) {
     double p = person.rand();
     double high = 0.0;
@@ -543,12 +509,11 @@ public abstract class Transition implements Serializable {
         high += dist;
       }
       if (p < high) {
-        return option.transition;
+        return option;
       }
     }
     // fallback, just return the last transition
-    TransitionOption last = transitions.get(transitions.size() - 1);
-    return last.transition;
+    return transitions.get(transitions.size() - 1);
   }
 
   private static void processDistributedTransition(DistributedTransitionOption option) {
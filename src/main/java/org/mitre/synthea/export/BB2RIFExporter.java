@@ -10,6 +10,7 @@ import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.StringWriter;
+import java.lang.reflect.Array;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.lang.reflect.Type;
@@ -20,9 +21,11 @@ import java.time.LocalDate;
 import java.time.ZoneId;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.Date;
+import java.util.EnumMap;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
@@ -31,6 +34,7 @@ import java.util.Map;
 import java.util.MissingResourceException;
 import java.util.Properties;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
@@ -107,16 +111,16 @@ public class BB2RIFExporter {
 
   private static AtomicLong beneId =
       new AtomicLong(Config.getAsLong("exporter.bfd.bene_id_start", -1));
-  private static AtomicLong claimId =
-      new AtomicLong(Config.getAsLong("exporter.bfd.clm_id_start", -1));
-  private static AtomicInteger claimGroupId =
-      new AtomicInteger(Config.getAsInteger("exporter.bfd.clm_grp_id_start", -1));
-  private static AtomicLong pdeId =
-      new AtomicLong(Config.getAsLong("exporter.bfd.pde_id_start", -1));
-  private static AtomicLong fiDocCntlNum =
-      new AtomicLong(Config.getAsLong("exporter.bfd.fi_doc_cntl_num_start", -1));
-  private static AtomicLong carrClmCntlNum =
-      new AtomicLong(Config.getAsLong("exporter.bfd.carr_clm_cntl_num_start", -1));
+  private static IdBlocks claimId =
+      new IdBlocks(Config.getAsLong("exporter.bfd.clm_id_start", -1));
+  private static IdBlocks claimGroupId =
+      new IdBlocks(Config.getAsInteger("exporter.bfd.clm_grp_id_start", -1));
+  private static IdBlocks pdeId =
+      new IdBlocks(Config.getAsLong("exporter.bfd.pde_id_start", -1));
+  private static IdBlocks fiDocCntlNum =
+      new IdBlocks(Config.getAsLong("exporter.bfd.fi_doc_cntl_num_start", -1));
+  private static IdBlocks carrClmCntlNum =
+      new IdBlocks(Config.getAsLong("exporter.bfd.carr_clm_cntl_num_start", -1));
   private static AtomicReference<MBI> mbi =
       new AtomicReference<>(MBI.parse(Config.get("exporter.bfd.mbi_start", "1S00-A00-AA00")));
   private static AtomicReference<HICN> hicn =
@@ -309,7 +313,7 @@ public class BB2RIFExporter {
    * @throws IOException if something goes horribly wrong.
    */
   public void exportNPIs() throws IOException {
-    HashMap<NPI, String> fieldValues = new HashMap<>();
+    EnumMap<NPI, String> fieldValues = new EnumMap<>(NPI.class);
     SynchronizedBBLineWriter rifWriter = rifWriters.getOrCreateWriter(NPI.class,
             RifEntryStatus.INITIAL, "tsv", "\t");
 
@@ -385,14 +389,24 @@ public class BB2RIFExporter {
     exportBeneficiary(person, stopTime);
     exportBeneficiaryHistory(person, stopTime);
     long startTime = stopTime - Utilities.convertTime("years", yearsOfHistory);
-    exportInpatient(person, startTime, stopTime);
-    exportOutpatient(person, startTime, stopTime);
-    exportCarrier(person, startTime, stopTime);
-    exportPrescription(person, startTime, stopTime);
-    exportDME(person, startTime, stopTime);
-    exportHome(person, startTime, stopTime);
-    exportHospice(person, startTime, stopTime);
-    exportSNF(person, startTime, stopTime);
+    ClaimEncounters claims = new ClaimEncounters(person, startTime);
+    exportInpatient(person, claims, stopTime);
+    exportOutpatient(person, claims, stopTime);
+    exportCarrier(person, claims, stopTime);
+    exportPrescription(person, claims, stopTime);
+    exportDME(person, claims, stopTime);
+    exportHome(person, claims, stopTime);
+    exportHospice(person, claims, stopTime);
+    exportSNF(person, claims, stopTime);
+    rifWriters.endPerson();
+  }
+
+  /**
+   * Append the rows that each thread has buffered to the RIF files. This method should be
+   * called once after all the people have been exported using the export method.
+   */
+  public void flush() {
+    rifWriters.flush();
   }
 
   /**
@@ -431,150 +445,148 @@ public class BB2RIFExporter {
 
     RifEntryStatus entryStatus = RifEntryStatus.INITIAL;
     String initialBeneEntitlementReason = null;
-    synchronized (rifWriters.getOrCreateWriter(BENEFICIARY.class, entryStatus)) {
-      for (int year = endYear - yearsOfHistory; year <= endYear; year++) {
-        HashMap<BENEFICIARY, String> fieldValues = new HashMap<>();
-        staticFieldConfig.setValues(fieldValues, BENEFICIARY.class, person);
-        if (entryStatus != RifEntryStatus.INITIAL) {
-          // The first year output is set via staticFieldConfig to "INSERT", subsequent years
-          // need to be "UPDATE"
-          fieldValues.put(BENEFICIARY.DML_IND, "UPDATE");
-        }
-
-        fieldValues.put(BENEFICIARY.RFRNC_YR, String.valueOf(year));
-        int monthCount = year == endYear ? endMonth : 12;
-        String monthCountStr = String.valueOf(monthCount);
-        fieldValues.put(BENEFICIARY.A_MO_CNT, monthCountStr);
-        fieldValues.put(BENEFICIARY.B_MO_CNT, monthCountStr);
-        fieldValues.put(BENEFICIARY.BUYIN_MO_CNT, monthCountStr);
-        int partDMonthsCovered = partDContracts.getCoveredMonthsCount(year);
-        fieldValues.put(BENEFICIARY.PLAN_CVRG_MO_CNT, String.valueOf(partDMonthsCovered));
-        fieldValues.put(BENEFICIARY.BENE_ID, beneIdStr);
-        fieldValues.put(BENEFICIARY.BENE_CRNT_HIC_NUM, hicId);
-        fieldValues.put(BENEFICIARY.MBI_NUM, mbiStr);
-        fieldValues.put(BENEFICIARY.BENE_SEX_IDENT_CD,
-                getBB2SexCode((String)person.attributes.get(Person.GENDER)));
-        String zipCode = (String)person.attributes.get(Person.ZIP);
-        fieldValues.put(BENEFICIARY.BENE_ZIP_CD, zipCode);
-        fieldValues.put(BENEFICIARY.BENE_COUNTY_CD,
-                locationMapper.zipToCountyCode(zipCode));
-        for (int i = 0; i < monthCount; i++) {
-          fieldValues.put(BB2RIFStructure.beneficiaryFipsStateCntyFields[i],
-              locationMapper.zipToFipsCountyCode(zipCode));
-        }
-        fieldValues.put(BENEFICIARY.STATE_CODE,
-                locationMapper.getStateCode((String)person.attributes.get(Person.STATE)));
-        String raceCode = bb2RaceCode(
-                (String)person.attributes.get(Person.ETHNICITY),
-                (String)person.attributes.get(Person.RACE));
-        fieldValues.put(BENEFICIARY.BENE_RACE_CD, raceCode);
-        fieldValues.put(BENEFICIARY.RTI_RACE_CD, raceCode); // TODO: implement RTI alogorithm
-        fieldValues.put(BENEFICIARY.BENE_SRNM_NAME,
-                (String)person.attributes.get(Person.LAST_NAME));
-        String givenName = (String)person.attributes.get(Person.FIRST_NAME);
-        fieldValues.put(BENEFICIARY.BENE_GVN_NAME, StringUtils.truncate(givenName, 15));
-        long birthdate = (long) person.attributes.get(Person.BIRTHDATE);
-        fieldValues.put(BENEFICIARY.BENE_BIRTH_DT, bb2DateFromTimestamp(birthdate));
-        fieldValues.put(BENEFICIARY.AGE, String.valueOf(ageAtEndOfYear(birthdate, year)));
-        fieldValues.put(BENEFICIARY.BENE_PTA_TRMNTN_CD, "0");
-        fieldValues.put(BENEFICIARY.BENE_PTB_TRMNTN_CD, "0");
-        if (deathDate != -1) {
-          // only add death date for years when it was (presumably) known. E.g. If we are outputting
-          // record for 2005 and patient died in 2007 we don't include the death date.
-          if (Utilities.getYear(deathDate) <= year) {
-            fieldValues.put(BENEFICIARY.DEATH_DT, bb2DateFromTimestamp(deathDate));
-            fieldValues.put(BENEFICIARY.BENE_PTA_TRMNTN_CD, "1");
-            fieldValues.put(BENEFICIARY.BENE_PTB_TRMNTN_CD, "1");
-          }
-        }
-        boolean medicareAgeThisYear = ageAtEndOfYear(birthdate, year) >= 65;
-        boolean esrdThisYear = hasESRD(person, year);
-        fieldValues.put(BENEFICIARY.BENE_ESRD_IND, esrdThisYear ? "Y" : "0");
-        // "0" = old age, "2" = ESRD
-        if (medicareAgeThisYear) {
-          fieldValues.put(BENEFICIARY.BENE_ENTLMT_RSN_CURR, "0");
-        } else if (esrdThisYear) {
-          fieldValues.put(BENEFICIARY.BENE_ENTLMT_RSN_CURR, "2");
-        }
-        if (initialBeneEntitlementReason == null) {
-          initialBeneEntitlementReason = fieldValues.get(BENEFICIARY.BENE_ENTLMT_RSN_CURR);
-        }
-        if (initialBeneEntitlementReason != null) {
-          fieldValues.put(BENEFICIARY.BENE_ENTLMT_RSN_ORIG, initialBeneEntitlementReason);
-        }
-
-        for (PartCContractHistory.ContractPeriod period:
-                partCContracts.getContractPeriods(year)) {
-          PartCContractID partCContractID = period.getContractID();
-          if (partCContractID != null) {
-            String partCContractIDStr = partCContractID.toString();
-            String partCPBPIDStr = period.getPlanBenefitPackageID().toString();
-            List<Integer> coveredMonths = period.getCoveredMonths(year);
-            for (int i: coveredMonths) {
-              fieldValues.put(BB2RIFStructure.beneficiaryPartCContractFields[i - 1],
-                      partCContractIDStr);
-              fieldValues.put(BB2RIFStructure.beneficiaryPartCPBPFields[i - 1],
-                      partCPBPIDStr);
-            }
+    for (int year = endYear - yearsOfHistory; year <= endYear; year++) {
+      EnumMap<BENEFICIARY, String> fieldValues = new EnumMap<>(BENEFICIARY.class);
+      staticFieldConfig.setValues(fieldValues, BENEFICIARY.class, person);
+      if (entryStatus != RifEntryStatus.INITIAL) {
+        // The first year output is set via staticFieldConfig to "INSERT", subsequent years
+        // need to be "UPDATE"
+        fieldValues.put(BENEFICIARY.DML_IND, "UPDATE");
+      }
+
+      fieldValues.put(BENEFICIARY.RFRNC_YR, String.valueOf(year));
+      int monthCount = year == endYear ? endMonth : 12;
+      String monthCountStr = String.valueOf(monthCount);
+      fieldValues.put(BENEFICIARY.A_MO_CNT, monthCountStr);
+      fieldValues.put(BENEFICIARY.B_MO_CNT, monthCountStr);
+      fieldValues.put(BENEFICIARY.BUYIN_MO_CNT, monthCountStr);
+      int partDMonthsCovered = partDContracts.getCoveredMonthsCount(year);
+      fieldValues.put(BENEFICIARY.PLAN_CVRG_MO_CNT, String.valueOf(partDMonthsCovered));
+      fieldValues.put(BENEFICIARY.BENE_ID, beneIdStr);
+      fieldValues.put(BENEFICIARY.BENE_CRNT_HIC_NUM, hicId);
+      fieldValues.put(BENEFICIARY.MBI_NUM, mbiStr);
+      fieldValues.put(BENEFICIARY.BENE_SEX_IDENT_CD,
+              getBB2SexCode((String)person.attributes.get(Person.GENDER)));
+      String zipCode = (String)person.attributes.get(Person.ZIP);
+      fieldValues.put(BENEFICIARY.BENE_ZIP_CD, zipCode);
+      fieldValues.put(BENEFICIARY.BENE_COUNTY_CD,
+              locationMapper.zipToCountyCode(zipCode));
+      for (int i = 0; i < monthCount; i++) {
+        fieldValues.put(BB2RIFStructure.beneficiaryFipsStateCntyFields[i],
+            locationMapper.zipToFipsCountyCode(zipCode));
+      }
+      fieldValues.put(BENEFICIARY.STATE_CODE,
+              locationMapper.getStateCode((String)person.attributes.get(Person.STATE)));
+      String raceCode = bb2RaceCode(
+              (String)person.attributes.get(Person.ETHNICITY),
+              (String)person.attributes.get(Person.RACE));
+      fieldValues.put(BENEFICIARY.BENE_RACE_CD, raceCode);
+      fieldValues.put(BENEFICIARY.RTI_RACE_CD, raceCode); // TODO: implement RTI alogorithm
+      fieldValues.put(BENEFICIARY.BENE_SRNM_NAME,
+              (String)person.attributes.get(Person.LAST_NAME));
+      String givenName = (String)person.attributes.get(Person.FIRST_NAME);
+      fieldValues.put(BENEFICIARY.BENE_GVN_NAME, StringUtils.truncate(givenName, 15));
+      long birthdate = (long) person.attributes.get(Person.BIRTHDATE);
+      fieldValues.put(BENEFICIARY.BENE_BIRTH_DT, bb2DateFromTimestamp(birthdate));
+      fieldValues.put(BENEFICIARY.AGE, String.valueOf(ageAtEndOfYear(birthdate, year)));
+      fieldValues.put(BENEFICIARY.BENE_PTA_TRMNTN_CD, "0");
+      fieldValues.put(BENEFICIARY.BENE_PTB_TRMNTN_CD, "0");
+      if (deathDate != -1) {
+        // only add death date for years when it was (presumably) known. E.g. If we are outputting
+        // record for 2005 and patient died in 2007 we don't include the death date.
+        if (Utilities.getYear(deathDate) <= year) {
+          fieldValues.put(BENEFICIARY.DEATH_DT, bb2DateFromTimestamp(deathDate));
+          fieldValues.put(BENEFICIARY.BENE_PTA_TRMNTN_CD, "1");
+          fieldValues.put(BENEFICIARY.BENE_PTB_TRMNTN_CD, "1");
+        }
+      }
+      boolean medicareAgeThisYear = ageAtEndOfYear(birthdate, year) >= 65;
+      boolean esrdThisYear = hasESRD(person, year);
+      fieldValues.put(BENEFICIARY.BENE_ESRD_IND, esrdThisYear ? "Y" : "0");
+      // "0" = old age, "2" = ESRD
+      if (medicareAgeThisYear) {
+        fieldValues.put(BENEFICIARY.BENE_ENTLMT_RSN_CURR, "0");
+      } else if (esrdThisYear) {
+        fieldValues.put(BENEFICIARY.BENE_ENTLMT_RSN_CURR, "2");
+      }
+      if (initialBeneEntitlementReason == null) {
+        initialBeneEntitlementReason = fieldValues.get(BENEFICIARY.BENE_ENTLMT_RSN_CURR);
+      }
+      if (initialBeneEntitlementReason != null) {
+        fieldValues.put(BENEFICIARY.BENE_ENTLMT_RSN_ORIG, initialBeneEntitlementReason);
+      }
+
+      for (PartCContractHistory.ContractPeriod period:
+              partCContracts.getContractPeriods(year)) {
+        PartCContractID partCContractID = period.getContractID();
+        if (partCContractID != null) {
+          String partCContractIDStr = partCContractID.toString();
+          String partCPBPIDStr = period.getPlanBenefitPackageID().toString();
+          List<Integer> coveredMonths = period.getCoveredMonths(year);
+          for (int i: coveredMonths) {
+            fieldValues.put(BB2RIFStructure.beneficiaryPartCContractFields[i - 1],
+                    partCContractIDStr);
+            fieldValues.put(BB2RIFStructure.beneficiaryPartCPBPFields[i - 1],
+                    partCPBPIDStr);
           }
         }
+      }
 
-        // TODO: make claim copay match the designated cost sharing code
-        String partDCostSharingCode = getPartDCostSharingCode(person);
-        int rdsMonthCount = 0;
-        for (PartDContractHistory.ContractPeriod period:
-                partDContracts.getContractPeriods(year)) {
-          PartDContractID partDContractID = period.getContractID();
-          String partDDrugSubsidyIndicator =
-                  partDContracts.getEmployeePDPIndicator(partDContractID);
-          if (partDContractID != null) {
-            String partDContractIDStr = partDContractID.toString();
-            String partDPBPIDStr = period.getPlanBenefitPackageID().toString();
-            List<Integer> coveredMonths = period.getCoveredMonths(year);
-            if (partDDrugSubsidyIndicator.equals("Y")) {
-              rdsMonthCount += coveredMonths.size();
-            }
-            for (int i: coveredMonths) {
-              fieldValues.put(BB2RIFStructure.beneficiaryPartDContractFields[i - 1],
-                      partDContractIDStr);
-              fieldValues.put(BB2RIFStructure.beneficiaryPartDPBPFields[i - 1],
-                      partDPBPIDStr);
-              fieldValues.put(BB2RIFStructure.beneficiaryPartDSegmentFields[i - 1], "000");
-              fieldValues.put(BB2RIFStructure.beneficiaryPartDCostSharingFields[i - 1],
-                      partDCostSharingCode);
-              fieldValues.put(BB2RIFStructure.benficiaryPartDRetireeDrugSubsidyFields[i - 1],
-                      partDDrugSubsidyIndicator);
-            }
-          } else {
-            for (int i: period.getCoveredMonths(year)) {
-              // Not enrolled this month
-              fieldValues.put(BB2RIFStructure.beneficiaryPartDCostSharingFields[i - 1], "00");
-              fieldValues.put(BB2RIFStructure.benficiaryPartDRetireeDrugSubsidyFields[i - 1],
-                      partDDrugSubsidyIndicator);
-            }
+      // TODO: make claim copay match the designated cost sharing code
+      String partDCostSharingCode = getPartDCostSharingCode(person);
+      int rdsMonthCount = 0;
+      for (PartDContractHistory.ContractPeriod period:
+              partDContracts.getContractPeriods(year)) {
+        PartDContractID partDContractID = period.getContractID();
+        String partDDrugSubsidyIndicator =
+                partDContracts.getEmployeePDPIndicator(partDContractID);
+        if (partDContractID != null) {
+          String partDContractIDStr = partDContractID.toString();
+          String partDPBPIDStr = period.getPlanBenefitPackageID().toString();
+          List<Integer> coveredMonths = period.getCoveredMonths(year);
+          if (partDDrugSubsidyIndicator.equals("Y")) {
+            rdsMonthCount += coveredMonths.size();
+          }
+          for (int i: coveredMonths) {
+            fieldValues.put(BB2RIFStructure.beneficiaryPartDContractFields[i - 1],
+                    partDContractIDStr);
+            fieldValues.put(BB2RIFStructure.beneficiaryPartDPBPFields[i - 1],
+                    partDPBPIDStr);
+            fieldValues.put(BB2RIFStructure.beneficiaryPartDSegmentFields[i - 1], "000");
+            fieldValues.put(BB2RIFStructure.beneficiaryPartDCostSharingFields[i - 1],
+                    partDCostSharingCode);
+            fieldValues.put(BB2RIFStructure.benficiaryPartDRetireeDrugSubsidyFields[i - 1],
+                    partDDrugSubsidyIndicator);
           }
-        }
-        fieldValues.put(BENEFICIARY.RDS_MO_CNT, Integer.toString(rdsMonthCount));
-
-        String dualEligibleStatusCode = getDualEligibilityCode(person, year);
-        String medicareStatusCode = getMedicareStatusCode(medicareAgeThisYear, esrdThisYear,
-                isBlind(person));
-        String buyInIndicator = getEntitlementBuyIn(dualEligibleStatusCode, medicareStatusCode);
-        for (int month = 0; month < monthCount; month++) {
-          fieldValues.put(BB2RIFStructure.beneficiaryDualEligibleStatusFields[month],
-                  dualEligibleStatusCode);
-          fieldValues.put(BB2RIFStructure.beneficiaryMedicareStatusFields[month],
-                  medicareStatusCode);
-          fieldValues.put(BB2RIFStructure.beneficiaryMedicareEntitlementFields[month],
-                  buyInIndicator);
-        }
-        rifWriters.writeValues(BENEFICIARY.class, fieldValues, entryStatus);
-        if (year == (endYear - 1)) {
-          entryStatus = RifEntryStatus.FINAL;
         } else {
-          entryStatus = RifEntryStatus.INTERIM;
+          for (int i: period.getCoveredMonths(year)) {
+            // Not enrolled this month
+            fieldValues.put(BB2RIFStructure.beneficiaryPartDCostSharingFields[i - 1], "00");
+            fieldValues.put(BB2RIFStructure.benficiaryPartDRetireeDrugSubsidyFields[i - 1],
+                    partDDrugSubsidyIndicator);
+          }
         }
       }
+      fieldValues.put(BENEFICIARY.RDS_MO_CNT, Integer.toString(rdsMonthCount));
+
+      String dualEligibleStatusCode = getDualEligibilityCode(person, year);
+      String medicareStatusCode = getMedicareStatusCode(medicareAgeThisYear, esrdThisYear,
+              isBlind(person));
+      String buyInIndicator = getEntitlementBuyIn(dualEligibleStatusCode, medicareStatusCode);
+      for (int month = 0; month < monthCount; month++) {
+        fieldValues.put(BB2RIFStructure.beneficiaryDualEligibleStatusFields[month],
+                dualEligibleStatusCode);
+        fieldValues.put(BB2RIFStructure.beneficiaryMedicareStatusFields[month],
+                medicareStatusCode);
+        fieldValues.put(BB2RIFStructure.beneficiaryMedicareEntitlementFields[month],
+                buyInIndicator);
+      }
+      rifWriters.writeValues(BENEFICIARY.class, fieldValues, entryStatus);
+      if (year == (endYear - 1)) {
+        entryStatus = RifEntryStatus.FINAL;
+      } else {
+        entryStatus = RifEntryStatus.INTERIM;
+      }
     }
   }
 
@@ -779,7 +791,7 @@ public class BB2RIFExporter {
    */
   private void exportBeneficiaryHistory(Person person,
         long stopTime) throws IOException {
-    HashMap<BENEFICIARY_HISTORY, String> fieldValues = new HashMap<>();
+    EnumMap<BENEFICIARY_HISTORY, String> fieldValues = new EnumMap<>(BENEFICIARY_HISTORY.class);
 
     staticFieldConfig.setValues(fieldValues, BENEFICIARY_HISTORY.class, person);
 
@@ -847,33 +859,18 @@ public class BB2RIFExporter {
   /**
    * Export outpatient claims details for a single person.
    * @param person the person to export
-   * @param startTime earliest claim date to export
+   * @param claims the encounters to export claims for
    * @param stopTime end time of simulation
    * @throws IOException if something goes wrong
    */
-  private void exportOutpatient(Person person, long startTime, long stopTime)
+  private void exportOutpatient(Person person, ClaimEncounters claims, long stopTime)
         throws IOException {
-    HashMap<OUTPATIENT, String> fieldValues = new HashMap<>();
-
-    for (HealthRecord.Encounter encounter : person.record.encounters) {
-      if (encounter.stop < startTime) {
-        continue;
-      }
-      boolean isAmbulatory = encounter.type.equals(EncounterType.AMBULATORY.toString());
-      boolean isOutpatient = encounter.type.equals(EncounterType.OUTPATIENT.toString());
-      boolean isUrgent = encounter.type.equals(EncounterType.URGENTCARE.toString());
-      boolean isPrimary = (ProviderType.PRIMARY == encounter.provider.type);
-      // IHS facilities have valid 6 digit id, IHS centers don't
-      boolean isIHSCenter = (ProviderType.IHS == encounter.provider.type)
-              && encounter.provider.id.length() != 6;
-      boolean isVA = (ProviderType.VETERAN == encounter.provider.type);
-      if (isVA || isIHSCenter || isPrimary || isUrgent || !(isAmbulatory || isOutpatient)) {
-        continue;
-      }
+    EnumMap<OUTPATIENT, String> fieldValues = new EnumMap<>(OUTPATIENT.class);
 
-      long claimId = BB2RIFExporter.claimId.getAndDecrement();
-      int claimGroupId = BB2RIFExporter.claimGroupId.getAndDecrement();
-      long fiDocId = BB2RIFExporter.fiDocCntlNum.getAndDecrement();
+    for (HealthRecord.Encounter encounter : claims.outpatient) {
+      long claimId = BB2RIFExporter.claimId.next();
+      int claimGroupId = (int) BB2RIFExporter.claimGroupId.next();
+      long fiDocId = BB2RIFExporter.fiDocCntlNum.next();
 
       staticFieldConfig.setValues(fieldValues, OUTPATIENT.class, person);
 
@@ -1000,57 +997,55 @@ public class BB2RIFExporter {
         continue; // skip this encounter
       }
 
-      synchronized (rifWriters.getOrCreateWriter(OUTPATIENT.class)) {
-        int claimLine = 1;
-        for (ClaimEntry lineItem : encounter.claim.items) {
-          String hcpcsCode = null;
-          if (lineItem.entry instanceof HealthRecord.Procedure) {
-            for (HealthRecord.Code code : lineItem.entry.codes) {
-              if (hcpcsCodeMapper.canMap(code.code)) {
-                hcpcsCode = hcpcsCodeMapper.map(code.code, person, true);
-                break; // take the first mappable code for each procedure
-              }
-            }
-            fieldValues.remove(OUTPATIENT.REV_CNTR_IDE_NDC_UPC_NUM);
-            fieldValues.remove(OUTPATIENT.REV_CNTR_NDC_QTY);
-            fieldValues.remove(OUTPATIENT.REV_CNTR_NDC_QTY_QLFR_CD);
-          } else if (lineItem.entry instanceof HealthRecord.Medication) {
-            HealthRecord.Medication med = (HealthRecord.Medication) lineItem.entry;
-            if (med.administration) {
-              hcpcsCode = "T1502";  // Administration of medication
-              String ndcCode = medicationCodeMapper.map(med.codes.get(0).code, person);
-              fieldValues.put(OUTPATIENT.REV_CNTR_IDE_NDC_UPC_NUM, ndcCode);
-              fieldValues.put(OUTPATIENT.REV_CNTR_NDC_QTY, "1"); // 1 Unit
-              fieldValues.put(OUTPATIENT.REV_CNTR_NDC_QTY_QLFR_CD, "UN"); // Unit
+      int claimLine = 1;
+      for (ClaimEntry lineItem : encounter.claim.items) {
+        String hcpcsCode = null;
+        if (lineItem.entry instanceof HealthRecord.Procedure) {
+          for (HealthRecord.Code code : lineItem.entry.codes) {
+            if (hcpcsCodeMapper.canMap(code.code)) {
+              hcpcsCode = hcpcsCodeMapper.map(code.code, person, true);
+              break; // take the first mappable code for each procedure
             }
           }
-          if (hcpcsCode == null) {
-            continue;
+          fieldValues.remove(OUTPATIENT.REV_CNTR_IDE_NDC_UPC_NUM);
+          fieldValues.remove(OUTPATIENT.REV_CNTR_NDC_QTY);
+          fieldValues.remove(OUTPATIENT.REV_CNTR_NDC_QTY_QLFR_CD);
+        } else if (lineItem.entry instanceof HealthRecord.Medication) {
+          HealthRecord.Medication med = (HealthRecord.Medication) lineItem.entry;
+          if (med.administration) {
+            hcpcsCode = "T1502";  // Administration of medication
+            String ndcCode = medicationCodeMapper.map(med.codes.get(0).code, person);
+            fieldValues.put(OUTPATIENT.REV_CNTR_IDE_NDC_UPC_NUM, ndcCode);
+            fieldValues.put(OUTPATIENT.REV_CNTR_NDC_QTY, "1"); // 1 Unit
+            fieldValues.put(OUTPATIENT.REV_CNTR_NDC_QTY_QLFR_CD, "UN"); // Unit
           }
-
-          fieldValues.put(OUTPATIENT.CLM_LINE_NUM, Integer.toString(claimLine++));
-          fieldValues.put(OUTPATIENT.REV_CNTR_DT, bb2DateFromTimestamp(lineItem.entry.start));
-          fieldValues.put(OUTPATIENT.HCPCS_CD, hcpcsCode);
-          fieldValues.put(OUTPATIENT.REV_CNTR_RATE_AMT,
-              String.format("%.2f", (lineItem.cost)));
-          fieldValues.put(OUTPATIENT.REV_CNTR_PMT_AMT_AMT,
-              String.format("%.2f", lineItem.coinsurance + lineItem.payer));
-          fieldValues.put(OUTPATIENT.REV_CNTR_TOT_CHRG_AMT,
-              String.format("%.2f", lineItem.cost));
-          fieldValues.put(OUTPATIENT.REV_CNTR_NCVRD_CHRG_AMT,
-              String.format("%.2f", lineItem.copay + lineItem.deductible + lineItem.pocket));
-          rifWriters.writeValues(OUTPATIENT.class, fieldValues);
         }
-
-        if (claimLine == 1) {
-          // If claimLine still equals 1, then no line items were successfully added.
-          // Add a single top-level entry.
-          fieldValues.put(OUTPATIENT.CLM_LINE_NUM, Integer.toString(claimLine));
-          fieldValues.put(OUTPATIENT.REV_CNTR_DT, bb2DateFromTimestamp(encounter.start));
-          // 99241: "Office consultation for a new or established patient"
-          fieldValues.put(OUTPATIENT.HCPCS_CD, "99241");
-          rifWriters.writeValues(OUTPATIENT.class, fieldValues);
+        if (hcpcsCode == null) {
+          continue;
         }
+
+        fieldValues.put(OUTPATIENT.CLM_LINE_NUM, Integer.toString(claimLine++));
+        fieldValues.put(OUTPATIENT.REV_CNTR_DT, bb2DateFromTimestamp(lineItem.entry.start));
+        fieldValues.put(OUTPATIENT.HCPCS_CD, hcpcsCode);
+        fieldValues.put(OUTPATIENT.REV_CNTR_RATE_AMT,
+            String.format("%.2f", (lineItem.cost)));
+        fieldValues.put(OUTPATIENT.REV_CNTR_PMT_AMT_AMT,
+            String.format("%.2f", lineItem.coinsurance + lineItem.payer));
+        fieldValues.put(OUTPATIENT.REV_CNTR_TOT_CHRG_AMT,
+            String.format("%.2f", lineItem.cost));
+        fieldValues.put(OUTPATIENT.REV_CNTR_NCVRD_CHRG_AMT,
+            String.format("%.2f", lineItem.copay + lineItem.deductible + lineItem.pocket));
+        rifWriters.writeValues(OUTPATIENT.class, fieldValues);
+      }
+
+      if (claimLine == 1) {
+        // If claimLine still equals 1, then no line items were successfully added.
+        // Add a single top-level entry.
+        fieldValues.put(OUTPATIENT.CLM_LINE_NUM, Integer.toString(claimLine));
+        fieldValues.put(OUTPATIENT.REV_CNTR_DT, bb2DateFromTimestamp(encounter.start));
+        // 99241: "Office consultation for a new or established patient"
+        fieldValues.put(OUTPATIENT.HCPCS_CD, "99241");
+        rifWriters.writeValues(OUTPATIENT.class, fieldValues);
       }
     }
   }
@@ -1058,34 +1053,26 @@ public class BB2RIFExporter {
   /**
    * Export inpatient claims details for a single person.
    * @param person the person to export
-   * @param startTime earliest claim date to export
+   * @param claims the encounters to export claims for
    * @param stopTime end time of simulation
    * @throws IOException if something goes wrong
    */
-  private void exportInpatient(Person person, long startTime, long stopTime)
+  private void exportInpatient(Person person, ClaimEncounters claims, long stopTime)
         throws IOException {
-    HashMap<INPATIENT, String> fieldValues = new HashMap<>();
+    EnumMap<INPATIENT, String> fieldValues = new EnumMap<>(INPATIENT.class);
 
     boolean previousEmergency = false;
 
-    for (HealthRecord.Encounter encounter : person.record.encounters) {
-      if (encounter.stop < startTime) {
-        continue;
-      }
-      boolean isInpatient = encounter.type.equals(EncounterType.INPATIENT.toString());
-      boolean isEmergency = encounter.type.equals(EncounterType.EMERGENCY.toString());
-      boolean isVA = (ProviderType.VETERAN == encounter.provider.type);
-      // IHS facilities have valid 6 digit id, IHS centers don't
-      boolean isIHSCenter = (ProviderType.IHS == encounter.provider.type)
-              && encounter.provider.id.length() != 6;
-      if (isVA || isIHSCenter || !(isInpatient || isEmergency)) {
+    for (int i = 0; i < claims.inpatient.size(); i++) {
+      HealthRecord.Encounter encounter = claims.inpatient.get(i);
+      if (!claims.inpatientFollows.get(i)) {
         previousEmergency = false;
-        continue;
       }
+      boolean isEmergency = encounter.type.equals(EncounterType.EMERGENCY.toString());
 
-      long claimId = BB2RIFExporter.claimId.getAndDecrement();
-      int claimGroupId = BB2RIFExporter.claimGroupId.getAndDecrement();
-      long fiDocId = BB2RIFExporter.fiDocCntlNum.getAndDecrement();
+      long claimId = BB2RIFExporter.claimId.next();
+      int claimGroupId = (int) BB2RIFExporter.claimGroupId.next();
+      long fiDocId = BB2RIFExporter.fiDocCntlNum.next();
 
       fieldValues.clear();
       staticFieldConfig.setValues(fieldValues, INPATIENT.class, person);
@@ -1250,64 +1237,62 @@ public class BB2RIFExporter {
       }
       previousEmergency = isEmergency;
 
-      synchronized (rifWriters.getOrCreateWriter(INPATIENT.class)) {
-        int claimLine = 1;
-        for (ClaimEntry lineItem : encounter.claim.items) {
-          String hcpcsCode = null;
-          if (lineItem.entry instanceof HealthRecord.Procedure) {
-            for (HealthRecord.Code code : lineItem.entry.codes) {
-              if (hcpcsCodeMapper.canMap(code.code)) {
-                hcpcsCode = hcpcsCodeMapper.map(code.code, person, true);
-                break; // take the first mappable code for each procedure
-              }
-            }
-            fieldValues.remove(INPATIENT.REV_CNTR_NDC_QTY);
-            fieldValues.remove(INPATIENT.REV_CNTR_NDC_QTY_QLFR_CD);
-          } else if (lineItem.entry instanceof HealthRecord.Medication) {
-            HealthRecord.Medication med = (HealthRecord.Medication) lineItem.entry;
-            if (med.administration) {
-              hcpcsCode = "T1502";  // Administration of medication
-              fieldValues.put(INPATIENT.REV_CNTR_NDC_QTY, "1"); // 1 Unit
-              fieldValues.put(INPATIENT.REV_CNTR_NDC_QTY_QLFR_CD, "UN"); // Unit
+      int claimLine = 1;
+      for (ClaimEntry lineItem : encounter.claim.items) {
+        String hcpcsCode = null;
+        if (lineItem.entry instanceof HealthRecord.Procedure) {
+          for (HealthRecord.Code code : lineItem.entry.codes) {
+            if (hcpcsCodeMapper.canMap(code.code)) {
+              hcpcsCode = hcpcsCodeMapper.map(code.code, person, true);
+              break; // take the first mappable code for each procedure
             }
           }
-          if (hcpcsCode == null) {
-            continue;
+          fieldValues.remove(INPATIENT.REV_CNTR_NDC_QTY);
+          fieldValues.remove(INPATIENT.REV_CNTR_NDC_QTY_QLFR_CD);
+        } else if (lineItem.entry instanceof HealthRecord.Medication) {
+          HealthRecord.Medication med = (HealthRecord.Medication) lineItem.entry;
+          if (med.administration) {
+            hcpcsCode = "T1502";  // Administration of medication
+            fieldValues.put(INPATIENT.REV_CNTR_NDC_QTY, "1"); // 1 Unit
+            fieldValues.put(INPATIENT.REV_CNTR_NDC_QTY_QLFR_CD, "UN"); // Unit
           }
-
-          fieldValues.put(INPATIENT.CLM_LINE_NUM, Integer.toString(claimLine++));
-          fieldValues.put(INPATIENT.HCPCS_CD, hcpcsCode);
-          fieldValues.put(INPATIENT.REV_CNTR_UNIT_CNT, "" + Integer.max(1, days));
-          fieldValues.put(INPATIENT.REV_CNTR_RATE_AMT,
-              String.format("%.2f", (lineItem.cost / Integer.max(1, days))));
-          fieldValues.put(INPATIENT.REV_CNTR_TOT_CHRG_AMT,
-              String.format("%.2f", lineItem.cost));
-          fieldValues.put(INPATIENT.REV_CNTR_NCVRD_CHRG_AMT,
-              String.format("%.2f", lineItem.copay + lineItem.deductible + lineItem.pocket));
-          if (lineItem.pocket == 0 && lineItem.deductible == 0) {
-            // Not subject to deductible or coinsurance
-            fieldValues.put(INPATIENT.REV_CNTR_DDCTBL_COINSRNC_CD, "3");
-          } else if (lineItem.pocket > 0 && lineItem.deductible > 0) {
-            // Subject to deductible and coinsurance
-            fieldValues.put(INPATIENT.REV_CNTR_DDCTBL_COINSRNC_CD, "0");
-          } else if (lineItem.pocket == 0) {
-            // Not subject to deductible
-            fieldValues.put(INPATIENT.REV_CNTR_DDCTBL_COINSRNC_CD, "1");
-          } else {
-            // Not subject to coinsurance
-            fieldValues.put(INPATIENT.REV_CNTR_DDCTBL_COINSRNC_CD, "2");
-          }
-          rifWriters.writeValues(INPATIENT.class, fieldValues);
         }
-
-        if (claimLine == 1) {
-          // If claimLine still equals 1, then no line items were successfully added.
-          // Add a single top-level entry.
-          fieldValues.put(INPATIENT.CLM_LINE_NUM, Integer.toString(claimLine));
-          // HCPCS 99221: "Inpatient hospital visits: Initial and subsequent"
-          fieldValues.put(INPATIENT.HCPCS_CD, "99221");
-          rifWriters.writeValues(INPATIENT.class, fieldValues);
+        if (hcpcsCode == null) {
+          continue;
+        }
+
+        fieldValues.put(INPATIENT.CLM_LINE_NUM, Integer.toString(claimLine++));
+        fieldValues.put(INPATIENT.HCPCS_CD, hcpcsCode);
+        fieldValues.put(INPATIENT.REV_CNTR_UNIT_CNT, "" + Integer.max(1, days));
+        fieldValues.put(INPATIENT.REV_CNTR_RATE_AMT,
+            String.format("%.2f", (lineItem.cost / Integer.max(1, days))));
+        fieldValues.put(INPATIENT.REV_CNTR_TOT_CHRG_AMT,
+            String.format("%.2f", lineItem.cost));
+        fieldValues.put(INPATIENT.REV_CNTR_NCVRD_CHRG_AMT,
+            String.format("%.2f", lineItem.copay + lineItem.deductible + lineItem.pocket));
+        if (lineItem.pocket == 0 && lineItem.deductible == 0) {
+          // Not subject to deductible or coinsurance
+          fieldValues.put(INPATIENT.REV_CNTR_DDCTBL_COINSRNC_CD, "3");
+        } else if (lineItem.pocket > 0 && lineItem.deductible > 0) {
+          // Subject to deductible and coinsurance
+          fieldValues.put(INPATIENT.REV_CNTR_DDCTBL_COINSRNC_CD, "0");
+        } else if (lineItem.pocket == 0) {
+          // Not subject to deductible
+          fieldValues.put(INPATIENT.REV_CNTR_DDCTBL_COINSRNC_CD, "1");
+        } else {
+          // Not subject to coinsurance
+          fieldValues.put(INPATIENT.REV_CNTR_DDCTBL_COINSRNC_CD, "2");
         }
+        rifWriters.writeValues(INPATIENT.class, fieldValues);
+      }
+
+      if (claimLine == 1) {
+        // If claimLine still equals 1, then no line items were successfully added.
+        // Add a single top-level entry.
+        fieldValues.put(INPATIENT.CLM_LINE_NUM, Integer.toString(claimLine));
+        // HCPCS 99221: "Inpatient hospital visits: Initial and subsequent"
+        fieldValues.put(INPATIENT.HCPCS_CD, "99221");
+        rifWriters.writeValues(INPATIENT.class, fieldValues);
       }
     }
   }
@@ -1315,34 +1300,20 @@ public class BB2RIFExporter {
   /**
    * Export carrier claims details for a single person.
    * @param person the person to export
-   * @param startTime earliest claim date to export
+   * @param claims the encounters to export claims for
    * @param stopTime end time of simulation
    * @throws IOException if something goes wrong
    */
-  private void exportCarrier(Person person, long startTime, long stopTime) throws IOException {
-    HashMap<CARRIER, String> fieldValues = new HashMap<>();
+  private void exportCarrier(Person person, ClaimEncounters claims, long stopTime)
+        throws IOException {
+    EnumMap<CARRIER, String> fieldValues = new EnumMap<>(CARRIER.class);
 
     double latestHemoglobin = 0;
 
-    for (HealthRecord.Encounter encounter : person.record.encounters) {
-      if (encounter.stop < startTime) {
-        continue;
-      }
-
-      boolean isPrimary = (ProviderType.PRIMARY == encounter.provider.type);
-      boolean isWellness = encounter.type.equals(EncounterType.WELLNESS.toString());
-      boolean isUrgent = encounter.type.equals(EncounterType.URGENTCARE.toString());
-      // IHS facilities have valid 6 digit id, IHS centers don't
-      boolean isIHSCenter = (ProviderType.IHS == encounter.provider.type)
-              && encounter.provider.id.length() != 6;
-      boolean isVA = (ProviderType.VETERAN == encounter.provider.type);
-      if (isVA || !(isIHSCenter || isPrimary || isWellness || isUrgent)) {
-        continue;
-      }
-
-      long claimId = BB2RIFExporter.claimId.getAndDecrement();
-      int claimGroupId = BB2RIFExporter.claimGroupId.getAndDecrement();
-      long carrClmId = BB2RIFExporter.carrClmCntlNum.getAndDecrement();
+    for (HealthRecord.Encounter encounter : claims.carrier) {
+      long claimId = BB2RIFExporter.claimId.next();
+      int claimGroupId = (int) BB2RIFExporter.claimGroupId.next();
+      long carrClmId = BB2RIFExporter.carrClmCntlNum.next();
 
       for (HealthRecord.Observation observation : encounter.observations) {
         if (observation.containsCode("718-7", "http://loinc.org")) {
@@ -1432,81 +1403,79 @@ public class BB2RIFExporter {
         fieldValues.put(CARRIER.PRNCPAL_DGNS_CD, mappedDiagnosisCodes.get(0));
       }
 
-      synchronized (rifWriters.getOrCreateWriter(CARRIER.class)) {
-        int lineNum = 1;
-        CLIA cliaLab = cliaLabNumbers[person.randInt(cliaLabNumbers.length)];
-        for (ClaimEntry lineItem : encounter.claim.items) {
-          String hcpcsCode = "";
-          String ndcCode = "";
-          if (lineItem.entry instanceof HealthRecord.Procedure) {
-            for (HealthRecord.Code code : lineItem.entry.codes) {
-              if (hcpcsCodeMapper.canMap(code.code)) {
-                hcpcsCode = hcpcsCodeMapper.map(code.code, person, true);
-                break; // take the first mappable code for each procedure
-              }
-            }
-          } else if (lineItem.entry instanceof HealthRecord.Medication) {
-            HealthRecord.Medication med = (HealthRecord.Medication) lineItem.entry;
-            if (med.administration) {
-              hcpcsCode = "T1502";  // Administration of medication
-              ndcCode = medicationCodeMapper.map(med.codes.get(0).code, person);
+      int lineNum = 1;
+      CLIA cliaLab = cliaLabNumbers[person.randInt(cliaLabNumbers.length)];
+      for (ClaimEntry lineItem : encounter.claim.items) {
+        String hcpcsCode = "";
+        String ndcCode = "";
+        if (lineItem.entry instanceof HealthRecord.Procedure) {
+          for (HealthRecord.Code code : lineItem.entry.codes) {
+            if (hcpcsCodeMapper.canMap(code.code)) {
+              hcpcsCode = hcpcsCodeMapper.map(code.code, person, true);
+              break; // take the first mappable code for each procedure
             }
           }
-          // TBD: decide whether line item skip logic is needed here and in other files
-          // TBD: affects ~80% of carrier claim lines, so left out for now
-          // if (hcpcsCode == null) {
-          //   continue; // skip this line item
-          // }
-          fieldValues.put(CARRIER.HCPCS_CD, hcpcsCode);
-          if (betosCodeMapper.canMap(hcpcsCode)) {
-            fieldValues.put(CARRIER.BETOS_CD, betosCodeMapper.map(hcpcsCode, person));
-          } else {
-            fieldValues.put(CARRIER.BETOS_CD, "");
-          }
-          fieldValues.put(CARRIER.LINE_NDC_CD, ndcCode);
-          fieldValues.put(CARRIER.LINE_BENE_PTB_DDCTBL_AMT,
-                  String.format("%.2f", lineItem.deductible));
-          fieldValues.put(CARRIER.LINE_COINSRNC_AMT,
-                  String.format("%.2f", lineItem.coinsurance));
-          fieldValues.put(CARRIER.LINE_BENE_PMT_AMT,
-              String.format("%.2f", lineItem.copay + lineItem.deductible + lineItem.pocket));
-          fieldValues.put(CARRIER.LINE_PRVDR_PMT_AMT,
-              String.format("%.2f", lineItem.coinsurance + lineItem.payer));
-          fieldValues.put(CARRIER.LINE_SBMTD_CHRG_AMT,
-              String.format("%.2f", lineItem.cost));
-          fieldValues.put(CARRIER.LINE_ALOWD_CHRG_AMT,
-              String.format("%.2f", lineItem.cost - lineItem.adjustment));
-
-          // If this item is a lab report, add the number of the clinical lab...
-          if  (lineItem.entry instanceof HealthRecord.Report) {
-            fieldValues.put(CARRIER.CARR_LINE_CLIA_LAB_NUM, cliaLab.toString());
+        } else if (lineItem.entry instanceof HealthRecord.Medication) {
+          HealthRecord.Medication med = (HealthRecord.Medication) lineItem.entry;
+          if (med.administration) {
+            hcpcsCode = "T1502";  // Administration of medication
+            ndcCode = medicationCodeMapper.map(med.codes.get(0).code, person);
           }
-
-          // set the line number and write out field values
-          fieldValues.put(CARRIER.LINE_NUM, Integer.toString(lineNum++));
-          rifWriters.writeValues(CARRIER.class, fieldValues);
-        }
-
-        if (lineNum == 1) {
-          // If lineNum still equals 1, then no line items were successfully added.
-          // Add a single top-level entry.
-          fieldValues.put(CARRIER.LINE_NUM, Integer.toString(lineNum));
-          fieldValues.put(CARRIER.LINE_BENE_PTB_DDCTBL_AMT,
-                  String.format("%.2f", encounter.claim.getDeductiblePaid()));
-          fieldValues.put(CARRIER.LINE_COINSRNC_AMT,
-                  String.format("%.2f", encounter.claim.getCoinsurancePaid()));
-          fieldValues.put(CARRIER.LINE_SBMTD_CHRG_AMT,
-                  String.format("%.2f", encounter.claim.getTotalClaimCost()));
-          fieldValues.put(CARRIER.LINE_ALOWD_CHRG_AMT,
-                  String.format("%.2f", encounter.claim.getCoveredCost()));
-          fieldValues.put(CARRIER.LINE_PRVDR_PMT_AMT,
-                  String.format("%.2f", encounter.claim.getCoveredCost()));
-          fieldValues.put(CARRIER.LINE_BENE_PMT_AMT,
-                  String.format("%.2f", encounter.claim.getPatientCost()));
-          // 99241: "Office consultation for a new or established patient"
-          fieldValues.put(CARRIER.HCPCS_CD, "99241");
-          rifWriters.writeValues(CARRIER.class, fieldValues);
         }
+        // TBD: decide whether line item skip logic is needed here and in other files
+        // TBD: affects ~80% of carrier claim lines, so left out for now
+        // if (hcpcsCode == null) {
+        //   continue; // skip this line item
+        // }
+        fieldValues.put(CARRIER.HCPCS_CD, hcpcsCode);
+        if (betosCodeMapper.canMap(hcpcsCode)) {
+          fieldValues.put(CARRIER.BETOS_CD, betosCodeMapper.map(hcpcsCode, person));
+        } else {
+          fieldValues.put(CARRIER.BETOS_CD, "");
+        }
+        fieldValues.put(CARRIER.LINE_NDC_CD, ndcCode);
+        fieldValues.put(CARRIER.LINE_BENE_PTB_DDCTBL_AMT,
+                String.format("%.2f", lineItem.deductible));
+        fieldValues.put(CARRIER.LINE_COINSRNC_AMT,
+                String.format("%.2f", lineItem.coinsurance));
+        fieldValues.put(CARRIER.LINE_BENE_PMT_AMT,
+            String.format("%.2f", lineItem.copay + lineItem.deductible + lineItem.pocket));
+        fieldValues.put(CARRIER.LINE_PRVDR_PMT_AMT,
+            String.format("%.2f", lineItem.coinsurance + lineItem.payer));
+        fieldValues.put(CARRIER.LINE_SBMTD_CHRG_AMT,
+            String.format("%.2f", lineItem.cost));
+        fieldValues.put(CARRIER.LINE_ALOWD_CHRG_AMT,
+            String.format("%.2f", lineItem.cost - lineItem.adjustment));
+
+        // If this item is a lab report, add the number of the clinical lab...
+        if  (lineItem.entry instanceof HealthRecord.Report) {
+          fieldValues.put(CARRIER.CARR_LINE_CLIA_LAB_NUM, cliaLab.toString());
+        }
+
+        // set the line number and write out field values
+        fieldValues.put(CARRIER.LINE_NUM, Integer.toString(lineNum++));
+        rifWriters.writeValues(CARRIER.class, fieldValues);
+      }
+
+      if (lineNum == 1) {
+        // If lineNum still equals 1, then no line items were successfully added.
+        // Add a single top-level entry.
+        fieldValues.put(CARRIER.LINE_NUM, Integer.toString(lineNum));
+        fieldValues.put(CARRIER.LINE_BENE_PTB_DDCTBL_AMT,
+                String.format("%.2f", encounter.claim.getDeductiblePaid()));
+        fieldValues.put(CARRIER.LINE_COINSRNC_AMT,
+                String.format("%.2f", encounter.claim.getCoinsurancePaid()));
+        fieldValues.put(CARRIER.LINE_SBMTD_CHRG_AMT,
+                String.format("%.2f", encounter.claim.getTotalClaimCost()));
+        fieldValues.put(CARRIER.LINE_ALOWD_CHRG_AMT,
+                String.format("%.2f", encounter.claim.getCoveredCost()));
+        fieldValues.put(CARRIER.LINE_PRVDR_PMT_AMT,
+                String.format("%.2f", encounter.claim.getCoveredCost()));
+        fieldValues.put(CARRIER.LINE_BENE_PMT_AMT,
+                String.format("%.2f", encounter.claim.getPatientCost()));
+        // 99241: "Office consultation for a new or established patient"
+        fieldValues.put(CARRIER.HCPCS_CD, "99241");
+        rifWriters.writeValues(CARRIER.class, fieldValues);
       }
     }
   }
@@ -1950,32 +1919,20 @@ public class BB2RIFExporter {
   /**
    * Export prescription claims details for a single person.
    * @param person the person to export
-   * @param startTime earliest claim date to export
+   * @param claims the encounters to export claims for
    * @param stopTime end time of simulation
    * @throws IOException if something goes wrong
    */
-  private void exportPrescription(Person person, long startTime, long stopTime)
+  private void exportPrescription(Person person, ClaimEncounters claims, long stopTime)
         throws IOException {
     PartDContractHistory partDContracts =
             (PartDContractHistory) person.attributes.get(BB2_PARTD_CONTRACTS);
-    HashMap<PDE, String> fieldValues = new HashMap<>();
+    EnumMap<PDE, String> fieldValues = new EnumMap<>(PDE.class);
     HashMap<String, Integer> fillNum = new HashMap<>();
     double costs = 0;
     int costYear = 0;
 
-    for (HealthRecord.Encounter encounter : person.record.encounters) {
-      if (encounter.stop < startTime) {
-        continue;
-      }
-
-      boolean isVA = (ProviderType.VETERAN == encounter.provider.type);
-      // IHS facilities have valid 6 digit id, IHS centers don't
-      boolean isIHSCenter = (ProviderType.IHS == encounter.provider.type)
-              && encounter.provider.id.length() != 6;
-      if (isVA || isIHSCenter) {
-        continue;
-      }
-
+    for (HealthRecord.Encounter encounter : claims.covered) {
       PartDContractID partDContractID = partDContracts.getContractID(encounter.start);
       if (partDContractID == null) {
         continue; // skip medications if patient isn't enrolled in Part D
@@ -1985,8 +1942,8 @@ public class BB2RIFExporter {
           continue; // skip codes that can't be mapped to NDC
         }
 
-        long pdeId = BB2RIFExporter.pdeId.getAndDecrement();
-        int claimGroupId = BB2RIFExporter.claimGroupId.getAndDecrement();
+        long pdeId = BB2RIFExporter.pdeId.next();
+        int claimGroupId = (int) BB2RIFExporter.claimGroupId.next();
 
         fieldValues.clear();
         staticFieldConfig.setValues(fieldValues, PDE.class, person);
@@ -2059,30 +2016,18 @@ public class BB2RIFExporter {
   /**
    * Export DME details for a single person.
    * @param person the person to export
-   * @param startTime earliest claim date to export
+   * @param claims the encounters to export claims for
    * @param stopTime end time of simulation
    * @throws IOException if something goes wrong
    */
-  private void exportDME(Person person, long startTime, long stopTime)
+  private void exportDME(Person person, ClaimEncounters claims, long stopTime)
         throws IOException {
-    HashMap<DME, String> fieldValues = new HashMap<>();
-
-    for (HealthRecord.Encounter encounter : person.record.encounters) {
-      if (encounter.stop < startTime) {
-        continue;
-      }
-
-      boolean isVA = (ProviderType.VETERAN == encounter.provider.type);
-      // IHS facilities have valid 6 digit id, IHS centers don't
-      boolean isIHSCenter = (ProviderType.IHS == encounter.provider.type)
-              && encounter.provider.id.length() != 6;
-      if (isVA || isIHSCenter) {
-        continue;
-      }
+    EnumMap<DME, String> fieldValues = new EnumMap<>(DME.class);
 
-      long claimId = BB2RIFExporter.claimId.getAndDecrement();
-      int claimGroupId = BB2RIFExporter.claimGroupId.getAndDecrement();
-      long carrClmId = BB2RIFExporter.carrClmCntlNum.getAndDecrement();
+    for (HealthRecord.Encounter encounter : claims.covered) {
+      long claimId = BB2RIFExporter.claimId.next();
+      int claimGroupId = (int) BB2RIFExporter.claimGroupId.next();
+      long carrClmId = BB2RIFExporter.carrClmCntlNum.next();
 
       double latestHemoglobin = 0;
       for (HealthRecord.Observation observation : encounter.observations) {
@@ -2168,59 +2113,57 @@ public class BB2RIFExporter {
       fieldValues.put(DME.CLM_PMT_AMT,
           String.format("%.2f", subTotals.coinsurance + subTotals.payer));
 
-      synchronized (rifWriters.getOrCreateWriter(DME.class)) {
-        int lineNum = 1;
-        // Now generate the line items...
-        for (ClaimEntry lineItem : encounter.claim.items) {
-          if (!(lineItem.entry instanceof Device || lineItem.entry instanceof Supply)) {
-            continue;
-          }
-          if (lineItem.entry instanceof Supply) {
-            Supply supply = (Supply) lineItem.entry;
-            fieldValues.put(DME.DMERC_LINE_MTUS_CNT, "" + supply.quantity);
-          } else {
-            fieldValues.put(DME.DMERC_LINE_MTUS_CNT, "");
-          }
-          if (!dmeCodeMapper.canMap(lineItem.entry.codes.get(0).code)) {
-            System.err.println(" *** Possibly Missing DME Code: "
-                + lineItem.entry.codes.get(0).code
-                + " " + lineItem.entry.codes.get(0).display);
-            continue;
-          }
-          fieldValues.put(DME.CLM_FROM_DT, bb2DateFromTimestamp(lineItem.entry.start));
-          fieldValues.put(DME.CLM_THRU_DT, bb2DateFromTimestamp(lineItem.entry.start));
-          String hcpcsCode = dmeCodeMapper.map(lineItem.entry.codes.get(0).code, person);
-          fieldValues.put(DME.HCPCS_CD, hcpcsCode);
-          if (betosCodeMapper.canMap(hcpcsCode)) {
-            fieldValues.put(DME.BETOS_CD, betosCodeMapper.map(hcpcsCode, person));
-          } else {
-            fieldValues.put(DME.BETOS_CD, "");
-          }
-          fieldValues.put(DME.LINE_CMS_TYPE_SRVC_CD,
-                  dmeCodeMapper.map(lineItem.entry.codes.get(0).code,
-                          DME.LINE_CMS_TYPE_SRVC_CD.toString().toLowerCase(),
-                          person));
-          fieldValues.put(DME.LINE_BENE_PTB_DDCTBL_AMT,
-                  String.format("%.2f", lineItem.deductible));
-          fieldValues.put(DME.LINE_COINSRNC_AMT,
-                  String.format("%.2f", lineItem.getCoinsurancePaid()));
-          fieldValues.put(DME.LINE_BENE_PMT_AMT,
-              String.format("%.2f", lineItem.copay + lineItem.deductible + lineItem.pocket));
-          fieldValues.put(DME.LINE_PRVDR_PMT_AMT,
-              String.format("%.2f", lineItem.coinsurance + lineItem.payer));
-          fieldValues.put(DME.LINE_SBMTD_CHRG_AMT,
-              String.format("%.2f", lineItem.cost));
-          fieldValues.put(DME.LINE_ALOWD_CHRG_AMT,
-              String.format("%.2f", lineItem.cost - lineItem.adjustment));
-          fieldValues.put(DME.LINE_PRMRY_ALOWD_CHRG_AMT,
-              String.format("%.2f", lineItem.cost - lineItem.adjustment));
-          fieldValues.put(DME.LINE_NCH_PMT_AMT,
-              String.format("%.2f", lineItem.coinsurance + lineItem.payer));
-
-          // set the line number and write out field values
-          fieldValues.put(DME.LINE_NUM, Integer.toString(lineNum++));
-          rifWriters.writeValues(DME.class, fieldValues);
+      int lineNum = 1;
+      // Now generate the line items...
+      for (ClaimEntry lineItem : encounter.claim.items) {
+        if (!(lineItem.entry instanceof Device || lineItem.entry instanceof Supply)) {
+          continue;
         }
+        if (lineItem.entry instanceof Supply) {
+          Supply supply = (Supply) lineItem.entry;
+          fieldValues.put(DME.DMERC_LINE_MTUS_CNT, "" + supply.quantity);
+        } else {
+          fieldValues.put(DME.DMERC_LINE_MTUS_CNT, "");
+        }
+        if (!dmeCodeMapper.canMap(lineItem.entry.codes.get(0).code)) {
+          System.err.println(" *** Possibly Missing DME Code: "
+              + lineItem.entry.codes.get(0).code
+              + " " + lineItem.entry.codes.get(0).display);
+          continue;
+        }
+        fieldValues.put(DME.CLM_FROM_DT, bb2DateFromTimestamp(lineItem.entry.start));
+        fieldValues.put(DME.CLM_THRU_DT, bb2DateFromTimestamp(lineItem.entry.start));
+        String hcpcsCode = dmeCodeMapper.map(lineItem.entry.codes.get(0).code, person);
+        fieldValues.put(DME.HCPCS_CD, hcpcsCode);
+        if (betosCodeMapper.canMap(hcpcsCode)) {
+          fieldValues.put(DME.BETOS_CD, betosCodeMapper.map(hcpcsCode, person));
+        } else {
+          fieldValues.put(DME.BETOS_CD, "");
+        }
+        fieldValues.put(DME.LINE_CMS_TYPE_SRVC_CD,
+                dmeCodeMapper.map(lineItem.entry.codes.get(0).code,
+                        DME.LINE_CMS_TYPE_SRVC_CD.toString().toLowerCase(),
+                        person));
+        fieldValues.put(DME.LINE_BENE_PTB_DDCTBL_AMT,
+                String.format("%.2f", lineItem.deductible));
+        fieldValues.put(DME.LINE_COINSRNC_AMT,
+                String.format("%.2f", lineItem.getCoinsurancePaid()));
+        fieldValues.put(DME.LINE_BENE_PMT_AMT,
+            String.format("%.2f", lineItem.copay + lineItem.deductible + lineItem.pocket));
+        fieldValues.put(DME.LINE_PRVDR_PMT_AMT,
+            String.format("%.2f", lineItem.coinsurance + lineItem.payer));
+        fieldValues.put(DME.LINE_SBMTD_CHRG_AMT,
+            String.format("%.2f", lineItem.cost));
+        fieldValues.put(DME.LINE_ALOWD_CHRG_AMT,
+            String.format("%.2f", lineItem.cost - lineItem.adjustment));
+        fieldValues.put(DME.LINE_PRMRY_ALOWD_CHRG_AMT,
+            String.format("%.2f", lineItem.cost - lineItem.adjustment));
+        fieldValues.put(DME.LINE_NCH_PMT_AMT,
+            String.format("%.2f", lineItem.coinsurance + lineItem.payer));
+
+        // set the line number and write out field values
+        fieldValues.put(DME.LINE_NUM, Integer.toString(lineNum++));
+        rifWriters.writeValues(DME.class, fieldValues);
       }
     }
   }
@@ -2228,32 +2171,19 @@ public class BB2RIFExporter {
   /**
    * Export Home Health Agency visits for a single person.
    * @param person the person to export
-   * @param startTime earliest claim date to export
+   * @param claims the encounters to export claims for
    * @param stopTime end time of simulation
    * @throws IOException if something goes wrong
    */
-  private void exportHome(Person person, long startTime, long stopTime) throws IOException {
-    HashMap<HHA, String> fieldValues = new HashMap<>();
+  private void exportHome(Person person, ClaimEncounters claims, long stopTime)
+        throws IOException {
+    EnumMap<HHA, String> fieldValues = new EnumMap<>(HHA.class);
     int homeVisits = 0;
-    for (HealthRecord.Encounter encounter : person.record.encounters) {
-      if (encounter.stop < startTime) {
-        continue;
-      }
-
-      boolean isVA = (ProviderType.VETERAN == encounter.provider.type);
-      boolean isHome = encounter.type.equals(EncounterType.HOME.toString());
-      // IHS facilities have valid 6 digit id, IHS centers don't
-      boolean isIHSCenter = (ProviderType.IHS == encounter.provider.type)
-              && encounter.provider.id.length() != 6;
-
-      if (isVA || isIHSCenter || !isHome) {
-        continue;
-      }
-
+    for (HealthRecord.Encounter encounter : claims.home) {
       homeVisits += 1;
-      long claimId = BB2RIFExporter.claimId.getAndDecrement();
-      int claimGroupId = BB2RIFExporter.claimGroupId.getAndDecrement();
-      long fiDocId = BB2RIFExporter.fiDocCntlNum.getAndDecrement();
+      long claimId = BB2RIFExporter.claimId.next();
+      int claimGroupId = (int) BB2RIFExporter.claimGroupId.next();
+      long fiDocId = BB2RIFExporter.fiDocCntlNum.next();
 
       fieldValues.clear();
       staticFieldConfig.setValues(fieldValues, HHA.class, person);
@@ -2344,66 +2274,64 @@ public class BB2RIFExporter {
       setExternalCode(person, fieldValues,
           HHA.PRNCPAL_DGNS_CD, HHA.FST_DGNS_E_CD, HHA.FST_DGNS_E_VRSN_CD);
 
-      synchronized (rifWriters.getOrCreateWriter(HHA.class)) {
-        int claimLine = 1;
-        for (ClaimEntry lineItem : encounter.claim.items) {
-          String hcpcsCode = null;
-          if (lineItem.entry instanceof HealthRecord.Procedure) {
-            for (HealthRecord.Code code : lineItem.entry.codes) {
-              if (hcpcsCodeMapper.canMap(code.code)) {
-                hcpcsCode = hcpcsCodeMapper.map(code.code, person, true);
-                break; // take the first mappable code for each procedure
-              }
-            }
-            fieldValues.remove(HHA.REV_CNTR_NDC_QTY);
-            fieldValues.remove(HHA.REV_CNTR_NDC_QTY_QLFR_CD);
-          } else if (lineItem.entry instanceof HealthRecord.Medication) {
-            HealthRecord.Medication med = (HealthRecord.Medication) lineItem.entry;
-            if (med.administration) {
-              hcpcsCode = "T1502";  // Administration of medication
-              fieldValues.put(HHA.REV_CNTR_NDC_QTY, "1"); // 1 Unit
-              fieldValues.put(HHA.REV_CNTR_NDC_QTY_QLFR_CD, "UN"); // Unit
+      int claimLine = 1;
+      for (ClaimEntry lineItem : encounter.claim.items) {
+        String hcpcsCode = null;
+        if (lineItem.entry instanceof HealthRecord.Procedure) {
+          for (HealthRecord.Code code : lineItem.entry.codes) {
+            if (hcpcsCodeMapper.canMap(code.code)) {
+              hcpcsCode = hcpcsCodeMapper.map(code.code, person, true);
+              break; // take the first mappable code for each procedure
             }
           }
-          if (hcpcsCode == null) {
-            continue;
+          fieldValues.remove(HHA.REV_CNTR_NDC_QTY);
+          fieldValues.remove(HHA.REV_CNTR_NDC_QTY_QLFR_CD);
+        } else if (lineItem.entry instanceof HealthRecord.Medication) {
+          HealthRecord.Medication med = (HealthRecord.Medication) lineItem.entry;
+          if (med.administration) {
+            hcpcsCode = "T1502";  // Administration of medication
+            fieldValues.put(HHA.REV_CNTR_NDC_QTY, "1"); // 1 Unit
+            fieldValues.put(HHA.REV_CNTR_NDC_QTY_QLFR_CD, "UN"); // Unit
           }
-
-          fieldValues.put(HHA.CLM_LINE_NUM, Integer.toString(claimLine++));
-          fieldValues.put(HHA.REV_CNTR_DT, bb2DateFromTimestamp(lineItem.entry.start));
-          fieldValues.put(HHA.HCPCS_CD, hcpcsCode);
-          fieldValues.put(HHA.REV_CNTR_RATE_AMT,
-              String.format("%.2f", (lineItem.cost / Integer.max(1, days))));
-          fieldValues.put(HHA.REV_CNTR_PMT_AMT_AMT,
-              String.format("%.2f", lineItem.coinsurance + lineItem.payer));
-          fieldValues.put(HHA.REV_CNTR_TOT_CHRG_AMT,
-              String.format("%.2f", lineItem.cost));
-          fieldValues.put(HHA.REV_CNTR_NCVRD_CHRG_AMT,
-              String.format("%.2f", lineItem.copay + lineItem.deductible + lineItem.pocket));
-          if (lineItem.pocket == 0 && lineItem.deductible == 0) {
-            // Not subject to deductible or coinsurance
-            fieldValues.put(HHA.REV_CNTR_DDCTBL_COINSRNC_CD, "3");
-          } else if (lineItem.pocket > 0 && lineItem.deductible > 0) {
-            // Subject to deductible and coinsurance
-            fieldValues.put(HHA.REV_CNTR_DDCTBL_COINSRNC_CD, "0");
-          } else if (lineItem.pocket == 0) {
-            // Not subject to deductible
-            fieldValues.put(HHA.REV_CNTR_DDCTBL_COINSRNC_CD, "1");
-          } else {
-            // Not subject to coinsurance
-            fieldValues.put(HHA.REV_CNTR_DDCTBL_COINSRNC_CD, "2");
-          }
-          rifWriters.writeValues(HHA.class, fieldValues);
         }
-
-        if (claimLine == 1) {
-          // If claimLine still equals 1, then no line items were successfully added.
-          // Add a single top-level entry.
-          fieldValues.put(HHA.CLM_LINE_NUM, Integer.toString(claimLine));
-          fieldValues.put(HHA.REV_CNTR_DT, bb2DateFromTimestamp(encounter.start));
-          fieldValues.put(HHA.HCPCS_CD, "T1021"); // home health visit
-          rifWriters.writeValues(HHA.class, fieldValues);
+        if (hcpcsCode == null) {
+          continue;
+        }
+
+        fieldValues.put(HHA.CLM_LINE_NUM, Integer.toString(claimLine++));
+        fieldValues.put(HHA.REV_CNTR_DT, bb2DateFromTimestamp(lineItem.entry.start));
+        fieldValues.put(HHA.HCPCS_CD, hcpcsCode);
+        fieldValues.put(HHA.REV_CNTR_RATE_AMT,
+            String.format("%.2f", (lineItem.cost / Integer.max(1, days))));
+        fieldValues.put(HHA.REV_CNTR_PMT_AMT_AMT,
+            String.format("%.2f", lineItem.coinsurance + lineItem.payer));
+        fieldValues.put(HHA.REV_CNTR_TOT_CHRG_AMT,
+            String.format("%.2f", lineItem.cost));
+        fieldValues.put(HHA.REV_CNTR_NCVRD_CHRG_AMT,
+            String.format("%.2f", lineItem.copay + lineItem.deductible + lineItem.pocket));
+        if (lineItem.pocket == 0 && lineItem.deductible == 0) {
+          // Not subject to deductible or coinsurance
+          fieldValues.put(HHA.REV_CNTR_DDCTBL_COINSRNC_CD, "3");
+        } else if (lineItem.pocket > 0 && lineItem.deductible > 0) {
+          // Subject to deductible and coinsurance
+          fieldValues.put(HHA.REV_CNTR_DDCTBL_COINSRNC_CD, "0");
+        } else if (lineItem.pocket == 0) {
+          // Not subject to deductible
+          fieldValues.put(HHA.REV_CNTR_DDCTBL_COINSRNC_CD, "1");
+        } else {
+          // Not subject to coinsurance
+          fieldValues.put(HHA.REV_CNTR_DDCTBL_COINSRNC_CD, "2");
         }
+        rifWriters.writeValues(HHA.class, fieldValues);
+      }
+
+      if (claimLine == 1) {
+        // If claimLine still equals 1, then no line items were successfully added.
+        // Add a single top-level entry.
+        fieldValues.put(HHA.CLM_LINE_NUM, Integer.toString(claimLine));
+        fieldValues.put(HHA.REV_CNTR_DT, bb2DateFromTimestamp(encounter.start));
+        fieldValues.put(HHA.HCPCS_CD, "T1021"); // home health visit
+        rifWriters.writeValues(HHA.class, fieldValues);
       }
     }
   }
@@ -2411,26 +2339,14 @@ public class BB2RIFExporter {
   /**
    * Export Home Health Agency visits for a single person.
    * @param person the person to export
-   * @param startTime earliest claim date to export
+   * @param claims the encounters to export claims for
    * @param stopTime end time of simulation
    * @throws IOException if something goes wrong
    */
-  private void exportHospice(Person person, long startTime, long stopTime) throws IOException {
-    HashMap<HOSPICE, String> fieldValues = new HashMap<>();
-    for (HealthRecord.Encounter encounter : person.record.encounters) {
-      if (encounter.stop < startTime) {
-        continue;
-      }
-
-      boolean isVA = (ProviderType.VETERAN == encounter.provider.type);
-      // IHS facilities have valid 6 digit id, IHS centers don't
-      boolean isIHSCenter = (ProviderType.IHS == encounter.provider.type)
-              && encounter.provider.id.length() != 6;
-      boolean isHospice = encounter.type.equals(EncounterType.HOSPICE.toString());
-      if (isVA || isIHSCenter || !isHospice) {
-        continue;
-      }
-
+  private void exportHospice(Person person, ClaimEncounters claims, long stopTime)
+        throws IOException {
+    EnumMap<HOSPICE, String> fieldValues = new EnumMap<>(HOSPICE.class);
+    for (HealthRecord.Encounter encounter : claims.hospice) {
       // Use the active condition diagnoses to enter mapped values
       // into the diagnoses codes.
       List<String> mappedDiagnosisCodes = getDiagnosesCodes(person, encounter.stop);
@@ -2438,9 +2354,9 @@ public class BB2RIFExporter {
         continue; // skip this encounter
       }
 
-      long claimId = BB2RIFExporter.claimId.getAndDecrement();
-      int claimGroupId = BB2RIFExporter.claimGroupId.getAndDecrement();
-      long fiDocId = BB2RIFExporter.fiDocCntlNum.getAndDecrement();
+      long claimId = BB2RIFExporter.claimId.next();
+      int claimGroupId = (int) BB2RIFExporter.claimGroupId.next();
+      long fiDocId = BB2RIFExporter.fiDocCntlNum.next();
       fieldValues.clear();
       staticFieldConfig.setValues(fieldValues, HOSPICE.class, person);
 
@@ -2540,66 +2456,64 @@ public class BB2RIFExporter {
       fieldValues.put(HOSPICE.REV_CNTR_RATE_AMT,
           String.format("%.2f", (encounter.claim.getTotalClaimCost() / days)));
 
-      synchronized (rifWriters.getOrCreateWriter(HOSPICE.class)) {
-        int claimLine = 1;
-        for (ClaimEntry lineItem : encounter.claim.items) {
-          String hcpcsCode = null;
-          if (lineItem.entry instanceof HealthRecord.Procedure) {
-            for (HealthRecord.Code code : lineItem.entry.codes) {
-              if (hcpcsCodeMapper.canMap(code.code)) {
-                hcpcsCode = hcpcsCodeMapper.map(code.code, person, true);
-                break; // take the first mappable code for each procedure
-              }
-            }
-            fieldValues.remove(HOSPICE.REV_CNTR_NDC_QTY);
-            fieldValues.remove(HOSPICE.REV_CNTR_NDC_QTY_QLFR_CD);
-          } else if (lineItem.entry instanceof HealthRecord.Medication) {
-            HealthRecord.Medication med = (HealthRecord.Medication) lineItem.entry;
-            if (med.administration) {
-              hcpcsCode = "T1502";  // Administration of medication
-              fieldValues.put(HOSPICE.REV_CNTR_NDC_QTY, "1"); // 1 Unit
-              fieldValues.put(HOSPICE.REV_CNTR_NDC_QTY_QLFR_CD, "UN"); // Unit
+      int claimLine = 1;
+      for (ClaimEntry lineItem : encounter.claim.items) {
+        String hcpcsCode = null;
+        if (lineItem.entry instanceof HealthRecord.Procedure) {
+          for (HealthRecord.Code code : lineItem.entry.codes) {
+            if (hcpcsCodeMapper.canMap(code.code)) {
+              hcpcsCode = hcpcsCodeMapper.map(code.code, person, true);
+              break; // take the first mappable code for each procedure
             }
           }
-          if (hcpcsCode == null) {
-            continue;
+          fieldValues.remove(HOSPICE.REV_CNTR_NDC_QTY);
+          fieldValues.remove(HOSPICE.REV_CNTR_NDC_QTY_QLFR_CD);
+        } else if (lineItem.entry instanceof HealthRecord.Medication) {
+          HealthRecord.Medication med = (HealthRecord.Medication) lineItem.entry;
+          if (med.administration) {
+            hcpcsCode = "T1502";  // Administration of medication
+            fieldValues.put(HOSPICE.REV_CNTR_NDC_QTY, "1"); // 1 Unit
+            fieldValues.put(HOSPICE.REV_CNTR_NDC_QTY_QLFR_CD, "UN"); // Unit
           }
-
-          fieldValues.put(HOSPICE.CLM_LINE_NUM, Integer.toString(claimLine++));
-          fieldValues.put(HOSPICE.REV_CNTR_DT, bb2DateFromTimestamp(lineItem.entry.start));
-          fieldValues.put(HOSPICE.HCPCS_CD, hcpcsCode);
-          fieldValues.put(HOSPICE.REV_CNTR_RATE_AMT,
-              String.format("%.2f", (lineItem.cost / Integer.max(1, days))));
-          fieldValues.put(HOSPICE.REV_CNTR_PMT_AMT_AMT,
-              String.format("%.2f", lineItem.coinsurance + lineItem.payer));
-          fieldValues.put(HOSPICE.REV_CNTR_TOT_CHRG_AMT,
-              String.format("%.2f", lineItem.cost));
-          fieldValues.put(HOSPICE.REV_CNTR_NCVRD_CHRG_AMT,
-              String.format("%.2f", lineItem.copay + lineItem.deductible + lineItem.pocket));
-          if (lineItem.pocket == 0 && lineItem.deductible == 0) {
-            // Not subject to deductible or coinsurance
-            fieldValues.put(HOSPICE.REV_CNTR_DDCTBL_COINSRNC_CD, "3");
-          } else if (lineItem.pocket > 0 && lineItem.deductible > 0) {
-            // Subject to deductible and coinsurance
-            fieldValues.put(HOSPICE.REV_CNTR_DDCTBL_COINSRNC_CD, "0");
-          } else if (lineItem.pocket == 0) {
-            // Not subject to deductible
-            fieldValues.put(HOSPICE.REV_CNTR_DDCTBL_COINSRNC_CD, "1");
-          } else {
-            // Not subject to coinsurance
-            fieldValues.put(HOSPICE.REV_CNTR_DDCTBL_COINSRNC_CD, "2");
-          }
-          rifWriters.writeValues(HOSPICE.class, fieldValues);
         }
-
-        if (claimLine == 1) {
-          // If claimLine still equals 1, then no line items were successfully added.
-          // Add a single top-level entry.
-          fieldValues.put(HOSPICE.CLM_LINE_NUM, Integer.toString(claimLine));
-          fieldValues.put(HOSPICE.REV_CNTR_DT, bb2DateFromTimestamp(encounter.start));
-          fieldValues.put(HOSPICE.HCPCS_CD, "S9126"); // hospice per diem
-          rifWriters.writeValues(HOSPICE.class, fieldValues);
+        if (hcpcsCode == null) {
+          continue;
+        }
+
+        fieldValues.put(HOSPICE.CLM_LINE_NUM, Integer.toString(claimLine++));
+        fieldValues.put(HOSPICE.REV_CNTR_DT, bb2DateFromTimestamp(lineItem.entry.start));
+        fieldValues.put(HOSPICE.HCPCS_CD, hcpcsCode);
+        fieldValues.put(HOSPICE.REV_CNTR_RATE_AMT,
+            String.format("%.2f", (lineItem.cost / Integer.max(1, days))));
+        fieldValues.put(HOSPICE.REV_CNTR_PMT_AMT_AMT,
+            String.format("%.2f", lineItem.coinsurance + lineItem.payer));
+        fieldValues.put(HOSPICE.REV_CNTR_TOT_CHRG_AMT,
+            String.format("%.2f", lineItem.cost));
+        fieldValues.put(HOSPICE.REV_CNTR_NCVRD_CHRG_AMT,
+            String.format("%.2f", lineItem.copay + lineItem.deductible + lineItem.pocket));
+        if (lineItem.pocket == 0 && lineItem.deductible == 0) {
+          // Not subject to deductible or coinsurance
+          fieldValues.put(HOSPICE.REV_CNTR_DDCTBL_COINSRNC_CD, "3");
+        } else if (lineItem.pocket > 0 && lineItem.deductible > 0) {
+          // Subject to deductible and coinsurance
+          fieldValues.put(HOSPICE.REV_CNTR_DDCTBL_COINSRNC_CD, "0");
+        } else if (lineItem.pocket == 0) {
+          // Not subject to deductible
+          fieldValues.put(HOSPICE.REV_CNTR_DDCTBL_COINSRNC_CD, "1");
+        } else {
+          // Not subject to coinsurance
+          fieldValues.put(HOSPICE.REV_CNTR_DDCTBL_COINSRNC_CD, "2");
         }
+        rifWriters.writeValues(HOSPICE.class, fieldValues);
+      }
+
+      if (claimLine == 1) {
+        // If claimLine still equals 1, then no line items were successfully added.
+        // Add a single top-level entry.
+        fieldValues.put(HOSPICE.CLM_LINE_NUM, Integer.toString(claimLine));
+        fieldValues.put(HOSPICE.REV_CNTR_DT, bb2DateFromTimestamp(encounter.start));
+        fieldValues.put(HOSPICE.HCPCS_CD, "S9126"); // hospice per diem
+        rifWriters.writeValues(HOSPICE.class, fieldValues);
       }
     }
   }
@@ -2607,35 +2521,23 @@ public class BB2RIFExporter {
   /**
    * Export Home Health Agency visits for a single person.
    * @param person the person to export
-   * @param startTime earliest claim date to export
+   * @param claims the encounters to export claims for
    * @param stopTime end time of simulation
    * @throws IOException if something goes wrong
    */
-  private void exportSNF(Person person, long startTime, long stopTime) throws IOException {
-    HashMap<SNF, String> fieldValues = new HashMap<>();
+  private void exportSNF(Person person, ClaimEncounters claims, long stopTime)
+        throws IOException {
+    EnumMap<SNF, String> fieldValues = new EnumMap<>(SNF.class);
     boolean previousEmergency;
     boolean previousUrgent;
 
-    for (HealthRecord.Encounter encounter : person.record.encounters) {
-      if (encounter.stop < startTime) {
-        continue;
-      }
-
-      boolean isVA = (ProviderType.VETERAN == encounter.provider.type);
-      // IHS facilities have valid 6 digit id, IHS centers don't
-      boolean isIHSCenter = (ProviderType.IHS == encounter.provider.type)
-              && encounter.provider.id.length() != 6;
-      boolean isSNF = encounter.type.equals(EncounterType.SNF.toString());
-      if (isVA || isIHSCenter || !isSNF) {
-        continue;
-      }
-
+    for (HealthRecord.Encounter encounter : claims.snf) {
       previousEmergency = encounter.type.equals(EncounterType.EMERGENCY.toString());
       previousUrgent = encounter.type.equals(EncounterType.URGENTCARE.toString());
 
-      long claimId = BB2RIFExporter.claimId.getAndDecrement();
-      int claimGroupId = BB2RIFExporter.claimGroupId.getAndDecrement();
-      long fiDocId = BB2RIFExporter.fiDocCntlNum.getAndDecrement();
+      long claimId = BB2RIFExporter.claimId.next();
+      int claimGroupId = (int) BB2RIFExporter.claimGroupId.next();
+      long fiDocId = BB2RIFExporter.fiDocCntlNum.next();
 
       fieldValues.clear();
       staticFieldConfig.setValues(fieldValues, SNF.class, person);
@@ -2796,64 +2698,62 @@ public class BB2RIFExporter {
         continue; // skip this encounter
       }
 
-      synchronized (rifWriters.getOrCreateWriter(SNF.class)) {
-        int claimLine = 1;
-        for (ClaimEntry lineItem : encounter.claim.items) {
-          String hcpcsCode = null;
-          if (lineItem.entry instanceof HealthRecord.Procedure) {
-            for (HealthRecord.Code code : lineItem.entry.codes) {
-              if (hcpcsCodeMapper.canMap(code.code)) {
-                hcpcsCode = hcpcsCodeMapper.map(code.code, person, true);
-                break; // take the first mappable code for each procedure
-              }
-            }
-            fieldValues.remove(SNF.REV_CNTR_NDC_QTY);
-            fieldValues.remove(SNF.REV_CNTR_NDC_QTY_QLFR_CD);
-          } else if (lineItem.entry instanceof HealthRecord.Medication) {
-            HealthRecord.Medication med = (HealthRecord.Medication) lineItem.entry;
-            if (med.administration) {
-              hcpcsCode = "T1502";  // Administration of medication
-              fieldValues.put(SNF.REV_CNTR_NDC_QTY, "1"); // 1 Unit
-              fieldValues.put(SNF.REV_CNTR_NDC_QTY_QLFR_CD, "UN"); // Unit
+      int claimLine = 1;
+      for (ClaimEntry lineItem : encounter.claim.items) {
+        String hcpcsCode = null;
+        if (lineItem.entry instanceof HealthRecord.Procedure) {
+          for (HealthRecord.Code code : lineItem.entry.codes) {
+            if (hcpcsCodeMapper.canMap(code.code)) {
+              hcpcsCode = hcpcsCodeMapper.map(code.code, person, true);
+              break; // take the first mappable code for each procedure
             }
           }
-          if (hcpcsCode == null) {
-            continue;
-          }
-
-          fieldValues.put(SNF.CLM_LINE_NUM, Integer.toString(claimLine++));
-          fieldValues.put(SNF.HCPCS_CD, hcpcsCode);
-          fieldValues.put(SNF.REV_CNTR_RATE_AMT,
-              String.format("%.2f", (lineItem.cost / Integer.max(1, days))));
-          fieldValues.put(SNF.REV_CNTR_TOT_CHRG_AMT,
-              String.format("%.2f", lineItem.cost));
-          fieldValues.put(SNF.REV_CNTR_NCVRD_CHRG_AMT,
-              String.format("%.2f", lineItem.copay + lineItem.deductible + lineItem.pocket));
-          if (lineItem.pocket == 0 && lineItem.deductible == 0) {
-            // Not subject to deductible or coinsurance
-            fieldValues.put(SNF.REV_CNTR_DDCTBL_COINSRNC_CD, "3");
-          } else if (lineItem.pocket > 0 && lineItem.deductible > 0) {
-            // Subject to deductible and coinsurance
-            fieldValues.put(SNF.REV_CNTR_DDCTBL_COINSRNC_CD, "0");
-          } else if (lineItem.pocket == 0) {
-            // Not subject to deductible
-            fieldValues.put(SNF.REV_CNTR_DDCTBL_COINSRNC_CD, "1");
-          } else {
-            // Not subject to coinsurance
-            fieldValues.put(SNF.REV_CNTR_DDCTBL_COINSRNC_CD, "2");
+          fieldValues.remove(SNF.REV_CNTR_NDC_QTY);
+          fieldValues.remove(SNF.REV_CNTR_NDC_QTY_QLFR_CD);
+        } else if (lineItem.entry instanceof HealthRecord.Medication) {
+          HealthRecord.Medication med = (HealthRecord.Medication) lineItem.entry;
+          if (med.administration) {
+            hcpcsCode = "T1502";  // Administration of medication
+            fieldValues.put(SNF.REV_CNTR_NDC_QTY, "1"); // 1 Unit
+            fieldValues.put(SNF.REV_CNTR_NDC_QTY_QLFR_CD, "UN"); // Unit
           }
-          rifWriters.writeValues(SNF.class, fieldValues);
         }
-
-        if (claimLine == 1) {
-          // If claimLine still equals 1, then no line items were successfully added.
-          // Add a single top-level entry.
-          fieldValues.put(SNF.CLM_LINE_NUM, Integer.toString(claimLine));
-          // G0299: "direct skilled nursing services of a registered nurse (RN) in the home health
-          // or hospice setting"
-          fieldValues.put(SNF.HCPCS_CD, "G0299");
-          rifWriters.writeValues(SNF.class, fieldValues);
+        if (hcpcsCode == null) {
+          continue;
+        }
+
+        fieldValues.put(SNF.CLM_LINE_NUM, Integer.toString(claimLine++));
+        fieldValues.put(SNF.HCPCS_CD, hcpcsCode);
+        fieldValues.put(SNF.REV_CNTR_RATE_AMT,
+            String.format("%.2f", (lineItem.cost / Integer.max(1, days))));
+        fieldValues.put(SNF.REV_CNTR_TOT_CHRG_AMT,
+            String.format("%.2f", lineItem.cost));
+        fieldValues.put(SNF.REV_CNTR_NCVRD_CHRG_AMT,
+            String.format("%.2f", lineItem.copay + lineItem.deductible + lineItem.pocket));
+        if (lineItem.pocket == 0 && lineItem.deductible == 0) {
+          // Not subject to deductible or coinsurance
+          fieldValues.put(SNF.REV_CNTR_DDCTBL_COINSRNC_CD, "3");
+        } else if (lineItem.pocket > 0 && lineItem.deductible > 0) {
+          // Subject to deductible and coinsurance
+          fieldValues.put(SNF.REV_CNTR_DDCTBL_COINSRNC_CD, "0");
+        } else if (lineItem.pocket == 0) {
+          // Not subject to deductible
+          fieldValues.put(SNF.REV_CNTR_DDCTBL_COINSRNC_CD, "1");
+        } else {
+          // Not subject to coinsurance
+          fieldValues.put(SNF.REV_CNTR_DDCTBL_COINSRNC_CD, "2");
         }
+        rifWriters.writeValues(SNF.class, fieldValues);
+      }
+
+      if (claimLine == 1) {
+        // If claimLine still equals 1, then no line items were successfully added.
+        // Add a single top-level entry.
+        fieldValues.put(SNF.CLM_LINE_NUM, Integer.toString(claimLine));
+        // G0299: "direct skilled nursing services of a registered nurse (RN) in the home health
+        // or hospice setting"
+        fieldValues.put(SNF.HCPCS_CD, "G0299");
+        rifWriters.writeValues(SNF.class, fieldValues);
       }
     }
   }
@@ -3086,6 +2986,8 @@ public class BB2RIFExporter {
     private String bbFieldSeparator = "|";
     private final Path path;
     private final Class<E> clazz;
+    /** The columns of the file, in order, looked up once rather than for every line. */
+    private final E[] fields;
 
     /**
      * Construct a new instance. Fields will be separated using the default '|' character.
@@ -3095,6 +2997,7 @@ public class BB2RIFExporter {
     public SynchronizedBBLineWriter(Class<E> clazz, Path path) {
       this.path = path;
       this.clazz = clazz;
+      this.fields = clazz.getEnumConstants();
       writeHeaderIfNeeded();
     }
 
@@ -3107,6 +3010,7 @@ public class BB2RIFExporter {
     public SynchronizedBBLineWriter(Class<E> clazz, Path path, String separator) {
       this.path = path;
       this.clazz = clazz;
+      this.fields = clazz.getEnumConstants();
       this.bbFieldSeparator = separator;
       writeHeaderIfNeeded();
     }
@@ -3117,9 +3021,8 @@ public class BB2RIFExporter {
      */
     private void writeHeaderIfNeeded() {
       if (getFile().length() == 0) {
-        String[] fields = Arrays.stream(clazz.getEnumConstants()).map(Enum::name)
-                .toArray(String[]::new);
-        writeLine(fields);
+        String[] names = Arrays.stream(fields).map(Enum::name).toArray(String[]::new);
+        writeLine(names);
       }
     }
 
@@ -3137,14 +3040,40 @@ public class BB2RIFExporter {
     /**
      * Write a BB2 writer line.
      * @param fieldValues a sparse map of column names to values, missing values will result in
-     *     empty values in the corresponding column
+     *     empty values in the corresponding column. An EnumMap is the cheapest to read.
      * @throws IOException if something goes wrong
      */
     public void writeValues(Map<E, String> fieldValues)
             throws IOException {
-      String[] fields = Arrays.stream(clazz.getEnumConstants())
-              .map((e) -> fieldValues.getOrDefault(e, "")).toArray(String[]::new);
-      writeLine(fields);
+      StringBuilder line = new StringBuilder(fields.length * 8);
+      appendValues(line, fieldValues);
+      Exporter.appendToFile(path, line.toString());
+    }
+
+    /**
+     * Append a BB2 writer line, without a line separator, to a buffer.
+     * @param buffer the buffer to append to
+     * @param fieldValues a sparse map of column names to values, missing values will result in
+     *     empty values in the corresponding column
+     */
+    private void appendValues(StringBuilder buffer, Map<E, String> fieldValues) {
+      for (int i = 0; i < fields.length; i++) {
+        if (i > 0) {
+          buffer.append(bbFieldSeparator);
+        }
+        String value = fieldValues.get(fields[i]);
+        if (value != null) {
+          buffer.append(value);
+        }
+      }
+    }
+
+    /**
+     * Write lines that were built with appendValues, in a single append to the file.
+     * @param lines the lines, separated but not terminated by a line separator
+     */
+    private void writeLines(CharSequence lines) {
+      Exporter.appendToFile(path, lines.toString());
     }
 
     /**
@@ -3162,6 +3091,26 @@ public class BB2RIFExporter {
   public static class StaticFieldConfig {
     List<LinkedHashMap<String, String>> config;
     Map<String, LinkedHashMap<String, String>> configMap;
+    /** The compiled column of the TSV for each table, see {@link #plan(Class)}. */
+    private final Map<Class<?>, FieldPlan<?>> plans = new ConcurrentHashMap<>();
+
+    /**
+     * The values a single table takes from the TSV, in TSV row order. Each entry is either a
+     * constant or a list of values to choose from at random. Entries for fields the table enum
+     * does not contain have a null field; they still draw a random number when they have a
+     * choice, so the random sequence is the same as walking the TSV.
+     */
+    private static class FieldPlan<E extends Enum<E>> {
+      private final E[] fields;
+      private final String[][] choices;
+      private final boolean[] random;
+
+      private FieldPlan(E[] fields, String[][] choices, boolean[] random) {
+        this.fields = fields;
+        this.choices = choices;
+        this.random = random;
+      }
+    }
 
     /**
      * Default constructor that parses the TSV config writer.
@@ -3238,47 +3187,82 @@ public class BB2RIFExporter {
      * @param tableEnum the enum class for the BFD table (e.g. InpatientFields or OutpatientFields).
      * @param rand source of randomness
      */
-    public <E extends Enum<E>> void setValues(HashMap<E, String> values, Class<E> tableEnum,
+    public <E extends Enum<E>> void setValues(Map<E, String> values, Class<E> tableEnum,
             RandomNumberGenerator rand) {
-      // Get the name of the columnName to populate. This must match a column name in the
-      // config TSV.
-      String columnName = tableEnum.getSimpleName();
-
-      // Get the valueOf method for the supplied enum using reflection.
-      // We'll use this to convert the string field name to the corresponding enum value
-      Method valueOf;
-      try {
-        valueOf = tableEnum.getMethod("valueOf", String.class);
-      } catch (NoSuchMethodException | SecurityException ex) {
-        // this should never happen since tableEnum has to be an enum which will have a valueOf
-        // method but the compiler isn't clever enought to figure that out
-        throw new IllegalArgumentException(ex);
+      FieldPlan<E> plan = plan(tableEnum);
+      for (int i = 0; i < plan.fields.length; i++) {
+        String[] choices = plan.choices[i];
+        String value = plan.random[i] ? choices[rand.randInt(choices.length)] : choices[0];
+        if (plan.fields[i] != null) {
+          values.put(plan.fields[i], value);
+        }
       }
+    }
+
+    /**
+     * Get the compiled TSV column for a table, compiling it on first use.
+     * @param <E> the type parameter.
+     * @param tableEnum the enum class for the BFD table.
+     * @return the values the table takes from the TSV.
+     */
+    @SuppressWarnings("unchecked")
+    private <E extends Enum<E>> FieldPlan<E> plan(Class<E> tableEnum) {
+      return (FieldPlan<E>) plans.computeIfAbsent(tableEnum, (c) -> compile(tableEnum));
+    }
 
-      // Iterate over all of the rows in the TSV
+    /**
+     * Compile the TSV column for a table. Fields that are not used, hand-coded, macros or
+     * empty are left out, fields that are literally blank become a single space, and comma
+     * separated lists become a choice of their trimmed values.
+     * @param <E> the type parameter.
+     * @param tableEnum the enum class for the BFD table. Its simple name must match a column
+     *     name in the config TSV.
+     * @return the values the table takes from the TSV.
+     */
+    @SuppressWarnings("unchecked")
+    private <E extends Enum<E>> FieldPlan<E> compile(Class<E> tableEnum) {
+      String columnName = tableEnum.getSimpleName();
+      Map<String, E> byName = new HashMap<>();
+      for (E field : tableEnum.getEnumConstants()) {
+        byName.put(field.name(), field);
+      }
+      List<E> fields = new ArrayList<>();
+      List<String[]> choices = new ArrayList<>();
+      List<Boolean> random = new ArrayList<>();
       for (LinkedHashMap<String, String> row: config) {
         String cellContents = stripComments(row.get(columnName));
-        String value = null;
         if (cellContents.equalsIgnoreCase("N/A")
             || cellContents.equalsIgnoreCase("Coded")) {
           continue; // Skip fields that aren't used or are hand-coded
         } else if (cellContents.equalsIgnoreCase("[Blank]")) {
-          value = " "; // Literally blank
+          choices.add(new String[] {" "}); // Literally blank
+          random.add(false);
         } else if (isMacro(cellContents)) {
           continue; // Skip unsupported macro's in the TSV
         } else if (cellContents.isEmpty()) {
           continue; // Skip empty cells
+        } else if (cellContents.contains(",")) {
+          // the same choices as processCell
+          String[] values = cellContents.split(",");
+          for (int i = 0; i < values.length; i++) {
+            values[i] = values[i].trim();
+          }
+          choices.add(values);
+          random.add(true);
         } else {
-          value = processCell(cellContents, rand);
-        }
-        try {
-          E enumVal = (E)valueOf.invoke(null, row.get("Field"));
-          values.put(enumVal, value);
-        } catch (IllegalAccessException | IllegalArgumentException | InvocationTargetException ex) {
-          // This should only happen if the TSV contains a value for a field when the
-          // columnName enum does not contain that field value.
+          choices.add(new String[] {cellContents});
+          random.add(false);
         }
+        // null if the TSV contains a value for a field that the columnName enum does not contain
+        fields.add(byName.get(row.get("Field")));
+      }
+      E[] fieldArray = (E[]) Array.newInstance(tableEnum, fields.size());
+      boolean[] randomArray = new boolean[random.size()];
+      for (int i = 0; i < randomArray.length; i++) {
+        randomArray[i] = random.get(i);
       }
+      return new FieldPlan<E>(fields.toArray(fieldArray),
+          choices.toArray(new String[choices.size()][]), randomArray);
     }
 
     /**
@@ -3581,15 +3565,27 @@ public class BB2RIFExporter {
   }
 
   private static class RifWriters {
+    /** Roughly how many characters each thread buffers before appending them to the files. */
+    private static final int ROW_BUFFER_SIZE = 1 << 20;
+
     private final Map<RifEntryStatus, Map<Class, SynchronizedBBLineWriter>> allWriters;
     private final Path outputDir;
+    /** The rows each thread has written that have not been appended to their files yet. */
+    private final ThreadLocal<RowBuffer> rowBuffers;
+    private final List<RowBuffer> allRowBuffers;
 
     public RifWriters(Path outputDir) {
       this.outputDir = outputDir;
-      allWriters = Collections.synchronizedMap(new HashMap<>());
+      allWriters = new EnumMap<>(RifEntryStatus.class);
       for (RifEntryStatus status: RifEntryStatus.values()) {
-        allWriters.put(status, Collections.synchronizedMap(new HashMap<>()));
+        allWriters.put(status, new ConcurrentHashMap<>());
       }
+      allRowBuffers = Collections.synchronizedList(new ArrayList<>());
+      rowBuffers = ThreadLocal.withInitial(() -> {
+        RowBuffer buffer = new RowBuffer();
+        allRowBuffers.add(buffer);
+        return buffer;
+      });
     }
 
     public <E extends Enum<E>> SynchronizedBBLineWriter<E> getWriter(Class<E> rifEnum,
@@ -3609,24 +3605,30 @@ public class BB2RIFExporter {
       return outputDir.resolve(fileName);
     }
 
-    public synchronized <E extends Enum<E>> SynchronizedBBLineWriter<E> getOrCreateWriter(
+    public <E extends Enum<E>> SynchronizedBBLineWriter<E> getOrCreateWriter(
             Class<E> enumClass) {
       return getOrCreateWriter(enumClass, RifEntryStatus.INITIAL);
     }
 
-    public synchronized <E extends Enum<E>> SynchronizedBBLineWriter<E> getOrCreateWriter(
+    public <E extends Enum<E>> SynchronizedBBLineWriter<E> getOrCreateWriter(
             Class<E> enumClass, RifEntryStatus status) {
       return getOrCreateWriter(enumClass, status, "csv", "|");
     }
 
-    public synchronized <E extends Enum<E>> SynchronizedBBLineWriter<E> getOrCreateWriter(
+    public <E extends Enum<E>> SynchronizedBBLineWriter<E> getOrCreateWriter(
             Class<E> enumClass, RifEntryStatus status, String ext, String separator) {
       SynchronizedBBLineWriter<E> writer = getWriter(enumClass, status);
       if (writer == null) {
-        Path filePath = getFilePath(enumClass, status, ext);
-        writer = new SynchronizedBBLineWriter<>(
-                enumClass, filePath, separator);
-        allWriters.get(status).put(enumClass, writer);
+        // only lock to create the writer, so that its header is written exactly once
+        synchronized (this) {
+          writer = getWriter(enumClass, status);
+          if (writer == null) {
+            Path filePath = getFilePath(enumClass, status, ext);
+            writer = new SynchronizedBBLineWriter<>(
+                    enumClass, filePath, separator);
+            allWriters.get(status).put(enumClass, writer);
+          }
+        }
       }
       return writer;
     }
@@ -3636,9 +3638,174 @@ public class BB2RIFExporter {
       writeValues(enumClass, fieldValues, RifEntryStatus.INITIAL);
     }
 
+    /**
+     * Write a line to the current thread's buffer. It is appended to the file by
+     * {@link #endPerson()} or {@link #flush()}.
+     */
     public <E extends Enum<E>> void writeValues(Class<E> enumClass, Map<E, String> fieldValues,
             RifEntryStatus status) throws IOException {
-      getOrCreateWriter(enumClass, status).writeValues(fieldValues);
+      rowBuffers.get().add(getOrCreateWriter(enumClass, status), fieldValues);
+    }
+
+    /**
+     * Append the rows the current thread has buffered to their files, if there are enough of
+     * them. This is only called between people, so all the lines of a claim stay together.
+     */
+    public void endPerson() {
+      RowBuffer buffer = rowBuffers.get();
+      if (buffer.size >= ROW_BUFFER_SIZE) {
+        buffer.flush();
+      }
+    }
+
+    /**
+     * Append the rows every thread has buffered to their files. This must only be called once
+     * all the people have been exported.
+     */
+    public void flush() {
+      synchronized (allRowBuffers) {
+        for (RowBuffer buffer : allRowBuffers) {
+          buffer.flush();
+        }
+      }
+    }
+  }
+
+  /**
+   * The rows a single thread has written to each file, which are appended to the file in bulk
+   * rather than taking the file's lock for every row.
+   */
+  private static class RowBuffer {
+    private final Map<SynchronizedBBLineWriter<?>, StringBuilder> rows = new LinkedHashMap<>();
+    private int size = 0;
+
+    private <E extends Enum<E>> void add(SynchronizedBBLineWriter<E> writer,
+            Map<E, String> fieldValues) {
+      StringBuilder lines = rows.get(writer);
+      if (lines == null) {
+        lines = new StringBuilder();
+        rows.put(writer, lines);
+      }
+      int start = lines.length();
+      if (start > 0) {
+        lines.append(System.lineSeparator());
+      }
+      writer.appendValues(lines, fieldValues);
+      size += lines.length() - start;
+    }
+
+    private void flush() {
+      for (Map.Entry<SynchronizedBBLineWriter<?>, StringBuilder> entry : rows.entrySet()) {
+        StringBuilder lines = entry.getValue();
+        if (lines.length() > 0) {
+          entry.getKey().writeLines(lines);
+          lines.setLength(0);
+        }
+      }
+      size = 0;
+    }
+  }
+
+  /**
+   * Hands out decreasing ids from a shared counter in blocks, so that each thread only updates
+   * the shared counter once per block rather than once per id. Ids are unique, but those left
+   * in a thread's block at the end of a run are never used.
+   */
+  static class IdBlocks {
+    static final int BLOCK_SIZE = 1000;
+
+    private final AtomicLong next;
+    /** The next id of the current thread's block, and how many ids are left in it. */
+    private final ThreadLocal<long[]> blocks = ThreadLocal.withInitial(() -> new long[2]);
+
+    IdBlocks(long start) {
+      this.next = new AtomicLong(start);
+    }
+
+    /**
+     * Get the next id for the current thread.
+     */
+    long next() {
+      long[] block = blocks.get();
+      if (block[1] == 0) {
+        block[0] = next.getAndAdd(-BLOCK_SIZE);
+        block[1] = BLOCK_SIZE;
+      }
+      block[1]--;
+      return block[0]--;
+    }
+
+    /**
+     * The first id that has not been given to any thread, where the next run should start.
+     */
+    @Override
+    public String toString() {
+      return next.toString();
+    }
+  }
+
+  /**
+   * The encounters of a single person that each claim table exports, found in a single pass
+   * over the person's record rather than once for each table.
+   */
+  static class ClaimEncounters {
+    /** Inpatient and emergency encounters. */
+    final List<HealthRecord.Encounter> inpatient = new ArrayList<>();
+    /** Set for each inpatient encounter that directly follows the one before it. */
+    final BitSet inpatientFollows = new BitSet();
+    final List<HealthRecord.Encounter> outpatient = new ArrayList<>();
+    final List<HealthRecord.Encounter> carrier = new ArrayList<>();
+    /** Every encounter not at the VA or an IHS center, for prescriptions and DME. */
+    final List<HealthRecord.Encounter> covered = new ArrayList<>();
+    final List<HealthRecord.Encounter> home = new ArrayList<>();
+    final List<HealthRecord.Encounter> hospice = new ArrayList<>();
+    final List<HealthRecord.Encounter> snf = new ArrayList<>();
+
+    /**
+     * Sort a person's encounters into the claim tables.
+     * @param person the person to export
+     * @param startTime earliest claim date to export
+     */
+    ClaimEncounters(Person person, long startTime) {
+      boolean previousInpatient = false;
+      for (HealthRecord.Encounter encounter : person.record.encounters) {
+        if (encounter.stop < startTime) {
+          continue;
+        }
+        String type = encounter.type;
+        boolean isPrimary = (ProviderType.PRIMARY == encounter.provider.type);
+        boolean isVA = (ProviderType.VETERAN == encounter.provider.type);
+        // IHS facilities have valid 6 digit id, IHS centers don't
+        boolean isIHSCenter = (ProviderType.IHS == encounter.provider.type)
+                && encounter.provider.id.length() != 6;
+        boolean isInpatient = false;
+        if (!isVA && !isIHSCenter) {
+          covered.add(encounter);
+          if (type.equals(EncounterType.INPATIENT.toString())
+                  || type.equals(EncounterType.EMERGENCY.toString())) {
+            inpatientFollows.set(inpatient.size(), previousInpatient);
+            inpatient.add(encounter);
+            isInpatient = true;
+          } else if (type.equals(EncounterType.AMBULATORY.toString())
+                  || type.equals(EncounterType.OUTPATIENT.toString())) {
+            if (!isPrimary) {
+              outpatient.add(encounter);
+            }
+          } else if (type.equals(EncounterType.HOME.toString())) {
+            home.add(encounter);
+          } else if (type.equals(EncounterType.HOSPICE.toString())) {
+            hospice.add(encounter);
+          } else if (type.equals(EncounterType.SNF.toString())) {
+            snf.add(encounter);
+          }
+        }
+        if (!isVA && (isIHSCenter || isPrimary
+                || type.equals(EncounterType.WELLNESS.toString())
+                || type.equals(EncounterType.URGENTCARE.toString()))) {
+          carrier.add(encounter);
+        }
+        previousInpatient = isInpatient;
+      }
     }
   }
 }
@@ -7,13 +7,17 @@ import static org.mitre.synthea.export.ExportHelper.iso8601Timestamp;
 import com.google.common.collect.Table;
 import com.google.gson.JsonObject;
 
+import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
 import java.math.BigDecimal;
 import java.math.RoundingMode;
 import java.nio.charset.Charset;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -21,6 +25,7 @@ import java.util.Calendar;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.GregorianCalendar;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Locale;
@@ -159,6 +164,27 @@ public class CSVExporter {
    */
   private AtomicLong transactionId;
 
+  /**
+   * Directory the CSV files are written to.
+   */
+  private Path outputDirectory;
+
+  /**
+   * When exporting in sharded mode, the file name of each per-patient table, by the writer
+   * of the merged file. Null when not sharding.
+   */
+  private Map<OutputStreamWriter, String> shardedTables;
+
+  /**
+   * The shard of the current thread, when exporting in sharded mode.
+   */
+  private ThreadLocal<Shard> shards;
+
+  /**
+   * Every shard created since the last merge, in the order they were created.
+   */
+  private List<Shard> shardList;
+
   /**
    * Constructor for the CSVExporter - initialize the specified files and store
    * the writers in fields.
@@ -171,7 +197,7 @@ public class CSVExporter {
     try {
       File output = Exporter.getOutputFolder("csv", null);
       output.mkdirs();
-      Path outputDirectory = output.toPath();
+      outputDirectory = output.toPath();
 
       if (Config.getAsBoolean("exporter.csv.folder_per_run")) {
         // we want a folder per run, so name it based on the timestamp
@@ -255,6 +281,31 @@ public class CSVExporter {
       if (!append) {
         writeCSVHeaders();
       }
+
+      shardedTables = null;
+      shards = null;
+      shardList = null;
+      if (Config.getAsBoolean("exporter.csv.sharded", false)) {
+        shardedTables = new IdentityHashMap<OutputStreamWriter, String>();
+        shardedTables.put(patients, "patients.csv");
+        shardedTables.put(allergies, "allergies.csv");
+        shardedTables.put(medications, "medications.csv");
+        shardedTables.put(conditions, "conditions.csv");
+        shardedTables.put(careplans, "careplans.csv");
+        shardedTables.put(observations, "observations.csv");
+        shardedTables.put(procedures, "procedures.csv");
+        shardedTables.put(immunizations, "immunizations.csv");
+        shardedTables.put(encounters, "encounters.csv");
+        shardedTables.put(imagingStudies, "imaging_studies.csv");
+        shardedTables.put(devices, "devices.csv");
+        shardedTables.put(supplies, "supplies.csv");
+        shardedTables.put(payerTransitions, "payer_transitions.csv");
+        shardedTables.put(claims, "claims.csv");
+        shardedTables.put(claimsTransactions, "claims_transactions.csv");
+        // excluded files all share the no-op writer
+        shardedTables.remove(NO_OP);
+        startShards();
+      }
     } catch (IOException e) {
       // wrap the exception in a runtime exception.
       // the singleton pattern below doesn't work if the constructor can throw
@@ -431,7 +482,9 @@ public class CSVExporter {
         payerTransition(person, plan);
       }
     }
-    payerTransitions.flush();
+    if (shards == null) {
+      payerTransitions.flush();
+    }
   }
 
   /**
@@ -538,6 +591,10 @@ public class CSVExporter {
       }
     }
 
+    if (shards != null) {
+      // rows stay buffered in this thread's segment files until the shards are merged
+      return;
+    }
     patients.flush();
     encounters.flush();
     conditions.flush();
@@ -554,6 +611,103 @@ public class CSVExporter {
     claimsTransactions.flush();
   }
 
+  /**
+   * Start a new set of shards, one per exporting thread.
+   */
+  private void startShards() {
+    shardList = Collections.synchronizedList(new ArrayList<Shard>());
+    AtomicInteger shardCount = new AtomicInteger();
+    shards = ThreadLocal.withInitial(() -> {
+      Shard shard = new Shard(shardCount.getAndIncrement());
+      shardList.add(shard);
+      return shard;
+    });
+  }
+
+  /**
+   * Append the segment files written by each thread to the per-patient CSV files, and delete
+   * the segments. Each patient's rows are written by a single thread, so they stay together.
+   * This method should be called once after all the Patient records have been exported using
+   * the export(Person,long) method, and does nothing unless exporting in sharded mode.
+   *
+   * @throws IOException if any IO errors occur.
+   */
+  public void mergeShards() throws IOException {
+    if (shards == null) {
+      return;
+    }
+    List<Shard> merging = new ArrayList<Shard>(shardList);
+    // any further patients are written to a new set of shards
+    startShards();
+
+    for (Shard shard : merging) {
+      shard.close();
+    }
+    char[] buffer = new char[1 << 16];
+    for (Map.Entry<OutputStreamWriter, String> table : shardedTables.entrySet()) {
+      OutputStreamWriter writer = table.getKey();
+      for (Shard shard : merging) {
+        File segment = shard.segmentFile(table.getValue());
+        if (!segment.exists()) {
+          continue;
+        }
+        try (Reader reader = Files.newBufferedReader(segment.toPath(), charset)) {
+          int read;
+          while ((read = reader.read(buffer)) != -1) {
+            writer.write(buffer, 0, read);
+          }
+        }
+        Files.delete(segment.toPath());
+      }
+      writer.flush();
+    }
+  }
+
+  /**
+   * The segment files written by a single thread when exporting in sharded mode,
+   * for example "observations.part-0007.csv".
+   */
+  private class Shard {
+    private final int number;
+    private final Map<OutputStreamWriter, Writer> segments =
+        new IdentityHashMap<OutputStreamWriter, Writer>();
+
+    private Shard(int number) {
+      this.number = number;
+    }
+
+    /**
+     * Get the segment to write a table's rows to.
+     * @param writer Writer of the merged file for the table.
+     * @return The segment writer, or null if the table is not sharded.
+     */
+    private Writer segment(OutputStreamWriter writer) throws IOException {
+      Writer segment = segments.get(writer);
+      if (segment == null) {
+        String filename = shardedTables.get(writer);
+        if (filename == null) {
+          return null;
+        }
+        segment = new BufferedWriter(new OutputStreamWriter(
+            new FileOutputStream(segmentFile(filename)), charset), 1 << 16);
+        segments.put(writer, segment);
+      }
+      return segment;
+    }
+
+    private File segmentFile(String filename) {
+      String table = filename.substring(0, filename.length() - ".csv".length());
+      return outputDirectory.resolve(String.format("%s.part-%04d.csv", table, number)).toFile();
+    }
+
+    private void close() throws IOException {
+      for (Writer segment : segments.values()) {
+        segment.close();
+      }
+      segments.clear();
+    }
+  }
+
   /**
    * Write a single Patient line, to patients.csv.
    *
@@ -1901,7 +2055,14 @@ public class CSVExporter {
    * @param writer The place to write it
    * @throws IOException if an I/O error occurs
    */
-  private static void write(String line, OutputStreamWriter writer) throws IOException {
+  private void write(String line, OutputStreamWriter writer) throws IOException {
+    if (shards != null) {
+      Writer segment = shards.get().segment(writer);
+      if (segment != null) {
+        segment.write(line);
+        return;
+      }
+    }
     synchronized (writer) {
       writer.write(line);
     }
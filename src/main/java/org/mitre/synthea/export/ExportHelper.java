@@ -15,6 +15,7 @@ import java.util.TimeZone;
 import org.hl7.fhir.dstu3.model.Condition;
 import org.mitre.synthea.engine.Components.Attachment;
 import org.mitre.synthea.engine.Components.SampledData;
+import org.mitre.synthea.helpers.DateMath;
 import org.mitre.synthea.helpers.TimeSeriesData;
 import org.mitre.synthea.world.agents.Clinician;
 import org.mitre.synthea.world.concepts.HealthRecord;
@@ -175,10 +176,21 @@ public abstract class ExportHelper {
     return f;
   }
 
+  /**
+   * Time zone of DATE_FORMAT, which is the default time zone when this class is loaded.
+   */
+  private static final TimeZone DATE_ZONE = DATE_FORMAT.getTimeZone();
+
   /**
    * Get a date string in the format YYYY-MM-DD from the given time stamp.
    */
   public static String dateFromTimestamp(long time) {
+    if (DateMath.isSupported(time)) {
+      long epochDay = Math.floorDiv(time + DATE_ZONE.getOffset(time), DateMath.DAY_MILLIS);
+      char[] chars = new char[10];
+      formatDate(chars, DateMath.toDate(epochDay));
+      return new String(chars);
+    }
     synchronized (DATE_FORMAT) {
       // http://bugs.java.com/bugdatabase/view_bug.do?bug_id=6231579
       return DATE_FORMAT.format(new Date(time));
@@ -189,12 +201,43 @@ public abstract class ExportHelper {
    * Get an iso8601 string for the given time stamp.
    */
   public static String iso8601Timestamp(long time) {
+    if (DateMath.isSupported(time)) {
+      char[] chars = new char[20];
+      formatDate(chars, DateMath.toDate(Math.floorDiv(time, DateMath.DAY_MILLIS)));
+      int seconds = (int) (Math.floorMod(time, DateMath.DAY_MILLIS) / 1000);
+      chars[10] = 'T';
+      formatDigits(chars, 11, seconds / 3600, 2);
+      chars[13] = ':';
+      formatDigits(chars, 14, (seconds / 60) % 60, 2);
+      chars[16] = ':';
+      formatDigits(chars, 17, seconds % 60, 2);
+      chars[19] = 'Z';
+      return new String(chars);
+    }
     synchronized (ISO_DATE_FORMAT) {
       // http://bugs.java.com/bugdatabase/view_bug.do?bug_id=6231579
       return ISO_DATE_FORMAT.format(new Date(time));
     }
   }
 
+  /**
+   * Write a packed DateMath date as YYYY-MM-DD at the start of the given characters.
+   */
+  private static void formatDate(char[] chars, long date) {
+    formatDigits(chars, 0, DateMath.year(date), 4);
+    chars[4] = '-';
+    formatDigits(chars, 5, DateMath.month(date), 2);
+    chars[7] = '-';
+    formatDigits(chars, 8, DateMath.dayOfMonth(date), 2);
+  }
+
+  private static void formatDigits(char[] chars, int offset, int value, int digits) {
+    for (int i = offset + digits - 1; i >= offset; i--) {
+      chars[i] = (char) ('0' + (value % 10));
+      value /= 10;
+    }
+  }
+
   /**
    * Get the timestamp for next Friday.
    */
@@ -0,0 +1,103 @@
+package org.mitre.synthea.export;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Runs patient exports on a pool of export threads, separate from the simulation threads.
+ * Different patients are exported in parallel, while most of the formats of a single patient
+ * are exported one after another (see Exporter.recordExports).
+ * At most queueSize patients are waiting for or being exported at any one time; submitting
+ * another patient blocks the simulation thread until a slot frees up, so memory use stays
+ * bounded when the exporters are slower than the simulation.
+ * See the configuration settings "exporter.pipeline.threads" and
+ * "exporter.pipeline.queue_size".
+ */
+final class ExportPipeline {
+  private final ExecutorService workers;
+  private final Semaphore queueSlots;
+  private final int queueSize;
+
+  /**
+   * Create a new export pipeline.
+   * @param threads Number of export threads.
+   * @param queueSize Maximum number of patients waiting for or being exported.
+   * @throws IllegalArgumentException if either value is not greater than 0, since submit
+   *     would then wait forever for a queue slot.
+   */
+  ExportPipeline(int threads, int queueSize) {
+    if (threads <= 0) {
+      throw new IllegalArgumentException(String.format(
+              "Illegal number of export threads (%d)", threads));
+    }
+    if (queueSize <= 0) {
+      throw new IllegalArgumentException(String.format(
+              "Illegal export queue size (%d)", queueSize));
+    }
+    AtomicInteger count = new AtomicInteger();
+    this.workers = Executors.newFixedThreadPool(threads, runnable -> {
+      Thread thread = new Thread(runnable, "export-" + count.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    });
+    this.queueSize = queueSize;
+    this.queueSlots = new Semaphore(queueSize);
+  }
+
+  /**
+   * Wait for a queue slot, then start exporting a patient.
+   * The slot is released once the returned future completes.
+   * @param export Starts the export of the patient, returning a future that completes when
+   *     all of their records have been exported.
+   */
+  void submit(Supplier<CompletableFuture<Void>> export) {
+    queueSlots.acquireUninterruptibly();
+    CompletableFuture.supplyAsync(export, workers)
+        .thenCompose(future -> future)
+        .whenComplete((result, error) -> {
+          if (error != null) {
+            error.printStackTrace();
+          }
+          queueSlots.release();
+        });
+  }
+
+  /**
+   * Run a list of exports one after another on an export thread.
+   * An export that fails does not stop the exports after it.
+   * @param exports The exports to run.
+   * @return A future that completes when all of the exports have run.
+   */
+  CompletableFuture<Void> run(List<Runnable> exports) {
+    return CompletableFuture.runAsync(() -> {
+      for (Runnable export : exports) {
+        try {
+          export.run();
+        } catch (RuntimeException e) {
+          e.printStackTrace();
+        }
+      }
+    }, workers);
+  }
+
+  /**
+   * Wait for every submitted patient to finish exporting.
+   */
+  void drain() {
+    queueSlots.acquireUninterruptibly(queueSize);
+    queueSlots.release(queueSize);
+  }
+
+  /**
+   * Wait for every submitted patient to finish exporting, then stop the export threads.
+   */
+  void shutdown() {
+    drain();
+    workers.shutdown();
+  }
+}
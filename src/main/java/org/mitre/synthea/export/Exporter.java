@@ -12,11 +12,13 @@ import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.function.Predicate;
@@ -55,6 +57,9 @@ public abstract class Exporter {
 
   private static final int FILE_BUFFER_SIZE = 4 * 1024 * 1024;
 
+  /** Export threads, if exports do not run on the simulation threads. */
+  private static ExportPipeline pipeline;
+
   /**
    * Runtime configuration of the record exporter.
    */
@@ -137,20 +142,14 @@ public abstract class Exporter {
       if (!person.alive(stopTime)) {
         filterAfterDeath(person);
       }
-      if (person.hasMultipleRecords) {
+      ExportPipeline exportPipeline = getPipeline();
+      if (exportPipeline != null) {
+        final Person exported = person;
+        exportPipeline.submit(() -> exportRecords(exported, stopTime, options, exportPipeline));
+      } else if (person.hasMultipleRecords) {
         int i = 0;
         for (String key : person.records.keySet()) {
-          person.record = person.records.get(key);
-          // If the person fixed Records, overwrite their attributes from the fixed records.
-          if (person.attributes.get(Person.RECORD_GROUP) != null) {
-            FixedRecordGroup rg = (FixedRecordGroup) person.attributes.get(Person.RECORD_GROUP);
-            int recordToPull = i;
-            if (recordToPull >= rg.count) {
-              recordToPull = rg.count - 1;
-            }
-            FixedRecord fr = rg.records.get(recordToPull);
-            fr.totalOverwrite(person);
-          }
+          selectRecord(person, key, i);
           exportRecord(person, Integer.toString(i), stopTime, options);
           i++;
         }
@@ -160,6 +159,84 @@ public abstract class Exporter {
     }
   }
 
+  /**
+   * Export all of a patient's records on the export threads, one record after another.
+   *
+   * @param person   Patient to export
+   * @param stopTime Time at which the simulation stopped
+   * @param options Runtime exporter options
+   * @param exportPipeline The export threads
+   * @return A future that completes when all of the records have been exported.
+   */
+  private static CompletableFuture<Void> exportRecords(Person person, long stopTime,
+      ExporterRuntimeOptions options, ExportPipeline exportPipeline) {
+    if (!person.hasMultipleRecords) {
+      return exportRecord(person, "", stopTime, options, exportPipeline);
+    }
+    CompletableFuture<Void> exported = CompletableFuture.completedFuture(null);
+    int i = 0;
+    for (String key : person.records.keySet()) {
+      final int recordIndex = i;
+      exported = exported.thenCompose(previous -> {
+        selectRecord(person, key, recordIndex);
+        return exportRecord(person, Integer.toString(recordIndex), stopTime, options,
+            exportPipeline);
+      });
+      i++;
+    }
+    return exported;
+  }
+
+  /**
+   * Make one of the patient's records (if "exporter.split_records" is enabled) the one to export.
+   *
+   * @param person Patient to export
+   * @param key    Key of the record in person.records
+   * @param index  Index of the record, used to select the matching fixed record if any
+   */
+  private static void selectRecord(Person person, String key, int index) {
+    person.record = person.records.get(key);
+    // If the person fixed Records, overwrite their attributes from the fixed records.
+    if (person.attributes.get(Person.RECORD_GROUP) != null) {
+      FixedRecordGroup rg = (FixedRecordGroup) person.attributes.get(Person.RECORD_GROUP);
+      int recordToPull = index;
+      if (recordToPull >= rg.count) {
+        recordToPull = rg.count - 1;
+      }
+      FixedRecord fr = rg.records.get(recordToPull);
+      fr.totalOverwrite(person);
+    }
+  }
+
+  /**
+   * Get the export threads, if "exporter.pipeline.threads" is set.
+   * @return the export pipeline, or null if exports run on the calling thread
+   */
+  private static synchronized ExportPipeline getPipeline() {
+    if (pipeline == null) {
+      int threads = Config.getAsInteger("exporter.pipeline.threads", 0);
+      if (threads == -1) {
+        threads = Runtime.getRuntime().availableProcessors();
+      }
+      if (threads > 0) {
+        int queueSize = Config.getAsInteger("exporter.pipeline.queue_size", threads * 4);
+        pipeline = new ExportPipeline(threads, queueSize);
+      }
+    }
+    return pipeline;
+  }
+
+  /**
+   * Wait for every patient on the export threads to be exported, then stop the threads.
+   * The next export reads "exporter.pipeline.threads" again.
+   */
+  static synchronized void shutdownPipeline() {
+    if (pipeline != null) {
+      pipeline.shutdown();
+      pipeline = null;
+    }
+  }
+
   /**
    * Export a single patient, into all the formats supported. (Formats may be enabled or disabled by
    * configuration). This method variant is only currently used by test classes.
@@ -182,158 +259,240 @@ public abstract class Exporter {
    */
   private static void exportRecord(Person person, String fileTag, long stopTime,
           ExporterRuntimeOptions options) {
+    for (List<Runnable> exports : recordExports(person, fileTag, stopTime, options)) {
+      for (Runnable export : exports) {
+        export.run();
+      }
+    }
+  }
+
+  /**
+   * Export a single patient record on the export threads. The formats that draw random
+   * numbers from the person or write their attributes run one after another in a single
+   * task, in the same order as without the export threads, so a seeded run produces the
+   * same output either way. Only the text formats, which just read the record, run in
+   * parallel with them; the parallelism of the export threads comes from exporting several
+   * patients at once.
+   *
+   * @param person   Patient to export, with Patient.record being set.
+   * @param fileTag  An identifier to tag the file with.
+   * @param stopTime Time at which the simulation stopped
+   * @param options Generator's record queue (may be null)
+   * @param exportPipeline The export threads
+   * @return A future that completes when every format has been exported.
+   */
+  private static CompletableFuture<Void> exportRecord(Person person, String fileTag,
+      long stopTime, ExporterRuntimeOptions options, ExportPipeline exportPipeline) {
+    List<List<Runnable>> recordExports = recordExports(person, fileTag, stopTime, options);
+    List<CompletableFuture<Void>> exports = new ArrayList<CompletableFuture<Void>>();
+    exports.add(exportPipeline.run(recordExports.get(0)));
+    for (Runnable export : recordExports.get(1)) {
+      exports.add(exportPipeline.run(Collections.singletonList(export)));
+    }
+    return CompletableFuture.allOf(exports.toArray(new CompletableFuture<?>[0]));
+  }
+
+  /**
+   * Get the enabled exports for a single patient record, in two lists: the exports that
+   * draw random numbers from the person (e.g. for resource IDs) or read and write their
+   * attributes, which must run one after another in the order given so that a seeded run
+   * is reproducible, and the exports that only read the record, which may run in any order.
+   *
+   * @param person   Patient to export, with Patient.record being set.
+   * @param fileTag  An identifier to tag the file with.
+   * @param stopTime Time at which the simulation stopped
+   * @param options Generator's record queue (may be null)
+   * @return the sequential exports and the independent exports
+   */
+  private static List<List<Runnable>> recordExports(Person person, String fileTag,
+          long stopTime, ExporterRuntimeOptions options) {
     if (options.terminologyService) {
       // Resolve any coded values within the record that are specified using a ValueSet URI.
       ValueSetCodeResolver valueSetCodeResolver = new ValueSetCodeResolver(person);
       valueSetCodeResolver.resolve();
     }
 
+    List<Runnable> sequential = new ArrayList<Runnable>();
+    List<Runnable> independent = new ArrayList<Runnable>();
+
     if (Config.getAsBoolean("exporter.fhir_stu3.export")) {
-      File outDirectory = getOutputFolder("fhir_stu3", person);
-      if (Config.getAsBoolean("exporter.fhir.bulk_data")) {
-        org.hl7.fhir.dstu3.model.Bundle bundle = FhirStu3.convertToFHIR(person, stopTime);
-        IParser parser = FhirStu3.getContext().newJsonParser().setPrettyPrint(false);
-        for (org.hl7.fhir.dstu3.model.Bundle.BundleEntryComponent entry : bundle.getEntry()) {
-          String filename = entry.getResource().getResourceType().toString() + ".ndjson";
-          Path outFilePath = outDirectory.toPath().resolve(filename);
-          String entryJson = parser.encodeResourceToString(entry.getResource());
-          appendToFile(outFilePath, entryJson);
+      sequential.add(() -> {
+        File outDirectory = getOutputFolder("fhir_stu3", person);
+        if (Config.getAsBoolean("exporter.fhir.bulk_data")) {
+          org.hl7.fhir.dstu3.model.Bundle bundle = FhirStu3.convertToFHIR(person, stopTime);
+          IParser parser = FhirStu3.getContext().newJsonParser().setPrettyPrint(false);
+          for (org.hl7.fhir.dstu3.model.Bundle.BundleEntryComponent entry : bundle.getEntry()) {
+            String filename = entry.getResource().getResourceType().toString() + ".ndjson";
+            Path outFilePath = outDirectory.toPath().resolve(filename);
+            String entryJson = parser.encodeResourceToString(entry.getResource());
+            appendToFile(outFilePath, entryJson);
+          }
+        } else {
+          String bundleJson = FhirStu3.convertToFHIRJson(person, stopTime);
+          Path outFilePath = outDirectory.toPath().resolve(filename(person, fileTag, "json"));
+          writeNewFile(outFilePath, bundleJson);
         }
-      } else {
-        String bundleJson = FhirStu3.convertToFHIRJson(person, stopTime);
-        Path outFilePath = outDirectory.toPath().resolve(filename(person, fileTag, "json"));
-        writeNewFile(outFilePath, bundleJson);
-      }
+      });
     }
     if (Config.getAsBoolean("exporter.fhir_dstu2.export")) {
-      File outDirectory = getOutputFolder("fhir_dstu2", person);
-      if (Config.getAsBoolean("exporter.fhir.bulk_data")) {
-        ca.uhn.fhir.model.dstu2.resource.Bundle bundle = FhirDstu2.convertToFHIR(person, stopTime);
-        IParser parser = FhirDstu2.getContext().newJsonParser().setPrettyPrint(false);
-        for (ca.uhn.fhir.model.dstu2.resource.Bundle.Entry entry : bundle.getEntry()) {
-          String filename = entry.getResource().getResourceName() + ".ndjson";
-          Path outFilePath = outDirectory.toPath().resolve(filename);
-          String entryJson = parser.encodeResourceToString(entry.getResource());
-          appendToFile(outFilePath, entryJson);
+      sequential.add(() -> {
+        File outDirectory = getOutputFolder("fhir_dstu2", person);
+        if (Config.getAsBoolean("exporter.fhir.bulk_data")) {
+          ca.uhn.fhir.model.dstu2.resource.Bundle bundle =
+              FhirDstu2.convertToFHIR(person, stopTime);
+          IParser parser = FhirDstu2.getContext().newJsonParser().setPrettyPrint(false);
+          for (ca.uhn.fhir.model.dstu2.resource.Bundle.Entry entry : bundle.getEntry()) {
+            String filename = entry.getResource().getResourceName() + ".ndjson";
+            Path outFilePath = outDirectory.toPath().resolve(filename);
+            String entryJson = parser.encodeResourceToString(entry.getResource());
+            appendToFile(outFilePath, entryJson);
+          }
+        } else {
+          String bundleJson = FhirDstu2.convertToFHIRJson(person, stopTime);
+          Path outFilePath = outDirectory.toPath().resolve(filename(person, fileTag, "json"));
+          writeNewFile(outFilePath, bundleJson);
         }
-      } else {
-        String bundleJson = FhirDstu2.convertToFHIRJson(person, stopTime);
-        Path outFilePath = outDirectory.toPath().resolve(filename(person, fileTag, "json"));
-        writeNewFile(outFilePath, bundleJson);
-      }
+      });
     }
     if (Config.getAsBoolean("exporter.fhir.export")) {
-      File outDirectory = getOutputFolder("fhir", person);
-      if (Config.getAsBoolean("exporter.fhir.bulk_data")) {
-        org.hl7.fhir.r4.model.Bundle bundle = FhirR4.convertToFHIR(person, stopTime);
-        IParser parser = FhirR4.getContext().newJsonParser().setPrettyPrint(false);
-        for (org.hl7.fhir.r4.model.Bundle.BundleEntryComponent entry : bundle.getEntry()) {
-          String filename = entry.getResource().getResourceType().toString() + ".ndjson";
-          Path outFilePath = outDirectory.toPath().resolve(filename);
-          String entryJson = parser.encodeResourceToString(entry.getResource());
-          appendToFile(outFilePath, entryJson);
+      sequential.add(() -> {
+        File outDirectory = getOutputFolder("fhir", person);
+        if (Config.getAsBoolean("exporter.fhir.bulk_data")) {
+          org.hl7.fhir.r4.model.Bundle bundle = FhirR4.convertToFHIR(person, stopTime);
+          IParser parser = FhirR4.getContext().newJsonParser().setPrettyPrint(false);
+          for (org.hl7.fhir.r4.model.Bundle.BundleEntryComponent entry : bundle.getEntry()) {
+            String filename = entry.getResource().getResourceType().toString() + ".ndjson";
+            Path outFilePath = outDirectory.toPath().resolve(filename);
+            String entryJson = parser.encodeResourceToString(entry.getResource());
+            appendToFile(outFilePath, entryJson);
+          }
+        } else {
+          String bundleJson = FhirR4.convertToFHIRJson(person, stopTime);
+          Path outFilePath = outDirectory.toPath().resolve(filename(person, fileTag, "json"));
+          writeNewFile(outFilePath, bundleJson);
         }
-      } else {
-        String bundleJson = FhirR4.convertToFHIRJson(person, stopTime);
-        Path outFilePath = outDirectory.toPath().resolve(filename(person, fileTag, "json"));
-        writeNewFile(outFilePath, bundleJson);
-      }
-      FhirGroupExporterR4.addPatient((String) person.attributes.get(Person.ID));
+        FhirGroupExporterR4.addPatient((String) person.attributes.get(Person.ID));
+      });
     }
     if (Config.getAsBoolean("exporter.ccda.export")) {
-      String ccdaXml = CCDAExporter.export(person, stopTime);
-      File outDirectory = getOutputFolder("ccda", person);
-      Path outFilePath = outDirectory.toPath().resolve(filename(person, fileTag, "xml"));
-      writeNewFile(outFilePath, ccdaXml);
+      sequential.add(() -> {
+        String ccdaXml = CCDAExporter.export(person, stopTime);
+        File outDirectory = getOutputFolder("ccda", person);
+        Path outFilePath = outDirectory.toPath().resolve(filename(person, fileTag, "xml"));
+        writeNewFile(outFilePath, ccdaXml);
+      });
     }
     if (Config.getAsBoolean("exporter.json.export")) {
-      String json = JSONExporter.export(person);
-      File outDirectory = getOutputFolder("json", person);
-      Path outFilePath = outDirectory.toPath().resolve(filename(person, fileTag, "json"));
-      writeNewFile(outFilePath, json);
+      sequential.add(() -> {
+        String json = JSONExporter.export(person);
+        File outDirectory = getOutputFolder("json", person);
+        Path outFilePath = outDirectory.toPath().resolve(filename(person, fileTag, "json"));
+        writeNewFile(outFilePath, json);
+      });
     }
     if (Config.getAsBoolean("exporter.csv.export")) {
-      try {
-        CSVExporter.getInstance().export(person, stopTime);
-      } catch (IOException e) {
-        e.printStackTrace();
-      }
+      sequential.add(() -> {
+        try {
+          CSVExporter.getInstance().export(person, stopTime);
+        } catch (IOException e) {
+          e.printStackTrace();
+        }
+      });
     }
     if (Config.getAsBoolean("exporter.bfd.export")) {
-      try {
-        BB2RIFExporter exporter = BB2RIFExporter.getInstance();
-        exporter.export(person, stopTime, options.yearsOfHistory);
-      } catch (IOException e) {
-        e.printStackTrace();
-      }
+      sequential.add(() -> {
+        try {
+          BB2RIFExporter exporter = BB2RIFExporter.getInstance();
+          exporter.export(person, stopTime, options.yearsOfHistory);
+        } catch (IOException e) {
+          e.printStackTrace();
+        }
+      });
     }
     if (Config.getAsBoolean("exporter.cpcds.export")) {
-      try {
-        CPCDSExporter.getInstance().export(person, stopTime);
-      } catch (IOException e) {
-        e.printStackTrace();
-      }
+      sequential.add(() -> {
+        try {
+          CPCDSExporter.getInstance().export(person, stopTime);
+        } catch (IOException e) {
+          e.printStackTrace();
+        }
+      });
     }
     if (Config.getAsBoolean("exporter.text.export")) {
-      try {
-        TextExporter.exportAll(person, fileTag, stopTime);
-      } catch (IOException e) {
-        e.printStackTrace();
-      }
+      independent.add(() -> {
+        try {
+          TextExporter.exportAll(person, fileTag, stopTime);
+        } catch (IOException e) {
+          e.printStackTrace();
+        }
+      });
     }
     if (Config.getAsBoolean("exporter.text.per_encounter_export")) {
-      try {
-        TextExporter.exportEncounter(person, stopTime);
-      } catch (IOException e) {
-        e.printStackTrace();
-      }
+      independent.add(() -> {
+        try {
+          TextExporter.exportEncounter(person, stopTime);
+        } catch (IOException e) {
+          e.printStackTrace();
+        }
+      });
     }
     if (Config.getAsBoolean("exporter.symptoms.csv.export")) {
-      try {
-        SymptomCSVExporter.getInstance().export(person, stopTime);
-      } catch (IOException e) {
-        e.printStackTrace();
-      }
+      sequential.add(() -> {
+        try {
+          SymptomCSVExporter.getInstance().export(person, stopTime);
+        } catch (IOException e) {
+          e.printStackTrace();
+        }
+      });
     }
     if (Config.getAsBoolean("exporter.symptoms.text.export")) {
-      try {
-        SymptomTextExporter.exportAll(person, fileTag, stopTime);
-      } catch (IOException e) {
-        e.printStackTrace();
-      }
+      sequential.add(() -> {
+        try {
+          SymptomTextExporter.exportAll(person, fileTag, stopTime);
+        } catch (IOException e) {
+          e.printStackTrace();
+        }
+      });
     }
     if (Config.getAsBoolean("exporter.cdw.export")) {
-      try {
-        CDWExporter.getInstance().export(person, stopTime);
-      } catch (IOException e) {
-        e.printStackTrace();
-      }
+      sequential.add(() -> {
+        try {
+          CDWExporter.getInstance().export(person, stopTime);
+        } catch (IOException e) {
+          e.printStackTrace();
+        }
+      });
     }
     if (Config.getAsBoolean("exporter.clinical_note.export")) {
-      File outDirectory = getOutputFolder("notes", person);
-      Path outFilePath = outDirectory.toPath().resolve(filename(person, fileTag, "txt"));
-      String consolidatedNotes = ClinicalNoteExporter.export(person);
-      writeNewFile(outFilePath, consolidatedNotes);
+      sequential.add(() -> {
+        File outDirectory = getOutputFolder("notes", person);
+        Path outFilePath = outDirectory.toPath().resolve(filename(person, fileTag, "txt"));
+        String consolidatedNotes = ClinicalNoteExporter.export(person);
+        writeNewFile(outFilePath, consolidatedNotes);
+      });
     }
     if (options.isQueueEnabled()) {
-      try {
-        switch (options.queuedFhirVersion()) {
-          case DSTU2:
-            options.recordQueue.put(FhirDstu2.convertToFHIRJson(person, stopTime));
-            break;
-          case STU3:
-            options.recordQueue.put(FhirStu3.convertToFHIRJson(person, stopTime));
-            break;
-          default:
-            options.recordQueue.put(FhirR4.convertToFHIRJson(person, stopTime));
-            break;
+      sequential.add(() -> {
+        try {
+          switch (options.queuedFhirVersion()) {
+            case DSTU2:
+              options.recordQueue.put(FhirDstu2.convertToFHIRJson(person, stopTime));
+              break;
+            case STU3:
+              options.recordQueue.put(FhirStu3.convertToFHIRJson(person, stopTime));
+              break;
+            default:
+              options.recordQueue.put(FhirR4.convertToFHIRJson(person, stopTime));
+              break;
+          }
+        } catch (InterruptedException ie) {
+          // ignore
+        } catch (Exception e) {
+          e.printStackTrace();
         }
-      } catch (InterruptedException ie) {
-        // ignore
-      } catch (Exception e) {
-        e.printStackTrace();
-      }
+      });
     }
+    return Arrays.asList(sequential, independent);
   }
 
   /**
@@ -430,6 +589,9 @@ public abstract class Exporter {
       deferredExports.clear();
     }
 
+    // Wait for the export threads to finish before the exports that need every patient.
+    shutdownPipeline();
+
     String bulk = Config.get("exporter.fhir.bulk_data");
 
     // Before we force bulk data to be off...
@@ -480,6 +642,7 @@ public abstract class Exporter {
     if (Config.getAsBoolean("exporter.bfd.export")) {
       try {
         BB2RIFExporter exporter = BB2RIFExporter.getInstance();
+        exporter.flush();
         exporter.exportNPIs();
         exporter.exportManifest();
         exporter.exportEndState();
@@ -494,6 +657,7 @@ public abstract class Exporter {
 
     if (Config.getAsBoolean("exporter.csv.export")) {
       try {
+        CSVExporter.getInstance().mergeShards();
         CSVExporter.getInstance().exportOrganizationsAndProviders();
         CSVExporter.getInstance().exportPayers();
       } catch (IOException e) {
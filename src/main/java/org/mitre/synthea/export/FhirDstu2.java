@@ -3,6 +3,7 @@ package org.mitre.synthea.export;
 import ca.uhn.fhir.context.FhirContext;
 import ca.uhn.fhir.model.api.ExtensionDt;
 import ca.uhn.fhir.model.api.IDatatype;
+import ca.uhn.fhir.model.api.IResource;
 import ca.uhn.fhir.model.dstu2.composite.AddressDt;
 import ca.uhn.fhir.model.dstu2.composite.CodeableConceptDt;
 import ca.uhn.fhir.model.dstu2.composite.CodingDt;
@@ -94,10 +95,12 @@ import com.google.gson.JsonObject;
 import java.awt.geom.Point2D;
 import java.math.BigDecimal;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.WeakHashMap;
 
 import org.mitre.synthea.engine.Components;
 import org.mitre.synthea.engine.Components.Attachment;
@@ -133,6 +136,13 @@ public class FhirDstu2 {
   private static final String SYNTHEA_EXT = "http://synthetichealth.github.io/synthea/";
   private static final String UNITSOFMEASURE_URI = "http://unitsofmeasure.org";
   private static final String DICOM_DCM_URI = "http://dicom.nema.org/resources/ontology/DCM";
+  /**
+   * Index used by findProviderUrl and findPractitioner, for each bundle being generated.
+   * DSTU2 resources have no user data, so the index is kept here until the bundle is
+   * garbage collected.
+   */
+  private static final Map<Bundle, Map<String, String>> FULL_URL_INDEX =
+      Collections.synchronizedMap(new WeakHashMap<Bundle, Map<String, String>>());
 
   @SuppressWarnings("rawtypes")
   private static final Map raceEthnicityCodes = loadRaceEthnicityCodes();
@@ -607,15 +617,7 @@ public class FhirDstu2 {
    * @return Provider.fullUrl if found, otherwise null.
    */
   private static String findProviderUrl(Provider provider, Bundle bundle) {
-    for (Entry entry : bundle.getEntry()) {
-      if (entry.getResource().getResourceName().equals("Organization")) {
-        Organization org = (Organization) entry.getResource();
-        if (org.getIdentifierFirstRep().getValue().equals(provider.getResourceID())) {
-          return entry.getFullUrl();
-        }
-      }
-    }
-    return null;
+    return fullUrlIndex(bundle).get("Organization|" + provider.getResourceID());
   }
 
   /**
@@ -626,15 +628,37 @@ public class FhirDstu2 {
    * @return Practitioner.fullUrl if found, otherwise null.
    */
   private static String findPractitioner(Clinician clinician, Bundle bundle) {
-    for (Entry entry : bundle.getEntry()) {
-      if (entry.getResource().getResourceName().equals("Practitioner")) {
-        Practitioner doc = (Practitioner) entry.getResource();
-        if (doc.getIdentifierFirstRep().getValue().equals(clinician.npi)) {
-          return entry.getFullUrl();
-        }
-      }
+    return fullUrlIndex(bundle).get("Practitioner|" + clinician.npi);
+  }
+
+  /**
+   * Get the index of the Organization and Practitioner entries in the bundle, keyed on
+   * resource type and first identifier, so that references can be resolved without
+   * scanning every entry of the bundle.
+   * @param bundle The current bundle being generated.
+   * @return Map of "[resourceType]|[identifier]" to the fullUrl of the first such entry.
+   */
+  private static Map<String, String> fullUrlIndex(Bundle bundle) {
+    return FULL_URL_INDEX.computeIfAbsent(bundle, b -> new HashMap<String, String>());
+  }
+
+  /**
+   * Add a new entry to the bundle's fullUrl index, if it is an Organization or Practitioner.
+   * @param bundle The bundle containing the entry.
+   * @param entry The new entry.
+   */
+  private static void indexEntry(Bundle bundle, Entry entry) {
+    IResource resource = entry.getResource();
+    List<IdentifierDt> identifiers = null;
+    if (resource instanceof Organization) {
+      identifiers = ((Organization) resource).getIdentifier();
+    } else if (resource instanceof Practitioner) {
+      identifiers = ((Practitioner) resource).getIdentifier();
+    }
+    if (identifiers != null && !identifiers.isEmpty() && identifiers.get(0).getValue() != null) {
+      fullUrlIndex(bundle).putIfAbsent(
+          resource.getResourceName() + "|" + identifiers.get(0).getValue(), entry.getFullUrl());
     }
-    return null;
   }
 
   /**
@@ -1838,6 +1862,7 @@ public class FhirDstu2 {
       entry.setFullUrl("urn:uuid:" + resourceID);
     }
     entry.setResource(resource);
+    indexEntry(bundle, entry);
 
     if (TRANSACTION_BUNDLE) {
       EntryRequest request = entry.getRequest();
@@ -171,6 +171,9 @@ public class FhirR4 {
   private static final String MEDIA_TYPE_URI = "http://terminology.hl7.org/CodeSystem/media-type";
   private static final String SYNTHEA_IDENTIFIER = "https://github.com/synthetichealth/synthea";
   
+  /** Bundle user data key of the index used by findProviderUrl etc. */
+  private static final String FULL_URL_INDEX = "synthea.fullUrlIndex";
+
   private static final String FIXED_ORG = Config.get("exporter.hsop.fixed_org");
   // private static final String FIXED_PRACTITIONER_ID = Config.get("exporter.hsop.fixed_practitioner_id");
   private static final int MAX_ENCOUNTER_COUNT = Integer.parseInt(Config.get("exporter.hsop.max_encounter_count"));
@@ -719,16 +722,7 @@ public class FhirR4 {
    * @return Provider.fullUrl if found, otherwise null.
    */
   private static String findProviderUrl(Provider provider, Bundle bundle) {
-    for (BundleEntryComponent entry : bundle.getEntry()) {
-      if (entry.getResource().fhirType().equals("Organization")) {
-        Organization org = (Organization) entry.getResource();
-        if (org.getIdentifierFirstRep().getValue() != null
-            && org.getIdentifierFirstRep().getValue().equals(provider.getResourceID())) {
-          return entry.getFullUrl();
-        }
-      }
-    }
-    return null;
+    return fullUrlIndex(bundle).get("Organization|" + provider.getResourceID());
   }
 
   /**
@@ -740,17 +734,7 @@ public class FhirR4 {
    * @return Location.fullUrl if found, otherwise null.
    */
   private static String findLocationUrl(Provider provider, Bundle bundle) {
-    for (BundleEntryComponent entry : bundle.getEntry()) {
-      if (entry.getResource().fhirType().equals("Location")) {
-        org.hl7.fhir.r4.model.Location location =
-            (org.hl7.fhir.r4.model.Location) entry.getResource();
-        if (location.getManagingOrganization()
-            .getIdentifier().getValue().equals(provider.getResourceID())) {
-          return entry.getFullUrl();
-        }
-      }
-    }
-    return null;
+    return fullUrlIndex(bundle).get("Location|" + provider.getResourceID());
   }
 
   /**
@@ -761,15 +745,57 @@ public class FhirR4 {
    * @return Practitioner.fullUrl if found, otherwise null.
    */
   private static String findPractitioner(Clinician clinician, Bundle bundle) {
-    for (BundleEntryComponent entry : bundle.getEntry()) {
-      if (entry.getResource().fhirType().equals("Practitioner")) {
-        Practitioner doc = (Practitioner) entry.getResource();
-        if (doc.getIdentifierFirstRep().getValue().equals(clinician.npi)) {
-          return entry.getFullUrl();
-        }
+    return fullUrlIndex(bundle).get("Practitioner|" + clinician.npi);
+  }
+
+  /**
+   * Get the index of the Organization, Location and Practitioner entries in the bundle,
+   * keyed on resource type and identifier. The index is kept as user data on the bundle,
+   * so that references can be resolved without scanning every entry of the bundle.
+   * @param bundle The current bundle being generated.
+   * @return Map of "[resourceType]|[identifier]" to the fullUrl of the first such entry.
+   */
+  private static Map<String, String> fullUrlIndex(Bundle bundle) {
+    @SuppressWarnings("unchecked")
+    Map<String, String> index = (Map<String, String>) bundle.getUserData(FULL_URL_INDEX);
+    if (index == null) {
+      index = new HashMap<String, String>();
+      bundle.setUserData(FULL_URL_INDEX, index);
+    }
+    return index;
+  }
+
+  /**
+   * Add a new entry to the bundle's fullUrl index, if it is an Organization, Location or
+   * Practitioner. Organizations and Practitioners are keyed on their first identifier, and
+   * Locations on the identifier of their managing organization.
+   * @param bundle The bundle containing the entry.
+   * @param entry The new entry.
+   */
+  private static void indexEntry(Bundle bundle, BundleEntryComponent entry) {
+    Resource resource = entry.getResource();
+    String identifier = null;
+    if (resource instanceof Organization) {
+      Organization org = (Organization) resource;
+      if (org.hasIdentifier()) {
+        identifier = org.getIdentifier().get(0).getValue();
+      }
+    } else if (resource instanceof Practitioner) {
+      Practitioner doc = (Practitioner) resource;
+      if (doc.hasIdentifier()) {
+        identifier = doc.getIdentifier().get(0).getValue();
       }
+    } else if (resource instanceof org.hl7.fhir.r4.model.Location) {
+      org.hl7.fhir.r4.model.Location location = (org.hl7.fhir.r4.model.Location) resource;
+      if (location.hasManagingOrganization()
+          && location.getManagingOrganization().hasIdentifier()) {
+        identifier = location.getManagingOrganization().getIdentifier().getValue();
+      }
+    }
+    if (identifier != null) {
+      fullUrlIndex(bundle).putIfAbsent(resource.fhirType() + "|" + identifier,
+          entry.getFullUrl());
     }
-    return null;
   }
 
   /**
@@ -2986,6 +3012,7 @@ public class FhirR4 {
     resource.setId(resourceID);
     entry.setFullUrl(getUrlPrefix(resource.fhirType()) + resourceID);
     entry.setResource(resource);
+    indexEntry(bundle, entry);
 
     if (TRANSACTION_BUNDLE) {
       BundleEntryRequestComponent request = entry.getRequest();
@@ -150,6 +150,8 @@ public class FhirStu3 {
   private static final String SYNTHEA_EXT = "http://synthetichealth.github.io/synthea/";
   private static final String UNITSOFMEASURE_URI = "http://unitsofmeasure.org";
   private static final String DICOM_DCM_URI = "http://dicom.nema.org/resources/ontology/DCM";
+  /** Bundle user data key of the index used by findProviderUrl and findPractitioner. */
+  private static final String FULL_URL_INDEX = "synthea.fullUrlIndex";
 
   @SuppressWarnings("rawtypes")
   private static final Map raceEthnicityCodes = loadRaceEthnicityCodes();
@@ -747,15 +749,7 @@ public class FhirStu3 {
    * @return Provider.fullUrl if found, otherwise null.
    */
   private static String findProviderUrl(Provider provider, Bundle bundle) {
-    for (BundleEntryComponent entry : bundle.getEntry()) {
-      if (entry.getResource().fhirType().equals("Organization")) {
-        Organization org = (Organization) entry.getResource();
-        if (org.getIdentifierFirstRep().getValue().equals(provider.getResourceID())) {
-          return entry.getFullUrl();
-        }
-      }
-    }
-    return null;
+    return fullUrlIndex(bundle).get("Organization|" + provider.getResourceID());
   }
 
   /**
@@ -766,15 +760,49 @@ public class FhirStu3 {
    * @return Practitioner.fullUrl if found, otherwise null.
    */
   private static String findPractitioner(Clinician clinician, Bundle bundle) {
-    for (BundleEntryComponent entry : bundle.getEntry()) {
-      if (entry.getResource().fhirType().equals("Practitioner")) {
-        Practitioner doc = (Practitioner) entry.getResource();
-        if (doc.getIdentifierFirstRep().getValue().equals(clinician.npi)) {
-          return entry.getFullUrl();
-        }
+    return fullUrlIndex(bundle).get("Practitioner|" + clinician.npi);
+  }
+
+  /**
+   * Get the index of the Organization and Practitioner entries in the bundle, keyed on
+   * resource type and first identifier. The index is kept as user data on the bundle,
+   * so that references can be resolved without scanning every entry of the bundle.
+   * @param bundle The current bundle being generated.
+   * @return Map of "[resourceType]|[identifier]" to the fullUrl of the first such entry.
+   */
+  private static Map<String, String> fullUrlIndex(Bundle bundle) {
+    @SuppressWarnings("unchecked")
+    Map<String, String> index = (Map<String, String>) bundle.getUserData(FULL_URL_INDEX);
+    if (index == null) {
+      index = new HashMap<String, String>();
+      bundle.setUserData(FULL_URL_INDEX, index);
+    }
+    return index;
+  }
+
+  /**
+   * Add a new entry to the bundle's fullUrl index, if it is an Organization or Practitioner.
+   * @param bundle The bundle containing the entry.
+   * @param entry The new entry.
+   */
+  private static void indexEntry(Bundle bundle, BundleEntryComponent entry) {
+    Resource resource = entry.getResource();
+    String identifier = null;
+    if (resource instanceof Organization) {
+      Organization org = (Organization) resource;
+      if (org.hasIdentifier()) {
+        identifier = org.getIdentifier().get(0).getValue();
+      }
+    } else if (resource instanceof Practitioner) {
+      Practitioner doc = (Practitioner) resource;
+      if (doc.hasIdentifier()) {
+        identifier = doc.getIdentifier().get(0).getValue();
       }
     }
-    return null;
+    if (identifier != null) {
+      fullUrlIndex(bundle).putIfAbsent(resource.fhirType() + "|" + identifier,
+          entry.getFullUrl());
+    }
   }
 
   /**
@@ -2679,6 +2707,7 @@ public class FhirStu3 {
       entry.setFullUrl("urn:uuid:" + resourceID);
     }
     entry.setResource(resource);
+    indexEntry(bundle, entry);
 
     if (TRANSACTION_BUNDLE) {
       BundleEntryRequestComponent request = entry.getRequest();
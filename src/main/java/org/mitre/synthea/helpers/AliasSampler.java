@@ -0,0 +1,118 @@
+package org.mitre.synthea.helpers;
+
+import java.io.Serializable;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Immutable weighted sampler using Walker's alias method, so that each draw takes constant time
+ * and does not allocate, however many items there are. Each item has a column of equal width;
+ * a draw picks a column and then either the column's own item or its alias, which fills the
+ * remainder of the column.
+ * See https://en.wikipedia.org/wiki/Alias_method
+ */
+public class AliasSampler<E> implements Serializable {
+  private static final long serialVersionUID = -2961238426934785417L;
+
+  private final Object[] items;
+  private final double[] probability;
+  private final int[] alias;
+
+  /**
+   * Create a new sampler. Items with weights that are not positive are never picked.
+   * @param items the items to pick from.
+   * @param weights the weight of each item, in the same order.
+   */
+  public AliasSampler(List<E> items, double[] weights) {
+    if (items.size() != weights.length) {
+      throw new IllegalArgumentException("Expected " + items.size() + " weights but found "
+          + weights.length);
+    }
+    int count = 0;
+    double total = 0;
+    for (double weight : weights) {
+      if (weight > 0) {
+        count++;
+        total += weight;
+      }
+    }
+    this.items = new Object[count];
+    this.probability = new double[count];
+    this.alias = new int[count];
+
+    // scale the weights so that the average column is exactly full
+    double[] scaled = new double[count];
+    int column = 0;
+    for (int i = 0; i < weights.length; i++) {
+      if (weights[i] > 0) {
+        this.items[column] = items.get(i);
+        scaled[column] = weights[i] * count / total;
+        column++;
+      }
+    }
+
+    // pair each column that is under full with one that is over full (Vose's algorithm)
+    int[] small = new int[count];
+    int[] large = new int[count];
+    int smallCount = 0;
+    int largeCount = 0;
+    for (int i = 0; i < count; i++) {
+      if (scaled[i] < 1.0) {
+        small[smallCount++] = i;
+      } else {
+        large[largeCount++] = i;
+      }
+    }
+    while (smallCount > 0 && largeCount > 0) {
+      int less = small[--smallCount];
+      int more = large[--largeCount];
+      this.probability[less] = scaled[less];
+      this.alias[less] = more;
+      scaled[more] = (scaled[more] + scaled[less]) - 1.0;
+      if (scaled[more] < 1.0) {
+        small[smallCount++] = more;
+      } else {
+        large[largeCount++] = more;
+      }
+    }
+    // anything left over is full, apart from rounding error
+    while (largeCount > 0) {
+      int full = large[--largeCount];
+      this.probability[full] = 1.0;
+      this.alias[full] = full;
+    }
+    while (smallCount > 0) {
+      int full = small[--smallCount];
+      this.probability[full] = 1.0;
+      this.alias[full] = full;
+    }
+  }
+
+  /**
+   * Get the number of items that can be picked.
+   * @return the number of items with a positive weight.
+   */
+  public int size() {
+    return items.length;
+  }
+
+  /**
+   * Pick an item by weight.
+   * @param value a uniformly distributed random number between 0.0 (inclusive)
+   *     and 1.0 (exclusive).
+   * @return the item.
+   * @throws NoSuchElementException if there are no items to pick from.
+   */
+  @SuppressWarnings("unchecked")
+  public E pick(double value) {
+    if (items.length == 0) {
+      throw new NoSuchElementException("No items with a positive weight to pick from.");
+    }
+    double scaled = value * items.length;
+    int column = Math.min((int) scaled, items.length - 1);
+    if (scaled - column < probability[column]) {
+      return (E) items[column];
+    }
+    return (E) items[alias[column]];
+  }
+}
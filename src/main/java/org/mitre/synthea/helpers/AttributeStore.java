@@ -0,0 +1,616 @@
+package org.mitre.synthea.helpers;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+/**
+ * Person attributes, stored in a small open addressing table keyed by an integer slot
+ * instead of a hash map keyed by attribute name.
+ * Attribute names are interned to integer slots shared by all people: every attribute a
+ * module reads or writes is interned when the module is loaded, and any other name is
+ * interned the first time it is written, until MAX_SLOTS names have been interned. Later
+ * names are kept in a hash map. States that know their attribute name ahead of time look up
+ * its slot once and then read and write the attribute without hashing the name.
+ * The table of each person only grows with the number of attributes they have set, not with
+ * the number of names that have been interned.
+ * Numbers and booleans written through the typed setters are kept unboxed until they are
+ * read through the Map interface.
+ *
+ * <p>Like a ConcurrentHashMap, null keys and values are not allowed and iterators never
+ * throw ConcurrentModificationException. Every read and write is synchronized, because
+ * exporters read and write the attributes of a person on several threads at once. While a
+ * person is being simulated only one thread uses their store, so the lock is uncontended.
+ *
+ * <p>A listener can be notified with the name of every attribute that is written or
+ * removed, so the module scheduler can wake a module that is blocked on an attribute as
+ * soon as that attribute changes.
+ */
+public class AttributeStore extends AbstractMap<String, Object> implements Serializable {
+  private static final long serialVersionUID = -3870617285092457531L;
+
+  /** Number of interned names after which names are only interned by {@link #slot}. */
+  static final int MAX_SLOTS = 4096;
+  private static final Map<String, Integer> SLOTS = new ConcurrentHashMap<String, Integer>();
+  private static final List<String> NAMES = new CopyOnWriteArrayList<String>();
+
+  private static final byte NONE = 0;
+  private static final byte INT = 1;
+  private static final byte LONG = 2;
+  private static final byte DOUBLE = 3;
+  private static final byte BOOLEAN = 4;
+
+  /** Slot of an empty table entry. Interned slots are never negative. */
+  private static final int EMPTY = -1;
+  private static final int INITIAL_CAPACITY = 16;
+
+  /** Slot of the attribute in each table entry, or EMPTY. */
+  private transient int[] slots;
+  /** Boxed value of each entry. Also caches the box of an unboxed value once it is read. */
+  private transient Object[] values;
+  /** Unboxed value of each entry, as long bits. */
+  private transient long[] primitives;
+  /** Type of the unboxed value of each entry, or NONE. */
+  private transient byte[] kinds;
+  /** Number of table entries in use. */
+  private transient int slotCount;
+  /** Attributes whose names could not be interned, or null if there are none. */
+  private transient Map<String, Object> overflow;
+  private transient Consumer<String> listener;
+  private transient EntrySet entrySet;
+
+  /**
+   * Create an empty attribute store.
+   */
+  public AttributeStore() {
+    allocate(INITIAL_CAPACITY);
+  }
+
+  /**
+   * Get the slot of an attribute name, interning the name if it does not have one.
+   * @param name Attribute name.
+   * @return The slot.
+   */
+  public static int slot(String name) {
+    return slot(name, Integer.MAX_VALUE);
+  }
+
+  /**
+   * Get the slot of an attribute name, interning the name if fewer than limit names have
+   * been interned.
+   * @return The slot, or -1 if the name was not interned.
+   */
+  private static int slot(String name, int limit) {
+    Integer slot = SLOTS.get(name);
+    if (slot != null) {
+      return slot;
+    }
+    synchronized (NAMES) {
+      slot = SLOTS.get(name);
+      if (slot != null) {
+        return slot;
+      }
+      if (NAMES.size() >= limit) {
+        return -1;
+      }
+      NAMES.add(name);
+      slot = NAMES.size() - 1;
+      SLOTS.put(name, slot);
+      return slot;
+    }
+  }
+
+  /**
+   * Intern a collection of attribute names, such as those a module reads and writes.
+   * @param names Attribute names.
+   */
+  public static void intern(Collection<String> names) {
+    for (String name : names) {
+      slot(name);
+    }
+  }
+
+  /**
+   * Get the slot of an attribute name without interning it.
+   * @return The slot, or -1 if the name has not been interned.
+   */
+  private static int existingSlot(Object name) {
+    Integer slot = SLOTS.get(name);
+    return (slot == null) ? -1 : slot;
+  }
+
+  /**
+   * Set the listener to notify of changes, replacing any previous listener.
+   * @param listener Listener called with the name of each changed attribute, or null for none.
+   */
+  public void setListener(Consumer<String> listener) {
+    this.listener = listener;
+  }
+
+  private void changed(int slot) {
+    if (listener != null) {
+      listener.accept(NAMES.get(slot));
+    }
+  }
+
+  private void changed(String name) {
+    if (listener != null) {
+      listener.accept(name);
+    }
+  }
+
+  private void allocate(int capacity) {
+    slots = new int[capacity];
+    Arrays.fill(slots, EMPTY);
+    values = new Object[capacity];
+    primitives = new long[capacity];
+    kinds = new byte[capacity];
+  }
+
+  /**
+   * Get the entry of a slot in the table, which is probed linearly from the slot's home.
+   * @return The index of the entry, or -1 - the index of the empty entry where it would go.
+   */
+  private int indexOf(int slot) {
+    int mask = slots.length - 1;
+    for (int index = home(slot, mask); ; index = (index + 1) & mask) {
+      if (slots[index] == slot) {
+        return index;
+      } else if (slots[index] == EMPTY) {
+        return -1 - index;
+      }
+    }
+  }
+
+  private static int home(int slot, int mask) {
+    // slots are handed out consecutively, so spread them over the table
+    return (slot * 0x9E3779B9 >>> 16) & mask;
+  }
+
+  /**
+   * Add an entry for a slot that is not in the table, growing the table so that it is
+   * never more than half full.
+   * @return The index of the new entry.
+   */
+  private int insert(int slot) {
+    if ((slotCount + 1) * 2 > slots.length) {
+      rehash(slots.length * 2);
+    }
+    int index = -1 - indexOf(slot);
+    slots[index] = slot;
+    slotCount++;
+    return index;
+  }
+
+  private void rehash(int capacity) {
+    int[] oldSlots = slots;
+    Object[] oldValues = values;
+    long[] oldPrimitives = primitives;
+    byte[] oldKinds = kinds;
+    allocate(capacity);
+    for (int i = 0; i < oldSlots.length; i++) {
+      if (oldSlots[i] != EMPTY) {
+        int index = -1 - indexOf(oldSlots[i]);
+        slots[index] = oldSlots[i];
+        values[index] = oldValues[i];
+        primitives[index] = oldPrimitives[i];
+        kinds[index] = oldKinds[i];
+      }
+    }
+  }
+
+  /**
+   * Remove the entry at an index. Later entries in the same run of the table are moved
+   * back into the gap where needed, so a lookup never stops early at an empty entry.
+   */
+  private void delete(int index) {
+    int mask = slots.length - 1;
+    int hole = index;
+    for (int i = (hole + 1) & mask; slots[i] != EMPTY; i = (i + 1) & mask) {
+      // the entry may move back if the hole is between its home and where it is now
+      if (((i - home(slots[i], mask)) & mask) >= ((i - hole) & mask)) {
+        slots[hole] = slots[i];
+        values[hole] = values[i];
+        primitives[hole] = primitives[i];
+        kinds[hole] = kinds[i];
+        hole = i;
+      }
+    }
+    slots[hole] = EMPTY;
+    values[hole] = null;
+    kinds[hole] = NONE;
+    slotCount--;
+  }
+
+  /**
+   * Get the number of entries the table has room for. This grows with the number of
+   * attributes set, however many names have been interned.
+   * @return The capacity of the table.
+   */
+  synchronized int capacity() {
+    return slots.length;
+  }
+
+  /**
+   * Get the value of an attribute by slot.
+   * @param slot Slot from {@link #slot(String)}.
+   * @return The value, or null if the attribute is not set.
+   */
+  public synchronized Object get(int slot) {
+    int index = find(slot);
+    if (index < 0) {
+      return null;
+    }
+    Object value = values[index];
+    if (value == null) {
+      value = box(kinds[index], primitives[index]);
+      values[index] = value;
+    }
+    return value;
+  }
+
+  /**
+   * Get the entry of an attribute that is set, without boxing it.
+   * @param slot Slot from {@link #slot(String)}.
+   * @return The index of the entry, or -1 if the attribute is not set.
+   */
+  private int find(int slot) {
+    int index = indexOf(slot);
+    if (index >= 0) {
+      return index;
+    }
+    if (overflow != null) {
+      // the name may have been written before it was interned
+      Object value = overflow.remove(NAMES.get(slot));
+      if (value != null) {
+        index = insert(slot);
+        values[index] = value;
+        kinds[index] = NONE;
+        return index;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Get the value of a numeric attribute by slot, without boxing it.
+   * @param slot Slot from {@link #slot(String)}.
+   * @param missing Value to return if the attribute is not set.
+   * @return The value as a double.
+   * @throws ClassCastException if the attribute is not a Number.
+   */
+  public synchronized double getDouble(int slot, double missing) {
+    int index = find(slot);
+    if (index < 0) {
+      return missing;
+    }
+    switch (kinds[index]) {
+      case INT:
+      case LONG:
+        return primitives[index];
+      case DOUBLE:
+        return Double.longBitsToDouble(primitives[index]);
+      case BOOLEAN:
+        throw new ClassCastException("Attribute " + NAMES.get(slot) + " is a Boolean");
+      default:
+        return ((Number) values[index]).doubleValue();
+    }
+  }
+
+  /**
+   * Get the value of a boolean attribute by slot, without boxing it.
+   * @param slot Slot from {@link #slot(String)}.
+   * @return True if the attribute is set to true, false otherwise.
+   */
+  public synchronized boolean isTrue(int slot) {
+    int index = find(slot);
+    if (index < 0) {
+      return false;
+    }
+    if (kinds[index] == BOOLEAN) {
+      return primitives[index] != 0;
+    }
+    return Boolean.TRUE.equals(values[index]);
+  }
+
+  /**
+   * Set the value of an attribute by slot.
+   * @param slot Slot from {@link #slot(String)}.
+   * @param value The value, which must not be null.
+   * @return The previous value, or null if the attribute was not set.
+   */
+  public synchronized Object put(int slot, Object value) {
+    Objects.requireNonNull(value);
+    Object previous = get(slot);
+    int index = (previous == null) ? insert(slot) : indexOf(slot);
+    values[index] = value;
+    kinds[index] = NONE;
+    changed(slot);
+    return previous;
+  }
+
+  /**
+   * Set an attribute to an Integer value by slot, without boxing it.
+   */
+  public void putInt(int slot, int value) {
+    putPrimitive(slot, INT, value);
+  }
+
+  /**
+   * Set an attribute to a Long value by slot, without boxing it.
+   */
+  public void putLong(int slot, long value) {
+    putPrimitive(slot, LONG, value);
+  }
+
+  /**
+   * Set an attribute to a Double value by slot, without boxing it.
+   */
+  public void putDouble(int slot, double value) {
+    putPrimitive(slot, DOUBLE, Double.doubleToRawLongBits(value));
+  }
+
+  /**
+   * Set an attribute to a Boolean value by slot, without boxing it.
+   */
+  public void putBoolean(int slot, boolean value) {
+    putPrimitive(slot, BOOLEAN, value ? 1 : 0);
+  }
+
+  private synchronized void putPrimitive(int slot, byte kind, long bits) {
+    int index = find(slot);
+    if (index < 0) {
+      index = insert(slot);
+    }
+    values[index] = null;
+    primitives[index] = bits;
+    kinds[index] = kind;
+    changed(slot);
+  }
+
+  /**
+   * Remove an attribute by slot.
+   * @param slot Slot from {@link #slot(String)}.
+   * @return The previous value, or null if the attribute was not set.
+   */
+  public synchronized Object remove(int slot) {
+    Object previous = get(slot);
+    if (previous != null) {
+      delete(indexOf(slot));
+      changed(slot);
+    }
+    return previous;
+  }
+
+  private static Object box(byte kind, long bits) {
+    switch (kind) {
+      case INT:
+        return Integer.valueOf((int) bits);
+      case LONG:
+        return Long.valueOf(bits);
+      case DOUBLE:
+        return Double.valueOf(Double.longBitsToDouble(bits));
+      case BOOLEAN:
+        return Boolean.valueOf(bits != 0);
+      default:
+        return null;
+    }
+  }
+
+  @Override
+  public synchronized int size() {
+    return slotCount + (overflow == null ? 0 : overflow.size());
+  }
+
+  @Override
+  public synchronized boolean isEmpty() {
+    return size() == 0;
+  }
+
+  @Override
+  public synchronized boolean containsKey(Object key) {
+    return get(key) != null;
+  }
+
+  @Override
+  public synchronized Object get(Object key) {
+    Objects.requireNonNull(key);
+    int slot = existingSlot(key);
+    if (slot >= 0) {
+      return get(slot);
+    }
+    return (overflow == null) ? null : overflow.get(key);
+  }
+
+  @Override
+  public synchronized Object put(String key, Object value) {
+    Objects.requireNonNull(key);
+    Objects.requireNonNull(value);
+    int slot = slot(key, MAX_SLOTS);
+    if (slot >= 0) {
+      return put(slot, value);
+    }
+    if (overflow == null) {
+      overflow = new HashMap<String, Object>();
+    }
+    Object previous = overflow.put(key, value);
+    changed(key);
+    return previous;
+  }
+
+  @Override
+  public synchronized Object remove(Object key) {
+    Objects.requireNonNull(key);
+    int slot = existingSlot(key);
+    if (slot >= 0) {
+      return remove(slot);
+    }
+    Object previous = (overflow == null) ? null : overflow.remove(key);
+    if (previous != null) {
+      changed((String) key);
+    }
+    return previous;
+  }
+
+  @Override
+  public synchronized void clear() {
+    for (String key : new ArrayList<String>(keySet())) {
+      remove(key);
+    }
+  }
+
+  @Override
+  public Set<Entry<String, Object>> entrySet() {
+    if (entrySet == null) {
+      entrySet = new EntrySet();
+    }
+    return entrySet;
+  }
+
+  /**
+   * Snapshot of the slots of the attributes that are set.
+   * @return the slots, in ascending order
+   */
+  private synchronized int[] setSlots() {
+    int[] set = new int[slotCount];
+    int count = 0;
+    for (int slot : slots) {
+      if (slot != EMPTY) {
+        set[count++] = slot;
+      }
+    }
+    Arrays.sort(set);
+    return set;
+  }
+
+  /**
+   * Snapshot of the names of the attributes that are not interned.
+   * @return iterator over the names, or null if there are none
+   */
+  private synchronized Iterator<String> overflowKeys() {
+    return (overflow == null) ? null : new ArrayList<String>(overflow.keySet()).iterator();
+  }
+
+  /** View of the attributes, in slot order followed by the overflow attributes. */
+  private final class EntrySet extends AbstractSet<Entry<String, Object>> {
+    @Override
+    public int size() {
+      return AttributeStore.this.size();
+    }
+
+    @Override
+    public void clear() {
+      AttributeStore.this.clear();
+    }
+
+    @Override
+    public Iterator<Entry<String, Object>> iterator() {
+      return new Iterator<Entry<String, Object>>() {
+        private final int[] setSlots = setSlots();
+        private int position = -1;
+        private final Iterator<String> overflowKeys = overflowKeys();
+        private Entry<String, Object> next = advance();
+        private String last;
+
+        private Entry<String, Object> advance() {
+          synchronized (AttributeStore.this) {
+            for (position++; position < setSlots.length; position++) {
+              Object value = get(setSlots[position]);
+              if (value != null) {
+                return new Attribute(NAMES.get(setSlots[position]), value);
+              }
+            }
+            while (overflowKeys != null && overflowKeys.hasNext()) {
+              String key = overflowKeys.next();
+              Object value = (overflow == null) ? null : overflow.get(key);
+              if (value != null) {
+                return new Attribute(key, value);
+              }
+            }
+            return null;
+          }
+        }
+
+        @Override
+        public boolean hasNext() {
+          return next != null;
+        }
+
+        @Override
+        public Entry<String, Object> next() {
+          if (next == null) {
+            throw new NoSuchElementException();
+          }
+          Entry<String, Object> entry = next;
+          last = entry.getKey();
+          next = advance();
+          return entry;
+        }
+
+        @Override
+        public void remove() {
+          if (last == null) {
+            throw new IllegalStateException();
+          }
+          AttributeStore.this.remove(last);
+          last = null;
+        }
+      };
+    }
+  }
+
+  /** An attribute entry that writes through to the store. */
+  private final class Attribute extends SimpleEntry<String, Object> {
+    private static final long serialVersionUID = 1L;
+
+    private Attribute(String key, Object value) {
+      super(key, value);
+    }
+
+    @Override
+    public Object setValue(Object value) {
+      AttributeStore.this.put(getKey(), value);
+      return super.setValue(value);
+    }
+  }
+
+  /**
+   * Attributes are serialized by name, since slots differ between runs.
+   */
+  private synchronized void writeObject(ObjectOutputStream out) throws IOException {
+    out.defaultWriteObject();
+    out.writeInt(size());
+    for (Entry<String, Object> entry : entrySet()) {
+      out.writeObject(entry.getKey());
+      out.writeObject(entry.getValue());
+    }
+  }
+
+  private synchronized void readObject(ObjectInputStream in)
+      throws IOException, ClassNotFoundException {
+    in.defaultReadObject();
+    allocate(INITIAL_CAPACITY);
+    int size = in.readInt();
+    for (int i = 0; i < size; i++) {
+      String key = (String) in.readObject();
+      Object value = in.readObject();
+      put(key, value);
+    }
+  }
+}
@@ -158,6 +158,17 @@ public class Attributes {
     return attributes;
   }
 
+  /**
+   * Get the names of all attributes read or written by the given module.
+   * @param module Module definition to parse for attributes
+   * @return set of attribute names
+   */
+  public static Set<String> getAttributeNames(JsonObject module) {
+    Map<String,Inventory> attributes = new TreeMap<String,Inventory>();
+    inventoryModule(attributes, module);
+    return attributes.keySet();
+  }
+
   /**
    * Catalog all attributes from the given module into the given Table.
    *
@@ -0,0 +1,210 @@
+package org.mitre.synthea.helpers;
+
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+
+/**
+ * Calendar arithmetic on epoch days (days since 1970-01-01) and dates packed into a single long
+ * as year * 10000 + month * 100 + day, so that dates can be worked with without allocating
+ * java.time objects. The calendar is the proleptic Gregorian calendar used by java.time, and the
+ * results match LocalDate exactly.
+ */
+public final class DateMath {
+  /** Milliseconds in a day. */
+  public static final long DAY_MILLIS = 86_400_000L;
+
+  /** The number of days from year zero to 1970, as in LocalDate. */
+  private static final long DAYS_0000_TO_1970 = (146097L * 5L) - (30L * 365L + 7L);
+  /** The number of days in a 400 year cycle. */
+  private static final long DAYS_PER_CYCLE = 146097L;
+  /** 1900-01-01T00:00:00Z, the first supported time. */
+  private static final long SUPPORTED_START = -2208988800000L;
+  /**
+   * 9999-12-31T00:00:00Z, the first time after the supported range, a day early so that the
+   * date in any time zone is still before the year 10000.
+   */
+  private static final long SUPPORTED_END = 253402214400000L;
+
+  private DateMath() {
+    // static methods only
+  }
+
+  /**
+   * Check whether a time is from 1900-01-01 up to the last day of the year 9999, where the
+   * dates calculated here can be used in place of a Calendar or a date format. Outside that
+   * range those switch to the Julian calendar before 1582 and do not pad years beyond four
+   * digits.
+   * @param time the time, in milliseconds since the epoch.
+   * @return true if the time is in the supported range.
+   */
+  public static boolean isSupported(long time) {
+    return time >= SUPPORTED_START && time < SUPPORTED_END;
+  }
+
+  /**
+   * Get the epoch day of the date a time falls on in the given time zone.
+   * Equivalent to Instant.ofEpochMilli(time).atZone(zone).toLocalDate().toEpochDay().
+   * @param time the time, in milliseconds since the epoch.
+   * @param zone the time zone.
+   * @return the epoch day.
+   */
+  public static long epochDay(long time, ZoneId zone) {
+    ZoneOffset offset;
+    if (zone instanceof ZoneOffset) {
+      offset = (ZoneOffset) zone;
+    } else {
+      offset = zone.getRules().getOffset(Instant.ofEpochMilli(time));
+    }
+    return Math.floorDiv(Math.floorDiv(time, 1000L) + offset.getTotalSeconds(), 86_400L);
+  }
+
+  /**
+   * Convert an epoch day to a packed date.
+   * @param epochDay days since 1970-01-01.
+   * @return the date as year * 10000 + month * 100 + day.
+   */
+  public static long toDate(long epochDay) {
+    // the same algorithm as LocalDate.ofEpochDay, counting years from March
+    long zeroDay = epochDay + DAYS_0000_TO_1970 - 60;
+    long adjust = 0;
+    if (zeroDay < 0) {
+      long adjustCycles = (zeroDay + 1) / DAYS_PER_CYCLE - 1;
+      adjust = adjustCycles * 400;
+      zeroDay += -adjustCycles * DAYS_PER_CYCLE;
+    }
+    long yearEst = (400 * zeroDay + 591) / DAYS_PER_CYCLE;
+    long doyEst = zeroDay - (365 * yearEst + yearEst / 4 - yearEst / 100 + yearEst / 400);
+    if (doyEst < 0) {
+      yearEst--;
+      doyEst = zeroDay - (365 * yearEst + yearEst / 4 - yearEst / 100 + yearEst / 400);
+    }
+    yearEst += adjust;
+    int marchDoy0 = (int) doyEst;
+    int marchMonth0 = (marchDoy0 * 5 + 2) / 153;
+    int month = (marchMonth0 + 2) % 12 + 1;
+    int day = marchDoy0 - (marchMonth0 * 306 + 5) / 10 + 1;
+    yearEst += marchMonth0 / 10;
+    return yearEst * 10000 + month * 100 + day;
+  }
+
+  /**
+   * Get the year of a packed date.
+   */
+  public static int year(long date) {
+    return (int) Math.floorDiv(date, 10000L);
+  }
+
+  /**
+   * Get the month of a packed date, from 1 to 12.
+   */
+  public static int month(long date) {
+    return (int) (Math.floorMod(date, 10000L) / 100);
+  }
+
+  /**
+   * Get the day of the month of a packed date, from 1 to 31.
+   */
+  public static int dayOfMonth(long date) {
+    return (int) Math.floorMod(date, 100L);
+  }
+
+  /**
+   * Convert a year, month and day to an epoch day, as LocalDate.of(...).toEpochDay() does.
+   * @param year the year.
+   * @param month the month, from 1 to 12.
+   * @param day the day of the month.
+   * @return days since 1970-01-01.
+   */
+  public static long toEpochDay(int year, int month, int day) {
+    long y = year;
+    long m = month;
+    long total = 365 * y;
+    if (y >= 0) {
+      total += (y + 3) / 4 - (y + 99) / 100 + (y + 399) / 400;
+    } else {
+      total -= y / -4 - y / -100 + y / -400;
+    }
+    total += (367 * m - 362) / 12;
+    total += day - 1;
+    if (m > 2) {
+      total--;
+      if (!isLeapYear(year)) {
+        total--;
+      }
+    }
+    return total - DAYS_0000_TO_1970;
+  }
+
+  /**
+   * Check whether a year is a leap year.
+   */
+  public static boolean isLeapYear(long year) {
+    return ((year & 3) == 0) && ((year % 100) != 0 || (year % 400) == 0);
+  }
+
+  /**
+   * Get the number of days in a month.
+   * @param year the year.
+   * @param month the month, from 1 to 12.
+   */
+  public static int lengthOfMonth(int year, int month) {
+    switch (month) {
+      case 2:
+        return isLeapYear(year) ? 29 : 28;
+      case 4:
+      case 6:
+      case 9:
+      case 11:
+        return 30;
+      default:
+        return 31;
+    }
+  }
+
+  /**
+   * Get the number of whole months and remaining days from one date to another, as
+   * Period.between does. The number of years is the whole months divided by 12.
+   * @param startDate the packed start date.
+   * @param endDate the packed end date.
+   * @param endEpochDay the epoch day of the end date.
+   * @return the total months in the upper 32 bits and the days in the lower 32 bits; use
+   *     {@link #totalMonths(long)} and {@link #days(long)} to unpack them.
+   */
+  public static long between(long startDate, long endDate, long endEpochDay) {
+    int startYear = year(startDate);
+    int startMonth = month(startDate);
+    int startDay = dayOfMonth(startDate);
+    int endYear = year(endDate);
+    int endMonth = month(endDate);
+    long totalMonths = (endYear * 12L + endMonth) - (startYear * 12L + startMonth);
+    int days = dayOfMonth(endDate) - startDay;
+    if (totalMonths > 0 && days < 0) {
+      totalMonths--;
+      // the start date plus the whole months, clamped to the end of the month
+      long monthCount = startYear * 12L + (startMonth - 1) + totalMonths;
+      int year = (int) Math.floorDiv(monthCount, 12L);
+      int month = (int) Math.floorMod(monthCount, 12L) + 1;
+      int day = Math.min(startDay, lengthOfMonth(year, month));
+      days = (int) (endEpochDay - toEpochDay(year, month, day));
+    } else if (totalMonths < 0 && days > 0) {
+      totalMonths++;
+      days -= lengthOfMonth(endYear, endMonth);
+    }
+    return (totalMonths << 32) | (days & 0xFFFFFFFFL);
+  }
+
+  /**
+   * Get the total months from a result of {@link #between(long, long, long)}.
+   */
+  public static int totalMonths(long between) {
+    return (int) (between >> 32);
+  }
+
+  /**
+   * Get the days from a result of {@link #between(long, long, long)}.
+   */
+  public static int days(long between) {
+    return (int) between;
+  }
+}
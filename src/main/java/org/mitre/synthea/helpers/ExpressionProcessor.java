@@ -16,6 +16,9 @@ import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.logging.Level;
@@ -36,6 +39,12 @@ import org.opencds.cqf.cql.execution.CqlLibraryReader;
 import org.simulator.math.odes.MultiTable;
 import org.simulator.math.odes.MultiTable.Block.Column;
 
+/**
+ * Evaluates "CQL-lite" expressions. An ExpressionProcessor is thread safe: the compiled
+ * expression is shared, and each thread that needs the CQL engine gets its own Context.
+ * Use {@link #forExpression(String)} to share one processor per expression across the
+ * whole simulation.
+ */
 public class ExpressionProcessor {
   private static final String LIBRARY_NAME = "Synthea";
   private static final ModelManager modelManager = new ModelManager();
@@ -43,13 +52,21 @@ public class ExpressionProcessor {
       new ConcurrentHashMap<String, VitalSign>();
   private static final Set<String> attributeSet =
       Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+  /** Shared processors, by expression and parameter types. */
+  private static final ConcurrentMap<String, CompletableFuture<ExpressionProcessor>> processors =
+      new ConcurrentHashMap<String, CompletableFuture<ExpressionProcessor>>();
   private final LibraryManager libraryManager = new LibraryManager(modelManager);
   private String expression;
-  private Library library;
-  private Context context;
+  private volatile Library library;
+  private final ThreadLocal<Context> context = new ThreadLocal<Context>();
   private String elm;
   private Map<String,String> paramTypeMap;
   private BiMap<String,String> cqlParamMap;
+  private String wrappedExpression;
+  /** Parameter names, in the order of the fast expression arguments. */
+  private String[] paramNames;
+  /** Compiled form of the expression, or null if it needs CQL. */
+  private FastExpression fastExpression;
 
   /**
    * Evaluate the given expression, within the context of the given Person and timestamp.
@@ -99,11 +116,119 @@ public class ExpressionProcessor {
     this.paramTypeMap = paramTypeMap;
 
     String cleanExpression = replaceParameters(expression);
-    String wrappedExpression = convertParameterizedExpressionToCql(cleanExpression);
+    this.wrappedExpression = convertParameterizedExpressionToCql(cleanExpression);
+    this.expression = expression;
 
-    // Compile our constructed CQL expression into elm once for execution
-    // The compiler isn't thread safe, so only allow one thread at a time
+    // Most expressions are simple arithmetic, which can be evaluated without CQL
+    this.paramNames = cqlParamMap.keySet().toArray(new String[0]);
+    String[] cqlParamNames = new String[paramNames.length];
+    FastExpression.Type[] paramTypes = new FastExpression.Type[paramNames.length];
+    for (int i = 0; i < paramNames.length; i++) {
+      cqlParamNames[i] = cqlParamMap.get(paramNames[i]);
+      switch (paramTypeMap.getOrDefault(paramNames[i], "Decimal")) {
+        case "Decimal":
+          paramTypes[i] = FastExpression.Type.DECIMAL;
+          break;
+        case "Boolean":
+          paramTypes[i] = FastExpression.Type.BOOLEAN;
+          break;
+        default:
+          paramTypes[i] = null;
+          break;
+      }
+    }
+    this.fastExpression = FastExpression.compile(cleanExpression, cqlParamNames, paramTypes);
+
+    if (fastExpression == null) {
+      // Compile now, so that invalid expressions are reported when they are loaded
+      compileCql();
+    }
+  }
+
+  /**
+   * Get the shared processor for the given expression, when all parameters are Decimals.
+   * The expression is compiled the first time it is requested, or waited on if it is
+   * already being compiled by {@link #precompile(String)}.
+   * @param expression Expression to evaluate.
+   * @return the shared processor
+   */
+  public static ExpressionProcessor forExpression(String expression) {
+    return forExpression(expression, Collections.emptyMap());
+  }
+
+  /**
+   * Get the shared processor for the given expression and parameter types.
+   * @param expression Expression to evaluate.
+   * @param paramTypeMap Map of parameter names to their corresponding CQL types.
+   * @return the shared processor
+   */
+  public static ExpressionProcessor forExpression(String expression,
+      Map<String,String> paramTypeMap) {
+    CompletableFuture<ExpressionProcessor> future = processors.get(key(expression, paramTypeMap));
+    if (future == null) {
+      future = compile(expression, paramTypeMap, false);
+    }
+    try {
+      return future.join();
+    } catch (CompletionException e) {
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+      throw e;
+    }
+  }
+
+  /**
+   * Start compiling the given expression in the background, if it has not been already.
+   * Called as modules are loaded, so that all of their expressions compile in parallel.
+   * @param expression Expression to compile, when all parameters are Decimals.
+   */
+  public static void precompile(String expression) {
+    if (!processors.containsKey(key(expression, Collections.emptyMap()))) {
+      compile(expression, Collections.emptyMap(), true);
+    }
+  }
+
+  private static String key(String expression, Map<String,String> paramTypeMap) {
+    return paramTypeMap.isEmpty() ? expression
+        : expression + "\n" + new TreeMap<String,String>(paramTypeMap);
+  }
+
+  private static CompletableFuture<ExpressionProcessor> compile(String expression,
+      Map<String,String> paramTypeMap, boolean async) {
+    CompletableFuture<ExpressionProcessor> created = new CompletableFuture<ExpressionProcessor>();
+    CompletableFuture<ExpressionProcessor> existing =
+        processors.putIfAbsent(key(expression, paramTypeMap), created);
+    if (existing != null) {
+      return existing;
+    }
+    // copy the types, the constructor adds the types of #d{...} style parameters
+    Map<String,String> types = new HashMap<String,String>(paramTypeMap);
+    Runnable compilation = () -> {
+      try {
+        created.complete(new ExpressionProcessor(expression, types));
+      } catch (RuntimeException e) {
+        created.completeExceptionally(e);
+      }
+    };
+    if (async) {
+      CompletableFuture.runAsync(compilation);
+    } else {
+      compilation.run();
+    }
+    return created;
+  }
+
+  /**
+   * Compile our constructed CQL expression into elm once for execution.
+   * Expressions with a fast path are only compiled if they ever need CQL.
+   */
+  private synchronized void compileCql() {
+    if (library != null) {
+      return;
+    }
     this.elm = cqlToElm(wrappedExpression);
+    // The compiler isn't thread safe, so only allow one thread at a time
     synchronized (ExpressionProcessor.class) {
       try {
         this.library = CqlLibraryReader.read(new ByteArrayInputStream(
@@ -112,9 +237,14 @@ public class ExpressionProcessor {
         throw new RuntimeException(ex);
       }
     }
+  }
 
-    this.context = new Context(library);
-    this.expression = expression;
+  /**
+   * Whether this expression is evaluated without CQL, unless CQL would produce a null.
+   * @return true if the expression was compiled to a fast path
+   */
+  public boolean hasFastPath() {
+    return fastExpression != null;
   }
 
   /**
@@ -198,7 +328,7 @@ public class ExpressionProcessor {
     }
 
     if (vs != null) {
-      return new BigDecimal(person.getVitalSign(vs, time));
+      return new BigDecimal(person.getVitalSignValue(vs, time));
     }
 
     Object value = person.attributes.get(param);
@@ -232,6 +362,35 @@ public class ExpressionProcessor {
     }
   }
 
+  /**
+   * Retrieve a numeric value from a Person model, as getPersonValue does, without boxing it.
+   * @param param name of the VitalSign or attribute to retrieve from the Person
+   * @param person Person instance to get the parameter from
+   * @param time current time
+   * @param expression expression the value is for, used in error messages
+   * @return value, or NaN if the value is missing or not a number
+   */
+  private static double getNumericPersonValue(String param, Person person, long time,
+      String expression) {
+    if (param.equals("age")) {
+      return person.ageInDecimalYears(time);
+    }
+
+    VitalSign vs = vitalSignCache.get(param);
+    if (vs == null && !attributeSet.contains(param)) {
+      // let getPersonValue work out whether this is a VitalSign
+      Object value = getPersonValue(param, person, time, expression);
+      return (value instanceof Number) ? ((Number) value).doubleValue() : Double.NaN;
+    }
+
+    if (vs != null) {
+      return person.getVitalSignValue(vs, time);
+    }
+
+    Object value = person.attributes.get(param);
+    return (value instanceof Number) ? ((Number) value).doubleValue() : Double.NaN;
+  }
+
   /**
    * Evaluates the provided expression given the simulation results.
    * @param results table of simulation results
@@ -273,6 +432,25 @@ public class ExpressionProcessor {
    * @return evaluation result
    */
   public Object evaluate(Person person, long time) {
+    if (fastExpression != null) {
+      double[] args = new double[paramNames.length];
+      boolean bound = true;
+      for (int i = 0; i < paramNames.length && bound; i++) {
+        if (fastExpression.getParamType(i) == FastExpression.Type.BOOLEAN) {
+          Object value = getPersonValue(paramNames[i], person, time, expression);
+          bound = value instanceof Boolean;
+          args[i] = Boolean.TRUE.equals(value) ? 1.0 : 0.0;
+        } else {
+          args[i] = getNumericPersonValue(paramNames[i], person, time, expression);
+          bound = !Double.isNaN(args[i]);
+        }
+      }
+      if (bound) {
+        return evaluate(args);
+      }
+      // a value that is not a number or boolean, let CQL report it
+    }
+
     Map<String,Object> params = new HashMap<String,Object>();
 
     for (String paramName : getParamNames()) {
@@ -288,6 +466,62 @@ public class ExpressionProcessor {
    * @return evaluation result
    */
   public Object evaluate(Map<String,Object> params) {
+    if (fastExpression != null && params.size() == paramNames.length) {
+      double[] args = new double[paramNames.length];
+      boolean bound = true;
+      for (int i = 0; i < paramNames.length && bound; i++) {
+        Object value = params.get(paramNames[i]);
+        if (fastExpression.getParamType(i) == FastExpression.Type.BOOLEAN) {
+          bound = value instanceof Boolean;
+          args[i] = Boolean.TRUE.equals(value) ? 1.0 : 0.0;
+        } else {
+          bound = value instanceof Number;
+          args[i] = bound ? ((Number) value).doubleValue() : 0.0;
+        }
+      }
+      if (bound) {
+        return evaluate(args);
+      }
+    }
+    return evaluateCql(params);
+  }
+
+  /**
+   * Evaluates the fast path of the expression, using CQL if the result would be null.
+   * @param args parameter values, in the order of paramNames
+   * @return evaluation result
+   */
+  private Object evaluate(double[] args) {
+    try {
+      return fastExpression.evaluate(args);
+    } catch (FastExpression.NullResult e) {
+      Map<String,Object> params = new HashMap<String,Object>();
+      for (int i = 0; i < paramNames.length; i++) {
+        if (fastExpression.getParamType(i) == FastExpression.Type.BOOLEAN) {
+          params.put(paramNames[i], args[i] != 0.0);
+        } else {
+          params.put(paramNames[i], new BigDecimal(args[i]));
+        }
+      }
+      return evaluateCql(params);
+    }
+  }
+
+  /**
+   * Evaluates the expression with the given parameters using the CQL engine.
+   * @param params parameters as a map of variable names to values
+   * @return evaluation result
+   */
+  Object evaluateCql(Map<String,Object> params) {
+    if (library == null) {
+      compileCql();
+    }
+    // each thread sets its own parameters
+    Context context = this.context.get();
+    if (context == null) {
+      context = new Context(library);
+      this.context.set(context);
+    }
     // Keep track to make sure all parameters are set
     Set<String> setParams = new HashSet<String>();
     for (Entry<String,Object> entry : params.entrySet()) {
@@ -2,15 +2,20 @@ package org.mitre.synthea.helpers;
 
 import java.io.IOException;
 import java.io.Writer;
-import java.util.HashMap;
 import java.util.Map;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
 
 /**
  * The FactTable helper class aids in the export of database-style
  * Fact Tables. If you have a "table" where each row is a fact or
  * lookup table where a value should be referenced by an ID, you
  * can add these keys and facts to this table and get back the ID.
+ *
+ * <p>Each table is safe to use from many threads. Looking up a key that
+ * is already in the table does not lock, and adding a new key only locks
+ * that table, so exporting threads do not wait on each other's tables.
+ * IDs are assigned in the order keys are first added and never change.
  */
 public class FactTable {
   /**
@@ -19,33 +24,29 @@ public class FactTable {
   private static final String NEWLINE = System.lineSeparator();
   /** Table column headers. Comma-separated. */
   private String header;
-  /** This is the ID sequence generator. */
-  private AtomicInteger id;
+  /** The next ID to assign. Guarded by this table. */
+  private int id;
   /** Lookup the ID for a key. */
-  private Map<String,Integer> keys;
-  /** Lookup the fact by ID. */
-  private Map<Integer,String> facts;
-  /** Synchronization lock. */
-  private static final Object LOCK = new Object();
+  private final Map<String,Integer> keys;
+  /** Lookup the fact by ID, in ID order. */
+  private final Map<Integer,String> facts;
 
   /**
    * Create a FactTable with an ID that starts at 1
    * and increments with each new key/fact.
    */
   public FactTable() {
-    id = new AtomicInteger(1);
-    keys = new HashMap<String,Integer>();
-    facts = new HashMap<Integer,String>();
+    id = 1;
+    keys = new ConcurrentHashMap<String,Integer>();
+    facts = new ConcurrentSkipListMap<Integer,String>();
   }
 
   /**
    * Set the next ID.
    * @param id The value of the next ID.
    */
-  public void setNextId(int id) {
-    synchronized (LOCK) {
-      this.id = new AtomicInteger(id);
-    }
+  public synchronized void setNextId(int id) {
+    this.id = id;
   }
 
   /**
@@ -62,9 +63,7 @@ public class FactTable {
    * @return The ID for the fact. For example, 1 or 2.
    */
   public int getFactId(String key) {
-    synchronized (LOCK) {
-      return keys.get(key);
-    }
+    return keys.get(key);
   }
 
   /**
@@ -73,10 +72,8 @@ public class FactTable {
    * @return The fact. For example, 'Male' or 'Female'.
    */
   public String getFactByKey(String key) {
-    synchronized (LOCK) {
-      Integer id = keys.get(key);
-      return facts.get(id);
-    }
+    Integer id = keys.get(key);
+    return id == null ? null : facts.get(id);
   }
 
   /**
@@ -85,53 +82,51 @@ public class FactTable {
    * @return The fact. For example, 'Male' or 'Female'.
    */
   public String getFactById(Integer id) {
-    synchronized (LOCK) {
-      return facts.get(id);
-    }
+    return id == null ? null : facts.get(id);
   }
 
   /**
    * Adds a new key/fact combination to the table
    * and returns the ID. If the key already exists,
    * the appropriate ID is returned without modifying
-   * the table.
+   * the table. A null fact is stored as an empty string.
    *
    * @param key The key for a fact. For example, 'M' or 'F'.
    * @param fact The fact. For example, 'Male' or 'Female'.
    * @return The ID for the fact. For example, 1 or 2.
    */
   public int addFact(String key, String fact) {
-    synchronized (LOCK) {
-      if (keys.containsKey(key)) {
-        return keys.get(key);
+    Integer existing = keys.get(key);
+    if (existing != null) {
+      return existing;
+    }
+    synchronized (this) {
+      existing = keys.get(key);
+      if (existing != null) {
+        return existing;
       }
-
-      int next = id.getAndIncrement();
+      int next = id++;
+      // add the fact first, so that anyone who finds the key can also find the fact
+      facts.put(next, fact == null ? "" : fact);
       keys.put(key, next);
-      facts.put(next, fact);
       return next;
     }
   }
 
   /**
-   * Write the contents of the FactTable to a file.
+   * Write the contents of the FactTable to a file, in ID order.
    * @param writer The open Writer to use to record the FactTable.
    * @throws IOException On errors.
    */
-  public void write(Writer writer) throws IOException {
-    synchronized (LOCK) {
-      writer.write(header);
+  public synchronized void write(Writer writer) throws IOException {
+    writer.write(header);
+    writer.write(NEWLINE);
+    for (Map.Entry<Integer,String> fact : facts.entrySet()) {
+      writer.write(fact.getKey().toString());
+      writer.write(',');
+      writer.write(fact.getValue());
       writer.write(NEWLINE);
-      for (Integer key : facts.keySet()) {
-        writer.write(key.toString());
-        writer.write(',');
-        String fact = facts.get(key);
-        if (fact != null) {
-          writer.write(facts.get(key));
-        }
-        writer.write(NEWLINE);
-      }
-      writer.flush();
     }
+    writer.flush();
   }
 }
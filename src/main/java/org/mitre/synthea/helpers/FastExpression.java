@@ -0,0 +1,596 @@
+package org.mitre.synthea.helpers;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.math.RoundingMode;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A compiled form of the arithmetic and boolean subset of "CQL-lite" expressions,
+ * which evaluates on primitive doubles instead of running the CQL engine.
+ *
+ * <p>Supported: Integer and Decimal literals, true and false, Decimal and Boolean
+ * parameters, parentheses, unary + and -, * / + -, comparisons (&lt; &lt;= &gt; &gt;= = !=),
+ * not, and, or, and if-then-else. Anything else (functions, lists, strings, quantities,
+ * multiple statements, ...) is not compiled, and ExpressionProcessor uses CQL instead.
+ *
+ * <p>Results have the same types CQL would produce: Integer, BigDecimal, or Boolean.
+ * Like the CQL engine, the result of each Decimal operation keeps at most 8 decimal places.
+ * Where CQL would produce null (division by zero), or an Integer result leaves the range of
+ * a Java int (which the CQL engine wraps around), evaluation throws NullResult so the caller
+ * can fall back to CQL, which also takes care of CQL's three-valued logic.
+ */
+class FastExpression {
+  /** CQL types supported by the compiled form. */
+  enum Type {
+    INTEGER, DECIMAL, BOOLEAN
+  }
+
+  /**
+   * Thrown during evaluation when the CQL result would be null, or would overflow an Integer.
+   */
+  static class NullResult extends RuntimeException {
+    private static final long serialVersionUID = 5083569232461728214L;
+
+    private NullResult() {
+      super("CQL null result", null, false, false);
+    }
+  }
+
+  private static final NullResult NULL_RESULT = new NullResult();
+
+  /** Maximum number of decimal places the CQL engine keeps in a Decimal. */
+  private static final int CQL_SCALE = 8;
+  /** Significant digits of a double result that are kept, dropping binary rounding error. */
+  private static final MathContext DOUBLE_PRECISION = new MathContext(15);
+
+  private final Node root;
+  private final Type[] paramTypes;
+
+  private FastExpression(Node root, Type[] paramTypes) {
+    this.root = root;
+    this.paramTypes = paramTypes;
+  }
+
+  /**
+   * Get the type of a parameter.
+   * @param index Index of the parameter.
+   * @return the parameter type
+   */
+  Type getParamType(int index) {
+    return paramTypes[index];
+  }
+
+  /**
+   * Get the type of the result of this expression.
+   * @return the result type
+   */
+  Type getType() {
+    return root.type;
+  }
+
+  /**
+   * Evaluate the expression.
+   * @param args Parameter values, in the order of the parameter names given to compile().
+   *     Booleans are 1.0 for true and 0.0 for false.
+   * @return the result as an Integer, BigDecimal, or Boolean
+   * @throws NullResult when CQL would return null
+   */
+  Object evaluate(double[] args) {
+    double value = root.evaluate(args);
+    switch (root.type) {
+      case INTEGER:
+        return (int) value;
+      case BOOLEAN:
+        return value != 0.0;
+      default:
+        return toCqlDecimal(value);
+    }
+  }
+
+  /**
+   * Convert the result of a Decimal operation to the value the CQL engine would produce,
+   * which truncates towards negative infinity after 8 decimal places (e.g. 1/3 is 0.33333333).
+   * The double is first rounded to 15 significant digits, so that e.g. 0.1 + 0.2 is 0.3.
+   * @param value Result of the double arithmetic.
+   * @return the CQL Decimal
+   */
+  static BigDecimal toCqlDecimal(double value) {
+    BigDecimal decimal = BigDecimal.valueOf(value).round(DOUBLE_PRECISION);
+    if (decimal.scale() > CQL_SCALE) {
+      decimal = decimal.setScale(CQL_SCALE, RoundingMode.FLOOR);
+    }
+    return decimal;
+  }
+
+  /**
+   * Check that the result of an Integer operation fits in a Java int. The CQL engine wraps
+   * Integer arithmetic around as Java does, which the double arithmetic does not, so an
+   * overflowing result is left to CQL.
+   * @param type Type of the operation.
+   * @param value Result of the operation.
+   * @return the value
+   * @throws NullResult if an Integer result is out of range
+   */
+  private static double checkInteger(Type type, double value) {
+    if (type == Type.INTEGER && (value > Integer.MAX_VALUE || value < Integer.MIN_VALUE)) {
+      throw NULL_RESULT;
+    }
+    return value;
+  }
+
+  /**
+   * Compile an expression, if it only uses the supported subset.
+   * @param expression Expression with parameters already replaced by their CQL names.
+   * @param paramNames CQL names of the parameters.
+   * @param paramTypes CQL types of the parameters, or null for an unsupported type.
+   * @return the compiled expression, or null if the expression is not supported
+   */
+  static FastExpression compile(String expression, String[] paramNames, Type[] paramTypes) {
+    try {
+      Parser parser = new Parser(tokenize(expression), paramNames, paramTypes);
+      Node root = parser.expression();
+      if (parser.position != parser.tokens.size()) {
+        return null;
+      }
+      return new FastExpression(root, paramTypes);
+    } catch (UnsupportedOperationException e) {
+      return null;
+    }
+  }
+
+  private static UnsupportedOperationException unsupported(String what) {
+    return new UnsupportedOperationException(what);
+  }
+
+  private static List<String> tokenize(String expression) {
+    List<String> tokens = new ArrayList<String>();
+    int i = 0;
+    while (i < expression.length()) {
+      char c = expression.charAt(i);
+      int start = i;
+      if (c == ' ' || c == '\t' || c == '\r') {
+        i++;
+        continue;
+      } else if (Character.isDigit(c)) {
+        while (i < expression.length() && Character.isDigit(expression.charAt(i))) {
+          i++;
+        }
+        if (i + 1 < expression.length() && expression.charAt(i) == '.'
+            && Character.isDigit(expression.charAt(i + 1))) {
+          i++;
+          while (i < expression.length() && Character.isDigit(expression.charAt(i))) {
+            i++;
+          }
+        }
+      } else if (Character.isLetter(c) || c == '_') {
+        while (i < expression.length() && (Character.isLetterOrDigit(expression.charAt(i))
+            || expression.charAt(i) == '_')) {
+          i++;
+        }
+      } else if ((c == '<' || c == '>' || c == '!') && i + 1 < expression.length()
+          && expression.charAt(i + 1) == '=') {
+        i += 2;
+      } else if ("+-*/()<>=".indexOf(c) >= 0) {
+        i++;
+      } else {
+        // strings, quoted identifiers, quantities, comments, new statements, etc.
+        throw unsupported(String.valueOf(c));
+      }
+      tokens.add(expression.substring(start, i));
+    }
+    return tokens;
+  }
+
+  /**
+   * Recursive descent parser, following CQL operator precedence.
+   */
+  private static class Parser {
+    private final List<String> tokens;
+    private final String[] paramNames;
+    private final Type[] paramTypes;
+    private int position;
+
+    private Parser(List<String> tokens, String[] paramNames, Type[] paramTypes) {
+      this.tokens = tokens;
+      this.paramNames = paramNames;
+      this.paramTypes = paramTypes;
+    }
+
+    private String peek() {
+      return position < tokens.size() ? tokens.get(position) : null;
+    }
+
+    private boolean accept(String token) {
+      if (token.equals(peek())) {
+        position++;
+        return true;
+      }
+      return false;
+    }
+
+    private void expect(String token) {
+      if (!accept(token)) {
+        throw unsupported(token);
+      }
+    }
+
+    private Node expression() {
+      Node left = and();
+      while (accept("or")) {
+        left = new Or(left, and());
+      }
+      return left;
+    }
+
+    private Node and() {
+      Node left = equality();
+      while (accept("and")) {
+        left = new And(left, equality());
+      }
+      return left;
+    }
+
+    private Node equality() {
+      Node left = inequality();
+      while (true) {
+        if (accept("=")) {
+          left = new Compare(Compare.EQ, left, inequality());
+        } else if (accept("!=")) {
+          left = new Compare(Compare.NE, left, inequality());
+        } else {
+          return left;
+        }
+      }
+    }
+
+    private Node inequality() {
+      Node left = not();
+      while (true) {
+        if (accept("<")) {
+          left = new Compare(Compare.LT, left, not());
+        } else if (accept("<=")) {
+          left = new Compare(Compare.LE, left, not());
+        } else if (accept(">")) {
+          left = new Compare(Compare.GT, left, not());
+        } else if (accept(">=")) {
+          left = new Compare(Compare.GE, left, not());
+        } else {
+          return left;
+        }
+      }
+    }
+
+    private Node not() {
+      if (accept("not")) {
+        return new Not(not());
+      }
+      return additive();
+    }
+
+    private Node additive() {
+      Node left = multiplicative();
+      while (true) {
+        if (accept("+")) {
+          left = new Arithmetic('+', left, multiplicative());
+        } else if (accept("-")) {
+          left = new Arithmetic('-', left, multiplicative());
+        } else {
+          return left;
+        }
+      }
+    }
+
+    private Node multiplicative() {
+      Node left = unary();
+      while (true) {
+        if (accept("*")) {
+          left = new Arithmetic('*', left, unary());
+        } else if (accept("/")) {
+          left = new Arithmetic('/', left, unary());
+        } else {
+          return left;
+        }
+      }
+    }
+
+    private Node unary() {
+      if (accept("-")) {
+        return new Negate(unary());
+      } else if (accept("+")) {
+        Node operand = unary();
+        requireNumber(operand);
+        return operand;
+      }
+      return primary();
+    }
+
+    private Node primary() {
+      String token = peek();
+      if (token == null) {
+        throw unsupported("end of expression");
+      }
+      position++;
+      if (token.equals("(")) {
+        Node inner = expression();
+        expect(")");
+        return inner;
+      } else if (token.equals("if")) {
+        Node condition = expression();
+        expect("then");
+        Node then = expression();
+        expect("else");
+        return new If(condition, then, expression());
+      } else if (token.equals("true")) {
+        return new Constant(Type.BOOLEAN, 1.0);
+      } else if (token.equals("false")) {
+        return new Constant(Type.BOOLEAN, 0.0);
+      } else if (Character.isDigit(token.charAt(0))) {
+        if (token.indexOf('.') >= 0) {
+          return new Constant(Type.DECIMAL, Double.parseDouble(token));
+        }
+        long value = Long.parseLong(token);
+        if (value > Integer.MAX_VALUE) {
+          throw unsupported(token);
+        }
+        return new Constant(Type.INTEGER, value);
+      }
+      for (int i = 0; i < paramNames.length; i++) {
+        if (paramNames[i].equals(token)) {
+          if (paramTypes[i] == null) {
+            throw unsupported(token);
+          }
+          return new Parameter(paramTypes[i], i);
+        }
+      }
+      // functions, keywords, identifiers that are not parameters
+      throw unsupported(token);
+    }
+  }
+
+  private static void requireNumber(Node node) {
+    if (node.type == Type.BOOLEAN) {
+      throw unsupported("boolean operand");
+    }
+  }
+
+  private static void requireBoolean(Node node) {
+    if (node.type != Type.BOOLEAN) {
+      throw unsupported("numeric operand");
+    }
+  }
+
+  private abstract static class Node {
+    final Type type;
+
+    Node(Type type) {
+      this.type = type;
+    }
+
+    abstract double evaluate(double[] args);
+  }
+
+  private static class Constant extends Node {
+    private final double value;
+
+    Constant(Type type, double value) {
+      super(type);
+      this.value = value;
+    }
+
+    @Override
+    double evaluate(double[] args) {
+      return value;
+    }
+  }
+
+  private static class Parameter extends Node {
+    private final int index;
+
+    Parameter(Type type, int index) {
+      super(type);
+      this.index = index;
+    }
+
+    @Override
+    double evaluate(double[] args) {
+      return args[index];
+    }
+  }
+
+  private static class Negate extends Node {
+    private final Node operand;
+
+    Negate(Node operand) {
+      super(operand.type);
+      requireNumber(operand);
+      this.operand = operand;
+    }
+
+    @Override
+    double evaluate(double[] args) {
+      return checkInteger(type, -operand.evaluate(args));
+    }
+  }
+
+  private static class Arithmetic extends Node {
+    private final char operator;
+    private final Node left;
+    private final Node right;
+
+    Arithmetic(char operator, Node left, Node right) {
+      // Integer arithmetic stays Integer, except division which is always Decimal
+      super((operator != '/' && left.type == Type.INTEGER && right.type == Type.INTEGER)
+          ? Type.INTEGER : Type.DECIMAL);
+      requireNumber(left);
+      requireNumber(right);
+      this.operator = operator;
+      this.left = left;
+      this.right = right;
+    }
+
+    @Override
+    double evaluate(double[] args) {
+      double l = left.evaluate(args);
+      double r = right.evaluate(args);
+      double result;
+      switch (operator) {
+        case '+':
+          result = l + r;
+          break;
+        case '-':
+          result = l - r;
+          break;
+        case '*':
+          result = l * r;
+          break;
+        default:
+          if (r == 0.0) {
+            throw NULL_RESULT;
+          }
+          result = l / r;
+          break;
+      }
+      // round every intermediate Decimal as CQL does, so that e.g. 3.0 / 7 * 3 matches
+      return (type == Type.DECIMAL) ? toCqlDecimal(result).doubleValue()
+          : checkInteger(type, result);
+    }
+  }
+
+  private static class Compare extends Node {
+    private static final int EQ = 0;
+    private static final int NE = 1;
+    private static final int LT = 2;
+    private static final int LE = 3;
+    private static final int GT = 4;
+    private static final int GE = 5;
+
+    private final int operator;
+    private final Node left;
+    private final Node right;
+
+    Compare(int operator, Node left, Node right) {
+      super(Type.BOOLEAN);
+      if (operator == EQ || operator == NE) {
+        if ((left.type == Type.BOOLEAN) != (right.type == Type.BOOLEAN)) {
+          throw unsupported("mixed comparison");
+        }
+      } else {
+        requireNumber(left);
+        requireNumber(right);
+      }
+      this.operator = operator;
+      this.left = left;
+      this.right = right;
+    }
+
+    @Override
+    double evaluate(double[] args) {
+      double l = left.evaluate(args);
+      double r = right.evaluate(args);
+      boolean result;
+      switch (operator) {
+        case EQ:
+          result = l == r;
+          break;
+        case NE:
+          result = l != r;
+          break;
+        case LT:
+          result = l < r;
+          break;
+        case LE:
+          result = l <= r;
+          break;
+        case GT:
+          result = l > r;
+          break;
+        default:
+          result = l >= r;
+          break;
+      }
+      return result ? 1.0 : 0.0;
+    }
+  }
+
+  private static class Not extends Node {
+    private final Node operand;
+
+    Not(Node operand) {
+      super(Type.BOOLEAN);
+      requireBoolean(operand);
+      this.operand = operand;
+    }
+
+    @Override
+    double evaluate(double[] args) {
+      return operand.evaluate(args) != 0.0 ? 0.0 : 1.0;
+    }
+  }
+
+  private static class And extends Node {
+    private final Node left;
+    private final Node right;
+
+    And(Node left, Node right) {
+      super(Type.BOOLEAN);
+      requireBoolean(left);
+      requireBoolean(right);
+      this.left = left;
+      this.right = right;
+    }
+
+    @Override
+    double evaluate(double[] args) {
+      return (left.evaluate(args) != 0.0 && right.evaluate(args) != 0.0) ? 1.0 : 0.0;
+    }
+  }
+
+  private static class Or extends Node {
+    private final Node left;
+    private final Node right;
+
+    Or(Node left, Node right) {
+      super(Type.BOOLEAN);
+      requireBoolean(left);
+      requireBoolean(right);
+      this.left = left;
+      this.right = right;
+    }
+
+    @Override
+    double evaluate(double[] args) {
+      return (left.evaluate(args) != 0.0 || right.evaluate(args) != 0.0) ? 1.0 : 0.0;
+    }
+  }
+
+  private static class If extends Node {
+    private final Node condition;
+    private final Node then;
+    private final Node otherwise;
+
+    If(Node condition, Node then, Node otherwise) {
+      super(resultType(then, otherwise));
+      requireBoolean(condition);
+      this.condition = condition;
+      this.then = then;
+      this.otherwise = otherwise;
+    }
+
+    private static Type resultType(Node then, Node otherwise) {
+      if (then.type == otherwise.type) {
+        return then.type;
+      } else if (then.type == Type.BOOLEAN || otherwise.type == Type.BOOLEAN) {
+        throw unsupported("mixed if");
+      }
+      // Integer and Decimal branches are both converted to Decimal
+      return Type.DECIMAL;
+    }
+
+    @Override
+    double evaluate(double[] args) {
+      return condition.evaluate(args) != 0.0 ? then.evaluate(args) : otherwise.evaluate(args);
+    }
+  }
+}
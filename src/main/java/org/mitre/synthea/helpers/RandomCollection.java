@@ -1,18 +1,20 @@
 package org.mitre.synthea.helpers;
 
 import java.io.Serializable;
-import java.util.Map.Entry;
-import java.util.NavigableMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Random;
-import java.util.TreeMap;
 
 /**
  * Random collection of objects, with weightings. Intended to be an equivalent to the ruby Pickup
- * gem. Adapted from https://stackoverflow.com/a/6409791/630384
+ * gem. Items are drawn with an AliasSampler, which is built on the first draw after an item
+ * is added, so draws take constant time however many items there are.
  */
 public class RandomCollection<E> implements Serializable {
-  private final NavigableMap<Double, E> map = new TreeMap<Double, E>();
-  private double total = 0;
+  private final List<E> items = new ArrayList<E>();
+  private double[] weights = new double[8];
+  private transient volatile AliasSampler<E> sampler;
 
   /**
    * Add an object (result) to the collection with a given weight.
@@ -25,8 +27,12 @@ public class RandomCollection<E> implements Serializable {
     if (weight <= 0) {
       return;
     }
-    total += weight;
-    map.put(total, result);
+    if (items.size() == weights.length) {
+      weights = Arrays.copyOf(weights, weights.length * 2);
+    }
+    weights[items.size()] = weight;
+    items.add(result);
+    sampler = null;
   }
 
   /**
@@ -38,7 +44,7 @@ public class RandomCollection<E> implements Serializable {
    * @return a random item from the collection weighted by the item weights.
    */
   public E next(Random random) {
-    return next(random.nextDouble() * total);
+    return sampler().pick(random.nextDouble());
   }
 
   /**
@@ -50,14 +56,19 @@ public class RandomCollection<E> implements Serializable {
    * @return a random item from the collection weighted by the item weights.
    */
   public E next(RandomNumberGenerator random) {
-    return next(random.rand() * total);
+    return sampler().pick(random.rand());
   }
 
-  private E next(double value) {
-    Entry<Double, E> entry = map.higherEntry(value);
-    if (entry == null) {
-      entry = map.lastEntry();
+  /**
+   * Get the sampler for the items added so far. Collections are shared between threads
+   * once they are loaded, and any thread may build the sampler; they all build the same one.
+   */
+  private AliasSampler<E> sampler() {
+    AliasSampler<E> current = sampler;
+    if (current == null) {
+      current = new AliasSampler<E>(items, Arrays.copyOf(weights, items.size()));
+      sampler = current;
     }
-    return entry.getValue();
+    return current;
   }
 }
@@ -7,8 +7,10 @@ import com.google.common.collect.Tables;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
@@ -58,27 +60,25 @@ public class TransitionMetrics {
         continue;
       }
 
-      // count basic "counter" stats for this state
-      history.forEach(s -> countStateStats(s, getMetric(m.name, s.name), simulationEnd));
-
-      // count this person only once for each distinct state they hit
-      history.stream().map(s -> s.name).distinct()
-          .forEach(sName -> getMetric(m.name, sName).population.incrementAndGet());
-
-      getMetric(m.name, history.get(0).name).current.incrementAndGet();
-
-      // loop over the states backward (0 = current, n = initial)
-      // and track from->to stats in pair
-      if (history.size() >= 2) {
-        for (int fromIndex = history.size() - 1; fromIndex > 0; fromIndex--) {
-          int toIndex = fromIndex - 1;
-
-          State from = history.get(fromIndex);
-          State to = history.get(toIndex);
-
-          getMetric(m.name, from.name).incrementDestination(to.name);
+      // read the history once (0 = current, n = initial), since a ModuleHistory
+      // creates a copy of most states as they are read
+      Set<String> distinctStates = new HashSet<String>();
+      State to = null;
+      for (State state : history) {
+        // count basic "counter" stats for this state
+        countStateStats(state, getMetric(m.name, state.name), simulationEnd);
+        distinctStates.add(state.name);
+        if (to == null) {
+          getMetric(m.name, state.name).current.incrementAndGet();
+        } else {
+          // track from->to stats in pair
+          getMetric(m.name, state.name).incrementDestination(to.name);
         }
+        to = state;
       }
+
+      // count this person only once for each distinct state they hit
+      distinctStates.forEach(sName -> getMetric(m.name, sName).population.incrementAndGet());
     }
   }
 
@@ -101,6 +101,9 @@ public class Utilities {
    * Get the year of a Unix timestamp.
    */
   public static int getYear(long time) {
+    if (DateMath.isSupported(time)) {
+      return DateMath.year(DateMath.toDate(Math.floorDiv(time, DateMath.DAY_MILLIS)));
+    }
     Calendar calendar = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
     calendar.setTimeInMillis(time);
     return calendar.get(Calendar.YEAR);
@@ -110,6 +113,9 @@ public class Utilities {
    * Get the month of a Unix timestamp.
    */
   public static int getMonth(long time) {
+    if (DateMath.isSupported(time)) {
+      return DateMath.month(DateMath.toDate(Math.floorDiv(time, DateMath.DAY_MILLIS)));
+    }
     Calendar calendar = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
     calendar.setTimeInMillis(time);
     return calendar.get(Calendar.MONTH) + 1;
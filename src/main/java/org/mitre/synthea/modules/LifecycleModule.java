@@ -357,7 +357,7 @@ public final class LifecycleModule extends Module {
     int age = person.ageInYears(time);
     int ageInMonths = 0; // we only need this if they are less than 20 years old.
 
-    double height = person.getVitalSign(VitalSign.HEIGHT, time);
+    double height = person.getVitalSignValue(VitalSign.HEIGHT, time);
 
     if (age < 20) {
       height = childHeightGrowth(person, time);
@@ -390,20 +390,20 @@ public final class LifecycleModule extends Module {
     String gender = (String) person.attributes.get(Person.GENDER);
     int ageInMonths = person.ageInMonths(time);
     return lookupGrowthChart("height", gender, ageInMonths,
-        person.getVitalSign(VitalSign.HEIGHT_PERCENTILE, time));
+        person.getVitalSignValue(VitalSign.HEIGHT_PERCENTILE, time));
   }
 
   private static double childHeadCircumference(Person person, long time) {
     String gender = (String) person.attributes.get(Person.GENDER);
     int ageInMonths = person.ageInMonths(time);
     return lookupGrowthChart("head", gender, ageInMonths,
-        person.getVitalSign(VitalSign.HEIGHT_PERCENTILE, time));
+        person.getVitalSignValue(VitalSign.HEIGHT_PERCENTILE, time));
   }
 
   private static double adjustWeight(Person person, long time) {
-    double weight = person.getVitalSign(VitalSign.WEIGHT, time);
+    double weight = person.getVitalSignValue(VitalSign.WEIGHT, time);
     String gender = (String) person.attributes.get(Person.GENDER);
-    double heightPercentile = person.getVitalSign(VitalSign.HEIGHT_PERCENTILE, time);
+    double heightPercentile = person.getVitalSignValue(VitalSign.HEIGHT_PERCENTILE, time);
     PediatricGrowthTrajectory pgt =
         (PediatricGrowthTrajectory) person.attributes.get(Person.GROWTH_TRAJECTORY);
     int age = person.ageInYears(time);
@@ -411,7 +411,7 @@ public final class LifecycleModule extends Module {
     if (age < 3 && pgt.beforeInitialSample(time)) {
       // follow growth charts
       weight = lookupGrowthChart("weight", gender, ageInMonths,
-          person.getVitalSign(VitalSign.WEIGHT_PERCENTILE, time));
+          person.getVitalSignValue(VitalSign.WEIGHT_PERCENTILE, time));
     } else if (age < 20) {
       double currentBMI = pgt.currentBMI(person, time);
       double height = growthChart.get(GrowthChart.ChartType.HEIGHT).lookUp(ageInMonths,
@@ -488,8 +488,8 @@ public final class LifecycleModule extends Module {
    */
   public static void setCurrentWeightForLengthPercentile(Person person, long time) {
     if (person.ageInMonths(time) <= 36) {
-      double height = person.getVitalSign(VitalSign.HEIGHT, time);
-      double weight = person.getVitalSign(VitalSign.WEIGHT, time);
+      double height = person.getVitalSignValue(VitalSign.HEIGHT, time);
+      double weight = person.getVitalSignValue(VitalSign.WEIGHT, time);
       String gender = (String) person.attributes.get(Person.GENDER);
       LinkedHashMap<String, String> entry = null;
       for (LinkedHashMap<String, String> row : weightForLengthChart) {
@@ -624,7 +624,7 @@ public final class LifecycleModule extends Module {
     person.setVitalSign(VitalSign.HDL, hdl);
     person.setVitalSign(VitalSign.LDL, ldl);
 
-    double bmi = person.getVitalSign(VitalSign.BMI, time);
+    double bmi = person.getVitalSignValue(VitalSign.BMI, time);
     boolean prediabetes = (boolean)person.attributes.getOrDefault("prediabetes", false);
     boolean diabetes = (boolean)person.attributes.getOrDefault("diabetes", false);
     double hbA1c = estimateHbA1c(bmi, prediabetes, diabetes, person);
@@ -761,7 +761,7 @@ public final class LifecycleModule extends Module {
     try {
       int age = person.ageInYears(time);
       boolean female = "F".equals(person.attributes.get(Person.GENDER));
-      double weight = person.getVitalSign(VitalSign.WEIGHT, time); // kg
+      double weight = person.getVitalSignValue(VitalSign.WEIGHT, time); // kg
       crcl = Math.max(1, Math.min(crcl, 100)); // clamp between 1-100
       double creatinine = ((140.0 - age) * weight) / (72.0 * crcl);
       if (female) {
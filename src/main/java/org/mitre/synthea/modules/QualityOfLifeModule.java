@@ -14,6 +14,7 @@ import org.mitre.synthea.helpers.Attributes.Inventory;
 import org.mitre.synthea.helpers.SimpleCSV;
 import org.mitre.synthea.helpers.Utilities;
 import org.mitre.synthea.world.agents.Person;
+import org.mitre.synthea.world.concepts.HealthRecord;
 import org.mitre.synthea.world.concepts.HealthRecord.Encounter;
 import org.mitre.synthea.world.concepts.HealthRecord.Entry;
 
@@ -58,7 +59,10 @@ public class QualityOfLifeModule extends Module {
 
     if (!qalys.containsKey(year)) {
 
-      double[] values = calculate(person, time);
+      if (person.qualityOfLife == null) {
+        person.qualityOfLife = new Accumulator();
+      }
+      double[] values = person.qualityOfLife.update(person, time);
 
       dalys.put(year, values[0]);
       qalys.put(year, values[1]);
@@ -103,100 +107,7 @@ public class QualityOfLifeModule extends Module {
    *         weight]
    */
   public static double[] calculate(Person person, long stop) {
-    // Disability-Adjusted Life Year = DALY = YLL + YLD
-    // Years of Life Lost = YLL = (1) * (standard life expectancy at age of death in
-    // years)
-    // Years Lost due to Disability = YLD = (disability weight) * (average duration
-    // of case)
-    // from http://www.who.int/healthinfo/global_burden_disease/metrics_daly/en/
-    double yll = 0.0;
-    double yld = 0.0;
-
-    int age = person.ageInYears(stop);
-    long birthdate = (long) person.attributes.get(Person.BIRTHDATE);
-
-    if (!person.alive(stop)) {
-      // life expectancy equation derived from IHME GBD 2015 Reference Life Table
-      // 6E-5x^3 - 0.0054x^2 - 0.8502x + 86.16
-      // R^2 = 0.99978
-      double l = ((0.00006 * Math.pow(age, 3))
-          - (0.0054 * Math.pow(age, 2)) - (0.8502 * age) + 86.16);
-      yll = l;
-    }
-
-    // Get counts of covered healthcare.
-    List<Entry> allConditions = new ArrayList<Entry>();
-    int coveredMedicationCount = 0;
-    int coveredProcedureCount = 0;
-    int coveredImmunizationCount = 0;
-    int coveredEncounterCount = 0;
-    for (Encounter encounter : person.defaultRecord.encounters) {
-      for (Entry condition : encounter.conditions) {
-        allConditions.add(condition);
-      }
-      coveredMedicationCount += encounter.medications.size();
-      coveredProcedureCount += encounter.procedures.size();
-      coveredImmunizationCount += encounter.immunizations.size();
-      coveredEncounterCount++;
-    }
-    int coveredEntries = coveredEncounterCount + coveredMedicationCount
-        + coveredProcedureCount + coveredImmunizationCount;
-
-    // Get counts of uncovered healthcare.
-    int uncoveredEntries;
-    if (person.lossOfCareEnabled) {
-      List<Entry> allLossOfCareConditions = new ArrayList<Entry>();
-      int uncoveredMedicationCount = 0;
-      int uncoveredProcedureCount = 0;
-      int uncoveredImmunizationCount = 0;
-      int uncoveredEncounterCount = 0;
-      for (Encounter encounter : person.lossOfCareRecord.encounters) {
-        for (Entry condition : encounter.conditions) {
-          allLossOfCareConditions.add(condition);
-        }
-        uncoveredMedicationCount += encounter.medications.size();
-        uncoveredProcedureCount += encounter.procedures.size();
-        uncoveredImmunizationCount += encounter.immunizations.size();
-        uncoveredEncounterCount++;
-      }
-      uncoveredEntries = uncoveredEncounterCount + uncoveredMedicationCount
-          + uncoveredProcedureCount + uncoveredImmunizationCount;
-      allConditions.addAll(allLossOfCareConditions);
-    } else {
-      uncoveredEntries = 0;
-    }
-
-    // Determine the percentage of covered care.
-    // NOTE: This percentageOfCoveredCare is based on entire life, not just current year.
-    if (coveredEntries < 1) {
-      coveredEntries = 1;
-    }
-    double percentageOfCoveredCare = coveredEntries / (coveredEntries + uncoveredEntries);
-
-    double disabilityWeight = 0.0;
-    // calculate yld with yearly timestep
-    for (int i = 0; i < age + 1; i++) {
-      long yearStart = birthdate + TimeUnit.DAYS.toMillis((long) (365.25 * i));
-      long yearEnd = birthdate + (TimeUnit.DAYS.toMillis((long) (365.25 * (i + 1) - 1)));
-      List<Entry> conditionsInYear = conditionsInYear(allConditions, yearStart, yearEnd);
-
-      disabilityWeight = 0.0;
-
-      for (Entry condition : conditionsInYear) {
-        // Get the disability weight for this condition based on the percentageOfCoveredCare.
-        disabilityWeight +=
-            (double) disabilityWeights.get(condition.codes.get(0).code)
-            .getWeight(percentageOfCoveredCare);
-      }
-
-      disabilityWeight = Math.min(1.0, weight(disabilityWeight, i + 1));
-      yld += disabilityWeight;
-    }
-
-    double daly = yll + yld;
-    double qaly = age - yld;
-
-    return new double[] { daly, qaly, 1 - disabilityWeight };
+    return new Accumulator().update(person, stop);
   }
 
   /**
@@ -221,6 +132,186 @@ public class QualityOfLifeModule extends Module {
     return conditionsInYear;
   }
 
+  /**
+   * Get the unadjusted disability weight of a condition.
+   * @param condition The condition, which must have a disability weight.
+   * @param percentageOfCoveredCare The percentage of the person's care that was covered.
+   * @return The disability weight of the condition.
+   */
+  protected static double disabilityWeight(Entry condition, double percentageOfCoveredCare) {
+    return disabilityWeights.get(condition.codes.get(0).code).getWeight(percentageOfCoveredCare);
+  }
+
+  /**
+   * Running totals for calculating a person's HALYs year after year, so that each yearly
+   * update only looks at the conditions that are still active rather than at every
+   * condition in every year of life.
+   * <br/>
+   * The disability weights of each year depend on whether the person missed any care,
+   * which can change after the year is over. Note that the percentage of covered care is
+   * an integer division, so it is always either 1 (no care was missed) or 0, and totals
+   * are kept for both.
+   */
+  public static final class Accumulator {
+    private final ConditionSource defaultConditions = new ConditionSource();
+    private final ConditionSource lossOfCareConditions = new ConditionSource();
+    /** Number of years of life whose disability weights can no longer change. */
+    private int years;
+    /** Years lived with disability over those years, when all care was covered. */
+    private double coveredYld;
+    /** Years lived with disability over those years, when care was missed. */
+    private double uncoveredYld;
+    /** Disability weight of the last of those years, when all care was covered. */
+    private double coveredWeight;
+    /** Disability weight of the last of those years, when care was missed. */
+    private double uncoveredWeight;
+
+    /**
+     * Calculate the HALYs for the person, at the given time. The time must not be before
+     * the time of the last update, and conditions must start and end in the present.
+     *
+     * @param person Person to calculate
+     * @param stop   current timestamp
+     * @return array of [daly (cumulative), qaly (cumulative), current disability
+     *         weight]
+     */
+    public double[] update(Person person, long stop) {
+      // Disability-Adjusted Life Year = DALY = YLL + YLD
+      // Years of Life Lost = YLL = (1) * (standard life expectancy at age of death in
+      // years)
+      // Years Lost due to Disability = YLD = (disability weight) * (average duration
+      // of case)
+      // from http://www.who.int/healthinfo/global_burden_disease/metrics_daly/en/
+      double yll = 0.0;
+
+      int age = person.ageInYears(stop);
+      long birthdate = (long) person.attributes.get(Person.BIRTHDATE);
+
+      if (!person.alive(stop)) {
+        // life expectancy equation derived from IHME GBD 2015 Reference Life Table
+        // 6E-5x^3 - 0.0054x^2 - 0.8502x + 86.16
+        // R^2 = 0.99978
+        double l = ((0.00006 * Math.pow(age, 3))
+            - (0.0054 * Math.pow(age, 2)) - (0.8502 * age) + 86.16);
+        yll = l;
+      }
+
+      defaultConditions.scan(person.defaultRecord);
+      boolean careMissed = false;
+      if (person.lossOfCareEnabled) {
+        lossOfCareConditions.scan(person.lossOfCareRecord);
+        careMissed = !person.lossOfCareRecord.encounters.isEmpty();
+      }
+
+      // Years that started before now are final, since conditions start and end in the present.
+      while (years <= age && yearStart(birthdate, years) < stop) {
+        long yearStart = yearStart(birthdate, years);
+        coveredWeight = yearWeight(yearStart, years, false);
+        coveredYld += coveredWeight;
+        if (person.lossOfCareEnabled) {
+          uncoveredWeight = yearWeight(yearStart, years, true);
+          uncoveredYld += uncoveredWeight;
+        }
+        years++;
+        long nextYearStart = yearStart(birthdate, years);
+        defaultConditions.endBefore(nextYearStart);
+        lossOfCareConditions.endBefore(nextYearStart);
+      }
+
+      double yld = careMissed ? uncoveredYld : coveredYld;
+      double disabilityWeight = careMissed ? uncoveredWeight : coveredWeight;
+      for (int i = years; i < age + 1; i++) {
+        disabilityWeight = yearWeight(yearStart(birthdate, i), i, careMissed);
+        yld += disabilityWeight;
+      }
+
+      double daly = yll + yld;
+      double qaly = age - yld;
+
+      return new double[] { daly, qaly, 1 - disabilityWeight };
+    }
+
+    private static long yearStart(long birthdate, int year) {
+      return birthdate + TimeUnit.DAYS.toMillis((long) (365.25 * year));
+    }
+
+    /**
+     * The age-adjusted disability weight of a year of life.
+     */
+    private double yearWeight(long yearStart, int year, boolean careMissed) {
+      double disabilityWeight = defaultConditions.weightAt(yearStart, careMissed);
+      disabilityWeight += lossOfCareConditions.weightAt(yearStart, careMissed);
+      return Math.min(1.0, weight(disabilityWeight, year + 1));
+    }
+  }
+
+  /**
+   * The conditions with disability weights in a health record that have not yet ended,
+   * or ended too recently to leave out of the totals.
+   */
+  private static final class ConditionSource {
+    /** Position of the next condition to read from the record. */
+    private int encounterIndex;
+    private int conditionIndex;
+    /** The conditions, in record order. */
+    private final List<Entry> conditions = new ArrayList<Entry>();
+    private final List<DisabilityWeight> weights = new ArrayList<DisabilityWeight>();
+
+    /**
+     * Read the conditions added to the record since the last scan. New conditions are always
+     * added to the last encounter of the record.
+     */
+    private void scan(HealthRecord record) {
+      List<Encounter> encounters = record.encounters;
+      while (encounterIndex < encounters.size()) {
+        List<Entry> encounterConditions = encounters.get(encounterIndex).conditions;
+        while (conditionIndex < encounterConditions.size()) {
+          Entry condition = encounterConditions.get(conditionIndex++);
+          DisabilityWeight weight = condition.codes.isEmpty()
+              ? null : disabilityWeights.get(condition.codes.get(0).code);
+          if (weight != null) {
+            conditions.add(condition);
+            weights.add(weight);
+          }
+        }
+        if (encounterIndex == encounters.size() - 1) {
+          break;
+        }
+        encounterIndex++;
+        conditionIndex = 0;
+      }
+    }
+
+    /**
+     * Forget conditions that ended before the given time.
+     */
+    private void endBefore(long time) {
+      for (int i = conditions.size() - 1; i >= 0; i--) {
+        Entry condition = conditions.get(i);
+        if (condition.stop != 0 && condition.stop <= time) {
+          conditions.remove(i);
+          weights.remove(i);
+        }
+      }
+    }
+
+    /**
+     * Sum the disability weights of the conditions active at the given time.
+     */
+    private double weightAt(long time, boolean careMissed) {
+      double percentageOfCoveredCare = careMissed ? 0.0 : 1.0;
+      double disabilityWeight = 0.0;
+      for (int i = 0; i < conditions.size(); i++) {
+        Entry condition = conditions.get(i);
+        // condition.stop == 0 for conditions that have not yet ended
+        if (time >= condition.start && (condition.stop > time || condition.stop == 0)) {
+          disabilityWeight += weights.get(i).getWeight(percentageOfCoveredCare);
+        }
+      }
+      return disabilityWeight;
+    }
+  }
+
   /**
    * Calculates the age-adjusted disability weight for a single year.
    * @param disabilityWeight The unadjusted disability weight.
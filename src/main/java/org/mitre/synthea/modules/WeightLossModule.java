@@ -119,9 +119,9 @@ public final class WeightLossModule extends Module {
         weight = adultWeightLoss(person, time);
       } else {
         // Not following the plan. Just keep the weight steady
-        weight = person.getVitalSign(VitalSign.WEIGHT, time);
+        weight = person.getVitalSignValue(VitalSign.WEIGHT, time);
       }
-      double height = person.getVitalSign(VitalSign.HEIGHT, time);
+      double height = person.getVitalSignValue(VitalSign.HEIGHT, time);
       person.setVitalSign(VitalSign.WEIGHT, weight);
       person.setVitalSign(VitalSign.BMI, calculate(height, weight));
     }
@@ -154,10 +154,10 @@ public final class WeightLossModule extends Module {
           long start = (long) person.attributes.get(WEIGHT_MANAGEMENT_START);
           if (person.ageInYears(start) < 20) {
             height = growthChart.get(GrowthChart.ChartType.HEIGHT).lookUp(240, gender,
-                person.getVitalSign(VitalSign.HEIGHT_PERCENTILE, time));
+                person.getVitalSignValue(VitalSign.HEIGHT_PERCENTILE, time));
             weight = transitionRegression(person, time);
           } else {
-            height = person.getVitalSign(VitalSign.HEIGHT, time);
+            height = person.getVitalSignValue(VitalSign.HEIGHT, time);
             weight = adultRegression(person, time);
           }
           person.setVitalSign(VitalSign.HEIGHT, height);
@@ -273,7 +273,7 @@ public final class WeightLossModule extends Module {
     double originalPercentile = bmiChart.percentileFor(startAgeInMonths, gender, bmiAtStart);
     double bmiForPercentileAtTwenty = bmiChart.lookUp(240, gender, originalPercentile);
     double height = growthChart.get(GrowthChart.ChartType.HEIGHT).lookUp(240, gender,
-        person.getVitalSign(VitalSign.HEIGHT_PERCENTILE, time));
+        person.getVitalSignValue(VitalSign.HEIGHT_PERCENTILE, time));
     double targetWeight = BMI.weightForHeightAndBMI(height, bmiForPercentileAtTwenty);
     int ageTwenty = 20;
     int lossAndRegressionTotalYears = 7;
@@ -355,7 +355,7 @@ public final class WeightLossModule extends Module {
    * they will lose and whether they will keep it off long term.
    */
   public void startWeightManagement(Person person, long time) {
-    double startWeight = person.getVitalSign(VitalSign.WEIGHT, time);
+    double startWeight = person.getVitalSignValue(VitalSign.WEIGHT, time);
     person.attributes.put(ACTIVE_WEIGHT_MANAGEMENT, true);
     person.attributes.put(PRE_MANAGEMENT_WEIGHT, startWeight);
     person.attributes.put(WEIGHT_MANAGEMENT_START, time);
@@ -404,7 +404,7 @@ public final class WeightLossModule extends Module {
     if (age == 19) {
       return false;
     }
-    double bmi = person.getVitalSign(VitalSign.BMI, time);
+    double bmi = person.getVitalSignValue(VitalSign.BMI, time);
     double bmiAtPercentile = 500; // initializing to an impossibly high value
     // if we somehow hit this later
     if (age >= 2 && age < 20) {
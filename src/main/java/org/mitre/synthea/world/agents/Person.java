@@ -4,11 +4,10 @@ import java.awt.geom.Point2D;
 import java.io.Serializable;
 import java.math.BigDecimal;
 import java.math.RoundingMode;
-import java.time.Instant;
-import java.time.LocalDate;
 import java.time.Period;
 import java.time.ZoneId;
 import java.util.ArrayList;
+import java.util.EnumMap;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -21,9 +20,12 @@ import java.util.concurrent.ConcurrentHashMap;
 import org.mitre.synthea.engine.ExpressedConditionRecord;
 import org.mitre.synthea.engine.ExpressedSymptom;
 import org.mitre.synthea.engine.Module;
+import org.mitre.synthea.engine.ModuleHistory;
 import org.mitre.synthea.engine.State;
+import org.mitre.synthea.helpers.AttributeStore;
 import org.mitre.synthea.helpers.Config;
 import org.mitre.synthea.helpers.ConstantValueGenerator;
+import org.mitre.synthea.helpers.DateMath;
 import org.mitre.synthea.helpers.RandomNumberGenerator;
 import org.mitre.synthea.helpers.Utilities;
 import org.mitre.synthea.helpers.ValueGenerator;
@@ -99,6 +101,40 @@ public class Person implements Serializable, RandomNumberGenerator, QuadTreeElem
   public static final String VETERAN = "veteran";
   public static final String BLINDNESS = "blindness";
   private static final String LAST_MONTH_PAID = "last_month_paid";
+  private static final int LAST_MONTH_PAID_SLOT = AttributeStore.slot(LAST_MONTH_PAID);
+  /** Number of decimal places each vital sign is rounded to, by ordinal. */
+  private static final int[] VITAL_SIGN_DECIMAL_PLACES;
+  /** 10 to the power of the decimal places of each vital sign, by ordinal. */
+  private static final double[] VITAL_SIGN_SCALE;
+  /** Largest scaled value that is rounded with plain arithmetic. */
+  private static final double MAX_SCALED_VITAL_SIGN = 1e9;
+  /** How close to a tie a scaled value must be to be rounded as a BigDecimal. */
+  private static final double VITAL_SIGN_TIE_TOLERANCE = 1e-4;
+
+  static {
+    VitalSign[] vitalSigns = VitalSign.values();
+    VITAL_SIGN_DECIMAL_PLACES = new int[vitalSigns.length];
+    VITAL_SIGN_SCALE = new double[vitalSigns.length];
+    for (VitalSign vitalSign : vitalSigns) {
+      int decimalPlaces;
+      switch (vitalSign) {
+        case DIASTOLIC_BLOOD_PRESSURE:
+        case SYSTOLIC_BLOOD_PRESSURE:
+        case HEART_RATE:
+        case RESPIRATION_RATE:
+          decimalPlaces = 0;
+          break;
+        case HEIGHT:
+        case WEIGHT:
+          decimalPlaces = 1;
+          break;
+        default:
+          decimalPlaces = 2;
+      }
+      VITAL_SIGN_DECIMAL_PLACES[vitalSign.ordinal()] = decimalPlaces;
+      VITAL_SIGN_SCALE[vitalSign.ordinal()] = Math.pow(10, decimalPlaces);
+    }
+  }
 
   private final Random random;
   public final long seed;
@@ -111,7 +147,7 @@ public class Person implements Serializable, RandomNumberGenerator, QuadTreeElem
    * Tracks the remaining modules for a person over a serialize/deserialize.
    */
   public List<Module> currentModules;
-  public Map<String, Object> attributes;
+  public AttributeStore attributes;
   public Map<VitalSign, ValueGenerator> vitalSigns;
   /** Data structure for storing symptoms faced by a person.
    * Adding the Long keyset to keep track of the time a symptom is set. */
@@ -139,6 +175,12 @@ public class Person implements Serializable, RandomNumberGenerator, QuadTreeElem
   public List<State> history;
   /** Record of insurance coverage. */
   public CoverageRecord coverage;
+  /** Nearest providers to the current location of the person. */
+  transient ProviderIndex.Cache nearestProviders;
+  /** Running quality of life totals, rebuilt from the health record when missing. */
+  public transient QualityOfLifeModule.Accumulator qualityOfLife;
+  /** The most recently calculated age, see cachedAge. */
+  private transient volatile Age ageCache;
 
   /**
    * Person constructor.
@@ -146,8 +188,8 @@ public class Person implements Serializable, RandomNumberGenerator, QuadTreeElem
   public Person(long seed) {
     this.seed = seed;
     random = new Random(seed);
-    attributes = new ConcurrentHashMap<String, Object>();
-    vitalSigns = new ConcurrentHashMap<VitalSign, ValueGenerator>();
+    attributes = new AttributeStore();
+    vitalSigns = new EnumMap<VitalSign, ValueGenerator>(VitalSign.class);
     symptoms = new ConcurrentHashMap<String, ExpressedSymptom>();
     /* initialized the onsetConditions field */
     onsetConditionRecord = new ExpressedConditionRecord(this);
@@ -218,20 +260,62 @@ public class Person implements Serializable, RandomNumberGenerator, QuadTreeElem
   }
 
   /**
-   * Returns a person's age in Period form.
+   * A person's age at one time, as whole months and remaining days. Modules, transitions and
+   * exporters ask for the age many times in each timestep, so it is only calculated when the
+   * time or birthdate changes.
    */
-  public Period age(long time) {
-    Period age = Period.ZERO;
+  private static final class Age {
+    private final long time;
+    private final long birthdate;
+    /** The birthdate as a packed DateMath date. */
+    private final long birthDate;
+    private final int totalMonths;
+    private final int days;
+
+    private Age(long time, long birthdate, long birthDate) {
+      this.time = time;
+      this.birthdate = birthdate;
+      this.birthDate = birthDate;
+      long epochDay = DateMath.epochDay(time, timeZone);
+      long between = DateMath.between(birthDate, DateMath.toDate(epochDay), epochDay);
+      this.totalMonths = DateMath.totalMonths(between);
+      this.days = DateMath.days(between);
+    }
+  }
 
-    if (attributes.containsKey(BIRTHDATE)) {
-      LocalDate now = Instant.ofEpochMilli(time).atZone(timeZone).toLocalDate();
-      LocalDate birthdate = Instant.ofEpochMilli((long) attributes.get(BIRTHDATE))
-          .atZone(timeZone).toLocalDate();
-      age = Period.between(birthdate, now);
+  /**
+   * Get the person's age at the given time, reusing the last one calculated if possible.
+   * Exporters may ask for ages from several threads, so the cached age is immutable.
+   * @return the age, or null if the person has no birthdate.
+   */
+  private Age cachedAge(long time) {
+    Object birthdate = attributes.get(BIRTHDATE);
+    if (birthdate == null) {
+      return null;
+    }
+    long birth = (long) birthdate;
+    Age age = ageCache;
+    if (age != null && age.time == time && age.birthdate == birth) {
+      return age;
     }
+    long birthDate = (age != null && age.birthdate == birth) ? age.birthDate
+        : DateMath.toDate(DateMath.epochDay(birth, timeZone));
+    age = new Age(time, birth, birthDate);
+    ageCache = age;
     return age;
   }
 
+  /**
+   * Returns a person's age in Period form.
+   */
+  public Period age(long time) {
+    Age age = cachedAge(time);
+    if (age == null) {
+      return Period.ZERO;
+    }
+    return Period.of(age.totalMonths / 12, age.totalMonths % 12, age.days);
+  }
+
   /**
    * Returns a person's age in decimal years. (ex. 7.5 ~ 7 years 6 months old)
    *
@@ -239,10 +323,13 @@ public class Person implements Serializable, RandomNumberGenerator, QuadTreeElem
    * @return decimal age in years
    */
   public double ageInDecimalYears(long time) {
-    Period agePeriod = age(time);
+    Age age = cachedAge(time);
+    if (age == null) {
+      return 0;
+    }
 
-    double years = agePeriod.getYears() + agePeriod.getMonths() / 12.0
-        + agePeriod.getDays() / 365.2425;
+    double years = age.totalMonths / 12 + (age.totalMonths % 12) / 12.0
+        + age.days / 365.2425;
 
     if (years < 0) {
       years = 0;
@@ -259,7 +346,8 @@ public class Person implements Serializable, RandomNumberGenerator, QuadTreeElem
    *         before they were born.
    */
   public int ageInMonths(long time) {
-    int months = (int) age(time).toTotalMonths();
+    Age age = cachedAge(time);
+    int months = (age == null) ? 0 : age.totalMonths;
     if (months < 0) {
       months = 0;
     }
@@ -274,7 +362,8 @@ public class Person implements Serializable, RandomNumberGenerator, QuadTreeElem
    *         before they were born.
    */
   public int ageInYears(long time) {
-    int years = age(time).getYears();
+    Age age = cachedAge(time);
+    int years = (age == null) ? 0 : age.totalMonths / 12;
     if (years < 0) {
       years = 0;
     }
@@ -396,38 +485,46 @@ public class Person implements Serializable, RandomNumberGenerator, QuadTreeElem
 
   /**
    * Get a vital sign value.
+   * @see #getVitalSignValue(VitalSign, long)
    */
   public Double getVitalSign(VitalSign vitalSign, long time) {
+    return getVitalSignValue(vitalSign, time);
+  }
+
+  /**
+   * Get a vital sign value, rounded to the number of decimal places for that vital sign.
+   * The value is the same as rounding it HALF_UP as a BigDecimal, without allocating one
+   * unless the value is too close to a tie to be sure of the result.
+   */
+  public double getVitalSignValue(VitalSign vitalSign, long time) {
     ValueGenerator valueGenerator = vitalSigns.get(vitalSign);
     if (valueGenerator == null) {
       throw new NullPointerException(
           "Vital sign '" + vitalSign + "' not set. Valid vital signs: " + vitalSigns.keySet());
     }
     double value = valueGenerator.getValue(time);
-    int decimalPlaces;
-    switch (vitalSign) {
-      case DIASTOLIC_BLOOD_PRESSURE:
-      case SYSTOLIC_BLOOD_PRESSURE:
-      case HEART_RATE:
-      case RESPIRATION_RATE:
-        decimalPlaces = 0;
-        break;
-      case HEIGHT:
-      case WEIGHT:
-        decimalPlaces = 1;
-        break;
-      default:
-        decimalPlaces = 2;
-    }
-    Double retVal = value;
-    try {
-      retVal = BigDecimal.valueOf(value)
-              .setScale(decimalPlaces, RoundingMode.HALF_UP)
-              .doubleValue();
-    } catch (NumberFormatException e) {
-      // Ignore, value was NaN or infinity.
+    if (!Double.isFinite(value)) {
+      return value;
     }
-    return retVal;
+    double scale = VITAL_SIGN_SCALE[vitalSign.ordinal()];
+    double scaled = Math.abs(value) * scale;
+    double whole = Math.floor(scaled);
+    double fraction = scaled - whole;
+    if (scaled >= MAX_SCALED_VITAL_SIGN
+        || Math.abs(fraction - 0.5) < VITAL_SIGN_TIE_TOLERANCE) {
+      // leave ties, and values too large to scale exactly, to BigDecimal
+      return BigDecimal.valueOf(value)
+          .setScale(VITAL_SIGN_DECIMAL_PLACES[vitalSign.ordinal()], RoundingMode.HALF_UP)
+          .doubleValue();
+    }
+    double rounded = (fraction > 0.5) ? whole + 1 : whole;
+    if (rounded == 0) {
+      // BigDecimal has no negative zero
+      return 0.0;
+    }
+    // the rounded value and the scale are exact, so dividing gives the nearest double
+    // to the decimal result, just as BigDecimal.doubleValue() does
+    return Math.copySign(rounded / scale, value);
   }
 
   public void setVitalSign(VitalSign vitalSign, ValueGenerator valueGenerator) {
@@ -490,6 +587,9 @@ public class Person implements Serializable, RandomNumberGenerator, QuadTreeElem
     if (history == null) {
       return false;
     }
+    if (history instanceof ModuleHistory) {
+      return ((ModuleHistory) history).hadPriorState(name, since, within);
+    }
     for (State state : history) {
       if (within != null && state.exited != null && state.exited <= within) {
         return false;
@@ -763,12 +863,12 @@ public class Person implements Serializable, RandomNumberGenerator, QuadTreeElem
    */
   public void checkToPayMonthlyPremium(long time) {
 
-    if (!this.attributes.containsKey(Person.LAST_MONTH_PAID)) {
-      this.attributes.put(Person.LAST_MONTH_PAID, 0);
-    }
-
     int currentMonth = Utilities.getMonth(time);
-    int lastMonthPaid = (int) this.attributes.get(Person.LAST_MONTH_PAID);
+    int lastMonthPaid = (int) this.attributes.getDouble(LAST_MONTH_PAID_SLOT, -1);
+    if (lastMonthPaid < 0) {
+      lastMonthPaid = 0;
+      this.attributes.putInt(LAST_MONTH_PAID_SLOT, lastMonthPaid);
+    }
 
     if (currentMonth > lastMonthPaid || (currentMonth == 1 && lastMonthPaid == 12)) {
 
@@ -780,7 +880,7 @@ public class Person implements Serializable, RandomNumberGenerator, QuadTreeElem
       // Pay secondary insurance, if applicable
       plan.totalExpenses += (plan.secondaryPayer.payMonthlyPremium());
       // Update the last monthly premium paid.
-      this.attributes.put(Person.LAST_MONTH_PAID, currentMonth);
+      this.attributes.putInt(LAST_MONTH_PAID_SLOT, currentMonth);
       // Check if person has gone in debt. If yes, then they receive no insurance.
       this.stillHasIncome(time);
     }
@@ -58,6 +58,8 @@ public class Provider implements QuadTreeElement, Serializable {
   // ArrayList of all providers imported
   private static ArrayList<Provider> providerList = new ArrayList<Provider>();
   private static QuadTree providerMap = generateQuadTree();
+  /** Nearest provider index, rebuilt when first needed after providers are loaded. */
+  private static volatile ProviderIndex providerIndex;
   private static Set<String> statesLoaded = new HashSet<String>();
   private static int loaded = 0;
 
@@ -271,6 +273,16 @@ public class Provider implements QuadTreeElement, Serializable {
    * @return Service provider or null if none is available.
    */
   public static Provider findService(Person person, EncounterType service, long time) {
+    if (providerFinder instanceof ProviderFinderNearest) {
+      List<Provider> nearest = getProviderIndex().nearest(person, service, time);
+      if (nearest.isEmpty()) {
+        return null;
+      } else if (nearest.size() > 1) {
+        return nearest.get(person.randInt(nearest.size()));
+      } else {
+        return nearest.get(0);
+      }
+    }
     double maxDistance = MAX_PROVIDER_SEARCH_DISTANCE;
     double degrees = 0.125;
     List<Provider> options = null;
@@ -286,6 +298,32 @@ public class Provider implements QuadTreeElement, Serializable {
     return null;
   }
 
+  /**
+   * Get the nearest provider index over all loaded providers.
+   * @return the index.
+   */
+  private static ProviderIndex getProviderIndex() {
+    ProviderIndex index = providerIndex;
+    if (index == null) {
+      synchronized (Provider.class) {
+        index = providerIndex;
+        if (index == null) {
+          // the widest search findService would make, when widening the search area
+          double degrees = 0.125;
+          while (degrees * 2.0 <= MAX_PROVIDER_SEARCH_DISTANCE) {
+            degrees *= 2.0;
+          }
+          if (degrees > MAX_PROVIDER_SEARCH_DISTANCE) {
+            degrees = -1.0;
+          }
+          index = new ProviderIndex(new ArrayList<Provider>(providerList), degrees);
+          providerIndex = index;
+        }
+      }
+    }
+    return index;
+  }
+
   /**
    * Find a service around a given point.
    * @param person The patient who requires the service.
@@ -308,6 +346,7 @@ public class Provider implements QuadTreeElement, Serializable {
     providerList.clear();
     statesLoaded.clear();
     providerMap = generateQuadTree();
+    providerIndex = null;
     providerFinder = buildProviderFinder();
     loaded = 0;
   }
@@ -473,6 +512,7 @@ public class Provider implements QuadTreeElement, Serializable {
         }
 
         providerList.add(parsed);
+        providerIndex = null;
         boolean inserted = providerMap.insert(parsed);
         if (!inserted) {
           throw new RuntimeException("Provider QuadTree Full! Dropping # " + loaded + ": "
@@ -0,0 +1,128 @@
+package org.mitre.synthea.world.agents;
+
+import java.awt.geom.Point2D;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.mitre.synthea.world.agents.Provider.ProviderType;
+import org.mitre.synthea.world.concepts.HealthRecord.EncounterType;
+import org.mitre.synthea.world.geography.quadtree.KdTree;
+
+/**
+ * Nearest provider search for the "nearest" selection behavior. Providers are partitioned
+ * by the service they provide and by whether they are VA, IHS or other facilities, with a
+ * KdTree over each partition, so the nearest eligible provider is found directly instead
+ * of by repeatedly widening a QuadTree query.
+ * The results are the same as ProviderFinderNearest over the providers within the
+ * maximum search distance.
+ */
+final class ProviderIndex {
+  private static final int OTHER = 1;
+  private static final int VETERAN = 2;
+  private static final int IHS = 4;
+
+  private final List<Provider> providers;
+  private final double maxDistance;
+  /** Trees by service and the provider groups they contain, built when first needed. */
+  private final ConcurrentMap<Integer, KdTree<Provider>> trees =
+      new ConcurrentHashMap<Integer, KdTree<Provider>>();
+
+  /**
+   * Create an index over the given providers.
+   * @param providers All loaded providers.
+   * @param maxDistance Maximum distance to a provider, in degrees.
+   */
+  ProviderIndex(List<Provider> providers, double maxDistance) {
+    this.providers = providers;
+    this.maxDistance = maxDistance;
+  }
+
+  /**
+   * Find the nearest providers that accept the person and provide the service.
+   * Results are cached on the person until they move or the providers are reloaded.
+   * @param person The patient who requires the service.
+   * @param service The service required, or null for any service.
+   * @param time The date/time within the simulated world, in milliseconds.
+   * @return A non-null list of the providers at the nearest distance, in load order.
+   */
+  List<Provider> nearest(Person person, EncounterType service, long time) {
+    int groups = eligibleGroups(person, service);
+    int key = (service == null ? 0 : service.ordinal() + 1) * 8 + groups;
+
+    Point2D.Double location = person.getLonLat();
+    Cache cache = person.nearestProviders;
+    if (cache == null || cache.index != this
+        || cache.xcoord != location.getX() || cache.ycoord != location.getY()) {
+      cache = new Cache(this, location);
+      person.nearestProviders = cache;
+    }
+    List<Provider> nearest = cache.results.get(key);
+    if (nearest == null) {
+      KdTree<Provider> tree = trees.computeIfAbsent(key, k -> buildTree(service, groups));
+      nearest = tree.nearest(person, maxDistance, p -> p.accepts(person, time));
+      cache.results.put(key, nearest);
+    }
+    return nearest;
+  }
+
+  /**
+   * Which groups of providers the person may be sent to, following
+   * ProviderFinderNearest and Provider.accepts().
+   */
+  private static int eligibleGroups(Person person, EncounterType service) {
+    boolean veteran = person.attributes.containsKey(Person.VETERAN);
+    boolean nativeAmerican = "native".equals(person.attributes.get(Person.RACE));
+    boolean emergency =
+        EncounterType.URGENTCARE.equals(service) || EncounterType.EMERGENCY.equals(service);
+    if (veteran && !emergency) {
+      // veterans only go to VA facilities, unless it is an emergency
+      return VETERAN;
+    }
+    int groups = OTHER;
+    if (veteran) {
+      groups |= VETERAN;
+    }
+    if (nativeAmerican) {
+      groups |= IHS;
+    }
+    return groups;
+  }
+
+  private static int group(Provider provider) {
+    if (ProviderType.VETERAN.equals(provider.type)) {
+      return VETERAN;
+    } else if (ProviderType.IHS.equals(provider.type)) {
+      return IHS;
+    }
+    return OTHER;
+  }
+
+  private KdTree<Provider> buildTree(EncounterType service, int groups) {
+    List<Provider> partition = new ArrayList<Provider>();
+    for (Provider provider : providers) {
+      if ((group(provider) & groups) != 0
+          && (service == null || provider.hasService(service))) {
+        partition.add(provider);
+      }
+    }
+    return new KdTree<Provider>(partition);
+  }
+
+  /** Nearest providers for one person at one location. */
+  static final class Cache {
+    private final ProviderIndex index;
+    private final double xcoord;
+    private final double ycoord;
+    private final Map<Integer, List<Provider>> results = new HashMap<Integer, List<Provider>>();
+
+    private Cache(ProviderIndex index, Point2D.Double location) {
+      this.index = index;
+      this.xcoord = location.getX();
+      this.ycoord = location.getY();
+    }
+  }
+}
@@ -44,6 +44,10 @@ public class CoverageRecord implements Serializable {
   @JSONSkip
   private Person person;
   private List<Plan> planHistory;
+  /** True if a plan was ever added that starts before the plan preceding it. */
+  private boolean outOfOrder;
+  /** Index of the plan most recently found by getPlanAtTime, to resume sequential lookups. */
+  private transient int lastIndex;
 
   /**
    * Create a new CoverageRecord for the given Person.
@@ -86,7 +90,11 @@ public class CoverageRecord implements Serializable {
    */
   public void setPayerAtTime(long time, Payer newPayer, Payer secondaryPayer) {
     if (!this.planHistory.isEmpty()) {
-      this.planHistory.get(this.planHistory.size() - 1).stop = time;
+      Plan previous = this.planHistory.get(this.planHistory.size() - 1);
+      previous.stop = time;
+      if (time < previous.start) {
+        this.outOfOrder = true;
+      }
     }
     Plan plan = new Plan(time, newPayer);
     plan.secondaryPayer = secondaryPayer;
@@ -105,17 +113,71 @@ public class CoverageRecord implements Serializable {
 
   /**
    * Get the Plan active at a given time.
+   * Each plan stops when the next one starts, so while plans are added in order of time
+   * at most one of them can be active and it can be found by binary search. Lookups of
+   * the current plan, and lookups in order of time, take constant time.
    * @param time the time.
    * @return the active plan.
    */
   public Plan getPlanAtTime(long time) {
-    Plan plan = null;
-    for (Plan p : this.planHistory) {
-      if (p.start <= time && time < p.stop) {
-        plan = p;
+    int size = this.planHistory.size();
+    if (size == 0) {
+      return null;
+    }
+    Plan last = this.planHistory.get(size - 1);
+    if (last.start <= time && time < last.stop) {
+      return last;
+    }
+    if (this.outOfOrder) {
+      Plan plan = null;
+      for (Plan p : this.planHistory) {
+        if (p.start <= time && time < p.stop) {
+          plan = p;
+        }
       }
+      return plan;
     }
-    return plan;
+    int index = indexOfPlanAtTime(time, size);
+    if (index < 0) {
+      return null;
+    }
+    Plan plan = this.planHistory.get(index);
+    return (time < plan.stop) ? plan : null;
+  }
+
+  /**
+   * Find the last plan that starts at or before the given time, checking the plan found by
+   * the previous lookup and the one after it before searching the whole history.
+   * @return the index of the plan, or -1 if every plan starts after the time.
+   */
+  private int indexOfPlanAtTime(long time, int size) {
+    // exporters may look up plans concurrently, so read the hint only once
+    int hint = this.lastIndex;
+    if (hint >= 0 && hint < size && this.planHistory.get(hint).start <= time) {
+      if (hint + 1 == size || this.planHistory.get(hint + 1).start > time) {
+        return hint;
+      }
+      if (hint + 2 == size || this.planHistory.get(hint + 2).start > time) {
+        this.lastIndex = hint + 1;
+        return hint + 1;
+      }
+    }
+    int low = 0;
+    int high = size - 1;
+    int index = -1;
+    while (low <= high) {
+      int middle = (low + high) >>> 1;
+      if (this.planHistory.get(middle).start <= time) {
+        index = middle;
+        low = middle + 1;
+      } else {
+        high = middle - 1;
+      }
+    }
+    if (index >= 0) {
+      this.lastIndex = index;
+    }
+    return index;
   }
 
   /**
@@ -692,6 +692,12 @@ public class HealthRecord implements Serializable {
   public Map<String, Entry> present;
   /** recorded death date/time. */
   public Long death;
+  /**
+   * Position in the encounters of the first encounter that started at or after the time of
+   * the last call to encountersSince, and that time.
+   */
+  private transient int recentEncounterIndex;
+  private transient long recentEncounterTime;
 
   /**
    * Construct a health record for the supplied person.
@@ -756,6 +762,32 @@ public class HealthRecord implements Serializable {
     return sb.toString();
   }
 
+  /**
+   * Get the encounters that started at or after the given time, in record order.
+   * Encounters that started before the time of the previous call are skipped without being
+   * looked at again, so calls with times that never decrease only look at recent encounters.
+   * @param time the earliest start time of an encounter to return.
+   * @return the encounters that started at or after the given time.
+   */
+  public List<Encounter> encountersSince(long time) {
+    if (time < recentEncounterTime || recentEncounterIndex > encounters.size()) {
+      recentEncounterIndex = 0;
+    }
+    recentEncounterTime = time;
+    while (recentEncounterIndex < encounters.size()
+        && encounters.get(recentEncounterIndex).start < time) {
+      recentEncounterIndex++;
+    }
+    List<Encounter> recent = new ArrayList<Encounter>();
+    for (int i = recentEncounterIndex; i < encounters.size(); i++) {
+      Encounter encounter = encounters.get(i);
+      if (encounter.start >= time) {
+        recent.add(encounter);
+      }
+    }
+    return recent;
+  }
+
   /**
    * Get the latest encounter or, if none exists, create a new wellness encounter.
    * @param time the time of the encounter if a new one is created.
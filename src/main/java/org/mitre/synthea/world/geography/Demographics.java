@@ -31,7 +31,7 @@ public class Demographics implements Comparable<Demographics>, Serializable {
   public String state;
   public String county;
   public Map<String, Double> ages;
-  private RandomCollection<String> ageDistribution;
+  private RandomCollection<int[]> ageDistribution;
   public Map<String, Double> gender;
   private RandomCollection<String> genderDistribution;
   public Map<String, Double> race;
@@ -39,7 +39,7 @@ public class Demographics implements Comparable<Demographics>, Serializable {
   public double ethnicity;
   private RandomCollection<String> ethnicityDistribution;
   public Map<String, Double> income;
-  private RandomCollection<String> incomeDistribution;
+  private RandomCollection<int[]> incomeDistribution;
   public Map<String, Double> education;
   private RandomCollection<String> educationDistribution;
 
@@ -51,7 +51,7 @@ public class Demographics implements Comparable<Demographics>, Serializable {
   public int pickAge(Random random) {
     // lazy-load in case this randomcollection isn't necessary
     if (ageDistribution == null) {
-      ageDistribution = buildRandomCollectionFromMap(ages);
+      ageDistribution = buildRangeCollectionFromMap(ages, 1);
     }
     /*
      * Sample Age frequency: "ages": { "0..4": 0.03810425832699584, "5..9": 0.04199539968180355,
@@ -59,12 +59,9 @@ public class Demographics implements Comparable<Demographics>, Serializable {
      * 0.040978290790498896 }
      */
 
-    String pickedRange = ageDistribution.next(random);
-
-    String[] range = pickedRange.split("\\.\\.");
-    // TODO this seems like it would benefit from better caching
-    int low = Integer.parseInt(range[0]);
-    int high = Integer.parseInt(range[1]);
+    int[] range = ageDistribution.next(random);
+    int low = range[0];
+    int high = range[1];
 
     // nextInt is normally exclusive of the top value,
     // so add 1 to make it inclusive
@@ -241,7 +238,7 @@ public class Demographics implements Comparable<Demographics>, Serializable {
       Map<String, Double> tempIncome = new HashMap<>(income);
       tempIncome.remove("mean");
       tempIncome.remove("median");
-      incomeDistribution = buildRandomCollectionFromMap(tempIncome);
+      incomeDistribution = buildRangeCollectionFromMap(tempIncome, 1000);
     }
 
     /*
@@ -251,12 +248,9 @@ public class Demographics implements Comparable<Demographics>, Serializable {
      * "200..999": 0.054000000000000006 },
      */
 
-    String pickedRange = incomeDistribution.next(random);
-
-    String[] range = pickedRange.split("\\.\\.");
-    // TODO this seems like it would benefit from better caching
-    int low = Integer.parseInt(range[0]) * 1000;
-    int high = Integer.parseInt(range[1]) * 1000;
+    int[] range = incomeDistribution.next(random);
+    int low = range[0];
+    int high = range[1];
 
     // nextInt is normally exclusive of the top value,
     // so add 1 to make it inclusive
@@ -519,6 +513,28 @@ public class Demographics implements Comparable<Demographics>, Serializable {
     return distribution;
   }
 
+  /**
+   * Helper function to convert a map of frequencies of ranges such as "0..4" into a
+   * RandomCollection of the lower and upper bounds of each range, so they are only parsed once.
+   * @param map the frequency of each range.
+   * @param multiplier the amount to multiply both bounds by.
+   */
+  private static RandomCollection<int[]> buildRangeCollectionFromMap(Map<String, Double> map,
+      int multiplier) {
+    RandomCollection<int[]> distribution = new RandomCollection<>();
+    for (Map.Entry<String, Double> e : map.entrySet()) {
+      if (e.getValue() <= 0) {
+        // never picked, so don't require it to be a range
+        continue;
+      }
+      String[] range = e.getKey().split("\\.\\.");
+      int low = Integer.parseInt(range[0]) * multiplier;
+      int high = Integer.parseInt(range[1]) * multiplier;
+      distribution.add(e.getValue(), new int[] {low, high});
+    }
+    return distribution;
+  }
+
   @Override
   public int compareTo(Demographics o) {
     return (int) (this.population - o.population);
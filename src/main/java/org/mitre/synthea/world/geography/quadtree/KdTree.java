@@ -0,0 +1,139 @@
+package org.mitre.synthea.world.geography.quadtree;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.Predicate;
+
+/**
+ * Static 2-d tree for nearest neighbor queries over a fixed set of elements.
+ * Like the QuadTree, distances are Euclidean on the element coordinates.
+ * The tree is immutable once built, so it may be queried from any number of threads.
+ * @param <T> the type of element
+ */
+public class KdTree<T extends QuadTreeElement> {
+
+  /** Elements in tree order: the middle of each range is the node splitting that range. */
+  private final List<T> elements;
+  /** Position of each element (in tree order) within the list the tree was built from. */
+  private final int[] positions;
+  private final double[] xcoords;
+  private final double[] ycoords;
+
+  /**
+   * Build a tree over the given elements.
+   * @param elements The elements to index. The list is not modified.
+   */
+  public KdTree(List<T> elements) {
+    int size = elements.size();
+    Integer[] order = new Integer[size];
+    for (int i = 0; i < size; i++) {
+      order[i] = i;
+    }
+    build(elements, order, 0, size, true);
+
+    this.elements = new ArrayList<T>(size);
+    this.positions = new int[size];
+    this.xcoords = new double[size];
+    this.ycoords = new double[size];
+    for (int i = 0; i < size; i++) {
+      T element = elements.get(order[i]);
+      this.elements.add(element);
+      this.positions[i] = order[i];
+      this.xcoords[i] = element.getX();
+      this.ycoords[i] = element.getY();
+    }
+  }
+
+  /**
+   * Sort each range on alternating axes, so that the middle element splits the range.
+   */
+  private static <T extends QuadTreeElement> void build(List<T> elements, Integer[] order,
+      int low, int high, boolean splitOnX) {
+    if (high - low < 2) {
+      return;
+    }
+    if (splitOnX) {
+      Arrays.sort(order, low, high, Comparator.comparingDouble(i -> elements.get(i).getX()));
+    } else {
+      Arrays.sort(order, low, high, Comparator.comparingDouble(i -> elements.get(i).getY()));
+    }
+    int middle = (low + high) >>> 1;
+    build(elements, order, low, middle, !splitOnX);
+    build(elements, order, middle + 1, high, !splitOnX);
+  }
+
+  /**
+   * Find the elements nearest to a point. Every element at exactly the nearest distance
+   * is returned, in the order they appeared in the list the tree was built from.
+   * @param point The point to search around.
+   * @param maxDistance Maximum distance (inclusive) of an element from the point.
+   * @param filter Only elements passing this filter are considered.
+   * @return A non-null list of the nearest elements, empty if none are within maxDistance.
+   */
+  public List<T> nearest(QuadTreeElement point, double maxDistance, Predicate<T> filter) {
+    Search search = new Search(point.getX(), point.getY(), maxDistance, filter);
+    search.visit(0, elements.size(), true);
+    List<T> results = new ArrayList<T>(search.nearest.size());
+    search.nearest.sort(Comparator.comparingInt(index -> positions[index]));
+    for (int index : search.nearest) {
+      results.add(elements.get(index));
+    }
+    return results;
+  }
+
+  /**
+   * Get the count of elements within this tree.
+   * @return The count of elements within this tree.
+   */
+  public int size() {
+    return elements.size();
+  }
+
+  private class Search {
+    private final double xcoord;
+    private final double ycoord;
+    private final Predicate<T> filter;
+    private double best;
+    /** Tree indices of the nearest elements found so far. */
+    private final List<Integer> nearest = new ArrayList<Integer>();
+
+    private Search(double x, double y, double maxDistance, Predicate<T> filter) {
+      this.xcoord = x;
+      this.ycoord = y;
+      this.best = maxDistance;
+      this.filter = filter;
+    }
+
+    private void visit(int low, int high, boolean splitOnX) {
+      if (low >= high) {
+        return;
+      }
+      int middle = (low + high) >>> 1;
+      double dx = xcoord - xcoords[middle];
+      double dy = ycoord - ycoords[middle];
+      double distance = Math.sqrt((dx * dx) + (dy * dy));
+      if (distance <= best && filter.test(elements.get(middle))) {
+        if (distance < best) {
+          best = distance;
+          nearest.clear();
+        }
+        nearest.add(middle);
+      }
+      double split = splitOnX ? dx : dy;
+      // search the side of the split containing the point first
+      if (split < 0) {
+        visit(low, middle, !splitOnX);
+        if (-split <= best) {
+          visit(middle + 1, high, !splitOnX);
+        }
+      } else {
+        visit(middle + 1, high, !splitOnX);
+        if (split <= best) {
+          visit(low, middle, !splitOnX);
+        }
+      }
+    }
+  }
+}
@@ -348,6 +348,56 @@ public class GeneratorTest {
     }
   }
 
+  @Test
+  public void testSnapshotSaveAndLoad() throws Exception {
+    // Skip if physiology generators are enabled since they are incompatible with Java
+    // serialization
+    if (Boolean.valueOf(Config.get("physiology.generators.enabled", "false"))) {
+      System.out.println("Skipping test GeneratorTest.testSnapshotSaveAndLoad");
+      System.out.println("Set config physiology.generators.enabled=false to enable this test");
+      return;
+    }
+
+    File snapshot = File.createTempFile("snapshot", "synthea");
+    snapshot.deleteOnExit();
+
+    // Save a snapshot of 5 people, spanning more than one snapshot batch
+    Config.set("generate.snapshot_batch_size", "2");
+    Config.set("generate.max_queued_patients", "1");
+    try {
+      Generator.GeneratorOptions opts = new Generator.GeneratorOptions();
+      opts.population = 5;
+      opts.updatedPopulationSnapshotPath = snapshot;
+      Generator generator = new Generator(opts);
+      generator.run();
+      assertEquals(5, generator.stats.get("alive").longValue());
+      assertTrue(snapshot.length() > 0);
+      // dead patients are also recorded and saved in the snapshot
+      int saved = generator.totalGeneratedPopulation.get();
+
+      // Load the snapshot and evolve the population forward
+      opts = new Generator.GeneratorOptions();
+      opts.initialPopulationSnapshotPath = snapshot;
+      opts.daysToTravelForward = 30;
+      generator = new Generator(opts);
+      generator.run();
+      assertEquals(saved, generator.totalGeneratedPopulation.get());
+    } finally {
+      Config.set("generate.snapshot_batch_size", "100");
+      Config.set("generate.max_queued_patients", "-1");
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testIllegalSnapshotBatchSize() {
+    Config.set("generate.snapshot_batch_size", "0");
+    try {
+      new Generator(new Generator.GeneratorOptions());
+    } finally {
+      Config.set("generate.snapshot_batch_size", "100");
+    }
+  }
+
   @Test
   public void testKeepPatientsModule() throws Exception {
     Generator.GeneratorOptions opts = new Generator.GeneratorOptions();
@@ -4,7 +4,10 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 
+import java.util.Arrays;
+import java.util.EnumSet;
 import java.util.List;
+import java.util.Set;
 
 import org.junit.Test;
 import org.mitre.synthea.world.agents.Person;
@@ -24,6 +27,25 @@ public class HealthRecordEditorsTest {
     }
   }
 
+  class ObservationCounter implements HealthRecordEditor {
+    int encounters = 0;
+
+    @Override
+    public boolean shouldRun(Person person, HealthRecord record, long time) {
+      return true;
+    }
+
+    @Override
+    public void process(Person person, List<HealthRecord.Encounter> encounters, long time) {
+      this.encounters += encounters.size();
+    }
+
+    @Override
+    public Set<EntryType> getEntryTypes() {
+      return EnumSet.of(EntryType.OBSERVATION);
+    }
+  }
+
   @Test
   public void getInstance() {
     assertNotNull(HealthRecordEditors.getInstance());
@@ -40,4 +62,39 @@ public class HealthRecordEditorsTest {
     assertEquals("01730", p.attributes.get(Person.ZIP));
     hrm.resetEditors();
   }
+
+  @Test
+  public void executeAllWithEntryTypes() {
+    HealthRecordEditors hrm = HealthRecordEditors.getInstance();
+    ObservationCounter counter = new ObservationCounter();
+    hrm.registerEditor(counter);
+    Person p = new Person(1);
+    HealthRecord record = new HealthRecord(p);
+    HealthRecord.Encounter e = record.encounterStart(1000, HealthRecord.EncounterType.OUTPATIENT);
+    e.addObservation(1000, "8302-2", 150d, "Body Height");
+    record.encounterStart(1000, HealthRecord.EncounterType.OUTPATIENT);
+    hrm.executeAll(p, record, 1000, 100);
+    // only the encounter with an observation is passed to the editor
+    assertEquals(1, counter.encounters);
+    hrm.executeAll(p, record, 2000, 100);
+    assertEquals(1, counter.encounters);
+    hrm.resetEditors();
+  }
+
+  @Test
+  public void encountersSince() {
+    Person p = new Person(1);
+    HealthRecord record = new HealthRecord(p);
+    HealthRecord.Encounter first =
+        record.encounterStart(1000, HealthRecord.EncounterType.OUTPATIENT);
+    HealthRecord.Encounter second =
+        record.encounterStart(2000, HealthRecord.EncounterType.OUTPATIENT);
+    assertEquals(Arrays.asList(first, second), record.encountersSince(1000));
+    assertEquals(Arrays.asList(second), record.encountersSince(1500));
+    HealthRecord.Encounter third =
+        record.encounterStart(3000, HealthRecord.EncounterType.OUTPATIENT);
+    assertEquals(Arrays.asList(second, third), record.encountersSince(2000));
+    // going back in time looks at every encounter again
+    assertEquals(Arrays.asList(first, second, third), record.encountersSince(0));
+  }
 }
\ No newline at end of file
@@ -2,6 +2,7 @@ package org.mitre.synthea.engine;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 import com.google.gson.JsonObject;
@@ -17,6 +18,7 @@ import java.time.LocalDateTime;
 import java.time.ZoneId;
 import java.time.ZoneOffset;
 import java.time.temporal.ChronoUnit;
+import java.util.Collections;
 import java.util.LinkedList;
 import java.util.concurrent.ConcurrentHashMap;
 
@@ -73,11 +75,13 @@ public class LogicTest {
     reader.close();
   }
 
-  private boolean doTest(String testName) {
+  private Logic getLogic(String testName) {
     JsonObject definition = tests.getAsJsonObject(testName);
-    Logic logic = Utilities.getGson().fromJson(definition, Logic.class);
+    return Utilities.getGson().fromJson(definition, Logic.class);
+  }
 
-    return logic.test(person, time);
+  private boolean doTest(String testName) {
+    return getLogic(testName).test(person, time);
   }
 
   @Test
@@ -546,4 +550,18 @@ public class LogicTest {
     assertFalse(doTest("notTrueTest"));
     assertTrue(doTest("notFalseTest"));
   }
+
+  @Test
+  public void test_attribute_dependencies() {
+    assertEquals(Collections.singleton(Person.GENDER),
+        getLogic("genderIsMaleTest").attributeDependencies());
+    assertEquals(Collections.singleton("Test_Attribute_Key"),
+        getLogic("attributeEqualTo_TestValue_Test").attributeDependencies());
+    assertEquals(Collections.emptySet(), getLogic("andAllTrueTest").attributeDependencies());
+    assertEquals(Collections.emptySet(), getLogic("notTrueTest").attributeDependencies());
+    // conditions on the age, the date, or the health record are not attribute-only
+    assertNull(getLogic("ageLt40Test").attributeDependencies());
+    assertNull(getLogic("beforeSeptemberTest").attributeDependencies());
+    assertNull(getLogic("diabetesConditionTest").attributeDependencies());
+  }
 }
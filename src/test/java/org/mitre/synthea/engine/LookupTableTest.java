@@ -0,0 +1,112 @@
+package org.mitre.synthea.engine;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.apache.commons.lang3.Range;
+import org.junit.Test;
+import org.mitre.synthea.helpers.Utilities;
+import org.mitre.synthea.world.agents.Person;
+
+public class LookupTableTest {
+  @Test
+  public void testAgeAndTimeRanges() {
+    LookupTable<String> table = new LookupTable<String>(Arrays.asList(Person.GENDER), true, true);
+    // rows deliberately out of order
+    for (int age = 90; age >= 0; age -= 10) {
+      for (long time = 0; time < 1000; time += 100) {
+        table.add(Arrays.asList("F"), Range.between(age, age + 9),
+            Range.between(time, time + 99), "F " + age + " " + time);
+      }
+    }
+    table.add(Arrays.asList("M"), Range.between(0, 140), Range.between(0L, 999L), "M");
+    table.index();
+
+    Person person = new Person(0L);
+    person.attributes.put(Person.GENDER, "F");
+    person.attributes.put(Person.BIRTHDATE, 0L);
+    long time = Utilities.convertTime("years", 45.5);
+    assertEquals("F 40 0", table.lookup(person, time, "test"));
+
+    // times outside of all ranges do not match
+    person.attributes.put(Person.BIRTHDATE, -Utilities.convertTime("years", 99.5));
+    assertEquals("F 90 500", table.lookup(person, 500L, "test"));
+    assertNull(table.lookup(person, 1000L, "test"));
+    person.attributes.put(Person.BIRTHDATE, -Utilities.convertTime("years", 100.5));
+    assertNull(table.lookup(person, 500L, "test"));
+
+    person.attributes.put(Person.GENDER, "M");
+    assertEquals("M", table.lookup(person, 500L, "test"));
+    person.attributes.put(Person.GENDER, "X");
+    assertNull(table.lookup(person, 500L, "test"));
+  }
+
+  @Test
+  public void testOverlappingRanges() {
+    LookupTable<String> table =
+        new LookupTable<String>(Collections.emptyList(), true, false);
+    table.add(Collections.emptyList(), Range.between(0, 50), null, "first");
+    // the same range replaces the row
+    table.add(Collections.emptyList(), Range.between(0, 50), null, "second");
+    table.add(Collections.emptyList(), Range.between(51, 140), null, "third");
+    try {
+      table.add(Collections.emptyList(), Range.between(50, 60), null, "overlap");
+      fail("Expected an overlapping range to be rejected");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+    table.index();
+
+    Person person = new Person(0L);
+    person.attributes.put(Person.BIRTHDATE, 0L);
+    assertEquals("second", table.lookup(person, Utilities.convertTime("years", 20), "test"));
+    assertEquals("third", table.lookup(person, Utilities.convertTime("years", 70), "test"));
+  }
+
+  @Test
+  public void testAgeRangeBoundsAndAttributes() {
+    LookupTable<String> table =
+        new LookupTable<String>(Arrays.asList("lookup_foo", "lookup_bar"), true, false);
+    table.add(Arrays.asList("foo", "bar"), Range.between(0, 30), null, "gold");
+    table.add(Arrays.asList("foo", "bar"), Range.between(31, 60), null, "platinum");
+    table.index();
+
+    Person person = new Person(0L);
+    person.attributes.put(Person.BIRTHDATE, 0L);
+    person.attributes.put("lookup_foo", "foo");
+    person.attributes.put("lookup_bar", "bar");
+    // both ends of an age range are included
+    assertEquals("gold", table.lookup(person, Utilities.convertTime("years", 0.5), "test"));
+    assertEquals("gold", table.lookup(person, Utilities.convertTime("years", 20.5), "test"));
+    assertEquals("gold", table.lookup(person, Utilities.convertTime("years", 30.5), "test"));
+    assertEquals("platinum",
+        table.lookup(person, Utilities.convertTime("years", 50.5), "test"));
+    assertNull(table.lookup(person, Utilities.convertTime("years", 61.5), "test"));
+
+    // every attribute must match
+    person.attributes.put("lookup_bar", "baz");
+    assertNull(table.lookup(person, Utilities.convertTime("years", 20.5), "test"));
+  }
+
+  @Test
+  public void testWithoutAges() {
+    LookupTable<String> table =
+        new LookupTable<String>(Arrays.asList("lookup_foo", "lookup_bar"), false, false);
+    table.add(Arrays.asList("foo", "bar"), null, null, "gold");
+    table.index();
+
+    Person person = new Person(0L);
+    person.attributes.put(Person.BIRTHDATE, 0L);
+    person.attributes.put("lookup_foo", "foo");
+    person.attributes.put("lookup_bar", "bar");
+    assertEquals("gold", table.lookup(person, Utilities.convertTime("years", 20.5), "test"));
+    assertEquals("gold", table.lookup(person, Utilities.convertTime("years", 80.5), "test"));
+
+    person.attributes.put("lookup_bar", "baz");
+    assertNull(table.lookup(person, Utilities.convertTime("years", 20.5), "test"));
+  }
+}
@@ -0,0 +1,99 @@
+package org.mitre.synthea.engine;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mitre.synthea.TestHelper;
+import org.mitre.synthea.helpers.Utilities;
+import org.mitre.synthea.world.agents.Person;
+
+public class ModuleHistoryTest {
+  private Person person;
+  private long time;
+  private Module module;
+
+  /**
+   * Setup a person and the delay module.
+   * @throws Exception on failure to load the module.
+   */
+  @Before
+  public void setup() throws Exception {
+    time = TestHelper.timestamp(2020, 1, 1, 0, 0, 0);
+    person = new Person(0L);
+    person.attributes.put(Person.BIRTHDATE, time - Utilities.convertTime("years", 35));
+    module = TestHelper.getFixture("delay.json");
+  }
+
+  @SuppressWarnings("unchecked")
+  @Test
+  public void testCompactHistory() {
+    module.process(person, time);
+    State current = person.history.get(0);
+    assertEquals("2_Second_Delay", current.name);
+
+    module.process(person, time + Utilities.convertTime("days", 1));
+    List<State> history = (List<State>) person.attributes.get(module.name);
+    assertTrue(history instanceof ModuleHistory);
+    assertSame(history, person.history);
+    assertEquals(5, history.size());
+    assertEquals("2_Day_Delay", history.get(0).name);
+    // the current state is kept whole, the delay state itself is still being processed
+    assertSame(history.get(0), history.get(0));
+    assertTrue(history.get(0) instanceof State.Delayable);
+
+    // exited states are copies with the original names and times
+    State delay = history.get(3);
+    assertNotSame(current, delay);
+    assertEquals("2_Second_Delay", delay.name);
+    assertEquals(time, (long) delay.entered);
+    assertEquals(time + Utilities.convertTime("seconds", 2), (long) delay.exited);
+    assertEquals("2_Second_Delay", ((ModuleHistory) history).getName(3));
+    assertEquals(delay.exited, ((ModuleHistory) history).getExited(3));
+    assertEquals("Initial", history.get(4).name);
+    assertNull(history.get(0).exited);
+  }
+
+  @Test
+  public void testHadPriorState() {
+    module.process(person, time);
+    module.process(person, time + Utilities.convertTime("days", 1));
+
+    assertTrue(person.hadPriorState("2_Minute_Delay"));
+    assertTrue(person.hadPriorState("Initial"));
+    assertFalse(person.hadPriorState("2_Week_Delay"));
+    assertFalse(person.hadPriorState("2_Minute_Delay", "2_Hour_Delay", null));
+    assertTrue(person.hadPriorState("2_Hour_Delay", "2_Minute_Delay", null));
+    // 2_Minute_Delay was exited 2 minutes and 2 seconds after the start
+    long exited = time + Utilities.convertTime("minutes", 2) + Utilities.convertTime("seconds", 2);
+    assertTrue(person.hadPriorState("2_Minute_Delay", null, exited - 1));
+    assertFalse(person.hadPriorState("2_Minute_Delay", null, exited));
+  }
+
+  @Test
+  public void testAddAndRemove() {
+    ModuleHistory history = new ModuleHistory();
+    State initial = module.getState("Initial").clone();
+    State delay = module.getState("2_Second_Delay").clone();
+    initial.entered = time;
+    initial.exited = time;
+    history.add(initial);
+    history.add(0, delay);
+    assertEquals(2, history.size());
+    assertSame(delay, history.get(0));
+    assertEquals("Initial", history.get(1).name);
+    assertEquals(time, (long) history.get(1).exited);
+
+    assertSame(delay, history.remove(0));
+    assertEquals(1, history.size());
+    assertEquals("Initial", history.get(0).name);
+    assertSame(history.get(0), history.get(0));
+  }
+}
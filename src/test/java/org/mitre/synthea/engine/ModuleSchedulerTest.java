@@ -0,0 +1,224 @@
+package org.mitre.synthea.engine;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mitre.synthea.TestHelper;
+import org.mitre.synthea.engine.Generator.GeneratorOptions;
+import org.mitre.synthea.helpers.Config;
+import org.mitre.synthea.helpers.Utilities;
+import org.mitre.synthea.modules.DeathModule;
+import org.mitre.synthea.modules.EncounterModule;
+import org.mitre.synthea.modules.HealthInsuranceModule;
+import org.mitre.synthea.world.agents.Person;
+import org.powermock.reflect.Whitebox;
+
+public class ModuleSchedulerTest {
+  private static final long DAY = Utilities.convertTime("days", 1);
+
+  @Rule
+  public TemporaryFolder tempFolder = new TemporaryFolder();
+
+  private Person person;
+  private long time;
+
+  /**
+   * Setup a person to schedule modules for.
+   */
+  @Before
+  public void setup() {
+    time = System.currentTimeMillis();
+    person = new Person(0L);
+    person.attributes.put(Person.GENDER, "F");
+    person.attributes.put(Person.BIRTHDATE, time - Utilities.convertTime("years", 35));
+    person.history = new LinkedList<>();
+  }
+
+  private ModuleScheduler schedule(Module... modules) {
+    person.currentModules = new ArrayList<Module>(Arrays.asList(modules));
+    return new ModuleScheduler(person, time, DAY);
+  }
+
+  @Test
+  public void testDelayExpiry() throws Exception {
+    Module module = TestHelper.getFixture("delay.json");
+    ModuleScheduler scheduler = schedule(module);
+
+    // the 2 second delay has not expired by the end of the first timestep
+    scheduler.beginTimestep(time);
+    scheduler.processModules();
+    assertEquals(time + DAY, scheduler.wakeTime(0));
+
+    // the module moves on to the 2 day delay, which ends partway through the third timestep
+    scheduler.beginTimestep(time + DAY);
+    scheduler.processModules();
+    assertEquals("2_Day_Delay", module.currentState(person).name);
+    assertEquals(time + (3 * DAY), scheduler.wakeTime(0));
+    scheduler.finish();
+    assertEquals(1, person.currentModules.size());
+  }
+
+  @Test
+  public void testAttributeWakesGuard() throws Exception {
+    ModuleScheduler scheduler = schedule(TestHelper.getFixture("scheduler_guard.json"));
+
+    scheduler.beginTimestep(time);
+    scheduler.processModules();
+    assertEquals(Long.MAX_VALUE, scheduler.wakeTime(0));
+
+    // an attribute the guard does not depend on leaves the module blocked
+    person.attributes.put("scheduler_test_unrelated", true);
+    assertEquals(Long.MAX_VALUE, scheduler.wakeTime(0));
+
+    // the module already had its turn this timestep, so it wakes on the next one
+    person.attributes.put("scheduler_test_flag", true);
+    assertEquals(time + DAY, scheduler.wakeTime(0));
+
+    scheduler.beginTimestep(time + DAY);
+    scheduler.processModules();
+    assertEquals(Long.MAX_VALUE, scheduler.wakeTime(0));
+    scheduler.finish();
+    assertTrue(person.currentModules.isEmpty());
+  }
+
+  @Test
+  public void testAttributeWakesGuardOnCurrentTimestep() throws Exception {
+    ModuleScheduler scheduler = schedule(TestHelper.getFixture("scheduler_guard.json"));
+
+    scheduler.beginTimestep(time);
+    scheduler.processModules();
+    assertEquals(Long.MAX_VALUE, scheduler.wakeTime(0));
+
+    // written before the modules are processed, e.g. by the encounter module
+    scheduler.beginTimestep(time + DAY);
+    person.attributes.put("scheduler_test_flag", true);
+    assertEquals(time + DAY, scheduler.wakeTime(0));
+    scheduler.processModules();
+    scheduler.finish();
+    assertTrue(person.currentModules.isEmpty());
+  }
+
+  @Test
+  public void testWellnessEncounterBlocks() throws Exception {
+    Module module = TestHelper.getFixture("encounter.json");
+    ModuleScheduler scheduler = schedule(module);
+
+    scheduler.beginTimestep(time);
+    scheduler.processModules();
+    assertEquals("Annual_Physical", module.currentState(person).name);
+    assertEquals(Long.MAX_VALUE, scheduler.wakeTime(0));
+
+    scheduler.beginTimestep(time + DAY);
+    person.attributes.put(EncounterModule.ACTIVE_WELLNESS_ENCOUNTER, true);
+    assertEquals(time + DAY, scheduler.wakeTime(0));
+    scheduler.finish();
+  }
+
+  @Test
+  public void testSubmoduleDelay() throws Exception {
+    Map<String, Module.ModuleSupplier> modules =
+        Whitebox.<Map<String, Module.ModuleSupplier>>getInternalState(Module.class, "modules");
+    modules.put("submodules/scheduler_delay", new Module.ModuleSupplier(
+        TestHelper.getFixture("submodules/scheduler_delay.json")));
+    try {
+      ModuleScheduler scheduler = schedule(TestHelper.getFixture("scheduler_calls_submodule.json"));
+
+      // the calling module sleeps until the delay in the submodule expires
+      scheduler.beginTimestep(time);
+      scheduler.processModules();
+      assertEquals(time + (3 * DAY), scheduler.wakeTime(0));
+
+      scheduler.beginTimestep(time + (3 * DAY));
+      scheduler.processModules();
+      scheduler.finish();
+      assertTrue(person.currentModules.isEmpty());
+    } finally {
+      modules.remove("submodules/scheduler_delay");
+    }
+  }
+
+  @Test
+  public void testSameRecordAsProcessingEveryModule() throws Exception {
+    TestHelper.loadTestProperties();
+    TestHelper.exportOff();
+    Generator.DEFAULT_STATE = Config.get("test_state.default", "Massachusetts");
+    Config.set("exporter.text.export", "true");
+
+    SimpleDateFormat format = new SimpleDateFormat("YYYYMMDD");
+    format.setTimeZone(TimeZone.getTimeZone("UTC"));
+
+    GeneratorOptions options = new GeneratorOptions();
+    options.clinicianSeed = 9L;
+    options.seed = 9L;
+    options.referenceTime = format.parse("20200704").getTime();
+    options.overflow = false;
+
+    // the same person, simulated by the scheduler and by processing every module each timestep
+    Generator scheduled = new Generator(options);
+    Generator everyModule = new Generator(options) {
+      @Override
+      public void updatePerson(Person person) {
+        HealthInsuranceModule healthInsuranceModule = new HealthInsuranceModule();
+        EncounterModule encounterModule = new EncounterModule();
+
+        long time = person.lastUpdated;
+        while (person.alive(time) && time < stop) {
+          healthInsuranceModule.process(person, time + timestep);
+          encounterModule.process(person, time);
+
+          Iterator<Module> iter = person.currentModules.iterator();
+          while (iter.hasNext()) {
+            Module module = iter.next();
+            if (module.process(person, time)) {
+              iter.remove();
+            }
+          }
+
+          encounterModule.endEncounterModuleEncounters(person, time);
+          person.lastUpdated = time;
+          HealthRecordEditors.getInstance().executeAll(person, person.record, time, timestep);
+          time += timestep;
+        }
+
+        DeathModule.process(person, time);
+      }
+    };
+
+    List<List<String>> fileContents = new ArrayList<>();
+    List<Person> people = new ArrayList<>();
+    for (Generator generator : Arrays.asList(scheduled, everyModule)) {
+      File tempOutputFolder = tempFolder.newFolder();
+      Config.set("exporter.baseDirectory", tempOutputFolder.toString());
+
+      people.add(generator.generatePerson(0, 42L));
+
+      File exportFolder = tempOutputFolder.toPath().resolve("text").toFile();
+      for (File txtFile : exportFolder.listFiles()) {
+        if (txtFile.getName().endsWith(".txt")) {
+          fileContents.add(Files.readAllLines(txtFile.toPath()));
+        }
+      }
+    }
+
+    assertEquals(2, fileContents.size());
+    assertEquals(fileContents.get(0), fileContents.get(1));
+    assertEquals(people.get(0).attributes.keySet(), people.get(1).attributes.keySet());
+    assertEquals(people.get(0).record.encounters.size(), people.get(1).record.encounters.size());
+    assertEquals(people.get(0).currentModules.size(), people.get(1).currentModules.size());
+  }
+}
@@ -17,11 +17,13 @@ import java.io.FileReader;
 import java.io.IOException;
 import java.lang.reflect.Field;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Properties;
 import java.util.Random;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutorService;
@@ -32,7 +34,9 @@ import java.util.function.Predicate;
 import java.util.stream.Collectors;
 
 import org.junit.Test;
+import org.mitre.synthea.helpers.Config;
 import org.mitre.synthea.helpers.Utilities;
+import org.mitre.synthea.world.agents.Person;
 import org.powermock.reflect.Whitebox;
 
 public class ModuleTest {
@@ -52,7 +56,7 @@ public class ModuleTest {
     assertFalse(someModules.stream().anyMatch(filterOnModuleName("COPD")));
   }
 
-  /** Manually compare lists since the Modules are clones and not originals. */
+  /** Manually compare lists of modules by name. */
   private boolean contains(List<Module> superset, List<Module> subset) {
     for (Module subsetModule : subset) {
       boolean found = false;
@@ -166,6 +170,8 @@ public class ModuleTest {
     Module module = Module.getModuleByPath("copd");
     assertNotNull(module);
     assertEquals("COPD Module", module.name);
+    // modules are shared rather than copied for each caller
+    assertSame(module, Module.getModuleByPath("copd"));
   }
 
   @Test
@@ -221,6 +227,25 @@ public class ModuleTest {
     }
   }
 
+  @Test
+  public void transitionToMissingState() throws Exception {
+    String jsonString = "{\"name\": \"Missing State\", \"states\": {"
+        + "\"Initial\": {\"type\": \"Initial\", \"direct_transition\": \"Nowhere\"},"
+        + "\"Terminal\": {\"type\": \"Terminal\"}}}";
+    JsonObject object = JsonParser.parseString(jsonString).getAsJsonObject();
+    // modules with dangling transitions still load...
+    Module module = new Module(object, false);
+    Person person = new Person(0L);
+    person.attributes.put(Person.BIRTHDATE, 0L);
+    try {
+      // ...but fail with a clear message if the transition is followed
+      module.process(person, 0L);
+      fail("Didn't throw exception when transitioning to a missing state");
+    } catch (IllegalStateException ise) {
+      assertTrue(ise.getMessage().contains("'Initial' transitions to a state that does not exist"));
+    }
+  }
+
   @Test
   public void getModuleByPath_missingModule() {
     Module module = Module.getModuleByPath("missing_module");
@@ -303,4 +328,68 @@ public class ModuleTest {
       }
     });
   }
-}
\ No newline at end of file
+
+  @Test
+  public void cloneProcessesItsOwnStates() throws Exception {
+    Path path = Paths.get("src/test/resources/generic/set_attribute.json");
+    Module module = Module.loadFile(path, false, null, true);
+    Module clone = module.clone();
+    assertEquals(module.getStateNames(), clone.getStateNames());
+    for (int i = 0; module.compiledState(i) != null; i++) {
+      State original = module.compiledState(i);
+      State copy = clone.compiledState(i);
+      assertEquals(original.name, copy.name);
+      assertSame(clone.getState(copy.name), copy);
+      assertTrue(original != copy);
+    }
+
+    Person person = new Person(0L);
+    person.attributes.put(Person.BIRTHDATE, 0L);
+    assertTrue(clone.process(person, 0L));
+    assertTrue(person.attributes.containsKey("ECG"));
+  }
+
+  @Test
+  public void moduleCache() throws Exception {
+    File cache = Files.createTempDirectory("module_cache").toFile();
+    String enabled = Config.get("generate.module_cache.enabled");
+    String directory = Config.get("generate.module_cache.directory");
+    Config.set("generate.module_cache.enabled", "true");
+    Config.set("generate.module_cache.directory", cache.getAbsolutePath());
+    try {
+      Path path = Paths.get("src/test/resources/generic/set_attribute.json");
+      long hits = ModuleCache.getHits();
+      Module compiled = Module.loadFile(path, false, null, true);
+      assertEquals(hits, ModuleCache.getHits());
+      assertEquals(1, cache.list().length);
+
+      Module cached = Module.loadFile(path, false, null, true);
+      assertEquals(hits + 1, ModuleCache.getHits());
+      assertEquals(compiled.name, cached.name);
+      assertEquals(compiled.getStateNames(), cached.getStateNames());
+
+      // cached states still write to their attribute slots
+      Person person = new Person(0L);
+      person.attributes.put(Person.BIRTHDATE, 0L);
+      assertTrue(cached.getState("Set_Attribute_1").process(person, 0L));
+      assertEquals("Vicodin", person.attributes.get("Current Opioid Prescription"));
+      assertTrue(cached.process(person, 0L));
+      assertFalse(person.attributes.containsKey("Current Opioid Prescription"));
+      assertTrue(person.attributes.containsKey("ECG"));
+
+      // overrides change the compiled module, so they must not share its cache entry
+      Properties overrides = new Properties();
+      overrides.setProperty("set_attribute.json::$.states.Set_Attribute_1.value", "1");
+      Module.loadFile(path, false, overrides, true);
+      assertEquals(hits + 1, ModuleCache.getHits());
+      assertEquals(2, cache.list().length);
+    } finally {
+      Config.set("generate.module_cache.enabled", enabled);
+      Config.set("generate.module_cache.directory", directory);
+      for (File file : cache.listFiles()) {
+        file.delete();
+      }
+      cache.delete();
+    }
+  }
+}
@@ -1,6 +1,8 @@
 package org.mitre.synthea.engine;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
 import com.google.common.collect.Lists;
@@ -22,6 +24,7 @@ import org.apache.commons.math.ode.DerivativeException;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.rules.TemporaryFolder;
+import org.mitre.synthea.helpers.Config;
 import org.simulator.math.odes.MultiTable;
 import org.simulator.math.odes.MultiTable.Block.Column;
 
@@ -142,6 +145,95 @@ public class PhysiologySimulatorTest {
     assertEquals(4, pngCount);
   }
 
+  @Test
+  public void testResultCache() throws DerivativeException {
+    PhysiologySimulator.clearCache();
+    PhysiologySimulator physio = new PhysiologySimulator(
+        "circulation/Smith2004_CVS_human.xml", "runge_kutta", 0.01, 4);
+
+    Map<String,Double> inputs = new HashMap<String,Double>();
+    inputs.put("R_sys", 2.0);
+    MultiTable results = physio.run(inputs);
+    assertEquals(0, PhysiologySimulator.getCacheHits());
+    assertEquals(1, PhysiologySimulator.getCacheMisses());
+
+    // Nearly identical inputs on another simulator of the same model reuse the results
+    PhysiologySimulator other = new PhysiologySimulator(
+        "circulation/Smith2004_CVS_human.xml", "runge_kutta", 0.01, 4);
+    inputs.put("R_sys", 2.0000000001);
+    assertSame(results, other.run(inputs));
+    assertEquals(1, PhysiologySimulator.getCacheHits());
+    assertEquals(0.5, PhysiologySimulator.getCacheHitRate(), 0.0001);
+
+    // Different inputs or a different duration are solved again
+    inputs.put("R_sys", 2.5);
+    assertNotSame(results, physio.run(inputs));
+    PhysiologySimulator longer = new PhysiologySimulator(
+        "circulation/Smith2004_CVS_human.xml", "runge_kutta", 0.01, 5);
+    inputs.put("R_sys", 2.0);
+    assertNotSame(results, longer.run(inputs));
+    assertEquals(1, PhysiologySimulator.getCacheHits());
+    assertEquals(3, PhysiologySimulator.getCacheMisses());
+
+    PhysiologySimulator.clearCache();
+    assertEquals(0.0, PhysiologySimulator.getCacheHitRate(), 0.0);
+  }
+
+  @Test
+  public void testPooledSimulatorsKeepTheirStepSize() throws DerivativeException {
+    String cacheSize = Config.get("physiology.cache.size");
+    // Without the result cache every run is solved
+    Config.set("physiology.cache.size", "0");
+    try {
+      // Both simulators borrow the same pooled interpreter and solver on this thread
+      PhysiologySimulator fine = new PhysiologySimulator(
+          "circulation/Smith2004_CVS_human.xml", "runge_kutta", 0.01, 1);
+      PhysiologySimulator coarse = new PhysiologySimulator(
+          "circulation/Smith2004_CVS_human.xml", "runge_kutta", 0.02, 1);
+      PhysiologySimulator.clearCache();
+      int fineRows = fine.run(null).getRowCount();
+      int coarseRows = coarse.run(null).getRowCount();
+      assertTrue(fineRows > coarseRows);
+      assertEquals(fineRows, fine.run(null).getRowCount());
+      assertEquals(0, PhysiologySimulator.getCacheHits() + PhysiologySimulator.getCacheMisses());
+    } finally {
+      Config.set("physiology.cache.size", cacheSize);
+      PhysiologySimulator.clearCache();
+    }
+  }
+
+  @Test
+  public void testCacheSettingsChangeTogether() throws DerivativeException {
+    String cacheSize = Config.get("physiology.cache.size");
+    PhysiologySimulator physio = new PhysiologySimulator(
+        "circulation/Smith2004_CVS_human.xml", "runge_kutta", 0.01, 1);
+    Map<String,Double> inputs = new HashMap<String,Double>();
+    Map<String,Double> otherInputs = new HashMap<String,Double>();
+    inputs.put("R_sys", 2.0);
+    otherInputs.put("R_sys", 2.5);
+    try {
+      // a simulator created before the settings change follows the new size
+      Config.set("physiology.cache.size", "1");
+      PhysiologySimulator.clearCache();
+      MultiTable results = physio.run(inputs);
+      assertSame(results, physio.run(inputs));
+      physio.run(otherInputs);
+      // the cache only holds one result, so the first inputs are solved again
+      assertNotSame(results, physio.run(inputs));
+      assertEquals(1, PhysiologySimulator.getCacheHits());
+      assertEquals(3, PhysiologySimulator.getCacheMisses());
+
+      // disabling the cache stops both caching and rounding of inputs
+      Config.set("physiology.cache.size", "0");
+      PhysiologySimulator.clearCache();
+      physio.run(inputs);
+      assertEquals(0, PhysiologySimulator.getCacheHits() + PhysiologySimulator.getCacheMisses());
+    } finally {
+      Config.set("physiology.cache.size", cacheSize);
+      PhysiologySimulator.clearCache();
+    }
+  }
+
   @Test
   public void testGetSolvers() {
     Set<String> solvers = PhysiologySimulator.getSolvers();
@@ -12,13 +12,26 @@ import java.nio.file.FileSystems;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.PathMatcher;
+import java.text.SimpleDateFormat;
 import java.time.Instant;
 import java.time.LocalDate;
 import java.time.Month;
 import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.EnumMap;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TimeZone;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Collectors;
 import org.junit.BeforeClass;
 import org.junit.ClassRule;
@@ -26,8 +39,10 @@ import org.junit.Test;
 import org.junit.rules.TemporaryFolder;
 import org.mitre.synthea.TestHelper;
 import org.mitre.synthea.engine.Generator;
+import org.mitre.synthea.export.BB2RIFExporter.ClaimEncounters;
 import org.mitre.synthea.export.BB2RIFExporter.CodeMapper;
 import org.mitre.synthea.export.BB2RIFExporter.HICN;
+import org.mitre.synthea.export.BB2RIFExporter.IdBlocks;
 import org.mitre.synthea.export.BB2RIFExporter.MBI;
 import org.mitre.synthea.export.BB2RIFExporter.StaticFieldConfig;
 import org.mitre.synthea.export.BB2RIFStructure.BENEFICIARY;
@@ -39,6 +54,9 @@ import org.mitre.synthea.helpers.RandomNumberGenerator;
 import org.mitre.synthea.helpers.SimpleCSV;
 import org.mitre.synthea.helpers.Utilities;
 import org.mitre.synthea.world.agents.Person;
+import org.mitre.synthea.world.agents.Provider.ProviderType;
+import org.mitre.synthea.world.concepts.HealthRecord.Encounter;
+import org.mitre.synthea.world.concepts.HealthRecord.EncounterType;
 
 public class BB2RIFExporterTest {
   /**
@@ -49,6 +67,10 @@ public class BB2RIFExporterTest {
 
   private static File exportDir;
 
+  /** The claim files, in the order each person's claims are exported. */
+  private static final String[] CLAIM_FILES =
+      {"inpatient", "outpatient", "carrier", "dme", "hha", "hospice", "snf"};
+
   /**
    * Global setup for export tests.
    * @throws Exception if something goes wrong
@@ -135,6 +157,292 @@ public class BB2RIFExporterTest {
     }
   }
 
+  /**
+   * Generate elderly people with a fixed seed, without exporting them.
+   * @param count the number of people
+   * @param stopTime set to the time the simulation stopped
+   * @return the people
+   * @throws Exception if something goes wrong
+   */
+  private static List<Person> generatePeople(int count, long[] stopTime) throws Exception {
+    String bfd = Config.get("exporter.bfd.export");
+    Config.set("exporter.bfd.export", "false");
+    try {
+      SimpleDateFormat format = new SimpleDateFormat("YYYYMMDD");
+      format.setTimeZone(TimeZone.getTimeZone("UTC"));
+      Generator.GeneratorOptions options = new Generator.GeneratorOptions();
+      options.clinicianSeed = 9L;
+      options.seed = 9L;
+      options.referenceTime = format.parse("20200704").getTime();
+      options.overflow = false;
+      options.ageSpecified = true;
+      options.minAge = 65;
+      options.maxAge = 85;
+      Generator generator = new Generator(options);
+      List<Person> people = new ArrayList<>();
+      for (int i = 0; i < count; i++) {
+        people.add(generator.generatePerson(i, 42L + i));
+      }
+      stopTime[0] = generator.stop;
+      return people;
+    } finally {
+      Config.set("exporter.bfd.export", bfd);
+    }
+  }
+
+  /**
+   * Export the claims of the given people into a new folder, using a test map of condition
+   * codes so that claims are written even without the BFD code maps.
+   * @param people the people to export
+   * @param stopTime the time the simulation stopped
+   * @param threads the number of threads to export with
+   * @return the folder of RIF files
+   * @throws Exception if something goes wrong
+   */
+  private static File exportClaims(List<Person> people, long stopTime, int threads)
+      throws Exception {
+    File folder = tempFolder.newFolder();
+    BB2RIFExporter exporter = BB2RIFExporter.getInstance();
+    CodeMapper conditionCodeMapper = exporter.conditionCodeMapper;
+    Config.set("exporter.baseDirectory", folder.toString());
+    exporter.prepareOutputFiles();
+    exporter.conditionCodeMapper = new CodeMapper("export/bfd_test_condition_code_map.json");
+    ExecutorService threadPool = Executors.newFixedThreadPool(threads);
+    try {
+      List<Future<?>> exports = new ArrayList<>();
+      for (Person person : people) {
+        exports.add(threadPool.submit(() -> {
+          exporter.export(person, stopTime, 10);
+          return null;
+        }));
+      }
+      for (Future<?> export : exports) {
+        export.get();
+      }
+      exporter.flush();
+    } finally {
+      threadPool.shutdown();
+      exporter.conditionCodeMapper = conditionCodeMapper;
+      Config.set("exporter.baseDirectory", exportDir.toString());
+      exporter.prepareOutputFiles();
+    }
+    return folder.toPath().resolve("bfd").toFile();
+  }
+
+  /**
+   * Read the claim files, checking that the lines of every claim were written together and
+   * numbered from 1, and that no claim id was used twice.
+   * @param folder the folder of RIF files
+   * @return the claim ids of each beneficiary, in the order of the claim files and of the
+   *     claims within each file.
+   * @throws IOException if a file cannot be read
+   */
+  private static Map<Long, List<Long>> readClaims(File folder) throws IOException {
+    Map<Long, List<Long>> claims = new HashMap<>();
+    Set<Long> claimIds = new HashSet<>();
+    for (String table : CLAIM_FILES) {
+      File file = new File(folder, table + ".csv");
+      if (!file.exists()) {
+        continue;
+      }
+      String csvData = new String(Files.readAllBytes(file.toPath()));
+      long previousId = 0;
+      int previousLine = 0;
+      for (LinkedHashMap<String, String> row : SimpleCSV.parse(csvData, '|')) {
+        long id = Long.parseLong(row.get("CLM_ID"));
+        String lineNumber = row.containsKey("CLM_LINE_NUM")
+            ? row.get("CLM_LINE_NUM") : row.get("LINE_NUM");
+        int line = Integer.parseInt(lineNumber);
+        if (id == previousId) {
+          assertEquals(table + " claim " + id, previousLine + 1, line);
+        } else {
+          assertTrue(table + " claim " + id + " is not contiguous", claimIds.add(id));
+          assertEquals(table + " claim " + id, 1, line);
+          long beneId = Long.parseLong(row.get("BENE_ID"));
+          claims.computeIfAbsent(beneId, k -> new ArrayList<>()).add(id);
+        }
+        previousId = id;
+        previousLine = line;
+      }
+    }
+    return claims;
+  }
+
+  /**
+   * Select the encounters a claim table exported before ClaimEncounters, with the checks that
+   * each table made as it walked the whole record.
+   */
+  private static List<Encounter> previousSelection(Person person, long startTime, String table) {
+    List<Encounter> selected = new ArrayList<>();
+    for (Encounter encounter : person.record.encounters) {
+      if (encounter.stop < startTime) {
+        continue;
+      }
+      String type = encounter.type;
+      boolean isPrimary = (ProviderType.PRIMARY == encounter.provider.type);
+      boolean isVA = (ProviderType.VETERAN == encounter.provider.type);
+      boolean isIHSCenter = (ProviderType.IHS == encounter.provider.type)
+          && encounter.provider.id.length() != 6;
+      boolean covered = !isVA && !isIHSCenter;
+      boolean export;
+      switch (table) {
+        case "inpatient":
+          export = covered && (type.equals(EncounterType.INPATIENT.toString())
+              || type.equals(EncounterType.EMERGENCY.toString()));
+          break;
+        case "outpatient":
+          export = covered && !isPrimary
+              && !type.equals(EncounterType.URGENTCARE.toString())
+              && (type.equals(EncounterType.AMBULATORY.toString())
+              || type.equals(EncounterType.OUTPATIENT.toString()));
+          break;
+        case "carrier":
+          export = !isVA && (isIHSCenter || isPrimary
+              || type.equals(EncounterType.WELLNESS.toString())
+              || type.equals(EncounterType.URGENTCARE.toString()));
+          break;
+        case "home":
+          export = covered && type.equals(EncounterType.HOME.toString());
+          break;
+        case "hospice":
+          export = covered && type.equals(EncounterType.HOSPICE.toString());
+          break;
+        case "snf":
+          export = covered && type.equals(EncounterType.SNF.toString());
+          break;
+        default:
+          export = covered;
+      }
+      if (export) {
+        selected.add(encounter);
+      }
+    }
+    return selected;
+  }
+
+  /**
+   * Find the inpatient claims that kept the previous claim's emergency flag before
+   * ClaimEncounters. The inpatient table reset the flag at every encounter it skipped.
+   */
+  private static BitSet previousInpatientFollows(Person person, long startTime) {
+    BitSet follows = new BitSet();
+    List<Encounter> inpatient = previousSelection(person, startTime, "inpatient");
+    int index = 0;
+    boolean reset = true;
+    for (Encounter encounter : person.record.encounters) {
+      if (encounter.stop < startTime) {
+        continue;
+      }
+      if (index < inpatient.size() && encounter == inpatient.get(index)) {
+        follows.set(index++, !reset);
+        reset = false;
+      } else {
+        reset = true;
+      }
+    }
+    return follows;
+  }
+
+  @Test
+  public void testClaimEncountersMatchPreviousSelection() throws Exception {
+    long[] stopTime = new long[1];
+    List<Person> people = generatePeople(4, stopTime);
+    long startTime = stopTime[0] - Utilities.convertTime("years", 10);
+    int coveredEncounters = 0;
+    for (Person person : people) {
+      ClaimEncounters claims = new ClaimEncounters(person, startTime);
+      assertEquals(previousSelection(person, startTime, "inpatient"), claims.inpatient);
+      assertEquals(previousInpatientFollows(person, startTime), claims.inpatientFollows);
+      assertEquals(previousSelection(person, startTime, "outpatient"), claims.outpatient);
+      assertEquals(previousSelection(person, startTime, "carrier"), claims.carrier);
+      assertEquals(previousSelection(person, startTime, "covered"), claims.covered);
+      assertEquals(previousSelection(person, startTime, "home"), claims.home);
+      assertEquals(previousSelection(person, startTime, "hospice"), claims.hospice);
+      assertEquals(previousSelection(person, startTime, "snf"), claims.snf);
+      coveredEncounters += claims.covered.size();
+    }
+    assertTrue("Expected encounters to export", coveredEncounters > 0);
+  }
+
+  @Test
+  public void testClaimIdsOnOneThread() throws Exception {
+    long[] stopTime = new long[1];
+    List<Person> people = generatePeople(4, stopTime);
+    Map<Long, List<Long>> claims = readClaims(exportClaims(people, stopTime[0], 1));
+    assertFalse("Expected claims to be exported", claims.isEmpty());
+    assertTrue(claims.size() <= people.size());
+
+    // as with a single shared counter, every claim has a lower id than the claim exported
+    // before it: people in the order of their beneficiary ids, then the claim tables in order
+    List<Long> beneIds = new ArrayList<>(claims.keySet());
+    Collections.sort(beneIds, Collections.reverseOrder());
+    long previousId = Long.MAX_VALUE;
+    for (Long beneId : beneIds) {
+      for (long id : claims.get(beneId)) {
+        assertTrue(id < previousId);
+        previousId = id;
+      }
+    }
+  }
+
+  @Test
+  public void testClaimIdsAcrossThreads() throws Exception {
+    long[] stopTime = new long[1];
+    List<Person> people = generatePeople(8, stopTime);
+    // readClaims checks that claim ids are unique and that each claim's lines are together
+    Map<Long, List<Long>> claims = readClaims(exportClaims(people, stopTime[0], 4));
+    assertFalse("Expected claims to be exported", claims.isEmpty());
+    assertTrue(claims.size() <= people.size());
+
+    // each person is exported on one thread, whose blocks of ids only decrease
+    for (List<Long> ids : claims.values()) {
+      for (int i = 1; i < ids.size(); i++) {
+        assertTrue(ids.get(i) < ids.get(i - 1));
+      }
+    }
+  }
+
+  @Test
+  public void testIdBlocksOnOneThread() {
+    IdBlocks ids = new IdBlocks(-100);
+    AtomicLong previous = new AtomicLong(-100);
+    for (int i = 0; i < 2500; i++) {
+      assertEquals(previous.getAndDecrement(), ids.next());
+    }
+    // the rest of the third block is skipped
+    assertEquals(Long.toString(-100 - 3 * IdBlocks.BLOCK_SIZE), ids.toString());
+  }
+
+  @Test
+  public void testIdBlocksAcrossThreads() throws Exception {
+    int threads = 4;
+    int idsPerThread = 2500;
+    IdBlocks ids = new IdBlocks(-100);
+    ExecutorService threadPool = Executors.newFixedThreadPool(threads);
+    List<Future<List<Long>>> results = new ArrayList<>();
+    for (int i = 0; i < threads; i++) {
+      results.add(threadPool.submit(() -> {
+        List<Long> taken = new ArrayList<>();
+        for (int j = 0; j < idsPerThread; j++) {
+          taken.add(ids.next());
+        }
+        return taken;
+      }));
+    }
+    Set<Long> unique = new HashSet<>();
+    for (Future<List<Long>> result : results) {
+      for (long id : result.get()) {
+        assertTrue(id <= -100);
+        assertTrue(unique.add(id));
+      }
+    }
+    threadPool.shutdown();
+    assertEquals(threads * idsPerThread, unique.size());
+    // each thread leaves fewer than a block of ids unused
+    long unused = -100 - Long.parseLong(ids.toString()) - unique.size();
+    assertTrue(unused <= threads * (IdBlocks.BLOCK_SIZE - 1));
+  }
+
   @Test
   public void testCodeMapper() {
     // these tests depend on the presence of the code map file and will not be run in CI
@@ -201,6 +509,14 @@ public class BB2RIFExporterTest {
     assertEquals("INSERT", values.get(BENEFICIARY.DML_IND));
     String sexIdent = values.get(BENEFICIARY.BENE_SEX_IDENT_CD);
     assertTrue(sexIdent.equals("1") || sexIdent.equals("2"));
+
+    // the compiled plan gives the same values into an EnumMap and a HashMap
+    EnumMap<INPATIENT, String> enumValues = new EnumMap<>(INPATIENT.class);
+    HashMap<INPATIENT, String> hashValues = new HashMap<>();
+    config.setValues(enumValues, INPATIENT.class, new Person(12345L));
+    config.setValues(hashValues, INPATIENT.class, new Person(12345L));
+    assertEquals(hashValues, enumValues);
+    assertEquals("INSERT", enumValues.get(INPATIENT.DML_IND));
   }
 
   @Test
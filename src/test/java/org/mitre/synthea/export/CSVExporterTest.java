@@ -1,10 +1,16 @@
 package org.mitre.synthea.export;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
 import java.io.File;
 import java.nio.file.Files;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import org.junit.Before;
 import org.junit.ClassRule;
@@ -244,5 +250,68 @@ public class CSVExporterTest {
     assertTrue("providers.csv is present but should have been excluded", !foundProviders);
   }
 
+  @Test
+  public void testShardedCSVExport() throws Exception {
+    Config.set("exporter.csv.included_files", "");
+    Config.set("exporter.csv.excluded_files", "");
+    Config.set("exporter.csv.sharded", "true");
+    // export the deferred patients on several threads, so there are several shards
+    Config.set("exporter.pipeline.threads", "4");
+    try {
+      CSVExporter.getInstance().init();
+
+      Payer.clear();
+      Config.set("generate.payers.insurance_companies.default_file",
+          "generic/payers/test_payers.csv");
+      Payer.loadPayers(new Location(Generator.DEFAULT_STATE, null));
+
+      int numberOfPeople = 10;
+      ExporterRuntimeOptions exportOpts = new ExporterRuntimeOptions();
+      exportOpts.deferExports = true;
+      GeneratorOptions generatorOpts = new GeneratorOptions();
+      generatorOpts.population = numberOfPeople;
+      Generator generator = new Generator(generatorOpts, exportOpts);
+      generator.options.overflow = false;
+      for (int i = 0; i < numberOfPeople; i++) {
+        generator.generatePerson(i);
+      }
+      Exporter.runPostCompletionExports(generator, exportOpts);
+    } finally {
+      Config.set("exporter.csv.sharded", "false");
+      Config.set("exporter.pipeline.threads", "0");
+    }
+
+    File expectedExportFolder = exportDir.toPath().resolve("csv").toFile();
+    assertTrue(expectedExportFolder.exists() && expectedExportFolder.isDirectory());
 
+    int count = 0;
+    for (File csvFile : expectedExportFolder.listFiles()) {
+      assertFalse("Segment was not merged: " + csvFile.getName(),
+          csvFile.getName().contains(".part-"));
+      if (!csvFile.getName().endsWith(".csv")) {
+        continue;
+      }
+      String csvData = new String(Files.readAllBytes(csvFile.toPath()));
+      assertTrue("CSV Validation: " + csvFile.getName(), SimpleCSV.isValid(csvData));
+      count++;
+    }
+    assertEquals("Expected " + NUMBER_OF_FILES
+        + " CSV files in the output directory, found " + count, NUMBER_OF_FILES, count);
+
+    // the rows of each patient are not interleaved with those of other patients
+    File encountersFile = expectedExportFolder.toPath().resolve("encounters.csv").toFile();
+    List<LinkedHashMap<String, String>> encounters =
+        SimpleCSV.parse(new String(Files.readAllBytes(encountersFile.toPath())));
+    assertFalse(encounters.isEmpty());
+    Set<String> finished = new HashSet<String>();
+    String current = null;
+    for (Map<String, String> encounter : encounters) {
+      String patient = encounter.get("PATIENT");
+      if (!patient.equals(current)) {
+        assertTrue("Encounters of patient " + patient + " are interleaved",
+            finished.add(patient));
+        current = patient;
+      }
+    }
+  }
 }
\ No newline at end of file
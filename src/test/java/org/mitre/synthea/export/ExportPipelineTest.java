@@ -0,0 +1,143 @@
+package org.mitre.synthea.export;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mitre.synthea.TestHelper;
+import org.mitre.synthea.engine.Generator;
+import org.mitre.synthea.engine.Generator.GeneratorOptions;
+import org.mitre.synthea.helpers.Config;
+
+public class ExportPipelineTest {
+  @Rule
+  public TemporaryFolder tempFolder = new TemporaryFolder();
+
+  @Test
+  public void testDrainWaitsForAllExports() {
+    ExportPipeline pipeline = new ExportPipeline(2, 3);
+    AtomicInteger exported = new AtomicInteger();
+    AtomicInteger running = new AtomicInteger();
+    AtomicInteger maxRunning = new AtomicInteger();
+    for (int i = 0; i < 20; i++) {
+      pipeline.submit(() -> {
+        int now = running.incrementAndGet();
+        maxRunning.accumulateAndGet(now, Math::max);
+        Runnable first = () -> sleep(5);
+        Runnable second = () -> exported.incrementAndGet();
+        return pipeline.run(Arrays.asList(first, second))
+            .thenRun(() -> running.decrementAndGet());
+      });
+    }
+    pipeline.shutdown();
+    assertEquals(20, exported.get());
+    // no more patients than the queue size are ever exporting at once
+    assertTrue(maxRunning.get() <= 3);
+  }
+
+  @Test
+  public void testFailedExportDoesNotStopOthers() {
+    ExportPipeline pipeline = new ExportPipeline(1, 1);
+    AtomicInteger exported = new AtomicInteger();
+    pipeline.submit(() -> pipeline.run(Arrays.asList(
+        () -> {
+          throw new IllegalStateException("expected failure");
+        },
+        () -> exported.incrementAndGet())));
+    pipeline.submit(() -> {
+      throw new IllegalStateException("expected failure");
+    });
+    pipeline.submit(() -> CompletableFuture.runAsync(() -> exported.incrementAndGet()));
+    pipeline.shutdown();
+    assertEquals(2, exported.get());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testIllegalQueueSize() {
+    // a queue without slots would block the first submit forever
+    new ExportPipeline(2, 0);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testIllegalThreads() {
+    new ExportPipeline(0, 4);
+  }
+
+  @Test
+  public void testSameOutputWithExportThreads() throws Exception {
+    TestHelper.loadTestProperties();
+    TestHelper.exportOff();
+    Generator.DEFAULT_STATE = Config.get("test_state.default", "Massachusetts");
+    // these formats all draw random numbers from the person for their identifiers
+    Config.set("exporter.fhir.export", "true");
+    Config.set("exporter.fhir_stu3.export", "true");
+    Config.set("exporter.ccda.export", "true");
+    Config.set("exporter.text.export", "true");
+
+    SimpleDateFormat format = new SimpleDateFormat("YYYYMMDD");
+    format.setTimeZone(TimeZone.getTimeZone("UTC"));
+    GeneratorOptions options = new GeneratorOptions();
+    options.clinicianSeed = 9L;
+    options.seed = 9L;
+    options.referenceTime = format.parse("20200704").getTime();
+    options.overflow = false;
+
+    try {
+      Config.set("exporter.pipeline.threads", "0");
+      Map<String, String> inline = export(options);
+      Config.set("exporter.pipeline.threads", "4");
+      Map<String, String> threaded = export(options);
+
+      assertEquals(4, inline.size());
+      assertEquals(inline, threaded);
+    } finally {
+      Exporter.shutdownPipeline();
+      Config.set("exporter.pipeline.threads", "0");
+      TestHelper.exportOff();
+    }
+  }
+
+  /**
+   * Generate and export the same seeded person into a new folder.
+   * @return the contents of every exported file, by path relative to the folder
+   */
+  private Map<String, String> export(GeneratorOptions options) throws Exception {
+    File folder = tempFolder.newFolder();
+    Config.set("exporter.baseDirectory", folder.toString());
+    Generator generator = new Generator(options);
+    generator.generatePerson(0, 42L);
+    Exporter.shutdownPipeline();
+
+    Map<String, String> files = new TreeMap<String, String>();
+    try (Stream<Path> paths = Files.walk(folder.toPath())) {
+      for (Path path : paths.filter(Files::isRegularFile).collect(Collectors.toList())) {
+        files.put(folder.toPath().relativize(path).toString(),
+            new String(Files.readAllBytes(path), "UTF-8"));
+      }
+    }
+    return files;
+  }
+
+  private static void sleep(long millis) {
+    try {
+      Thread.sleep(millis);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
@@ -0,0 +1,163 @@
+package org.mitre.synthea.helpers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class AttributeStoreTest {
+
+  @Test
+  public void testMapInterface() {
+    AttributeStore store = new AttributeStore();
+    assertTrue(store.isEmpty());
+    assertNull(store.put("attribute_store_test_a", "value"));
+    assertEquals("value", store.put("attribute_store_test_a", 7));
+    store.put("attribute_store_test_b", true);
+    assertEquals(2, store.size());
+    assertEquals(7, store.get("attribute_store_test_a"));
+    assertTrue(store.containsKey("attribute_store_test_b"));
+    assertFalse(store.containsKey("attribute_store_test_missing"));
+    assertNull(store.get("attribute_store_test_missing"));
+
+    Map<String, Object> expected = new HashMap<String, Object>();
+    expected.put("attribute_store_test_a", 7);
+    expected.put("attribute_store_test_b", true);
+    assertEquals(expected, store);
+
+    assertEquals(true, store.remove("attribute_store_test_b"));
+    assertNull(store.remove("attribute_store_test_b"));
+    assertEquals(1, store.size());
+    store.clear();
+    assertTrue(store.isEmpty());
+  }
+
+  @Test(expected = NullPointerException.class)
+  public void testNullValue() {
+    new AttributeStore().put("attribute_store_test_a", null);
+  }
+
+  @Test
+  public void testSlots() {
+    int slot = AttributeStore.slot("attribute_store_test_counter");
+    assertEquals(slot, AttributeStore.slot("attribute_store_test_counter"));
+    AttributeStore store = new AttributeStore();
+    assertEquals(-1.0, store.getDouble(slot, -1.0), 0.0);
+
+    store.putInt(slot, 3);
+    assertEquals(3.0, store.getDouble(slot, -1.0), 0.0);
+    assertEquals(Integer.valueOf(3), store.get("attribute_store_test_counter"));
+    store.putLong(slot, 4L);
+    assertEquals(Long.valueOf(4L), store.get(slot));
+    store.putDouble(slot, 2.5);
+    assertEquals(Double.valueOf(2.5), store.get(slot));
+    store.putBoolean(slot, true);
+    assertTrue(store.isTrue(slot));
+    assertEquals(Boolean.TRUE, store.get("attribute_store_test_counter"));
+    assertEquals(1, store.size());
+
+    store.put("attribute_store_test_counter", 1.5);
+    assertEquals(1.5, store.getDouble(slot, -1.0), 0.0);
+    assertFalse(store.isTrue(slot));
+    assertEquals(1.5, store.remove(slot));
+    assertTrue(store.isEmpty());
+  }
+
+  @Test
+  public void testListener() {
+    AttributeStore store = new AttributeStore();
+    List<String> changed = new ArrayList<String>();
+    store.setListener(changed::add);
+    int slot = AttributeStore.slot("attribute_store_test_b");
+    store.put("attribute_store_test_a", 1);
+    store.putBoolean(slot, false);
+    store.remove("attribute_store_test_a");
+    // removing a missing attribute is not a change
+    store.remove("attribute_store_test_a");
+    store.setListener(null);
+    store.remove(slot);
+    assertEquals(Arrays.asList("attribute_store_test_a", "attribute_store_test_b",
+        "attribute_store_test_a"), changed);
+  }
+
+  @Test
+  public void testRemoveWhileIterating() {
+    AttributeStore store = new AttributeStore();
+    for (int i = 0; i < 40; i++) {
+      store.put("attribute_store_test_" + i, i);
+    }
+    for (String key : store.keySet()) {
+      if (((Integer) store.get(key)) % 2 == 0) {
+        store.remove(key);
+      }
+    }
+    assertEquals(20, store.size());
+    Iterator<Map.Entry<String, Object>> iterator = store.entrySet().iterator();
+    while (iterator.hasNext()) {
+      Map.Entry<String, Object> entry = iterator.next();
+      entry.setValue(-1);
+      iterator.remove();
+      assertFalse(store.containsKey(entry.getKey()));
+    }
+    assertTrue(store.isEmpty());
+  }
+
+  @Test
+  public void testCapacityFollowsAttributesSet() {
+    // names interned by every module, of which a person only sets a few
+    int[] slots = new int[200];
+    for (int i = 0; i < slots.length; i++) {
+      slots[i] = AttributeStore.slot("attribute_store_test_sparse_" + i);
+    }
+    AttributeStore store = new AttributeStore();
+    for (int i = 0; i < slots.length; i += 20) {
+      store.putInt(slots[i], i);
+    }
+    assertEquals(10, store.size());
+    assertEquals(32, store.capacity());
+
+    for (int i = 0; i < slots.length; i++) {
+      store.putInt(slots[i], i);
+    }
+    // removing entries must not hide the ones that were placed after them
+    for (int i = 0; i < slots.length; i += 3) {
+      store.remove(slots[i]);
+    }
+    for (int i = 0; i < slots.length; i++) {
+      assertEquals(i % 3 == 0 ? -1.0 : i, store.getDouble(slots[i], -1.0), 0.0);
+    }
+    assertEquals(133, store.size());
+    assertTrue(store.capacity() <= 512);
+  }
+
+  @Test
+  public void testSerialization() throws Exception {
+    AttributeStore store = new AttributeStore();
+    store.put("attribute_store_test_a", "value");
+    store.putDouble(AttributeStore.slot("attribute_store_test_b"), 0.25);
+
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+      out.writeObject(store);
+    }
+    try (ObjectInputStream in =
+        new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+      AttributeStore copy = (AttributeStore) in.readObject();
+      assertEquals(store, copy);
+      assertEquals(0.25, copy.get("attribute_store_test_b"));
+    }
+  }
+}
@@ -0,0 +1,69 @@
+package org.mitre.synthea.helpers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.Period;
+import java.time.ZoneId;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class DateMathTest {
+
+  @Test
+  public void testMatchesLocalDate() {
+    Random random = new Random(0L);
+    for (String zoneName : new String[] {"UTC", "America/New_York", "Asia/Kolkata"}) {
+      ZoneId zone = ZoneId.of(zoneName);
+      for (int i = 0; i < 20000; i++) {
+        // times within about 300 years of 1970, either way
+        long time = (long) ((random.nextDouble() * 2 - 1) * 1e13);
+        LocalDate expected = Instant.ofEpochMilli(time).atZone(zone).toLocalDate();
+        long epochDay = DateMath.epochDay(time, zone);
+        assertEquals(expected.toEpochDay(), epochDay);
+        long date = DateMath.toDate(epochDay);
+        assertEquals(expected.getYear(), DateMath.year(date));
+        assertEquals(expected.getMonthValue(), DateMath.month(date));
+        assertEquals(expected.getDayOfMonth(), DateMath.dayOfMonth(date));
+        assertEquals(epochDay, DateMath.toEpochDay(expected.getYear(),
+            expected.getMonthValue(), expected.getDayOfMonth()));
+        assertEquals(expected.lengthOfMonth(),
+            DateMath.lengthOfMonth(expected.getYear(), expected.getMonthValue()));
+      }
+    }
+  }
+
+  @Test
+  public void testIsSupported() {
+    long start = LocalDate.of(1900, 1, 1).toEpochDay() * DateMath.DAY_MILLIS;
+    long end = LocalDate.of(9999, 12, 31).toEpochDay() * DateMath.DAY_MILLIS;
+    assertFalse(DateMath.isSupported(start - 1));
+    assertTrue(DateMath.isSupported(start));
+    assertTrue(DateMath.isSupported(0L));
+    assertTrue(DateMath.isSupported(end - 1));
+    assertFalse(DateMath.isSupported(end));
+  }
+
+  @Test
+  public void testBetweenMatchesPeriod() {
+    Random random = new Random(0L);
+    for (int i = 0; i < 20000; i++) {
+      LocalDate start = LocalDate.ofEpochDay(random.nextInt(100000) - 50000);
+      // mostly later dates, like ages, but some earlier ones too
+      LocalDate end = start.plusDays(random.nextInt(40000) - 1000);
+      Period expected = Period.between(start, end);
+      long between = DateMath.between(DateMath.toDate(start.toEpochDay()),
+          DateMath.toDate(end.toEpochDay()), end.toEpochDay());
+      assertEquals(expected.toTotalMonths(), DateMath.totalMonths(between));
+      assertEquals(expected.getDays(), DateMath.days(between));
+    }
+    // end of month clamping: Jan 31 to Mar 1 is one month and one day
+    long between = DateMath.between(20200131L, 20200301L, LocalDate.of(2020, 3, 1).toEpochDay());
+    assertEquals(1, DateMath.totalMonths(between));
+    assertEquals(1, DateMath.days(between));
+  }
+}
@@ -1,13 +1,20 @@
 package org.mitre.synthea.helpers;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 
 import java.math.BigDecimal;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.junit.Test;
 import org.mitre.synthea.world.agents.Person;
@@ -130,4 +137,102 @@ public class ExpressionProcessorTest {
     assertEquals(18.0, result.doubleValue(), 0.0001);
 
   }
+
+  @Test
+  public void testFastPathMatchesCql() {
+    String[] expressions = {
+      "10 + 3",
+      "25 / 2",
+      "2.5 + 10/4 - 15.0",
+      "-#{var_one} * 3 + 2",
+      "#{var_one} * (#{var_two} + 3.0)",
+      "#{var_one} < #{var_two} and not (#{var_two} = 3)",
+      "#{var_one} >= 2 or false",
+      "if #{var_one} > 1 then #{var_two} / 4 else 7",
+      "1 / 3",
+      "#{var_one} / #{var_two}",
+      "-#{var_one} / #{var_two}",
+      "#{var_two} / 7 * 3",
+      "0.1 + 0.2",
+      "0.1 + 0.2 = 0.3"
+    };
+    Map<String,Object> params = new HashMap<String,Object>();
+    params.put("var_one", new BigDecimal("2.0"));
+    params.put("var_two", new BigDecimal("3.0"));
+
+    for (String expression : expressions) {
+      ExpressionProcessor expProcessor = new ExpressionProcessor(expression);
+      assertTrue(expression, expProcessor.hasFastPath());
+      Map<String,Object> expParams = new HashMap<String,Object>();
+      for (String param : expProcessor.getParamNames()) {
+        expParams.put(param, params.get(param));
+      }
+      Object fast = expProcessor.evaluate(expParams);
+      Object cql = expProcessor.evaluateCql(expParams);
+      assertEquals(expression, cql.getClass(), fast.getClass());
+      if (cql instanceof BigDecimal) {
+        // the same value, though not always with the same number of trailing zeros
+        assertEquals(expression + " = " + cql + ", not " + fast,
+            0, ((BigDecimal) cql).compareTo((BigDecimal) fast));
+      } else {
+        assertEquals(expression, cql, fast);
+      }
+    }
+  }
+
+  @Test
+  public void testFastPathFallback() {
+    assertFalse(new ExpressionProcessor("Sum(#l{list_var})").hasFastPath());
+    assertFalse(new ExpressionProcessor("if #s{var} = 'male' then 1.0 else 2.0").hasFastPath());
+
+    // CQL division by zero is null, which the fast path leaves to CQL
+    ExpressionProcessor expProcessor = new ExpressionProcessor("#{var_one} / 0");
+    assertTrue(expProcessor.hasFastPath());
+    Map<String,Object> params = new HashMap<String,Object>();
+    params.put("var_one", new BigDecimal("2.0"));
+    assertNull(expProcessor.evaluate(params));
+  }
+
+  @Test
+  public void testFastPathIntegerOverflow() {
+    // CQL Integers wrap around like Java ints, so the fast path leaves overflows to CQL
+    String[] expressions = {
+      "100000 * 100000",
+      "100000 * 100000 > 0",
+      "2147483647 + 1",
+      "-(0 - 2147483647 - 1)"
+    };
+    Map<String,Object> params = new HashMap<String,Object>();
+    for (String expression : expressions) {
+      ExpressionProcessor expProcessor = new ExpressionProcessor(expression);
+      assertTrue(expression, expProcessor.hasFastPath());
+      assertEquals(expression, expProcessor.evaluateCql(params), expProcessor.evaluate(params));
+    }
+    assertEquals(1410065408, new ExpressionProcessor("100000 * 100000").evaluate(params));
+  }
+
+  @Test
+  public void testSharedProcessor() throws Exception {
+    // Sum() has no fast path, so every thread evaluates through CQL
+    String expression = "Sum({#{var_one}, 1.0})";
+    ExpressionProcessor.precompile(expression);
+    ExpressionProcessor expProcessor = ExpressionProcessor.forExpression(expression);
+    assertSame(expProcessor, ExpressionProcessor.forExpression(expression));
+    assertFalse(expProcessor.hasFastPath());
+
+    ExecutorService threadPool = Executors.newFixedThreadPool(4);
+    List<Future<Number>> results = new ArrayList<Future<Number>>();
+    for (int i = 0; i < 100; i++) {
+      final BigDecimal value = new BigDecimal(i);
+      results.add(threadPool.submit(() -> {
+        Map<String,Object> params = new HashMap<String,Object>();
+        params.put("var_one", value);
+        return (Number) expProcessor.evaluate(params);
+      }));
+    }
+    for (int i = 0; i < results.size(); i++) {
+      assertEquals(i + 1.0, results.get(i).get().doubleValue(), 0.000001);
+    }
+    threadPool.shutdown();
+  }
 }
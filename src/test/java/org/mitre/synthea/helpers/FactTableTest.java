@@ -2,6 +2,10 @@ package org.mitre.synthea.helpers;
 
 import java.io.IOException;
 import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.junit.Assert;
 import org.junit.Test;
@@ -37,4 +41,42 @@ public class FactTableTest {
     Assert.assertTrue(output.contains(he + ",He"));
   }
 
+  @Test
+  public void testConcurrentAddFact() throws Exception {
+    FactTable table = new FactTable();
+    table.setHeader("ID,NAME");
+    table.setNextId(10);
+    Set<Integer> ids = ConcurrentHashMap.newKeySet();
+    List<Thread> threads = new ArrayList<Thread>();
+    for (int t = 0; t < 4; t++) {
+      Thread thread = new Thread(() -> {
+        for (int i = 0; i < 500; i++) {
+          ids.add(table.addFact("key" + i, "fact" + i));
+        }
+      });
+      threads.add(thread);
+      thread.start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+
+    // every thread got the same ID for each key
+    Assert.assertEquals(500, ids.size());
+    for (int i = 0; i < 500; i++) {
+      int id = table.getFactId("key" + i);
+      Assert.assertTrue(id >= 10 && id < 510);
+      Assert.assertEquals("fact" + i, table.getFactById(id));
+    }
+    Assert.assertNull(table.getFactByKey("missing"));
+
+    // the facts are written in ID order
+    StringWriter writer = new StringWriter();
+    table.write(writer);
+    String[] lines = writer.toString().split(System.lineSeparator());
+    Assert.assertEquals(501, lines.length);
+    for (int i = 1; i < lines.length; i++) {
+      Assert.assertTrue(lines[i].startsWith((i + 9) + ","));
+    }
+  }
 }
@@ -1,5 +1,7 @@
 package org.mitre.synthea.helpers;
 
+import java.util.Arrays;
+import java.util.NoSuchElementException;
 import java.util.Random;
 
 import org.junit.Assert;
@@ -80,4 +82,28 @@ public class RandomCollectionTest {
     Assert.assertTrue(3 == asian);
   }
 
+  @Test
+  public void testAliasSamplerMatchesWeights() {
+    double[] weights = {1.0, 0.0, 2.0, 3.0, 4.0, 0.5};
+    AliasSampler<Integer> sampler =
+        new AliasSampler<Integer>(Arrays.asList(0, 1, 2, 3, 4, 5), weights);
+    Assert.assertEquals(5, sampler.size());
+
+    // evenly spaced values should pick each item in proportion to its weight
+    int draws = 105000;
+    int[] counts = new int[weights.length];
+    for (int i = 0; i < draws; i++) {
+      counts[sampler.pick((i + 0.5) / draws)]++;
+    }
+    for (int i = 0; i < weights.length; i++) {
+      Assert.assertEquals(draws * weights[i] / 10.5, counts[i], weights.length);
+    }
+  }
+
+  @Test(expected = NoSuchElementException.class)
+  public void testEmpty() {
+    RandomCollection<String> rc = new RandomCollection<String>();
+    rc.add(0.0, "white");
+    rc.next(new Random());
+  }
 }
@@ -1,5 +1,6 @@
 package org.mitre.synthea.modules;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 
 import java.util.ArrayList;
@@ -10,6 +11,7 @@ import org.junit.Before;
 import org.junit.Test;
 import org.mitre.synthea.world.agents.Payer;
 import org.mitre.synthea.world.agents.Person;
+import org.mitre.synthea.world.concepts.HealthRecord;
 import org.mitre.synthea.world.concepts.HealthRecord.Code;
 import org.mitre.synthea.world.concepts.HealthRecord.Encounter;
 import org.mitre.synthea.world.concepts.HealthRecord.Entry;
@@ -105,6 +107,101 @@ public class QualityOfLifeTest {
     assertEquals(true, (qalyDeceased > 33 && qalyDeceased < 34));
   }
 
+  @Test
+  public void testCalculateMatchesYearByYear() {
+    long stop = TimeUnit.DAYS.toMillis(stopTime);
+    assertArrayEquals(yearByYear(person, stop),
+        QualityOfLifeModule.calculate(person, stop), 1e-9);
+
+    person.recordDeath(TimeUnit.DAYS.toMillis((long) (365.25 * 35)), null);
+    assertArrayEquals(yearByYear(person, stop),
+        QualityOfLifeModule.calculate(person, stop), 1e-9);
+  }
+
+  @Test
+  public void testAccumulatorMatchesYearByYear() {
+    Person person = new Person(1);
+    person.attributes.put(Person.BIRTHDATE, 0L);
+    person.attributes.put(Person.INCOME, 1000000);
+    person.coverage.setPayerAtTime(0L, Payer.noInsurance);
+    person.lossOfCareEnabled = true;
+    person.lossOfCareRecord = new HealthRecord(person);
+
+    // ADD, asthma and diabetes start and end as the person ages, and care is missed from 60
+    String[] codes = { "192127007", "195967001", "44054006" };
+    QualityOfLifeModule.Accumulator accumulator = new QualityOfLifeModule.Accumulator();
+    for (int year = 0; year < 90; year++) {
+      long time = TimeUnit.DAYS.toMillis((long) (365.25 * year) + 100);
+      String code = codes[year % codes.length];
+      HealthRecord record = (year < 60) ? person.defaultRecord : person.lossOfCareRecord;
+      if (year % 4 == 1) {
+        Entry condition = record.conditionStart(time, code);
+        condition.codes.add(new Code("SNOMED", code, code));
+      } else if (year % 5 == 2) {
+        record.conditionEnd(time, code);
+      }
+      if (year == 85) {
+        person.recordDeath(time, null);
+      }
+      double[] expected = yearByYear(person, time);
+      double[] actual = accumulator.update(person, time);
+      assertArrayEquals("Year " + year, expected, actual, 1e-9);
+    }
+  }
+
+  /**
+   * Calculate the HALYs by going through every condition for every year of life, the way
+   * they were calculated before the accumulator, to check the accumulator against.
+   */
+  private static double[] yearByYear(Person person, long stop) {
+    double yll = 0.0;
+    double yld = 0.0;
+
+    int age = person.ageInYears(stop);
+    long birthdate = (long) person.attributes.get(Person.BIRTHDATE);
+
+    if (!person.alive(stop)) {
+      yll = ((0.00006 * Math.pow(age, 3))
+          - (0.0054 * Math.pow(age, 2)) - (0.8502 * age) + 86.16);
+    }
+
+    List<Entry> allConditions = new ArrayList<Entry>();
+    int coveredEntries = 0;
+    for (Encounter encounter : person.defaultRecord.encounters) {
+      allConditions.addAll(encounter.conditions);
+      coveredEntries += 1 + encounter.medications.size() + encounter.procedures.size()
+          + encounter.immunizations.size();
+    }
+    int uncoveredEntries = 0;
+    if (person.lossOfCareEnabled) {
+      for (Encounter encounter : person.lossOfCareRecord.encounters) {
+        allConditions.addAll(encounter.conditions);
+        uncoveredEntries += 1 + encounter.medications.size() + encounter.procedures.size()
+            + encounter.immunizations.size();
+      }
+    }
+    if (coveredEntries < 1) {
+      coveredEntries = 1;
+    }
+    double percentageOfCoveredCare = coveredEntries / (coveredEntries + uncoveredEntries);
+
+    double disabilityWeight = 0.0;
+    for (int i = 0; i < age + 1; i++) {
+      long yearStart = birthdate + TimeUnit.DAYS.toMillis((long) (365.25 * i));
+      long yearEnd = birthdate + (TimeUnit.DAYS.toMillis((long) (365.25 * (i + 1) - 1)));
+      disabilityWeight = 0.0;
+      for (Entry condition : QualityOfLifeModule.conditionsInYear(
+          allConditions, yearStart, yearEnd)) {
+        disabilityWeight +=
+            QualityOfLifeModule.disabilityWeight(condition, percentageOfCoveredCare);
+      }
+      disabilityWeight = Math.min(1.0, QualityOfLifeModule.weight(disabilityWeight, i + 1));
+      yld += disabilityWeight;
+    }
+
+    return new double[] { yll + yld, age - yld, 1 - disabilityWeight };
+  }
+
   @Test
   public void testConditionsInYear() {
     List<Entry> allConditions = new ArrayList<Entry>();
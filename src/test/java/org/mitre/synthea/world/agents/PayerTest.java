@@ -22,6 +22,7 @@ import org.mitre.synthea.helpers.Utilities;
 import org.mitre.synthea.modules.HealthInsuranceModule;
 import org.mitre.synthea.modules.QualityOfLifeModule;
 import org.mitre.synthea.world.concepts.Costs;
+import org.mitre.synthea.world.concepts.CoverageRecord;
 import org.mitre.synthea.world.concepts.HealthRecord;
 import org.mitre.synthea.world.concepts.HealthRecord.Code;
 import org.mitre.synthea.world.concepts.HealthRecord.Encounter;
@@ -316,6 +317,35 @@ public class PayerTest {
     assertEquals(2, person.coverage.getPlanHistory().size());
   }
 
+  @Test
+  public void planAtTimeMatchesPlanHistory() {
+    person = new Person(0L);
+    person.attributes.put(Person.BIRTHDATE, 0L);
+    long year = Utilities.convertTime("years", 1);
+    // includes a plan replaced at the same time it started
+    person.coverage.setPayerAtTime(0L, testPrivatePayer1);
+    person.coverage.setPayerAtTime(year, testPrivatePayer2);
+    person.coverage.setPayerAtTime(year, testPrivatePayer1);
+    person.coverage.setPayerAtTime(3 * year, testPrivatePayer2);
+    person.coverage.setPayerAtTime(3 * year + 100, Payer.noInsurance);
+
+    long[] times = new long[] {-1L, 0L, year - 1, year, year + 1, 2 * year, 2 * year + 1,
+        3 * year, 3 * year + 99, 3 * year + 100, 4 * year + 99, 4 * year + 100, 0L, year};
+    for (int i = 0; i < times.length; i++) {
+      CoverageRecord.Plan expected = null;
+      for (CoverageRecord.Plan plan : person.coverage.getPlanHistory()) {
+        if (plan.start <= times[i] && times[i] < plan.stop) {
+          expected = plan;
+        }
+      }
+      assertTrue(expected == person.coverage.getPlanAtTime(times[i]));
+    }
+    assertNull(person.coverage.getPlanAtTime(-1L));
+    assertNull(person.coverage.getPlanAtTime(4 * year + 100));
+    assertEquals(testPrivatePayer1, person.coverage.getPayerAtTime(year));
+    assertEquals(Payer.noInsurance, person.coverage.getPayerAtTime(4 * year));
+  }
+
   @Test
   public void loadGovernmentPayers() {
     assertTrue(Payer.getGovernmentPayer("Medicare")
@@ -10,8 +10,14 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
 import java.nio.file.Files;
 import java.text.SimpleDateFormat;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.Period;
+import java.time.ZoneId;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
@@ -160,6 +166,34 @@ public class PersonTest {
     testAgeMonths(birthdate, now, 11);
   }
 
+  @Test
+  public void testCachedAgeMatchesPeriod() {
+    Random random = new Random(3L);
+    ZoneId zone = ZoneId.systemDefault();
+    for (int i = 0; i < 2000; i++) {
+      long birthdate = (long) (random.nextDouble() * 4e12) - 2000000000000L;
+      person.attributes.put(Person.BIRTHDATE, birthdate);
+      LocalDate birth = Instant.ofEpochMilli(birthdate).atZone(zone).toLocalDate();
+      for (int j = 0; j < 5; j++) {
+        long now = birthdate + (long) ((random.nextDouble() - 0.05) * 4e12);
+        Period expected =
+            Period.between(birth, Instant.ofEpochMilli(now).atZone(zone).toLocalDate());
+        // ask twice, as modules do within a timestep
+        for (int k = 0; k < 2; k++) {
+          assertEquals(expected, person.age(now));
+          assertEquals(Math.max(0, expected.getYears()), person.ageInYears(now));
+          assertEquals(Math.max(0, expected.toTotalMonths()), person.ageInMonths(now));
+          double years = expected.getYears() + expected.getMonths() / 12.0
+              + expected.getDays() / 365.2425;
+          assertEquals(Math.max(0, years), person.ageInDecimalYears(now), 0.0);
+        }
+      }
+    }
+    person.attributes.remove(Person.BIRTHDATE);
+    assertEquals(Period.ZERO, person.age(0L));
+    assertEquals(0, person.ageInYears(0L));
+  }
+
   private void testAgeYears(long birthdate, long now, long expectedAge) {
     person.attributes.put(Person.BIRTHDATE, birthdate);
     assertEquals(expectedAge, person.ageInYears(now));
@@ -588,4 +622,47 @@ public class PersonTest {
       assertEquals(resultsA.get(i), resultsB.get(i));
     }
   }
+
+  @Test
+  public void testVitalSignRoundingMatchesBigDecimal() {
+    Random random = new Random(11L);
+    double[] values = new double[20000];
+    for (int i = 0; i < values.length; i++) {
+      switch (i % 4) {
+        case 0:
+          // ties and near ties at every number of decimal places
+          values[i] = (random.nextInt(200000) - 100000) / 1000.0 + 0.005;
+          break;
+        case 1:
+          values[i] = (random.nextInt(20000) - 10000) / 100.0 + 0.05;
+          break;
+        case 2:
+          values[i] = random.nextGaussian() * 200.0;
+          break;
+        default:
+          values[i] = random.nextDouble() * 1e12;
+      }
+    }
+    for (double value : values) {
+      for (VitalSign vitalSign : VitalSign.values()) {
+        person.setVitalSign(vitalSign, value);
+        int decimalPlaces;
+        if (vitalSign == VitalSign.HEIGHT || vitalSign == VitalSign.WEIGHT) {
+          decimalPlaces = 1;
+        } else if (vitalSign == VitalSign.SYSTOLIC_BLOOD_PRESSURE
+            || vitalSign == VitalSign.DIASTOLIC_BLOOD_PRESSURE
+            || vitalSign == VitalSign.HEART_RATE
+            || vitalSign == VitalSign.RESPIRATION_RATE) {
+          decimalPlaces = 0;
+        } else {
+          decimalPlaces = 2;
+        }
+        Double expected = BigDecimal.valueOf(value)
+            .setScale(decimalPlaces, RoundingMode.HALF_UP).doubleValue();
+        assertEquals(vitalSign + " " + value, expected,
+            Double.valueOf(person.getVitalSignValue(vitalSign, 0L)));
+        assertEquals(expected, person.getVitalSign(vitalSign, 0L));
+      }
+    }
+  }
 }
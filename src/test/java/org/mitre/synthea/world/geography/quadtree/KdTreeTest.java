@@ -0,0 +1,51 @@
+package org.mitre.synthea.world.geography.quadtree;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class KdTreeTest {
+
+  @Test
+  public void testNearestMatchesLinearSearch() {
+    Random random = new Random(7L);
+    List<TestElement> elements = new ArrayList<TestElement>();
+    for (int i = 0; i < 5000; i++) {
+      // coarse coordinates, so that there are elements at exactly the same distance
+      double x = random.nextInt(200) / 10.0;
+      double y = random.nextInt(200) / 10.0;
+      elements.add(new TestElement(x, y));
+    }
+    KdTree<TestElement> tree = new KdTree<TestElement>(elements);
+    Assert.assertEquals(elements.size(), tree.size());
+
+    for (int i = 0; i < 500; i++) {
+      TestElement point = new TestElement(random.nextDouble() * 20.0, random.nextDouble() * 20.0);
+      double maxDistance = random.nextDouble();
+      // only consider elements in the left half
+      List<TestElement> expected = new ArrayList<TestElement>();
+      double best = maxDistance;
+      for (TestElement element : elements) {
+        double distance = point.distance(element);
+        if (element.getX() < 10.0 && distance <= best) {
+          if (distance < best) {
+            best = distance;
+            expected.clear();
+          }
+          expected.add(element);
+        }
+      }
+      List<TestElement> nearest = tree.nearest(point, maxDistance, e -> e.getX() < 10.0);
+      Assert.assertEquals(expected, nearest);
+    }
+  }
+
+  @Test
+  public void testEmpty() {
+    KdTree<TestElement> tree = new KdTree<TestElement>(new ArrayList<TestElement>());
+    Assert.assertTrue(tree.nearest(new TestElement(0, 0), 180.0, e -> true).isEmpty());
+  }
+}